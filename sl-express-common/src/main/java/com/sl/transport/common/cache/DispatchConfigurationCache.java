@@ -0,0 +1,138 @@
+package com.sl.transport.common.cache;
+
+import cn.hutool.core.convert.Convert;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 调度配置的本地缓存，用于运输路线、基础数据等微服务
+ * <p>
+ * 启动时从Redis加载，调度配置保存后通过Redis发布订阅通知所有实例重新加载；
+ * 为了防止通知消息丢失，缓存超过有效期后读取时也会重新加载
+ * <p>
+ * 需要在微服务中声明为Bean，并注册到RedisMessageListenerContainer中监听 {@link #CHANNEL_TOPIC}
+ */
+@Slf4j
+public class DispatchConfigurationCache implements MessageListener, InitializingBean {
+
+    /**
+     * 调度时间配置的key，单位：小时
+     */
+    public static final String DISPATCH_TIME_REDIS_KEY = "DISPATCH_CONFIGURATION:TIME";
+    /**
+     * 调度方式配置的key，1转运次数最少，2成本最低
+     */
+    public static final String DISPATCH_METHOD_REDIS_KEY = "DISPATCH_CONFIGURATION:METHOD";
+    /**
+     * 调度配置变更通知的频道
+     */
+    public static final String CHANNEL_TOPIC = "sl-express-dispatch-configuration";
+
+    /**
+     * 默认调度时间：2小时
+     */
+    public static final int DEFAULT_DISPATCH_TIME = 2;
+    /**
+     * 默认调度方式：2成本最低
+     */
+    public static final int DEFAULT_DISPATCH_METHOD = 2;
+
+    /**
+     * 缓存有效期，单位：毫秒
+     */
+    private static final long TTL = 60 * 1000L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile int dispatchTime = DEFAULT_DISPATCH_TIME;
+    private volatile int dispatchMethod = DEFAULT_DISPATCH_METHOD;
+    private volatile long loadTime = 0L;
+
+    public DispatchConfigurationCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * @return 调度时间，单位：小时
+     */
+    public int getDispatchTime() {
+        this.refreshIfExpired();
+        return this.dispatchTime;
+    }
+
+    /**
+     * @return 调度方式，1转运次数最少，2成本最低
+     */
+    public int getDispatchMethod() {
+        this.refreshIfExpired();
+        return this.dispatchMethod;
+    }
+
+    /**
+     * 保存调度配置，并通知所有实例重新加载
+     *
+     * @param dispatchTime   调度时间
+     * @param dispatchMethod 调度方式
+     */
+    public void save(Integer dispatchTime, Integer dispatchMethod) {
+        Map<String, String> map = new HashMap<>();
+        map.put(DISPATCH_TIME_REDIS_KEY, String.valueOf(dispatchTime));
+        map.put(DISPATCH_METHOD_REDIS_KEY, String.valueOf(dispatchMethod));
+        this.stringRedisTemplate.opsForValue().multiSet(map);
+        publish(this.stringRedisTemplate);
+    }
+
+    /**
+     * 发布调度配置变更通知，直接修改Redis中调度配置的地方都需要调用
+     *
+     * @param stringRedisTemplate redis模板
+     */
+    public static void publish(StringRedisTemplate stringRedisTemplate) {
+        stringRedisTemplate.convertAndSend(CHANNEL_TOPIC, String.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * 从Redis中重新加载，调度时间与调度方式一次读取
+     */
+    public void refresh() {
+        List<String> values = this.stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(DISPATCH_TIME_REDIS_KEY, DISPATCH_METHOD_REDIS_KEY));
+        if (null == values) {
+            return;
+        }
+        this.dispatchTime = Convert.toInt(values.get(0), DEFAULT_DISPATCH_TIME);
+        this.dispatchMethod = Convert.toInt(values.get(1), DEFAULT_DISPATCH_METHOD);
+        this.loadTime = System.currentTimeMillis();
+    }
+
+    private void refreshIfExpired() {
+        if (System.currentTimeMillis() - this.loadTime < TTL) {
+            return;
+        }
+        try {
+            this.refresh();
+        } catch (Exception e) {
+            //Redis不可用时继续使用已加载的配置
+            log.error("加载调度配置失败，继续使用本地缓存，dispatchTime = {}, dispatchMethod = {}", this.dispatchTime, this.dispatchMethod, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        log.info("接收到调度配置变更消息，重新加载调度配置");
+        this.refresh();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.refreshIfExpired();
+    }
+}
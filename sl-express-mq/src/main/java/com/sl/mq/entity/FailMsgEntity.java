@@ -7,6 +7,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.LocalDateTime;
+
 /**
  * 失败消息记录表
  *
@@ -24,6 +26,19 @@ public class FailMsgEntity extends BaseEntity {
     private String exchange; //交换机
     private String routingKey; //路由key
     private String msg; //消息内容
+    private Integer delay; //延时时间，单位：毫秒，小于0实时发送
     private String reason; //失败原因
+    private Integer retryCount; //重新发送失败的次数
+    private LocalDateTime nextRetryTime; //下次重新发送的时间
+    private Integer status; //状态，0：待重新发送，1：超过重试次数，需要人工处理
+
+    /**
+     * 待重新发送
+     */
+    public static final int STATUS_PENDING = 0;
+    /**
+     * 超过重试次数，需要人工处理
+     */
+    public static final int STATUS_DEAD = 1;
 
 }
@@ -0,0 +1,43 @@
+package com.sl.mq.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import com.sl.transport.common.entity.BaseEntity;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 待发送消息表（事务发件箱），与业务数据在同一个本地事务中写入，由OutboxRelayJob发送
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("sl_outbox_msg")
+public class OutboxMsgEntity extends BaseEntity {
+
+    private String msgId; //消息id，作为消息的messageId发出，消费方可以据此去重
+    private String aggregateId; //聚合id，例如订单id、运单id，同一个聚合的消息按写入顺序发送
+    private Integer shard; //分片，由聚合id计算，同一个聚合的消息由同一个分片发送
+    private String exchange; //交换机
+    private String routingKey; //路由key
+    private String msg; //消息内容
+    private Integer delay; //延时时间，单位：毫秒
+    private Integer retryCount; //发送失败的次数
+    private String reason; //最近一次失败的原因
+    private LocalDateTime nextRetryTime; //下次重新发送的时间
+    private Integer status; //状态，0：待发送，1：超过重试次数，需要人工处理
+
+    /**
+     * 待发送
+     */
+    public static final int STATUS_PENDING = 0;
+    /**
+     * 超过重试次数，需要人工处理
+     */
+    public static final int STATUS_DEAD = 1;
+
+}
@@ -1,54 +1,184 @@
 package com.sl.mq.job;
 
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.sl.mq.entity.FailMsgEntity;
+import com.sl.mq.publisher.BatchSender;
 import com.sl.mq.service.FailMsgService;
-import com.sl.mq.service.MQService;
+import com.sl.transport.common.constant.Constants;
+import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 失败消息的处理任务
+ * <p>
+ * 分片广播执行，按照id对分片总数取模认领消息，多个执行器之间不会重复发送；
+ * 按id分页批量发送并等待确认，成功的批量删除，失败的按指数退避延后重试，超过重试次数标记为需要人工处理
  *
  * @author zzj
  * @version 1.0
  */
 @Slf4j
 @Component
-@ConditionalOnBean({MQService.class, FailMsgService.class})
+@ConditionalOnBean(FailMsgService.class)
 public class FailMsgJob {
 
     @Resource
     private FailMsgService failMsgService;
     @Resource
-    private MQService mqService;
+    private BatchSender batchSender;
+
+    /**
+     * 每批发送的消息数量
+     */
+    @Value("${sl.mq.fail-msg.batch-size:100}")
+    private int batchSize;
+    /**
+     * 每次执行最多发送的批数
+     */
+    @Value("${sl.mq.fail-msg.max-batches:100}")
+    private int maxBatches;
+    /**
+     * 每秒最多发送的消息数量，避免broker恢复后被积压的消息压垮
+     */
+    @Value("${sl.mq.fail-msg.rate:500}")
+    private int rate;
+    /**
+     * 最大重试次数，超过后需要人工处理
+     */
+    @Value("${sl.mq.fail-msg.max-retry:10}")
+    private int maxRetry;
+    /**
+     * 第一次重试的间隔，之后每次翻倍，单位：毫秒
+     */
+    @Value("${sl.mq.fail-msg.backoff:60000}")
+    private long backoff;
+    /**
+     * 最大重试间隔，单位：毫秒
+     */
+    @Value("${sl.mq.fail-msg.max-backoff:3600000}")
+    private long maxBackoff;
+    /**
+     * 等待broker确认的超时时间，单位：毫秒
+     */
+    @Value("${sl.mq.fail-msg.confirm-timeout:10000}")
+    private long confirmTimeout;
 
     @XxlJob("failMsgJob")
     public void execute() {
-        //查询失败的数据，每次最多处理100条错误消息
-        LambdaQueryWrapper<FailMsgEntity> queryWrapper = new LambdaQueryWrapper<FailMsgEntity>()
-                .orderByAsc(FailMsgEntity::getCreated)
-                .last("limit 100");
-        List<FailMsgEntity> failMsgEntityList = this.failMsgService.list(queryWrapper);
-        if (CollUtil.isEmpty(failMsgEntityList)) {
-            return;
+        int shardIndex = XxlJobHelper.getShardIndex();
+        int shardTotal = Math.max(XxlJobHelper.getShardTotal(), 1);
+        long lastId = 0;
+        int resent = 0;
+        int failed = 0;
+        for (int batch = 0; batch < this.maxBatches; batch++) {
+            //按id分页，不使用offset
+            LambdaQueryWrapper<FailMsgEntity> queryWrapper = new LambdaQueryWrapper<FailMsgEntity>()
+                    .eq(FailMsgEntity::getStatus, FailMsgEntity.STATUS_PENDING)
+                    .gt(FailMsgEntity::getId, lastId)
+                    .and(wrapper -> wrapper.isNull(FailMsgEntity::getNextRetryTime)
+                            .or().le(FailMsgEntity::getNextRetryTime, LocalDateTime.now()))
+                    .apply(shardTotal > 1, "id % {0} = {1}", shardTotal, shardIndex)
+                    .orderByAsc(FailMsgEntity::getId)
+                    .last("limit " + this.batchSize);
+            List<FailMsgEntity> failMsgEntityList = this.failMsgService.list(queryWrapper);
+            if (CollUtil.isEmpty(failMsgEntityList)) {
+                break;
+            }
+            lastId = CollUtil.getLast(failMsgEntityList).getId();
+
+            long start = System.currentTimeMillis();
+            int success = this.resend(failMsgEntityList);
+            resent += success;
+            failed += failMsgEntityList.size() - success;
+
+            if (failMsgEntityList.size() < this.batchSize) {
+                break;
+            }
+            //限流
+            long minCost = failMsgEntityList.size() * 1000L / Math.max(this.rate, 1);
+            long cost = System.currentTimeMillis() - start;
+            if (cost < minCost) {
+                ThreadUtil.sleep(minCost - cost);
+            }
         }
+        if (resent > 0 || failed > 0) {
+            XxlJobHelper.log("重新发送失败消息，成功：{}，失败：{}", resent, failed);
+        }
+    }
 
-        for (FailMsgEntity failMsgEntity : failMsgEntityList) {
-            try {
-                //发送消息
-                this.mqService.sendMsg(failMsgEntity.getExchange(), failMsgEntity.getRoutingKey(), failMsgEntity.getMsg());
-                //删除数据
-                this.failMsgService.removeById(failMsgEntity.getId());
-            } catch (Exception e) {
-                log.error("处理错误消息失败, failMsgEntity = {}", failMsgEntity);
+    /**
+     * 发送一批消息
+     *
+     * @return 发送成功的数量
+     */
+    private int resend(List<FailMsgEntity> failMsgEntityList) {
+        List<BatchSender.Item> itemList = failMsgEntityList.stream()
+                .map(failMsgEntity -> new BatchSender.Item(failMsgEntity.getMsgId(), failMsgEntity.getExchange(),
+                        failMsgEntity.getRoutingKey(), failMsgEntity.getMsg(), remainingDelay(failMsgEntity)))
+                .collect(Collectors.toList());
+        List<String> reasonList = this.batchSender.send(itemList, this.confirmTimeout);
+
+        List<Long> successIds = new ArrayList<>();
+        List<FailMsgEntity> failedList = new ArrayList<>();
+        for (int i = 0; i < failMsgEntityList.size(); i++) {
+            FailMsgEntity failMsgEntity = failMsgEntityList.get(i);
+            String reason = reasonList.get(i);
+            if (null == reason) {
+                successIds.add(failMsgEntity.getId());
+                continue;
+            }
+            int retryCount = ObjectUtil.defaultIfNull(failMsgEntity.getRetryCount(), 0) + 1;
+            FailMsgEntity update = new FailMsgEntity();
+            update.setId(failMsgEntity.getId());
+            update.setRetryCount(retryCount);
+            update.setReason(StrUtil.maxLength(reason, 1000));
+            if (retryCount >= this.maxRetry) {
+                log.error("失败消息超过重试次数，需要人工处理, failMsgEntity = {}", failMsgEntity);
+                update.setStatus(FailMsgEntity.STATUS_DEAD);
+            } else {
+                //指数退避
+                long delay = Math.min(this.backoff << Math.min(retryCount - 1, 20), this.maxBackoff);
+                update.setNextRetryTime(LocalDateTime.now().plus(delay, ChronoUnit.MILLIS));
             }
+            failedList.add(update);
+        }
+
+        if (CollUtil.isNotEmpty(successIds)) {
+            this.failMsgService.removeByIds(successIds);
+        }
+        if (CollUtil.isNotEmpty(failedList)) {
+            this.failMsgService.updateBatchById(failedList);
+        }
+        return successIds.size();
+    }
+
+    /**
+     * 延迟消息按照记录的创建时间（发送失败的时间）计算剩余的延时，已经到期的实时发送
+     *
+     * @return 延时时间，单位：毫秒
+     */
+    private static int remainingDelay(FailMsgEntity failMsgEntity) {
+        Integer delay = failMsgEntity.getDelay();
+        if (null == delay || delay <= 0) {
+            return Constants.MQ.DEFAULT_DELAY;
         }
+        long elapsed = null == failMsgEntity.getCreated() ? 0 : ChronoUnit.MILLIS.between(failMsgEntity.getCreated(), LocalDateTime.now());
+        long remaining = delay - elapsed;
+        return remaining > 0 ? (int) remaining : Constants.MQ.DEFAULT_DELAY;
     }
 }
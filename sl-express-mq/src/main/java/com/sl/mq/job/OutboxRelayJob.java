@@ -0,0 +1,165 @@
+package com.sl.mq.job;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.sl.mq.entity.OutboxMsgEntity;
+import com.sl.mq.publisher.BatchSender;
+import com.sl.mq.service.OutboxService;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 发送发件箱中的消息
+ * <p>
+ * 分片广播执行，同一个聚合的消息在同一个分片中按写入顺序发送：每一轮每个聚合只发送一条消息，
+ * 收到broker确认后删除，下一轮再发送该聚合的下一条；发送失败时同一个聚合后续的消息不会发出，下次重新发送（消费方根据messageId去重）。
+ * 发送失败的消息按指数退避延后重新发送，等待期间不影响其他聚合的消息；超过重试次数标记为需要人工处理，与FailMsgJob一致
+ */
+@Slf4j
+@Component
+@ConditionalOnBean(OutboxService.class)
+public class OutboxRelayJob {
+
+    @Resource
+    private OutboxService outboxService;
+    @Resource
+    private BatchSender batchSender;
+
+    /**
+     * 每批发送的消息数量
+     */
+    @Value("${sl.mq.outbox.batch-size:200}")
+    private int batchSize;
+    /**
+     * 每次执行最多发送的批数
+     */
+    @Value("${sl.mq.outbox.max-rounds:10}")
+    private int maxRounds;
+    /**
+     * 等待broker确认的超时时间，单位：毫秒
+     */
+    @Value("${sl.mq.outbox.confirm-timeout:10000}")
+    private long confirmTimeout;
+    /**
+     * 最大重试次数，超过后需要人工处理
+     */
+    @Value("${sl.mq.outbox.max-retry:10}")
+    private int maxRetry;
+    /**
+     * 第一次重试的间隔，之后每次翻倍，单位：毫秒
+     */
+    @Value("${sl.mq.outbox.backoff:1000}")
+    private long backoff;
+    /**
+     * 最大重试间隔，单位：毫秒
+     */
+    @Value("${sl.mq.outbox.max-backoff:600000}")
+    private long maxBackoff;
+
+    @XxlJob("outboxRelayJob")
+    public void execute() {
+        int shardIndex = XxlJobHelper.getShardIndex();
+        int shardTotal = Math.max(XxlJobHelper.getShardTotal(), 1);
+        for (int round = 0; round < this.maxRounds; round++) {
+            List<OutboxMsgEntity> outboxMsgList = this.outboxService.findPending(shardIndex, shardTotal, this.batchSize);
+            if (CollUtil.isEmpty(outboxMsgList)) {
+                return;
+            }
+            int relayed = this.relay(outboxMsgList);
+            if (outboxMsgList.size() < this.batchSize || relayed == 0) {
+                //没有更多的消息，或者broker不可用；失败的消息已经延后，下次执行时先发送其他的消息
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送一批消息
+     * <p>
+     * 按轮发送，每一轮包含每个聚合最早的一条未发送消息，不同聚合的消息在一个channel中批量发送；
+     * 某个聚合的消息确认之后才会在下一轮发送它的下一条，失败后该聚合不再发送，保证broker中同一个聚合的消息顺序
+     *
+     * @param outboxMsgList 按写入顺序排列的消息
+     * @return 发送成功的数量
+     */
+    private int relay(List<OutboxMsgEntity> outboxMsgList) {
+        //按聚合分组，保持写入顺序
+        Map<String, Deque<OutboxMsgEntity>> aggregateMap = new LinkedHashMap<>();
+        for (OutboxMsgEntity outboxMsgEntity : outboxMsgList) {
+            aggregateMap.computeIfAbsent(outboxMsgEntity.getAggregateId(), key -> new ArrayDeque<>()).add(outboxMsgEntity);
+        }
+
+        List<Long> relayedIds = new ArrayList<>();
+        List<OutboxMsgEntity> failedList = new ArrayList<>();
+        Set<String> failedAggregates = new HashSet<>();
+        while (!aggregateMap.isEmpty()) {
+            List<OutboxMsgEntity> wave = aggregateMap.values().stream().map(Deque::poll).collect(Collectors.toList());
+            List<BatchSender.Item> itemList = wave.stream()
+                    .map(outboxMsgEntity -> new BatchSender.Item(outboxMsgEntity.getMsgId(), outboxMsgEntity.getExchange(),
+                            outboxMsgEntity.getRoutingKey(), outboxMsgEntity.getMsg(), outboxMsgEntity.getDelay()))
+                    .collect(Collectors.toList());
+            List<String> reasonList = this.batchSender.send(itemList, this.confirmTimeout);
+            for (int i = 0; i < wave.size(); i++) {
+                OutboxMsgEntity outboxMsgEntity = wave.get(i);
+                String reason = reasonList.get(i);
+                if (null == reason) {
+                    relayedIds.add(outboxMsgEntity.getId());
+                    continue;
+                }
+                //同一个聚合后续的消息不再发送，也不计入失败次数，前面的消息等待重新发送期间查询时会跳过它们
+                aggregateMap.remove(outboxMsgEntity.getAggregateId());
+                failedAggregates.add(outboxMsgEntity.getAggregateId());
+                failedList.add(this.failed(outboxMsgEntity, reason));
+            }
+            aggregateMap.values().removeIf(Deque::isEmpty);
+        }
+
+        if (CollUtil.isNotEmpty(relayedIds)) {
+            this.outboxService.removeByIds(relayedIds);
+        }
+        if (CollUtil.isNotEmpty(failedList)) {
+            log.error("发件箱消息发送失败，数量：{}，聚合：{}", failedList.size(), failedAggregates);
+            this.outboxService.updateBatchById(failedList);
+        }
+        return relayedIds.size();
+    }
+
+    /**
+     * 发送失败，按指数退避延后重新发送，超过重试次数后标记为需要人工处理
+     */
+    private OutboxMsgEntity failed(OutboxMsgEntity outboxMsgEntity, String reason) {
+        int retryCount = ObjectUtil.defaultIfNull(outboxMsgEntity.getRetryCount(), 0) + 1;
+        OutboxMsgEntity failed = new OutboxMsgEntity();
+        failed.setId(outboxMsgEntity.getId());
+        failed.setRetryCount(retryCount);
+        failed.setReason(StrUtil.maxLength(reason, 1000));
+        if (retryCount >= this.maxRetry) {
+            //不再阻塞同一个聚合后续的消息
+            log.error("发件箱消息超过重试次数，需要人工处理, outboxMsgEntity = {}", outboxMsgEntity);
+            failed.setStatus(OutboxMsgEntity.STATUS_DEAD);
+        } else {
+            //指数退避
+            long delay = Math.min(this.backoff << Math.min(retryCount - 1, 20), this.maxBackoff);
+            failed.setNextRetryTime(LocalDateTime.now().plus(delay, ChronoUnit.MILLIS));
+        }
+        return failed;
+    }
+}
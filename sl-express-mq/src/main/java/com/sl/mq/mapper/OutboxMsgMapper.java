@@ -0,0 +1,12 @@
+package com.sl.mq.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.sl.mq.entity.OutboxMsgEntity;
+import org.apache.ibatis.annotations.Mapper;
+
+/**
+ * 待发送消息mapper
+ */
+@Mapper
+public interface OutboxMsgMapper extends BaseMapper<OutboxMsgEntity> {
+}
@@ -0,0 +1,125 @@
+package com.sl.mq.publisher;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.sl.transport.common.constant.Constants;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量发送消息并等待broker确认，用于发件箱、失败消息的重新发送
+ * <p>
+ * 一批消息在同一个channel中按顺序发送，发送完成后统一等待确认，broker对多条消息的确认会合并返回
+ */
+@Slf4j
+@Component
+public class BatchSender {
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    /**
+     * 发送一批消息并等待确认
+     *
+     * @param itemList 消息列表
+     * @param timeout  等待确认的超时时间，单位：毫秒
+     * @return 每条消息的失败原因，与消息列表的顺序一致，成功为null
+     */
+    public List<String> send(List<Item> itemList, long timeout) {
+        if (CollUtil.isEmpty(itemList)) {
+            return Collections.emptyList();
+        }
+        List<CorrelationData> correlationList = new ArrayList<>(itemList.size());
+        String sendError = null;
+        try {
+            this.rabbitTemplate.invoke(operations -> {
+                for (Item item : itemList) {
+                    CorrelationData correlationData = new CorrelationData(item.getMsgId());
+                    operations.send(item.getExchange(), item.getRoutingKey(), this.buildMessage(item), correlationData);
+                    correlationList.add(correlationData);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            //异常之前的消息已经发出，依然需要等待确认
+            sendError = ExceptionUtil.getMessage(e);
+            log.error("批量发送消息异常，已发送：{}，总数：{}，原因：{}", correlationList.size(), itemList.size(), sendError);
+        }
+
+        //没有开启publisher-confirm-type: correlated时，不会收到确认
+        boolean confirmEnabled = this.rabbitTemplate.getConnectionFactory() instanceof CachingConnectionFactory
+                && ((CachingConnectionFactory) this.rabbitTemplate.getConnectionFactory()).isPublisherConfirms();
+        long deadline = System.currentTimeMillis() + timeout;
+        List<String> reasonList = new ArrayList<>(itemList.size());
+        for (int i = 0; i < itemList.size(); i++) {
+            if (i >= correlationList.size()) {
+                reasonList.add(ObjectUtil.defaultIfNull(sendError, "消息未发送"));
+            } else if (confirmEnabled) {
+                reasonList.add(this.waitConfirm(correlationList.get(i), deadline));
+            } else {
+                reasonList.add(null);
+            }
+        }
+        return reasonList;
+    }
+
+    /**
+     * 等待broker确认
+     *
+     * @return 失败原因，成功返回null
+     */
+    private String waitConfirm(CorrelationData correlationData, long deadline) {
+        try {
+            long timeout = Math.max(deadline - System.currentTimeMillis(), 0);
+            CorrelationData.Confirm confirm = correlationData.getFuture().get(timeout, TimeUnit.MILLISECONDS);
+            return confirm.isAck() ? null : StrUtil.blankToDefault(confirm.getReason(), "nack");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        } catch (Exception e) {
+            return "confirm timeout";
+        }
+    }
+
+    private Message buildMessage(Item item) {
+        Message message = MessageBuilder.withBody(StrUtil.bytes(item.getMsg(), CharsetUtil.CHARSET_UTF_8))
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT) //持久化
+                .setMessageId(item.getMsgId()) //消费方可以根据messageId去重
+                .build();
+        //设置延时发送时间，delay小于0，实时发送
+        message.getMessageProperties().setDelay(ObjectUtil.defaultIfNull(item.getDelay(), Constants.MQ.DEFAULT_DELAY));
+        return message;
+    }
+
+    /**
+     * 待发送的消息
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private String msgId; //消息id
+        private String exchange; //交换机
+        private String routingKey; //路由key
+        private String msg; //消息内容
+        private Integer delay; //延时时间，单位：毫秒
+    }
+}
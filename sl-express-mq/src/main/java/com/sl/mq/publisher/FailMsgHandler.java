@@ -0,0 +1,19 @@
+package com.sl.mq.publisher;
+
+import com.sl.mq.entity.FailMsgEntity;
+
+/**
+ * 发送失败消息的处理器
+ * <p>
+ * 没有开启sl.mq.enable（没有sl_fail_msg表）的服务，可以通过实现该接口将失败的消息交给其他服务处理
+ */
+@FunctionalInterface
+public interface FailMsgHandler {
+
+    /**
+     * 处理发送失败的消息
+     *
+     * @param failMsgEntity 失败消息
+     */
+    void handle(FailMsgEntity failMsgEntity);
+}
@@ -0,0 +1,330 @@
+package com.sl.mq.publisher;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.sl.mq.entity.FailMsgEntity;
+import com.sl.mq.service.FailMsgService;
+import com.sl.transport.common.constant.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 直接发送消息到RabbitMQ，不再经过base服务的MQFeign转发
+ * <p>
+ * 发送时使用RabbitTemplate缓存的channel（spring.rabbitmq.cache.channel.size），不等待broker的确认，
+ * 确认结果异步回调，broker对多条消息的确认会合并返回。nack、发送异常（重试3次后）、超时未确认的消息交给失败处理：
+ * 优先使用服务自定义的{@link FailMsgHandler}，其次存入sl_fail_msg表（需要开启sl.mq.enable），由FailMsgJob重新发送。
+ * <p>
+ * 发送异常后的重试、失败处理都在发送者自己的线程池中执行，不会阻塞调用方的线程和RabbitMQ的连接线程
+ */
+@Slf4j
+@Component
+public class MQPublisher {
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+    @Resource
+    private ObjectProvider<FailMsgHandler> failMsgHandlerProvider;
+    @Resource
+    private ObjectProvider<FailMsgService> failMsgServiceProvider;
+
+    /**
+     * 等待broker确认的超时时间，单位：毫秒
+     */
+    @Value("${sl.mq.publisher.confirm-timeout:30000}")
+    private long confirmTimeout;
+    /**
+     * 发送异常时的最大发送次数
+     */
+    @Value("${sl.mq.publisher.max-attempts:3}")
+    private int maxAttempts;
+    /**
+     * 第一次重试的间隔，之后每次乘以1.5，单位：毫秒
+     */
+    @Value("${sl.mq.publisher.backoff:3000}")
+    private long backoff;
+    /**
+     * 执行重试、失败处理的线程数
+     */
+    @Value("${sl.mq.publisher.threads:2}")
+    private int threads;
+
+    /**
+     * 已发送但是还没有收到确认的消息
+     */
+    private final Map<String, PendingMsg> pendingMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+    private boolean confirmEnabled;
+
+    @PostConstruct
+    public void init() {
+        //没有开启publisher-confirm-type: correlated时，不会收到确认，无需等待
+        this.confirmEnabled = this.rabbitTemplate.getConnectionFactory() instanceof CachingConnectionFactory
+                && ((CachingConnectionFactory) this.rabbitTemplate.getConnectionFactory()).isPublisherConfirms();
+        //超时检查、重试、失败处理，失败处理中可能有远程调用（FailMsgHandler）或者写数据库
+        this.executor = Executors.newScheduledThreadPool(Math.max(this.threads, 1),
+                ThreadFactoryBuilder.create().setNamePrefix("mq-publisher-").setDaemon(true).build());
+        this.executor.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        //等待已经提交的重试、失败处理执行完成
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.error("关闭时还有未完成的消息重试或失败处理");
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 发送实时消息
+     *
+     * @param exchange   交换机
+     * @param routingKey 路由key
+     * @param msg        消息对象，会将对象序列化成json字符串发出
+     * @return 是否发出，发送异常的消息已经交给重试和失败处理时返回false
+     */
+    public Boolean sendMsg(String exchange, String routingKey, Object msg) {
+        return this.sendMsg(exchange, routingKey, msg, Constants.MQ.DEFAULT_DELAY);
+    }
+
+    /**
+     * 发送延迟消息
+     *
+     * @param exchange   交换机
+     * @param routingKey 路由key
+     * @param msg        消息对象，会将对象序列化成json字符串发出
+     * @param delay      延时时间，单位：毫秒
+     * @return 是否发出，发送异常的消息已经交给重试和失败处理时返回false
+     */
+    public Boolean sendMsg(String exchange, String routingKey, Object msg, int delay) {
+        return this.sendMsgs(exchange, routingKey, CollUtil.newArrayList(msg), delay);
+    }
+
+    /**
+     * 批量发送消息，在同一个channel中依次发送，不等待确认
+     *
+     * @param exchange   交换机
+     * @param routingKey 路由key
+     * @param msgList    消息对象列表，会将对象序列化成json字符串发出
+     * @param delay      延时时间，单位：毫秒，小于0实时发送
+     * @return 是否全部发出，有消息发送异常（已经交给重试和失败处理）时返回false；
+     * broker的确认是异步的，nack、超时未确认的消息在返回之后交给失败处理
+     */
+    public Boolean sendMsgs(String exchange, String routingKey, List<?> msgList, int delay) {
+        if (CollUtil.isEmpty(msgList)) {
+            return true;
+        }
+        List<PendingMsg> pendingMsgList = new ArrayList<>(msgList.size());
+        for (Object msg : msgList) {
+            String jsonMsg = (msg instanceof String) ? (String) msg : JSONUtil.toJsonStr(msg);
+            PendingMsg pendingMsg = new PendingMsg(FailMsgEntity.builder()
+                    .exchange(exchange)
+                    .routingKey(routingKey)
+                    .msgId(IdUtil.simpleUUID())
+                    .msg(jsonMsg)
+                    .delay(delay).build());
+            log.info("消息发送！exchange = {}, routingKey = {}, msg = {}, msgId = {}", exchange, routingKey, jsonMsg, pendingMsg.getMsgId());
+            pendingMsgList.add(pendingMsg);
+        }
+
+        String reason = this.trySend(pendingMsgList, delay);
+        if (null == reason) {
+            return true;
+        }
+        //发送异常，在发送者的线程池中延后重试，不阻塞调用方
+        this.retry(pendingMsgList, delay, 1, reason);
+        return false;
+    }
+
+    /**
+     * 发送还没有发出去的消息
+     *
+     * @return 发送异常的原因，全部发出返回null
+     */
+    private String trySend(List<PendingMsg> pendingMsgList, int delay) {
+        List<PendingMsg> unsent = pendingMsgList.stream().filter(pendingMsg -> !pendingMsg.sent).collect(Collectors.toList());
+        try {
+            if (unsent.size() == 1) {
+                this.send(this.rabbitTemplate, unsent.get(0), delay);
+            } else {
+                this.rabbitTemplate.invoke(operations -> {
+                    unsent.forEach(pendingMsg -> this.send(operations, pendingMsg, delay));
+                    return null;
+                });
+            }
+            return null;
+        } catch (Exception e) {
+            return ExceptionUtil.getMessage(e);
+        }
+    }
+
+    /**
+     * 按指数退避重试，与MQServiceImpl的@Retryable一致，超过最大发送次数后交给失败处理
+     *
+     * @param pendingMsgList 消息列表，只重试还没有发出去的消息
+     * @param delay          延时时间，单位：毫秒
+     * @param attempt        已经发送的次数
+     * @param reason         上一次发送异常的原因
+     */
+    private void retry(List<PendingMsg> pendingMsgList, int delay, int attempt, String reason) {
+        if (attempt >= this.maxAttempts) {
+            pendingMsgList.stream().filter(pendingMsg -> !pendingMsg.sent)
+                    .forEach(pendingMsg -> this.fail(pendingMsg.failMsgEntity, reason));
+            return;
+        }
+        long interval = (long) Math.min(this.backoff * Math.pow(1.5, attempt - 1), 30000);
+        try {
+            this.executor.schedule(() -> {
+                String error = this.trySend(pendingMsgList, delay);
+                if (null != error) {
+                    this.retry(pendingMsgList, delay, attempt + 1, error);
+                }
+            }, interval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //已经关闭，直接交给失败处理
+            pendingMsgList.stream().filter(pendingMsg -> !pendingMsg.sent)
+                    .forEach(pendingMsg -> this.handleFail(pendingMsg.failMsgEntity, reason));
+        }
+    }
+
+    private void send(RabbitOperations operations, PendingMsg pendingMsg, int delay) {
+        CorrelationData correlationData = new CorrelationData(pendingMsg.getMsgId());
+        if (this.confirmEnabled) {
+            this.pendingMap.put(pendingMsg.getMsgId(), pendingMsg);
+            correlationData.getFuture().addCallback(
+                    result -> {
+                        if (result.isAck()) {
+                            log.debug("消息发送成功, ID:{}", correlationData.getId());
+                            this.pendingMap.remove(correlationData.getId());
+                        } else {
+                            log.error("消息发送失败, ID:{}, 原因:{}", correlationData.getId(), result.getReason());
+                            this.failPending(correlationData.getId(), result.getReason());
+                        }
+                    },
+                    ex -> {
+                        String exceptionInfo = ExceptionUtil.getMessage(ex);
+                        log.error("消息发送异常, ID:{}, 原因:{}", correlationData.getId(), exceptionInfo);
+                        this.failPending(correlationData.getId(), exceptionInfo);
+                    });
+        }
+        //构造消息对象
+        Message message = MessageBuilder.withBody(StrUtil.bytes(pendingMsg.failMsgEntity.getMsg(), CharsetUtil.CHARSET_UTF_8))
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT) //持久化
+                .setMessageId(pendingMsg.getMsgId()) //消费方可以根据messageId去重
+                .build();
+        //设置延时发送时间，delay小于0，实时发送
+        message.getMessageProperties().setDelay(delay);
+        try {
+            operations.send(pendingMsg.failMsgEntity.getExchange(), pendingMsg.failMsgEntity.getRoutingKey(), message, correlationData);
+            pendingMsg.sent = true;
+        } catch (RuntimeException e) {
+            this.pendingMap.remove(pendingMsg.getMsgId());
+            throw e;
+        }
+    }
+
+    /**
+     * 超时没有收到确认的消息，按照发送失败处理
+     */
+    private void expire() {
+        long deadline = System.currentTimeMillis() - this.confirmTimeout;
+        this.pendingMap.forEach((msgId, pendingMsg) -> {
+            if (pendingMsg.created < deadline) {
+                log.error("消息发送超时未确认, ID:{}", msgId);
+                this.failPending(msgId, "confirm timeout");
+            }
+        });
+    }
+
+    private void failPending(String msgId, String reason) {
+        //回调与超时检查可能同时处理同一条消息，只处理一次
+        PendingMsg pendingMsg = this.pendingMap.remove(msgId);
+        if (null != pendingMsg) {
+            this.fail(pendingMsg.failMsgEntity, reason);
+        }
+    }
+
+    /**
+     * 交给发送者的线程池执行失败处理，可能在RabbitMQ的连接线程中调用（确认回调），不能在当前线程执行远程调用
+     */
+    private void fail(FailMsgEntity failMsgEntity, String reason) {
+        try {
+            this.executor.execute(() -> this.handleFail(failMsgEntity, reason));
+        } catch (RejectedExecutionException e) {
+            //已经关闭，在当前线程执行
+            this.handleFail(failMsgEntity, reason);
+        }
+    }
+
+    private void handleFail(FailMsgEntity failMsgEntity, String reason) {
+        failMsgEntity.setReason(reason);
+        try {
+            FailMsgHandler failMsgHandler = this.failMsgHandlerProvider.getIfAvailable();
+            if (null != failMsgHandler) {
+                failMsgHandler.handle(failMsgEntity);
+                return;
+            }
+            FailMsgService failMsgService = this.failMsgServiceProvider.getIfAvailable();
+            if (null != failMsgService) {
+                failMsgService.save(failMsgEntity);
+                return;
+            }
+            log.error("消息发送失败且没有失败处理，failMsgEntity = {}", failMsgEntity);
+        } catch (Exception e) {
+            log.error("处理发送失败的消息出错，failMsgEntity = {}", failMsgEntity, e);
+        }
+    }
+
+    /**
+     * 等待确认的消息
+     */
+    private static class PendingMsg {
+
+        private final FailMsgEntity failMsgEntity;
+        private final long created = System.currentTimeMillis();
+        private volatile boolean sent = false;
+
+        private PendingMsg(FailMsgEntity failMsgEntity) {
+            this.failMsgEntity = failMsgEntity;
+        }
+
+        private String getMsgId() {
+            return this.failMsgEntity.getMsgId();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.sl.mq.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.sl.mq.entity.OutboxMsgEntity;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 事务发件箱，业务数据与消息在同一个本地事务中保存，避免事务提交后、消息发送前宕机导致消息丢失
+ */
+public interface OutboxService extends IService<OutboxMsgEntity> {
+
+    /**
+     * 分片数量，聚合id的hash值对其取模得到分片
+     */
+    int SHARD_SIZE = 1024;
+
+    /**
+     * 发送消息，存在事务时写入发件箱，事务提交后由OutboxRelayJob发送；不存在事务时直接发送
+     *
+     * @param aggregateId 聚合id，同一个聚合的消息按顺序发送
+     * @param exchange    交换机
+     * @param routingKey  路由key
+     * @param msg         消息对象，会将对象序列化成json字符串发出
+     * @param delay       延时时间，单位：毫秒，小于0实时发送
+     */
+    void send(Object aggregateId, String exchange, String routingKey, Object msg, int delay);
+
+    /**
+     * 批量发送消息，存在事务时一次批量写入发件箱；不存在事务时在同一个channel中直接发送
+     *
+     * @param exchange   交换机
+     * @param routingKey 路由key
+     * @param msgMap     key为聚合id，value为消息对象，按照迭代顺序发送
+     * @param delay      延时时间，单位：毫秒，小于0实时发送
+     */
+    void sendBatch(String exchange, String routingKey, Map<?, ?> msgMap, int delay);
+
+    /**
+     * 按写入顺序查询分片中待发送的消息，不包括等待重新发送的消息，以及同一个聚合中排在这些消息之后的消息
+     *
+     * @param shardIndex 分片序号
+     * @param shardTotal 分片总数
+     * @param limit      最大数量
+     * @return 待发送的消息
+     */
+    List<OutboxMsgEntity> findPending(int shardIndex, int shardTotal, int limit);
+}
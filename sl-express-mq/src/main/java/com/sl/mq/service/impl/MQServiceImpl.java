@@ -76,6 +76,7 @@ public class MQServiceImpl implements MQService {
                                 .exchange(exchange)
                                 .msgId(correlationData.getId())
                                 .msg(jsonMsg)
+                                .delay(delay)
                                 .reason(result.getReason()).build();
                         this.failMsgService.save(failMsgEntity);
                     }
@@ -87,6 +88,7 @@ public class MQServiceImpl implements MQService {
                             .exchange(exchange)
                             .msgId(correlationData.getId())
                             .msg(jsonMsg)
+                            .delay(delay)
                             .reason(exceptionInfo).build();
                     this.failMsgService.save(failMsgEntity);
                 }
@@ -109,6 +111,7 @@ public class MQServiceImpl implements MQService {
                             .exchange(exchange)
                             .msgId(correlationData.getId())
                             .msg(jsonMsg)
+                            .delay(delay)
                             .reason(ExceptionUtil.getMessage(e)).build())
                     .build();
 
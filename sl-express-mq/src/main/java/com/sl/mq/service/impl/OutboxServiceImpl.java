@@ -0,0 +1,100 @@
+package com.sl.mq.service.impl;
+
+import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.sl.mq.entity.OutboxMsgEntity;
+import com.sl.mq.mapper.OutboxMsgMapper;
+import com.sl.mq.publisher.MQPublisher;
+import com.sl.mq.service.OutboxService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 事务发件箱
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "sl.mq.outbox", value = "enable")
+public class OutboxServiceImpl extends ServiceImpl<OutboxMsgMapper, OutboxMsgEntity> implements OutboxService {
+
+    @Resource
+    private MQPublisher mqPublisher;
+
+    @Override
+    public void send(Object aggregateId, String exchange, String routingKey, Object msg, int delay) {
+        String jsonMsg = this.toJson(msg);
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            //没有需要一起提交的业务数据，直接发送
+            this.mqPublisher.sendMsg(exchange, routingKey, jsonMsg, delay);
+            return;
+        }
+        OutboxMsgEntity outboxMsgEntity = this.buildOutboxMsg(aggregateId, exchange, routingKey, jsonMsg, delay);
+        super.save(outboxMsgEntity);
+        log.info("消息写入发件箱！exchange = {}, routingKey = {}, msg = {}, msgId = {}", exchange, routingKey, jsonMsg, outboxMsgEntity.getMsgId());
+    }
+
+    @Override
+    public void sendBatch(String exchange, String routingKey, Map<?, ?> msgMap, int delay) {
+        if (MapUtil.isEmpty(msgMap)) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            this.mqPublisher.sendMsgs(exchange, routingKey, new ArrayList<>(msgMap.values()), delay);
+            return;
+        }
+        List<OutboxMsgEntity> outboxMsgList = msgMap.entrySet().stream()
+                .map(entry -> this.buildOutboxMsg(entry.getKey(), exchange, routingKey, this.toJson(entry.getValue()), delay))
+                .collect(Collectors.toList());
+        super.saveBatch(outboxMsgList);
+        log.info("消息批量写入发件箱！exchange = {}, routingKey = {}, size = {}", exchange, routingKey, outboxMsgList.size());
+    }
+
+    private String toJson(Object msg) {
+        return (msg instanceof String) ? (String) msg : JSONUtil.toJsonStr(msg);
+    }
+
+    private OutboxMsgEntity buildOutboxMsg(Object aggregateId, String exchange, String routingKey, String jsonMsg, int delay) {
+        String aggregate = StrUtil.toString(aggregateId);
+        return OutboxMsgEntity.builder()
+                .msgId(IdUtil.simpleUUID())
+                .aggregateId(aggregate)
+                .shard(Math.floorMod(aggregate.hashCode(), SHARD_SIZE))
+                .exchange(exchange)
+                .routingKey(routingKey)
+                .msg(jsonMsg)
+                .delay(delay)
+                .retryCount(0)
+                .status(OutboxMsgEntity.STATUS_PENDING)
+                .build();
+    }
+
+    @Override
+    public List<OutboxMsgEntity> findPending(int shardIndex, int shardTotal, int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        LambdaQueryWrapper<OutboxMsgEntity> queryWrapper = new LambdaQueryWrapper<OutboxMsgEntity>()
+                .eq(OutboxMsgEntity::getStatus, OutboxMsgEntity.STATUS_PENDING)
+                .and(wrapper -> wrapper.isNull(OutboxMsgEntity::getNextRetryTime)
+                        .or().le(OutboxMsgEntity::getNextRetryTime, now))
+                .apply(shardTotal > 1, "shard % {0} = {1}", shardTotal, shardIndex)
+                //同一个聚合前面的消息还在等待重新发送时，后续的消息也要等待，保证顺序
+                .notExists("SELECT 1 FROM sl_outbox_msg prev WHERE prev.aggregate_id = sl_outbox_msg.aggregate_id"
+                        + " AND prev.id < sl_outbox_msg.id AND prev.status = {0} AND prev.next_retry_time > {1}",
+                        OutboxMsgEntity.STATUS_PENDING, now)
+                .orderByAsc(OutboxMsgEntity::getId)
+                .last("limit " + limit);
+        return super.list(queryWrapper);
+    }
+}
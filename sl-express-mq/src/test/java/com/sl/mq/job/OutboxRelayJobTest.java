@@ -0,0 +1,102 @@
+package com.sl.mq.job;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.ReflectUtil;
+import com.sl.mq.entity.OutboxMsgEntity;
+import com.sl.mq.publisher.BatchSender;
+import com.sl.mq.service.OutboxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 同一个聚合的消息按顺序发送，前面的消息失败后，后面的消息不能发出
+ */
+class OutboxRelayJobTest {
+
+    private OutboxRelayJob outboxRelayJob;
+    private final List<OutboxMsgEntity> pendingList = new ArrayList<>();
+    /**
+     * 每一批发送的消息id
+     */
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<Long> removedIds = new ArrayList<>();
+    private final List<OutboxMsgEntity> failedList = new ArrayList<>();
+    private Set<String> failMsgIds = Set.of();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        this.outboxRelayJob = new OutboxRelayJob();
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "outboxService", Proxy.newProxyInstance(OutboxService.class.getClassLoader(),
+                new Class[]{OutboxService.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findPending":
+                            List<OutboxMsgEntity> list = new ArrayList<>(this.pendingList);
+                            this.pendingList.clear();
+                            return list;
+                        case "removeByIds":
+                            this.removedIds.addAll((Collection<Long>) args[0]);
+                            return true;
+                        case "updateBatchById":
+                            this.failedList.addAll((Collection<OutboxMsgEntity>) args[0]);
+                            return true;
+                        default:
+                            return null;
+                    }
+                }));
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "batchSender", new BatchSender() {
+            @Override
+            public List<String> send(List<Item> itemList, long timeout) {
+                batches.add(itemList.stream().map(Item::getMsgId).collect(Collectors.toList()));
+                return itemList.stream().map(item -> failMsgIds.contains(item.getMsgId()) ? "nack" : null).collect(Collectors.toList());
+            }
+        });
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "batchSize", 200);
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "maxRounds", 1);
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "confirmTimeout", 1000L);
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "maxRetry", 10);
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "backoff", 1000L);
+        ReflectUtil.setFieldValue(this.outboxRelayJob, "maxBackoff", 600000L);
+
+        long id = 1;
+        for (String msgId : ListUtil.toList("a1", "b1", "a2", "a3", "b2")) {
+            OutboxMsgEntity outboxMsgEntity = new OutboxMsgEntity();
+            outboxMsgEntity.setId(id++);
+            outboxMsgEntity.setMsgId(msgId);
+            outboxMsgEntity.setAggregateId(msgId.substring(0, 1));
+            outboxMsgEntity.setMsg("{}");
+            this.pendingList.add(outboxMsgEntity);
+        }
+    }
+
+    @Test
+    void relay() {
+        this.outboxRelayJob.execute();
+        //每一批每个聚合只有一条消息，前一条确认后再发送下一条
+        assertEquals(ListUtil.toList(ListUtil.toList("a1", "b1"), ListUtil.toList("a2", "b2"), ListUtil.toList("a3")), this.batches);
+        assertEquals(5, this.removedIds.size());
+        assertTrue(this.failedList.isEmpty());
+    }
+
+    @Test
+    void stopAggregateOnFailure() {
+        this.failMsgIds = Set.of("a2");
+        this.outboxRelayJob.execute();
+        //a2失败后，a3不会发出，也不会被删除
+        assertEquals(ListUtil.toList(ListUtil.toList("a1", "b1"), ListUtil.toList("a2", "b2")), this.batches);
+        assertEquals(ListUtil.toList(1L, 2L, 5L), this.removedIds.stream().sorted().collect(Collectors.toList()));
+        assertEquals(1, this.failedList.size());
+        assertEquals(3L, this.failedList.get(0).getId());
+        assertEquals(1, this.failedList.get(0).getRetryCount());
+        assertNotNull(this.failedList.get(0).getNextRetryTime());
+    }
+}
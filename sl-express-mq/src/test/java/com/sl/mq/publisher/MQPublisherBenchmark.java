@@ -0,0 +1,127 @@
+package com.sl.mq.publisher;
+
+import cn.hutool.core.net.URLDecoder;
+import cn.hutool.core.net.URLEncodeUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接发送与经过base服务MQFeign转发的对比
+ * <p>
+ * 使用内存中的RabbitTemplate代替broker（收到消息后立即确认），Feign转发使用本地的HTTP服务模拟MQController，
+ * 两者的差别就是多出来的一次HTTP调用
+ * <p>
+ * 执行：运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQPublisherBenchmark {
+
+    private static final String EXCHANGE = "sl.exchange.topic.benchmark";
+    private static final String ROUTING_KEY = "benchmark";
+    private static final String MSG = "{\"transportOrderId\":\"SL1000000000560\",\"totalVolume\":0.8,\"totalWeight\":2.1,\"created\":1667810224000}";
+
+    private MQPublisher mqPublisher;
+    private HttpServer httpServer;
+    private HttpClient httpClient;
+    private URI feignUri;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.mqPublisher = new MQPublisher();
+        ReflectUtil.setFieldValue(this.mqPublisher, "rabbitTemplate", new InMemoryRabbitTemplate());
+        ReflectUtil.setFieldValue(this.mqPublisher, "confirmTimeout", 30000L);
+        this.mqPublisher.init();
+        ReflectUtil.setFieldValue(this.mqPublisher, "confirmEnabled", true);
+
+        //模拟base服务的MQController
+        this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.httpServer.setExecutor(Executors.newFixedThreadPool(8));
+        this.httpServer.createContext("/mq", exchange -> {
+            Map<String, String> params = new HashMap<>();
+            for (String pair : StrUtil.split(exchange.getRequestURI().getRawQuery(), '&')) {
+                params.put(StrUtil.subBefore(pair, "=", false),
+                        URLDecoder.decode(StrUtil.subAfter(pair, "=", false), CharsetUtil.CHARSET_UTF_8));
+            }
+            boolean result = this.mqPublisher.sendMsg(params.get("exchange"), params.get("routingKey"), params.get("msg"));
+            byte[] body = String.valueOf(result).getBytes(CharsetUtil.CHARSET_UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        this.httpServer.start();
+        this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        //与MQFeign一样，参数通过@RequestParam传递
+        this.feignUri = URI.create(StrUtil.format("http://127.0.0.1:{}/mq?exchange={}&routingKey={}&msg={}",
+                this.httpServer.getAddress().getPort(), EXCHANGE, ROUTING_KEY, URLEncodeUtil.encodeQuery(MSG)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.httpServer.stop(0);
+        this.mqPublisher.destroy();
+    }
+
+    @Benchmark
+    public Boolean direct() {
+        return this.mqPublisher.sendMsg(EXCHANGE, ROUTING_KEY, MSG);
+    }
+
+    @Benchmark
+    public String feign() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(this.feignUri).POST(HttpRequest.BodyPublishers.noBody()).build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    /**
+     * 代替broker，收到消息后立即确认
+     */
+    private static class InMemoryRabbitTemplate extends RabbitTemplate {
+
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void send(String exchange, String routingKey, Message message, CorrelationData correlationData) {
+            this.count.incrementAndGet();
+            if (null != correlationData) {
+                correlationData.getFuture().set(new CorrelationData.Confirm(true, null));
+            }
+        }
+
+        @Override
+        public <T> T invoke(OperationsCallback<T> action) {
+            return action.doInRabbit(this);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MQPublisherBenchmark.class.getSimpleName()).build()).run();
+    }
+}
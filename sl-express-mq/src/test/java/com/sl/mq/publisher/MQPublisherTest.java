@@ -0,0 +1,112 @@
+package com.sl.mq.publisher;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.sl.mq.entity.FailMsgEntity;
+import com.sl.mq.service.FailMsgService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 发送异常后的重试、失败处理
+ */
+class MQPublisherTest {
+
+    private MQPublisher mqPublisher;
+    private FailingRabbitTemplate rabbitTemplate;
+    private final List<FailMsgEntity> failedList = new CopyOnWriteArrayList<>();
+    private final List<String> failThreads = new CopyOnWriteArrayList<>();
+    private final CountDownLatch failLatch = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("failMsgHandler", (FailMsgHandler) failMsgEntity -> {
+            this.failThreads.add(Thread.currentThread().getName());
+            this.failedList.add(failMsgEntity);
+            this.failLatch.countDown();
+        });
+        this.rabbitTemplate = new FailingRabbitTemplate();
+        this.mqPublisher = new MQPublisher();
+        ReflectUtil.setFieldValue(this.mqPublisher, "rabbitTemplate", this.rabbitTemplate);
+        ReflectUtil.setFieldValue(this.mqPublisher, "failMsgHandlerProvider", beanFactory.getBeanProvider(FailMsgHandler.class));
+        ReflectUtil.setFieldValue(this.mqPublisher, "failMsgServiceProvider", beanFactory.getBeanProvider(FailMsgService.class));
+        ReflectUtil.setFieldValue(this.mqPublisher, "confirmTimeout", 30000L);
+        ReflectUtil.setFieldValue(this.mqPublisher, "maxAttempts", 3);
+        ReflectUtil.setFieldValue(this.mqPublisher, "backoff", 10L);
+        ReflectUtil.setFieldValue(this.mqPublisher, "threads", 1);
+        this.mqPublisher.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.mqPublisher.destroy();
+    }
+
+    @Test
+    void send() {
+        assertTrue(this.mqPublisher.sendMsg("exchange", "key", "{}"));
+        Message message = this.rabbitTemplate.sent.get(0);
+        //消费方根据messageId去重
+        assertNotNull(message.getMessageProperties().getMessageId());
+        assertEquals(this.rabbitTemplate.correlationIds.get(0), message.getMessageProperties().getMessageId());
+    }
+
+    @Test
+    void retryThenSent() throws Exception {
+        this.rabbitTemplate.failures.set(2);
+        //第一次发送异常，交给发送者的线程池重试
+        assertFalse(this.mqPublisher.sendMsg("exchange", "key", "{}"));
+        assertTrue(this.rabbitTemplate.sentLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, this.rabbitTemplate.attempts.get());
+        assertTrue(this.failedList.isEmpty());
+    }
+
+    @Test
+    void failAfterRetries() throws Exception {
+        this.rabbitTemplate.failures.set(Integer.MAX_VALUE);
+        assertFalse(this.mqPublisher.sendMsg("exchange", "key", "{}", 5000));
+        assertTrue(this.failLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, this.rabbitTemplate.attempts.get());
+        //失败处理不在调用方的线程中执行，延时时间保留下来用于重新发送
+        assertTrue(this.failThreads.get(0).startsWith("mq-publisher-"));
+        assertEquals(5000, this.failedList.get(0).getDelay());
+        assertEquals("key", this.failedList.get(0).getRoutingKey());
+    }
+
+    /**
+     * 前几次发送抛出异常
+     */
+    private static class FailingRabbitTemplate extends RabbitTemplate {
+
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final List<Message> sent = new CopyOnWriteArrayList<>();
+        private final List<String> correlationIds = new CopyOnWriteArrayList<>();
+        private final CountDownLatch sentLatch = new CountDownLatch(1);
+
+        @Override
+        public void send(String exchange, String routingKey, Message message, CorrelationData correlationData) {
+            this.attempts.incrementAndGet();
+            if (this.failures.getAndDecrement() > 0) {
+                throw new AmqpException("connection refused");
+            }
+            this.sent.add(message);
+            this.correlationIds.add(correlationData.getId());
+            this.sentLatch.countDown();
+        }
+    }
+}
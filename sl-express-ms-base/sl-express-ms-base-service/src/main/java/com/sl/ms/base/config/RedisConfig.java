@@ -0,0 +1,43 @@
+package com.sl.ms.base.config;
+
+import com.sl.transport.common.cache.DispatchConfigurationCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Redis相关的配置
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 调度配置的本地缓存
+     *
+     * @param stringRedisTemplate redis模板
+     * @return 调度配置缓存
+     */
+    @Bean
+    public DispatchConfigurationCache dispatchConfigurationCache(StringRedisTemplate stringRedisTemplate) {
+        return new DispatchConfigurationCache(stringRedisTemplate);
+    }
+
+    /**
+     * 配置订阅，调度配置变更后刷新本地缓存
+     *
+     * @param connectionFactory          链接工厂
+     * @param dispatchConfigurationCache 调度配置缓存
+     * @return 消息监听容器
+     */
+    @Bean
+    public RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory,
+                                                   DispatchConfigurationCache dispatchConfigurationCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(dispatchConfigurationCache, new ChannelTopic(DispatchConfigurationCache.CHANNEL_TOPIC));
+        return container;
+    }
+}
@@ -22,9 +22,9 @@ import com.sl.ms.base.entity.user.TruckDriverEntity;
 import com.sl.ms.base.mapper.truck.TruckPlanMapper;
 import com.sl.ms.base.service.truck.*;
 import com.sl.ms.base.service.user.TruckDriverService;
+import com.sl.transport.common.cache.DispatchConfigurationCache;
 import com.sl.transport.common.exception.SLException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -58,7 +58,7 @@ public class TruckPlanServiceImpl extends ServiceImpl<TruckPlanMapper, TruckPlan
     private TruckDriverService truckDriverService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private DispatchConfigurationCache dispatchConfigurationCache;
 
     /**
      * 获取未分配运输任务的车次计划列表
@@ -68,10 +68,8 @@ public class TruckPlanServiceImpl extends ServiceImpl<TruckPlanMapper, TruckPlan
      */
     @Override
     public List<TruckPlanDto> pullUnassignedPlan(Integer shardTotal, Integer shardIndex) {
-        //调度时间配置
-        String dispatchTimeRedisKey = "DISPATCH_CONFIGURATION:TIME";
-        String dispatchTime = stringRedisTemplate.opsForValue().get(dispatchTimeRedisKey);
-        int time = Integer.parseInt(dispatchTime != null ? dispatchTime : "2");
+        //调度时间配置，从本地缓存中读取
+        int time = dispatchConfigurationCache.getDispatchTime();
 
         // 分片拉取 保证多个调度器均衡负载
         LambdaQueryWrapper<TruckPlanEntity> lambdaQueryWrapper = new LambdaQueryWrapper<TruckPlanEntity>()
@@ -3,31 +3,40 @@ package com.sl.ms.dispatch.job;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.map.MapUtil;
-import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
-import com.sl.ms.base.api.common.MQFeign;
+import com.sl.mq.publisher.MQPublisher;
 import com.sl.ms.base.api.truck.TruckPlanFeign;
 import com.sl.ms.base.domain.truck.TruckDto;
 import com.sl.ms.base.domain.truck.TruckPlanDto;
 import com.sl.ms.dispatch.dto.DispatchMsgDTO;
-import com.sl.ms.dispatch.mq.TransportOrderDispatchMQListener;
+import com.sl.ms.dispatch.load.LoadPlanner;
+import com.sl.ms.dispatch.queue.DispatchQueue;
 import com.sl.transport.common.constant.Constants;
 import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * 调度运输任务
@@ -36,19 +45,66 @@ import java.util.Map;
 @Slf4j
 public class DispatchJob {
     @Resource
-    private TransportOrderDispatchMQListener transportOrderDispatchMQListener;
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
-    @Resource
-    private RedissonClient redissonClient;
+    private DispatchQueue dispatchQueue;
     @Resource
     private TruckPlanFeign truckPlanFeign;
     @Resource
-    private MQFeign mqFeign;
+    private MQPublisher mqPublisher;
     @Value("${sl.volume.ratio:0.95}")
     private Double volumeRatio;
     @Value("${sl.weight.ratio:0.95}")
     private Double weightRatio;
+    /**
+     * 每批读取的运单数量
+     */
+    @Value("${sl.dispatch.batch-size:200}")
+    private Integer batchSize;
+    /**
+     * 每条线路最多读取的批数
+     */
+    @Value("${sl.dispatch.max-rounds:5}")
+    private Integer maxRounds;
+    /**
+     * 并行调度的线路数
+     */
+    @Value("${sl.dispatch.lane-threads:8}")
+    private Integer laneThreads;
+    /**
+     * 等待调度的线路数上限，超过后由任务线程自己执行
+     */
+    @Value("${sl.dispatch.lane-queue-capacity:1000}")
+    private Integer laneQueueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 每条线路最近一次调度的指标
+     */
+    private final Map<String, LaneMetrics> laneMetricsMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        //不同线路之间没有共享的数据，可以并行调度；同一条线路上的车辆在一个任务中按发车时间顺序装载
+        this.executor = new ThreadPoolExecutor(this.laneThreads, this.laneThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.laneQueueCapacity),
+                ThreadFactoryBuilder.create().setNamePrefix("dispatch-lane-").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * 获取每条线路最近一次调度的指标
+     *
+     * @return 线路调度指标，key为线路
+     */
+    public Map<String, LaneMetrics> getLaneMetrics() {
+        return Collections.unmodifiableMap(this.laneMetricsMap);
+    }
+
     /**
      * 分片广播方式处理运单，生成运输任务
      */
@@ -64,80 +120,163 @@ public class DispatchJob {
         if (CollUtil.isEmpty(truckPlanDtoList)) {
             return;
         }
-        // 2. 遍历车辆
+        // 2. 校验车辆计划，按照开始、结束机构分组，同一条线路上的车辆一起装载
+        Map<String, List<TruckPlanDto>> laneMap = new LinkedHashMap<>();
         for (TruckPlanDto truckPlanDto : truckPlanDtoList) {
-            //2.1 校验车辆计划对象 id StartOrganId EndOrganId TransportTripsId 不能为空
+            //2.1 校验车辆计划对象 id StartOrganId EndOrganId TransportTripsId TruckDto 不能为空
             if (ObjectUtil.hasEmpty(truckPlanDto.getId(), truckPlanDto.getStartOrganId(),
-                    truckPlanDto.getEndOrganId(), truckPlanDto.getTransportTripsId())) {
+                    truckPlanDto.getEndOrganId(), truckPlanDto.getTransportTripsId(), truckPlanDto.getTruckDto())) {
                 log.error("车辆计划对象数据不符合要求， truckPlanDto -> {}", truckPlanDto);
                 continue;
             }
-            //2.2 准备Redis的key
-            //  根据该车辆的开始、结束机构id，来确定要处理的运单数据List集合Rediskey
-            Long startOrganId = truckPlanDto.getStartOrganId();
-            Long endOrganId = truckPlanDto.getEndOrganId();
-            String redisKey = this.transportOrderDispatchMQListener.getListRedisKey(startOrganId, endOrganId);
-            //  根据常量 + 集合RedisKey = 分布式锁RedisKey  (为了让同一用户的不同运单，尽可能的在一台车中运输 需要加分布式锁)
-            String lockRedisKey = Constants.LOCKS.DISPATCH_LOCK_PREFIX + redisKey;
-            RLock lock = this.redissonClient.getFairLock(lockRedisKey);
-            //2.3 声明DispatchMsgDTO集合变量 (用于存储当前车辆 所要运输的所有货物基本转运信息)
-            List<DispatchMsgDTO> dispatchMsgDTOList = new ArrayList<>();
+            //2.2 根据该车辆的开始、结束机构id确定线路
+            String lane = truckPlanDto.getStartOrganId() + "_" + truckPlanDto.getEndOrganId();
+            laneMap.computeIfAbsent(lane, key -> new ArrayList<>()).add(truckPlanDto);
+        }
+        // 3. 并行调度各条线路，同一条线路上的车辆按计划发车时间排序
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<LaneMetrics>> futures = new ArrayList<>();
+        laneMap.forEach((lane, truckPlans) -> {
+            truckPlans.sort(Comparator.comparing(TruckPlanDto::getPlanDepartureTime,
+                    Comparator.nullsLast(Comparator.naturalOrder())));
+            futures.add(this.submitLane(lane, truckPlans));
+        });
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        // 4. 调度失败的线路，没有生成运输任务的车辆计划不标记为已调度，下次继续调度
+        List<TruckPlanDto> completedList = new ArrayList<>(truckPlanDtoList);
+        int orders = 0;
+        for (CompletableFuture<LaneMetrics> future : futures) {
+            LaneMetrics laneMetrics = future.join();
+            orders += laneMetrics.getOrders();
+            if (!laneMetrics.getSuccess()) {
+                List<TruckPlanDto> truckPlans = laneMap.get(laneMetrics.getLane());
+                completedList.removeAll(truckPlans.subList(laneMetrics.getDispatched(), truckPlans.size()));
+            }
+        }
+        XxlJobHelper.log("调度完成，线路数：{}，车辆数：{}，运单数：{}，耗时：{}ms",
+                laneMap.size(), truckPlanDtoList.size(), orders, System.currentTimeMillis() - start);
+        //5. 发送消息所有查询到的车辆已经完成调度 调用: completeTruckPlan
+        if (CollUtil.isNotEmpty(completedList)) {
+            this.completeTruckPlan(completedList);
+        }
+    }
+
+    /**
+     * 提交线路调度任务，任务不会抛出异常，调度结果记录在返回的指标中
+     *
+     * @param lane       线路
+     * @param truckPlans 线路上的车辆计划，按计划发车时间排序
+     * @return 线路调度指标
+     */
+    private CompletableFuture<LaneMetrics> submitLane(String lane, List<TruckPlanDto> truckPlans) {
+        LaneMetrics laneMetrics = new LaneMetrics();
+        laneMetrics.setLane(lane);
+        laneMetrics.setTrucks(truckPlans.size());
+        laneMetrics.setOrders(0);
+        laneMetrics.setDispatched(0);
+        laneMetrics.setSendFailed(0);
+        laneMetrics.setPending(this.executor.getQueue().size());
+        long submitted = System.currentTimeMillis();
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            laneMetrics.setWaitTime(start - submitted);
+            List<List<DispatchMsgDTO>> loads = null;
+            int published = 0;
+            try {
+                //计算车辆运力 合并运单，运单通过认领的方式从队列中取出，多个分片同时处理同一条线路时无需加锁
+                loads = this.planLoads(truckPlans);
+                //基于车辆装载的运单 生成运输任务 调用: createTransportTask
+                for (; published < truckPlans.size(); published++) {
+                    TruckPlanDto truckPlanDto = truckPlans.get(published);
+                    if (!this.createTransportTask(truckPlanDto, truckPlanDto.getStartOrganId(), truckPlanDto.getEndOrganId(), loads.get(published))) {
+                        //消息已经交给重试和失败处理，重新发送后会生成运输任务，运单不能放回队列，否则会重复调度
+                        laneMetrics.setSendFailed(laneMetrics.getSendFailed() + 1);
+                    }
+                    laneMetrics.setOrders(laneMetrics.getOrders() + loads.get(published).size());
+                }
+                laneMetrics.setSuccess(true);
+            } catch (Exception e) {
+                log.error("线路调度失败，lane = {}", lane, e);
+                laneMetrics.setSuccess(false);
+                //认领之后出现异常，还没有发送运输任务消息的运单放回队列，下次继续调度
+                if (null != loads) {
+                    this.requeue(truckPlans.get(0), loads.subList(published, loads.size()));
+                }
+            }
+            //已经生成运输任务的车辆计划标记为已调度，避免重复生成运输任务
+            laneMetrics.setDispatched(published);
+            laneMetrics.setLatency(System.currentTimeMillis() - start);
+            laneMetrics.setFinished(System.currentTimeMillis());
             try {
-                //2.4 加分布式锁  采用公平锁
-                lock.lock();
-                //2.5  采用递归方式   计算车辆运力 合并运单 调用: executeTransportTask
-                this.executeTransportTask(redisKey, truckPlanDto.getTruckDto(), dispatchMsgDTOList);
-            } finally {
-                //2.6 解锁
-                lock.unlock();
+                TruckPlanDto truckPlanDto = truckPlans.get(0);
+                laneMetrics.setQueueDepth(this.dispatchQueue.size(truckPlanDto.getStartOrganId(), truckPlanDto.getEndOrganId()));
+            } catch (Exception e) {
+                log.warn("查询线路待调度运单数量失败，lane = {}", lane, e);
+            }
+            this.laneMetricsMap.put(lane, laneMetrics);
+            log.info("线路调度完成 >>> {}", laneMetrics);
+            return laneMetrics;
+        }, this.executor);
+    }
+
+    /**
+     * 分批读取线路上的运单，计算每辆车装载的运单，所有批次计算完成后一次性认领，未装载的运单保留在队列中
+     * <p>
+     * 读取、计算的过程中不会从队列中删除运单，出现异常时运单依然在队列中
+     *
+     * @param truckPlans 同一条线路上的车辆计划
+     * @return 每辆车装载的运单，与车辆计划的顺序一致
+     */
+    private List<List<DispatchMsgDTO>> planLoads(List<TruckPlanDto> truckPlans) {
+        Long startOrganId = truckPlans.get(0).getStartOrganId();
+        Long endOrganId = truckPlans.get(0).getEndOrganId();
+        List<TruckDto> trucks = truckPlans.stream().map(TruckPlanDto::getTruckDto).collect(Collectors.toList());
+        LoadPlanner loadPlanner = new LoadPlanner(trucks, this.weightRatio, this.volumeRatio);
+        //已经读取过的运单数量，下一批从这些运单之后开始读取
+        long offset = 0;
+        for (int round = 0; round < this.maxRounds; round++) {
+            //按照从早到晚的顺序读取一批
+            List<DispatchMsgDTO> window = this.dispatchQueue.peek(startOrganId, endOrganId, offset, this.batchSize);
+            if (CollUtil.isEmpty(window)) {
+                break;
             }
-            //2.7 基于上面的DispatchMsgDTO集合、车辆 生成运输任务 调用: createTransportTask
-            this.createTransportTask(truckPlanDto, startOrganId, endOrganId, dispatchMsgDTOList);
+            loadPlanner.pack(window);
+            offset += window.size();
+            if (window.size() < this.batchSize) {
+                //队列中已经没有更多的运单
+                break;
+            }
+        }
+        List<DispatchMsgDTO> packed = loadPlanner.getLoads().stream().flatMap(List::stream).collect(Collectors.toList());
+        if (CollUtil.isNotEmpty(packed)) {
+            //一次性认领装载的运单，已经被其他分片认领的运单取消装载
+            Set<String> claimed = new HashSet<>(this.dispatchQueue.claim(startOrganId, endOrganId,
+                    CollUtil.getFieldValues(packed, "transportOrderId", String.class)));
+            loadPlanner.release(packed.stream()
+                    .filter(dispatchMsgDTO -> !claimed.contains(dispatchMsgDTO.getTransportOrderId()))
+                    .collect(Collectors.toList()));
         }
-        //3. 发送消息所有查询到的车辆已经完成调度 调用: completeTruckPlan
-        this.completeTruckPlan(truckPlanDtoList);
+        return loadPlanner.getLoads();
     }
 
     /**
-     * 递归处理   判断车辆运力  匹配运单
-     * @param redisKey
-     * @param truckDto
-     * @param dispatchMsgDTOList
+     * 将认领的运单放回队列，保留原来的创建时间，排序位置不变
+     *
+     * @param truckPlanDto 线路上的车辆计划
+     * @param loads        没有生成运输任务的车辆装载的运单
      */
-    private void executeTransportTask(String redisKey, TruckDto truckDto, List<DispatchMsgDTO> dispatchMsgDTOList) {
-        // 1. 根据rediskey 从list队列的右侧取出数据  为空返回代表没有运单
-        String redisData = stringRedisTemplate.opsForList().rightPop(redisKey);
-        if (StrUtil.isEmpty(redisData)) {
-            // 该车辆没有运单需要运输
+    private void requeue(TruckPlanDto truckPlanDto, List<List<DispatchMsgDTO>> loads) {
+        List<DispatchMsgDTO> dispatchMsgDTOList = loads.stream().flatMap(List::stream).collect(Collectors.toList());
+        if (CollUtil.isEmpty(dispatchMsgDTOList)) {
             return;
         }
-        // 2. 将获取到的jsonStr转为DispatchMsgDTO对象
-        DispatchMsgDTO dispatchMsgDTO = JSONUtil.toBean(redisData, DispatchMsgDTO.class);
-        // 3. 计算该车辆已经分配的运单，是否超出其运力，载重 或 体积超出，需要将新拿到的运单加进去后进行比较
-        //    计算总重量: dispatchMsgDTOList已经装车的 + 新拿到的运单
-        BigDecimal totalWeight = NumberUtil.add(NumberUtil.toBigDecimal(dispatchMsgDTOList.stream()
-                .mapToDouble(DispatchMsgDTO::getTotalWeight)
-                .sum()), dispatchMsgDTO.getTotalWeight());
-        //    计算总体积: dispatchMsgDTOList已经装车的 + 新拿到的运单
-        BigDecimal totalVolume = NumberUtil.add(NumberUtil.toBigDecimal(dispatchMsgDTOList.stream().
-                mapToDouble(DispatchMsgDTO::getTotalVolume)
-                .sum()), dispatchMsgDTO.getTotalVolume());
-        //4. 车辆最大的容积和载重要留有余量，否则可能会超重 或 装不下
-        //    实际可容纳最大重量 = AllowableLoad  *  weightRatio
-        BigDecimal maxAllowableLoad = NumberUtil.mul(truckDto.getAllowableLoad(), weightRatio);
-        //    实际可容纳最大体积 = AllowableVolume * volumeRatio
-        BigDecimal maxAllowableVolume = NumberUtil.mul(truckDto.getAllowableVolume(), volumeRatio);
-        //    如果当前 计算总重量 >= 实际可容纳最大重量  或者 计算总体积 >=实际可容纳最大体积
-        if (NumberUtil.isGreaterOrEqual(totalWeight, maxAllowableLoad)
-                || NumberUtil.isGreaterOrEqual(totalVolume, maxAllowableVolume)) {
-            // 那么超出车辆运力，需要取货的运单再放回Redis去，放到最右边，以便保证运单处理的顺序  并Return结束方法
-            stringRedisTemplate.opsForList().rightPush(redisKey, redisData);
-            return;
+        try {
+            this.dispatchQueue.requeue(truckPlanDto.getStartOrganId(), truckPlanDto.getEndOrganId(), dispatchMsgDTOList);
+        } catch (Exception e) {
+            log.error("运单放回调度队列失败，需要人工处理，lane = {}_{}, transportOrderIds = {}", truckPlanDto.getStartOrganId(),
+                    truckPlanDto.getEndOrganId(), CollUtil.getFieldValues(dispatchMsgDTOList, "transportOrderId", String.class), e);
         }
-        //5. 没有超出运力，将该运单加入到dispatchMsgDTOList集合中,代表已装运单
-        dispatchMsgDTOList.add(dispatchMsgDTO);
-        //6. 递归处理运单
-        this.executeTransportTask(redisKey, truckDto, dispatchMsgDTOList);
     }
 
     /**
@@ -146,8 +285,9 @@ public class DispatchJob {
      * @param startOrganId
      * @param endOrganId
      * @param dispatchMsgDTOList
+     * @return 消息是否立即发出，false表示已经交给重试和失败处理
      */
-    private void createTransportTask(TruckPlanDto truckPlanDto, Long startOrganId, Long endOrganId, List<DispatchMsgDTO> dispatchMsgDTOList) {
+    private boolean createTransportTask(TruckPlanDto truckPlanDto, Long startOrganId, Long endOrganId, List<DispatchMsgDTO> dispatchMsgDTOList) {
         //将运单车辆的结果以消息的方式发送出去
         //消息格式:
         // {"driverId":[], "truckPlanId":456, "truckId":1210114964812075008,
@@ -178,13 +318,8 @@ public class DispatchJob {
                         .sum()).build();
         // 4. 将消息map转为jsonStr 并发送消息  交换机: Constants.MQ.Exchanges.TRANSPORT_TASK  路由: Constants.MQ.RoutingKeys.TRANSPORT_TASK_CREATE
         String jsonMsg = JSONUtil.toJsonStr(msgResult);
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_TASK,
-                Constants.MQ.RoutingKeys.TRANSPORT_TASK_CREATE, jsonMsg);
-        // 5. 如果运单id列表不为空，需要删除redis中set集合用来判断重复的对应数据
-        if (CollUtil.isNotEmpty(transportOrderIdList)) {
-            String setRedisKey = this.transportOrderDispatchMQListener.getSetRedisKey(startOrganId, endOrganId);
-            this.stringRedisTemplate.opsForSet().remove(setRedisKey, transportOrderIdList.toArray());
-        }
+        return Boolean.TRUE.equals(this.mqPublisher.sendMsg(Constants.MQ.Exchanges.TRANSPORT_TASK,
+                Constants.MQ.RoutingKeys.TRANSPORT_TASK_CREATE, jsonMsg));
     }
 
     /**
@@ -198,7 +333,7 @@ public class DispatchJob {
                 .put("created", System.currentTimeMillis()).build();
         String jsonMsg = JSONUtil.toJsonStr(msg);
         //发送消息
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRUCK_PLAN,
+        this.mqPublisher.sendMsg(Constants.MQ.Exchanges.TRUCK_PLAN,
                 Constants.MQ.RoutingKeys.TRUCK_PLAN_COMPLETE, jsonMsg);
     }
 }
@@ -0,0 +1,55 @@
+package com.sl.ms.dispatch.job;
+
+import lombok.Data;
+
+/**
+ * 线路调度指标，记录每条线路最近一次调度的情况
+ */
+@Data
+public class LaneMetrics {
+
+    /**
+     * 线路，格式：开始机构id_结束机构id
+     */
+    private String lane;
+    /**
+     * 车辆数
+     */
+    private Integer trucks;
+    /**
+     * 装载的运单数
+     */
+    private Integer orders;
+    /**
+     * 已经生成运输任务的车辆数，按车辆计划的顺序
+     */
+    private Integer dispatched;
+    /**
+     * 运输任务消息没有立即发出的车辆数，消息已经交给重试和失败处理
+     */
+    private Integer sendFailed;
+    /**
+     * 提交时线程池中等待执行的线路数
+     */
+    private Integer pending;
+    /**
+     * 调度完成后队列中剩余的运单数
+     */
+    private Long queueDepth;
+    /**
+     * 在线程池中等待的时间，单位：毫秒
+     */
+    private Long waitTime;
+    /**
+     * 调度耗时，单位：毫秒
+     */
+    private Long latency;
+    /**
+     * 是否调度成功
+     */
+    private Boolean success;
+    /**
+     * 调度完成时间
+     */
+    private Long finished;
+}
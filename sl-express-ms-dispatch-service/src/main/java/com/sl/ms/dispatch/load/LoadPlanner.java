@@ -0,0 +1,162 @@
+package com.sl.ms.dispatch.load;
+
+import cn.hutool.core.convert.Convert;
+import com.sl.ms.base.domain.truck.TruckDto;
+import com.sl.ms.dispatch.dto.DispatchMsgDTO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 车辆装载计划，按 重量 × 体积 两个维度装箱
+ * <p>
+ * 同一条线路上的多辆车一起装载：运单按照占用运力的比例从大到小排序（占比相同时早的优先），
+ * 依次放入装入后剩余运力最少的车辆（Best Fit Decreasing），放不下的运单跳过，继续尝试后面更小的运单。
+ * 可以多次调用 {@link #pack(List)} 分批装载，车辆的已装载量会累计。
+ */
+public class LoadPlanner {
+
+    private final List<Bin> bins;
+    /**
+     * 用于计算运单占用运力比例的基准，取所有车辆中最大的运力
+     */
+    private final double weightBase;
+    private final double volumeBase;
+
+    /**
+     * @param trucks      车辆列表
+     * @param weightRatio 载重的使用比例，车辆需要留有余量
+     * @param volumeRatio 容积的使用比例，车辆需要留有余量
+     */
+    public LoadPlanner(List<TruckDto> trucks, double weightRatio, double volumeRatio) {
+        this.bins = trucks.stream()
+                .map(truck -> new Bin(Convert.toDouble(truck.getAllowableLoad(), 0D) * weightRatio,
+                        Convert.toDouble(truck.getAllowableVolume(), 0D) * volumeRatio))
+                .collect(Collectors.toList());
+        this.weightBase = Math.max(this.bins.stream().mapToDouble(bin -> bin.maxWeight).max().orElse(0D), Double.MIN_VALUE);
+        this.volumeBase = Math.max(this.bins.stream().mapToDouble(bin -> bin.maxVolume).max().orElse(0D), Double.MIN_VALUE);
+    }
+
+    /**
+     * 装载一批运单
+     *
+     * @param candidates 待装载的运单，按从早到晚的顺序排列
+     * @return 本次装载成功的运单，未装载的运单需要保留在队列中
+     */
+    public List<DispatchMsgDTO> pack(List<DispatchMsgDTO> candidates) {
+        List<DispatchMsgDTO> sorted = new ArrayList<>(candidates);
+        //List.sort是稳定排序，占比相同时保持原有的先后顺序
+        sorted.sort(Comparator.comparingDouble(this::share).reversed());
+        List<DispatchMsgDTO> packed = new ArrayList<>();
+        for (DispatchMsgDTO dispatchMsgDTO : sorted) {
+            double weight = weightOf(dispatchMsgDTO);
+            double volume = volumeOf(dispatchMsgDTO);
+            Bin best = null;
+            double bestResidual = Double.MAX_VALUE;
+            for (Bin bin : this.bins) {
+                if (!bin.fits(weight, volume)) {
+                    continue;
+                }
+                double residual = bin.residual(weight, volume);
+                if (residual < bestResidual) {
+                    best = bin;
+                    bestResidual = residual;
+                }
+            }
+            if (null != best) {
+                best.add(dispatchMsgDTO, weight, volume);
+                packed.add(dispatchMsgDTO);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * 取消装载，用于运单被其他调度分片认领的情况
+     *
+     * @param dispatchMsgDTOList 要取消装载的运单
+     */
+    public void release(Collection<DispatchMsgDTO> dispatchMsgDTOList) {
+        for (DispatchMsgDTO dispatchMsgDTO : dispatchMsgDTOList) {
+            for (Bin bin : this.bins) {
+                if (bin.remove(dispatchMsgDTO)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取每辆车的装载结果，与构造时传入的车辆顺序一致
+     *
+     * @return 装载的运单列表
+     */
+    public List<List<DispatchMsgDTO>> getLoads() {
+        return this.bins.stream().map(bin -> bin.items).collect(Collectors.toList());
+    }
+
+    /**
+     * 运单占用运力的比例，取重量、体积中较大的一个
+     */
+    private double share(DispatchMsgDTO dispatchMsgDTO) {
+        return Math.max(weightOf(dispatchMsgDTO) / this.weightBase, volumeOf(dispatchMsgDTO) / this.volumeBase);
+    }
+
+    private static double weightOf(DispatchMsgDTO dispatchMsgDTO) {
+        return Convert.toDouble(dispatchMsgDTO.getTotalWeight(), 0D);
+    }
+
+    private static double volumeOf(DispatchMsgDTO dispatchMsgDTO) {
+        return Convert.toDouble(dispatchMsgDTO.getTotalVolume(), 0D);
+    }
+
+    private static class Bin {
+        private final double maxWeight;
+        private final double maxVolume;
+        private double weight;
+        private double volume;
+        private final List<DispatchMsgDTO> items = new ArrayList<>();
+
+        private Bin(double maxWeight, double maxVolume) {
+            this.maxWeight = maxWeight;
+            this.maxVolume = maxVolume;
+        }
+
+        /**
+         * 装入后的总重量、总体积都要小于车辆的最大运力
+         */
+        private boolean fits(double weight, double volume) {
+            return this.weight + weight < this.maxWeight && this.volume + volume < this.maxVolume;
+        }
+
+        /**
+         * 装入后剩余运力的比例之和
+         */
+        private double residual(double weight, double volume) {
+            return (this.maxWeight - this.weight - weight) / this.maxWeight
+                    + (this.maxVolume - this.volume - volume) / this.maxVolume;
+        }
+
+        private void add(DispatchMsgDTO dispatchMsgDTO, double weight, double volume) {
+            this.items.add(dispatchMsgDTO);
+            this.weight += weight;
+            this.volume += volume;
+        }
+
+        private boolean remove(DispatchMsgDTO dispatchMsgDTO) {
+            //按引用查找，内容相同的运单也是不同的对象
+            for (int i = 0; i < this.items.size(); i++) {
+                if (this.items.get(i) == dispatchMsgDTO) {
+                    this.items.remove(i);
+                    this.weight -= weightOf(dispatchMsgDTO);
+                    this.volume -= volumeOf(dispatchMsgDTO);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -6,8 +6,8 @@ import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.date.LocalDateTimeUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.json.JSONUtil;
+import com.sl.mq.publisher.MQPublisher;
 import com.sl.ms.api.CourierFeign;
-import com.sl.ms.base.api.common.MQFeign;
 import com.sl.ms.work.api.PickupDispatchTaskFeign;
 import com.sl.ms.work.domain.dto.CourierTaskCountDTO;
 import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskType;
@@ -40,7 +40,7 @@ public class OrderMQListener {
     private CourierFeign courierFeign;
 
     @Resource
-    private MQFeign mqFeign;
+    private MQPublisher mqPublisher;
 
     @Resource
     private PickupDispatchTaskFeign pickupDispatchTaskFeign;
@@ -107,7 +107,7 @@ public class OrderMQListener {
         //               路由: Constants.MQ.RoutingKeys.PICKUP_DISPATCH_TASK_CREATE
         //               消息: 消息对象转jsonStr
         //              延时时间:  -1 代表不延迟
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.PICKUP_DISPATCH_TASK_DELAYED,
+        this.mqPublisher.sendMsg(Constants.MQ.Exchanges.PICKUP_DISPATCH_TASK_DELAYED,
                 Constants.MQ.RoutingKeys.PICKUP_DISPATCH_TASK_CREATE, courierTaskMsg.toJson(), delay);
     }
 
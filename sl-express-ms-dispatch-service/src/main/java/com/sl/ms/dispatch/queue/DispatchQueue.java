@@ -0,0 +1,242 @@
+package com.sl.ms.dispatch.queue;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.sl.ms.dispatch.dto.DispatchMsgDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 待调度运单队列，每条线路（开始机构 -> 结束机构）一个队列
+ * <p>
+ * 使用ZSET按运单创建时间排序，HASH保存运单数据，写入、读取、认领都通过Lua脚本一次完成，
+ * 多个调度分片可以同时处理同一条线路，运单只会被一个分片认领，无需加锁
+ */
+@Slf4j
+@Component
+public class DispatchQueue {
+
+    /**
+     * 原有的LIST队列、SET去重集合的key前缀，后面拼接开始机构id_结束机构id
+     */
+    private static final String LEGACY_LIST_PREFIX = "DISPATCH_LIST_";
+    private static final String LEGACY_SET_PREFIX = "DISPATCH_SET_";
+
+    /**
+     * 写入运单，参数为多组（运单id、创建时间、运单数据），已经在队列中的运单不重复写入，返回写入的数量
+     */
+    private static final RedisScript<Long> OFFER_SCRIPT = new DefaultRedisScript<>(
+            "local count = 0\n" +
+                    "for i = 1, #ARGV, 3 do\n" +
+                    "    if redis.call('ZADD', KEYS[1], 'NX', ARGV[i + 1], ARGV[i]) == 1 then\n" +
+                    "        redis.call('HSET', KEYS[2], ARGV[i], ARGV[i + 2])\n" +
+                    "        count = count + 1\n" +
+                    "    end\n" +
+                    "end\n" +
+                    "return count", Long.class);
+
+    /**
+     * 将原有LIST队列中的运单迁移过来（右侧为最早的运单），并删除原有的SET去重集合
+     */
+    private static final RedisScript<Long> MIGRATE_SCRIPT = new DefaultRedisScript<>(
+            "local count = 0\n" +
+                    "local item = redis.call('RPOP', KEYS[3])\n" +
+                    "while item do\n" +
+                    "    local order = cjson.decode(item)\n" +
+                    "    if redis.call('ZADD', KEYS[1], 'NX', tonumber(order['created']) or 0, order['transportOrderId']) == 1 then\n" +
+                    "        redis.call('HSET', KEYS[2], order['transportOrderId'], item)\n" +
+                    "        count = count + 1\n" +
+                    "    end\n" +
+                    "    item = redis.call('RPOP', KEYS[3])\n" +
+                    "end\n" +
+                    "redis.call('DEL', KEYS[4])\n" +
+                    "return count", Long.class);
+
+    /**
+     * 按创建时间从早到晚读取运单，不从队列中删除
+     */
+    private static final RedisScript<List> PEEK_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGE', KEYS[1], ARGV[1], ARGV[2])\n" +
+                    "if #ids == 0 then\n" +
+                    "    return {}\n" +
+                    "end\n" +
+                    "return redis.call('HMGET', KEYS[2], unpack(ids))", List.class);
+
+    /**
+     * 认领运单，返回认领成功的运单id，已经被其他分片认领的运单不会返回
+     */
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local claimed = {}\n" +
+                    "for i = 1, #ARGV do\n" +
+                    "    if redis.call('ZREM', KEYS[1], ARGV[i]) == 1 then\n" +
+                    "        redis.call('HDEL', KEYS[2], ARGV[i])\n" +
+                    "        claimed[#claimed + 1] = ARGV[i]\n" +
+                    "    end\n" +
+                    "end\n" +
+                    "return claimed", List.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 启动时将原有LIST队列中的运单一次性迁移到ZSET队列，读取时不再检查原有的队列
+     * <p>
+     * 迁移按线路在Lua脚本中完成，多个实例同时启动时重复执行不会重复写入
+     */
+    @PostConstruct
+    public void migrate() {
+        Set<String> lanes = new HashSet<>();
+        try {
+            this.scan(LEGACY_LIST_PREFIX).forEach(key -> lanes.add(StrUtil.removePrefix(key, LEGACY_LIST_PREFIX)));
+            this.scan(LEGACY_SET_PREFIX).forEach(key -> lanes.add(StrUtil.removePrefix(key, LEGACY_SET_PREFIX)));
+            for (String lane : lanes) {
+                List<String> ids = StrUtil.split(lane, '_');
+                if (ids.size() != 2) {
+                    continue;
+                }
+                List<String> keys = this.keys(Convert.toLong(ids.get(0)), Convert.toLong(ids.get(1)));
+                keys.add(LEGACY_LIST_PREFIX + lane);
+                keys.add(LEGACY_SET_PREFIX + lane);
+                Long count = this.stringRedisTemplate.execute(MIGRATE_SCRIPT, keys);
+                log.info("迁移原有调度队列完成，lane = {}, 运单数量：{}", lane, count);
+            }
+        } catch (Exception e) {
+            log.error("迁移原有调度队列失败，原有队列中的运单需要重启后再次迁移，lanes = {}", lanes, e);
+        }
+    }
+
+    private List<String> scan(String prefix) {
+        return this.stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(prefix + "*").count(1000).build())) {
+                cursor.forEachRemaining(key -> keys.add(StrUtil.utf8Str(key)));
+            }
+            return keys;
+        });
+    }
+
+    /**
+     * 写入运单
+     *
+     * @param dispatchMsgDTO 运单调度消息
+     * @return 是否写入，运单已经在队列中时返回false
+     */
+    public boolean offer(DispatchMsgDTO dispatchMsgDTO) {
+        Long created = ObjectUtil.defaultIfNull(dispatchMsgDTO.getCreated(), System.currentTimeMillis());
+        Long result = this.stringRedisTemplate.execute(OFFER_SCRIPT,
+                this.keys(dispatchMsgDTO.getCurrentAgencyId(), dispatchMsgDTO.getNextAgencyId()),
+                dispatchMsgDTO.getTransportOrderId(), String.valueOf(created), this.value(dispatchMsgDTO, created));
+        return ObjectUtil.equal(result, 1L);
+    }
+
+    /**
+     * 按创建时间从早到晚读取运单，不会从队列中删除
+     *
+     * @param startId 开始机构id
+     * @param endId   结束机构id
+     * @param offset  跳过的数量
+     * @param count   读取的数量
+     * @return 运单列表
+     */
+    public List<DispatchMsgDTO> peek(Long startId, Long endId, long offset, int count) {
+        List<?> values = this.stringRedisTemplate.execute(PEEK_SCRIPT, this.keys(startId, endId),
+                String.valueOf(offset), String.valueOf(offset + count - 1));
+        if (CollUtil.isEmpty(values)) {
+            return new ArrayList<>();
+        }
+        return values.stream()
+                .filter(ObjectUtil::isNotEmpty)
+                .map(value -> JSONUtil.toBean(value.toString(), DispatchMsgDTO.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 认领运单，认领成功的运单从队列中删除
+     *
+     * @param startId           开始机构id
+     * @param endId             结束机构id
+     * @param transportOrderIds 要认领的运单id
+     * @return 认领成功的运单id
+     */
+    public List<String> claim(Long startId, Long endId, Collection<String> transportOrderIds) {
+        if (CollUtil.isEmpty(transportOrderIds)) {
+            return new ArrayList<>();
+        }
+        List<?> claimed = this.stringRedisTemplate.execute(CLAIM_SCRIPT, this.keys(startId, endId),
+                transportOrderIds.toArray());
+        if (CollUtil.isEmpty(claimed)) {
+            return new ArrayList<>();
+        }
+        return claimed.stream().map(Object::toString).collect(Collectors.toList());
+    }
+
+    /**
+     * 将认领后没有完成调度的运单放回队列，使用原来的创建时间，排序位置不变，所有运单在一次脚本调用中写入
+     *
+     * @param startId            开始机构id
+     * @param endId              结束机构id
+     * @param dispatchMsgDTOList 运单列表
+     */
+    public void requeue(Long startId, Long endId, Collection<DispatchMsgDTO> dispatchMsgDTOList) {
+        if (CollUtil.isEmpty(dispatchMsgDTOList)) {
+            return;
+        }
+        List<String> args = new ArrayList<>(dispatchMsgDTOList.size() * 3);
+        for (DispatchMsgDTO dispatchMsgDTO : dispatchMsgDTOList) {
+            Long created = ObjectUtil.defaultIfNull(dispatchMsgDTO.getCreated(), System.currentTimeMillis());
+            args.add(dispatchMsgDTO.getTransportOrderId());
+            args.add(String.valueOf(created));
+            args.add(this.value(dispatchMsgDTO, created));
+        }
+        this.stringRedisTemplate.execute(OFFER_SCRIPT, this.keys(startId, endId), args.toArray());
+    }
+
+    /**
+     * 队列中待调度的运单数量
+     *
+     * @param startId 开始机构id
+     * @param endId   结束机构id
+     * @return 运单数量
+     */
+    public long size(Long startId, Long endId) {
+        Long size = this.stringRedisTemplate.opsForZSet().zCard(this.keys(startId, endId).get(0));
+        return ObjectUtil.defaultIfNull(size, 0L);
+    }
+
+    /**
+     * 队列中保存的运单数据
+     * (要存的value值格式==>{"transportOrderId":111222, "totalVolume":0.8, "totalWeight":2.1, "created":111222223333})
+     */
+    private String value(DispatchMsgDTO dispatchMsgDTO, Long created) {
+        return JSONUtil.createObj()
+                .set("transportOrderId", dispatchMsgDTO.getTransportOrderId())
+                .set("totalVolume", dispatchMsgDTO.getTotalVolume())
+                .set("totalWeight", dispatchMsgDTO.getTotalWeight())
+                .set("created", created)
+                .toString();
+    }
+
+    private List<String> keys(Long startId, Long endId) {
+        return ListUtil.toList(StrUtil.format("DISPATCH_ZSET_{}_{}", startId, endId),
+                StrUtil.format("DISPATCH_DATA_{}_{}", startId, endId));
+    }
+}
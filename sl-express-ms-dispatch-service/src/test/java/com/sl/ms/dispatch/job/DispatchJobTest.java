@@ -0,0 +1,188 @@
+package com.sl.ms.dispatch.job;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.sl.mq.publisher.MQPublisher;
+import com.sl.ms.base.api.truck.TruckPlanFeign;
+import com.sl.ms.base.domain.truck.TruckPlanDto;
+import com.sl.ms.dispatch.dto.DispatchMsgDTO;
+import com.sl.ms.dispatch.queue.DispatchQueue;
+import com.sl.transport.common.constant.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.sl.ms.dispatch.load.LoadPlannerTest.order;
+import static com.sl.ms.dispatch.load.LoadPlannerTest.truck;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 线路调度中途失败时，运单不能丢失，已经生成运输任务的车辆计划不能重复调度
+ */
+class DispatchJobTest {
+
+    private static final Long START_ID = 1L;
+    private static final Long END_ID = 2L;
+
+    private DispatchJob dispatchJob;
+    private MemoryQueue dispatchQueue;
+    private final List<TruckPlanDto> truckPlans = new ArrayList<>();
+    /**
+     * 发送的运输任务消息
+     */
+    private final List<JSONObject> tasks = new ArrayList<>();
+    /**
+     * 标记为已调度的车辆计划id
+     */
+    private final List<Long> completed = new ArrayList<>();
+    /**
+     * 第几个运输任务消息没有立即发出，从1开始，0为全部发出
+     */
+    private int failOnTask;
+
+    @BeforeEach
+    void setUp() {
+        this.dispatchQueue = new MemoryQueue();
+        this.dispatchJob = new DispatchJob();
+        ReflectUtil.setFieldValue(this.dispatchJob, "dispatchQueue", this.dispatchQueue);
+        ReflectUtil.setFieldValue(this.dispatchJob, "truckPlanFeign", Proxy.newProxyInstance(TruckPlanFeign.class.getClassLoader(),
+                new Class[]{TruckPlanFeign.class}, (proxy, method, args) -> "pullUnassignedPlan".equals(method.getName()) ? this.truckPlans : null));
+        ReflectUtil.setFieldValue(this.dispatchJob, "mqPublisher", new MQPublisher() {
+            @Override
+            public Boolean sendMsg(String exchange, String routingKey, Object msg) {
+                if (Constants.MQ.RoutingKeys.TRANSPORT_TASK_CREATE.equals(routingKey)) {
+                    //与MQPublisher一致，发送异常时不抛出，消息交给重试和失败处理后返回false
+                    tasks.add(JSONUtil.parseObj(msg));
+                    return tasks.size() != failOnTask;
+                } else {
+                    completed.addAll(JSONUtil.parseObj(msg).getJSONArray("ids").toList(Long.class));
+                }
+                return true;
+            }
+        });
+        ReflectUtil.setFieldValue(this.dispatchJob, "volumeRatio", 1D);
+        ReflectUtil.setFieldValue(this.dispatchJob, "weightRatio", 1D);
+        ReflectUtil.setFieldValue(this.dispatchJob, "batchSize", 2);
+        ReflectUtil.setFieldValue(this.dispatchJob, "maxRounds", 5);
+        ReflectUtil.setFieldValue(this.dispatchJob, "laneThreads", 2);
+        ReflectUtil.setFieldValue(this.dispatchJob, "laneQueueCapacity", 10);
+        this.dispatchJob.init();
+
+        this.truckPlans.add(truckPlan(11L, 100));
+        this.truckPlans.add(truckPlan(12L, 100));
+        for (int i = 1; i <= 5; i++) {
+            this.dispatchQueue.add(order(String.valueOf(i), 30, 30), i);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.dispatchJob.destroy();
+    }
+
+    @Test
+    void transportTask() {
+        this.dispatchJob.transportTask();
+        assertEquals(2, this.tasks.size());
+        assertEquals(0, this.dispatchQueue.size(START_ID, END_ID));
+        assertEquals(ListUtil.toList(11L, 12L), this.completed);
+        assertTrue(this.dispatchJob.getLaneMetrics().get(START_ID + "_" + END_ID).getSuccess());
+    }
+
+    @Test
+    void peekFailed() {
+        //第二批读取失败，所有运单都没有被认领
+        this.dispatchQueue.failOnPeek = 2;
+        this.dispatchJob.transportTask();
+        assertTrue(this.tasks.isEmpty());
+        assertTrue(this.completed.isEmpty());
+        assertEquals(5, this.dispatchQueue.size(START_ID, END_ID));
+        assertFalse(this.dispatchJob.getLaneMetrics().get(START_ID + "_" + END_ID).getSuccess());
+    }
+
+    @Test
+    void createTaskSendFailed() {
+        //第二辆车的运输任务消息没有立即发出，已经交给重试，运单不放回队列，避免重复调度
+        this.failOnTask = 2;
+        this.dispatchJob.transportTask();
+        assertEquals(2, this.tasks.size());
+        assertEquals(0, this.dispatchQueue.size(START_ID, END_ID));
+        assertEquals(ListUtil.toList(11L, 12L), this.completed);
+        LaneMetrics laneMetrics = this.dispatchJob.getLaneMetrics().get(START_ID + "_" + END_ID);
+        assertTrue(laneMetrics.getSuccess());
+        assertEquals(1, laneMetrics.getSendFailed());
+    }
+
+    private static TruckPlanDto truckPlan(Long id, double capacity) {
+        TruckPlanDto truckPlanDto = new TruckPlanDto();
+        truckPlanDto.setId(id);
+        truckPlanDto.setTruckId(id);
+        truckPlanDto.setTransportTripsId(id);
+        truckPlanDto.setStartOrganId(START_ID);
+        truckPlanDto.setEndOrganId(END_ID);
+        truckPlanDto.setTruckDto(truck(capacity, capacity));
+        return truckPlanDto;
+    }
+
+    /**
+     * 内存中的调度队列，按创建时间排序
+     */
+    private static class MemoryQueue extends DispatchQueue {
+
+        private final TreeMap<Long, DispatchMsgDTO> queue = new TreeMap<>();
+        private int peeks;
+        private int failOnPeek;
+
+        private void add(DispatchMsgDTO dispatchMsgDTO, long created) {
+            dispatchMsgDTO.setCreated(created);
+            this.queue.put(created, dispatchMsgDTO);
+        }
+
+        @Override
+        public synchronized void requeue(Long startId, Long endId, Collection<DispatchMsgDTO> dispatchMsgDTOList) {
+            assertEquals(START_ID, startId);
+            assertEquals(END_ID, endId);
+            for (DispatchMsgDTO dispatchMsgDTO : dispatchMsgDTOList) {
+                this.queue.putIfAbsent(dispatchMsgDTO.getCreated(), dispatchMsgDTO);
+            }
+        }
+
+        @Override
+        public synchronized List<DispatchMsgDTO> peek(Long startId, Long endId, long offset, int count) {
+            if (++this.peeks == this.failOnPeek) {
+                throw new IllegalStateException("peek failed");
+            }
+            //与Redis中的数据一样，每次读取的都是新的对象
+            return this.queue.values().stream().skip(offset).limit(count)
+                    .map(dispatchMsgDTO -> JSONUtil.toBean(JSONUtil.toJsonStr(dispatchMsgDTO), DispatchMsgDTO.class))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public synchronized List<String> claim(Long startId, Long endId, Collection<String> transportOrderIds) {
+            List<String> claimed = new ArrayList<>();
+            for (Map.Entry<Long, DispatchMsgDTO> entry : new ArrayList<>(this.queue.entrySet())) {
+                if (transportOrderIds.contains(entry.getValue().getTransportOrderId())) {
+                    this.queue.remove(entry.getKey());
+                    claimed.add(entry.getValue().getTransportOrderId());
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public synchronized long size(Long startId, Long endId) {
+            return this.queue.size();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.sl.ms.dispatch.load;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.sl.ms.base.domain.truck.TruckDto;
+import com.sl.ms.dispatch.dto.DispatchMsgDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 装载计划与原有逐个取出运单方式的对比，原有方式遇到第一个放不下的运单就停止装载
+ * <p>
+ * 执行：运行main方法，开始前会输出两种方式的平均装载率
+ */
+@Slf4j
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadPlannerBenchmark {
+
+    private static final double RATIO = 0.95;
+
+    @Param({"200", "1000"})
+    private int orderSize;
+
+    private List<DispatchMsgDTO> orders;
+    private TruckDto truck;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1);
+        this.orders = new ArrayList<>(this.orderSize);
+        for (int i = 0; i < this.orderSize; i++) {
+            //大部分是小件，少量大件
+            double scale = random.nextDouble() < 0.1 ? 40 : 4;
+            this.orders.add(LoadPlannerTest.order(String.valueOf(i), 1 + random.nextDouble() * scale * 25, 0.1 + random.nextDouble() * scale));
+        }
+        this.truck = LoadPlannerTest.truck(2000, 60);
+        log.info("运单数：{}，原有方式装载率：{}%，装载计划装载率：{}%", this.orderSize,
+                NumberUtil.roundStr(fillRatio(this.legacy()), 2), NumberUtil.roundStr(fillRatio(this.planner()), 2));
+    }
+
+    @Benchmark
+    public List<DispatchMsgDTO> legacy() {
+        //模拟原有的递归：逐个取出，每次重新累加已装载的运单
+        LinkedList<DispatchMsgDTO> queue = new LinkedList<>(this.orders);
+        List<DispatchMsgDTO> loaded = new ArrayList<>();
+        double maxWeight = this.truck.getAllowableLoad().doubleValue() * RATIO;
+        double maxVolume = this.truck.getAllowableVolume().doubleValue() * RATIO;
+        while (!queue.isEmpty()) {
+            DispatchMsgDTO dispatchMsgDTO = queue.pollFirst();
+            double totalWeight = loaded.stream().mapToDouble(DispatchMsgDTO::getTotalWeight).sum() + dispatchMsgDTO.getTotalWeight();
+            double totalVolume = loaded.stream().mapToDouble(DispatchMsgDTO::getTotalVolume).sum() + dispatchMsgDTO.getTotalVolume();
+            if (totalWeight >= maxWeight || totalVolume >= maxVolume) {
+                queue.addFirst(dispatchMsgDTO);
+                break;
+            }
+            loaded.add(dispatchMsgDTO);
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public List<DispatchMsgDTO> planner() {
+        LoadPlanner loadPlanner = new LoadPlanner(ListUtil.toList(this.truck), RATIO, RATIO);
+        return loadPlanner.pack(this.orders);
+    }
+
+    /**
+     * 装载率，取重量、体积中较高的一个
+     */
+    private double fillRatio(List<DispatchMsgDTO> loaded) {
+        double weight = loaded.stream().mapToDouble(DispatchMsgDTO::getTotalWeight).sum();
+        double volume = loaded.stream().mapToDouble(DispatchMsgDTO::getTotalVolume).sum();
+        return 100 * Math.max(weight / this.truck.getAllowableLoad().doubleValue(), volume / this.truck.getAllowableVolume().doubleValue());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LoadPlannerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
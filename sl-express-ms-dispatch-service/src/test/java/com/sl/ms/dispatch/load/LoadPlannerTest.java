@@ -0,0 +1,63 @@
+package com.sl.ms.dispatch.load;
+
+import cn.hutool.core.collection.ListUtil;
+import com.sl.ms.base.domain.truck.TruckDto;
+import com.sl.ms.dispatch.dto.DispatchMsgDTO;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadPlannerTest {
+
+    @Test
+    void skipLargeAndPackSmaller() {
+        LoadPlanner loadPlanner = new LoadPlanner(ListUtil.toList(truck(100, 100)), 1, 1);
+        //第二个运单放不下，后面更小的运单仍然可以装载
+        List<DispatchMsgDTO> packed = loadPlanner.pack(ListUtil.toList(
+                order("1", 60, 10), order("2", 50, 10), order("3", 30, 10)));
+        assertEquals(ListUtil.toList("1", "3"), ids(packed));
+        assertEquals(1, loadPlanner.getLoads().size());
+    }
+
+    @Test
+    void bestFitAcrossTrucks() {
+        LoadPlanner loadPlanner = new LoadPlanner(ListUtil.toList(truck(100, 100), truck(50, 50)), 1, 1);
+        List<DispatchMsgDTO> packed = loadPlanner.pack(ListUtil.toList(
+                order("1", 40, 40), order("2", 90, 10), order("3", 5, 5)));
+        assertEquals(3, packed.size());
+        //占比最大的运单优先装入，两辆车都能装下时放入剩余运力最少的车辆
+        assertEquals(ListUtil.toList("2"), ids(loadPlanner.getLoads().get(0)));
+        assertEquals(ListUtil.toList("1", "3"), ids(loadPlanner.getLoads().get(1)));
+    }
+
+    @Test
+    void packInBatches() {
+        LoadPlanner loadPlanner = new LoadPlanner(ListUtil.toList(truck(100, 100)), 0.95, 0.95);
+        assertEquals(1, loadPlanner.pack(ListUtil.toList(order("1", 90, 10))).size());
+        //已装载量累计，超过95%的运力后不再装载
+        assertTrue(loadPlanner.pack(ListUtil.toList(order("2", 5, 1))).isEmpty());
+        assertEquals(1, loadPlanner.pack(ListUtil.toList(order("3", 4, 1))).size());
+    }
+
+    private static List<String> ids(List<DispatchMsgDTO> list) {
+        return ListUtil.toList(list.stream().map(DispatchMsgDTO::getTransportOrderId).iterator());
+    }
+
+    static TruckDto truck(double load, double volume) {
+        TruckDto truckDto = new TruckDto();
+        truckDto.setAllowableLoad(BigDecimal.valueOf(load));
+        truckDto.setAllowableVolume(BigDecimal.valueOf(volume));
+        return truckDto;
+    }
+
+    static DispatchMsgDTO order(String id, double weight, double volume) {
+        DispatchMsgDTO dispatchMsgDTO = new DispatchMsgDTO();
+        dispatchMsgDTO.setTransportOrderId(id);
+        dispatchMsgDTO.setTotalWeight(weight);
+        dispatchMsgDTO.setTotalVolume(volume);
+        return dispatchMsgDTO;
+    }
+}
@@ -0,0 +1,27 @@
+package com.sl.ms.oms.config;
+
+import cn.hutool.core.util.ObjectUtil;
+import com.sl.ms.base.api.common.MQFeign;
+import com.sl.mq.publisher.FailMsgHandler;
+import com.sl.transport.common.constant.Constants;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 消息发送相关的配置
+ */
+@Configuration
+public class MQConfig {
+
+    /**
+     * 直接发送失败的消息交给base服务重新发送（保留原来的延时），base服务发送失败时会存入sl_fail_msg表
+     *
+     * @param mqFeign base服务的消息发送接口
+     * @return 失败消息处理器
+     */
+    @Bean
+    public FailMsgHandler failMsgHandler(MQFeign mqFeign) {
+        return failMsgEntity -> mqFeign.sendMsg(failMsgEntity.getExchange(), failMsgEntity.getRoutingKey(), failMsgEntity.getMsg(),
+                ObjectUtil.defaultIfNull(failMsgEntity.getDelay(), Constants.MQ.DEFAULT_DELAY));
+    }
+}
@@ -2,6 +2,7 @@ package com.sl.ms.oms.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.date.LocalDateTimeUtil;
 import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
@@ -10,6 +11,7 @@ import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.sl.mq.service.OutboxService;
 import com.sl.ms.oms.dto.OrderCargoDTO;
 import com.sl.ms.oms.dto.OrderDTO;
 import com.sl.ms.oms.dto.OrderPickupDTO;
@@ -29,6 +31,9 @@ import com.sl.ms.user.api.MemberFeign;
 import com.sl.ms.user.domain.dto.MemberDTO;
 import com.sl.ms.work.api.TransportOrderFeign;
 import com.sl.ms.work.domain.dto.TransportOrderDTO;
+import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskType;
+import com.sl.transport.common.constant.Constants;
+import com.sl.transport.common.vo.OrderMsg;
 import com.sl.transport.common.vo.TradeStatusMsg;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -60,6 +65,9 @@ public class CrudOrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity>
     @Resource
     private TransportOrderFeign transportOrderFeign;
 
+    @Resource
+    private OutboxService outboxService;
+
     @Transactional
     @Override
     public void saveOrder(OrderEntity order, OrderCargoEntity orderCargo, OrderLocationEntity orderLocation) throws Exception {
@@ -78,6 +86,8 @@ public class CrudOrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity>
             // 保存位置
             orderLocation.setOrderId(order.getId());
             orderLocationService.save(orderLocation);
+            // 生成订单mq 调度服务用来调度 之后快递员服务处理
+            noticeOrderStatusChange(order, orderLocation);
             return;
         }
         throw new Exception("保存订单失败");
@@ -280,4 +290,29 @@ public class CrudOrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity>
     public List<OrderEntity> findByMemberId(Long memberId) {
         return list(Wrappers.<OrderEntity>lambdaQuery().eq(OrderEntity::getMemberId, memberId));
     }
+
+    /**
+     * 取件，消息写入发件箱，与订单在同一个事务中提交
+     *
+     * @param orderEntity 订单
+     * @param orderLocation 位置
+     */
+    private void noticeOrderStatusChange(OrderEntity orderEntity, OrderLocationEntity orderLocation) {
+        //{"order":{"orderId":123, "agencyId": 8001, "taskType":1, "mark":"带包装", "longitude":116.111, "latitude":39.00, "created":1654224658728, "estimatedStartTime": 1654224658728}, "created":123456}
+        String[] split = orderLocation.getSendLocation().split(",");
+        double lnt = Double.parseDouble(split[0]);
+        double lat = Double.parseDouble(split[1]);
+        OrderMsg orderMsg = OrderMsg.builder()
+                .created(LocalDateTimeUtil.toEpochMilli(orderEntity.getCreateTime()))
+                .estimatedEndTime(orderEntity.getEstimatedStartTime())
+                .mark(orderEntity.getMark())
+                .taskType(PickupDispatchTaskType.PICKUP.getCode())
+                .latitude(lat)
+                .longitude(lnt)
+                .agencyId(orderEntity.getCurrentAgencyId())
+                .orderId(orderEntity.getId())
+                .build();
+        //发送消息
+        this.outboxService.send(orderEntity.getId(), Constants.MQ.Exchanges.ORDER_DELAYED, Constants.MQ.RoutingKeys.ORDER_CREATE, orderMsg.toJson(), Constants.MQ.LOW_DELAY);
+    }
 }
@@ -3,8 +3,9 @@ package com.sl.ms.oms.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
-import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.lang.Pair;
 import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -15,7 +16,6 @@ import com.itheima.em.sdk.enums.ProviderEnum;
 import com.itheima.em.sdk.vo.Coordinate;
 import com.itheima.em.sdk.vo.GeoResult;
 import com.sl.ms.base.api.common.AreaFeign;
-import com.sl.ms.base.api.common.MQFeign;
 import com.sl.ms.base.domain.base.AreaDto;
 import com.sl.ms.carriage.appi.CarriageFeign;
 import com.sl.ms.carriage.domain.dto.CarriageDTO;
@@ -36,24 +36,35 @@ import com.sl.ms.scope.dto.ServiceScopeDTO;
 import com.sl.ms.transport.api.TransportLineFeign;
 import com.sl.ms.user.api.AddressBookFeign;
 import com.sl.ms.user.domain.dto.AddressBookDTO;
-import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskType;
-import com.sl.transport.common.constant.Constants;
 import com.sl.transport.common.exception.SLException;
 import com.sl.transport.common.util.Result;
-import com.sl.transport.common.vo.OrderMsg;
+import com.sl.transport.common.util.UserThreadLocal;
+import com.sl.transport.common.vo.AuthUserInfo;
 import com.sl.transport.domain.TransportLineNodeDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * 订单  服务实现类
@@ -62,9 +73,6 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> implements OrderService {
 
-    @Resource
-    private MQFeign mqFeign;
-
     @Autowired
     private AddressBookFeign addressBookFeign;
 
@@ -86,28 +94,105 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
     @Resource
     private TransportLineFeign transportLineFeign;
 
+    /**
+     * 下单时并行调用的线程数
+     */
+    @Value("${sl.oms.mailing.threads:32}")
+    private Integer threads;
+    /**
+     * 查询地址簿的超时时间，单位：毫秒
+     */
+    @Value("${sl.oms.mailing.address-timeout:2000}")
+    private Long addressTimeout;
+    /**
+     * 查询行政区域的超时时间，单位：毫秒
+     */
+    @Value("${sl.oms.mailing.area-timeout:1000}")
+    private Long areaTimeout;
+    /**
+     * 地址定位和查询网点的超时时间，单位：毫秒
+     */
+    @Value("${sl.oms.mailing.agency-timeout:3000}")
+    private Long agencyTimeout;
+    /**
+     * 计算运费的超时时间，单位：毫秒
+     */
+    @Value("${sl.oms.mailing.carriage-timeout:2000}")
+    private Long carriageTimeout;
+    /**
+     * 查询行驶距离的超时时间，超时后不设置距离，单位：毫秒
+     */
+    @Value("${sl.oms.mailing.distance-timeout:2000}")
+    private Long distanceTimeout;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 行政区域名称，key：区域id，行政区域数据基本不变且数量有限，查询成功后缓存在本地
+     */
+    private final Map<Long, String> areaNames = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        //队列满时直接拒绝，下单快速失败，不在调用线程中执行远程调用（调用线程中执行时超时时间无法生效）
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.threads * 32),
+                ThreadFactoryBuilder.create().setNamePrefix("mailing-save-").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
     /**
      * 下单
+     * <p>
+     * 按依赖关系并行执行远程调用：寄件人和收件人的地址、行政区域、网点分别并行查询，
+     * 两个地址查询完成后（城市已知）立即计算运费，两个网点坐标都确定后查询行驶距离。
+     * 每个阶段有单独的超时时间，行驶距离失败时降级，其他阶段失败时下单失败
+     *
      * @param mailingSaveDTO 下单信息
      * @return 下单成功信息
      * @throws SLException
      */
     @Override
     public OrderDTO mailingSave(MailingSaveDTO mailingSaveDTO) throws Exception {
-        // 获取地址详细信息
-        HashMap<Long, AddressBookDTO> orderAddress = getOrderAddress(mailingSaveDTO.getSendAddress(), mailingSaveDTO.getReceiptAddress());
-        AddressBookDTO sendAddress = orderAddress.get(mailingSaveDTO.getSendAddress());
-        AddressBookDTO receiptAddress = orderAddress.get(mailingSaveDTO.getReceiptAddress());
+        Executor executor = this.userExecutor();
+        // 获取地址详细信息，寄件人和收件人并行查询
+        CompletableFuture<AddressBookDTO> sendAddressFuture = this.loadAddress(executor, mailingSaveDTO.getSendAddress());
+        CompletableFuture<AddressBookDTO> receiptAddressFuture = this.loadAddress(executor, mailingSaveDTO.getReceiptAddress());
+
+        // 计算运费，两个城市都确定后立即执行，与网点、距离的查询并行
+        CompletableFuture<CarriageDTO> carriageFuture = sendAddressFuture.thenCombine(receiptAddressFuture, Pair::of)
+                .thenCompose(pair -> this.stage(executor, () -> computeCarriage(mailingSaveDTO, pair.getKey().getCityId(), pair.getValue().getCityId()), this.carriageTimeout));
+
+        // 网点和坐标
+        CompletableFuture<Result> sendAgencyFuture = sendAddressFuture.thenCompose(address -> this.loadAgency(executor, address, "发件"));
+        CompletableFuture<Result> receiveAgencyFuture = receiptAddressFuture.thenCompose(address -> this.loadAgency(executor, address, "收件"));
+
+        // 行驶距离，失败时不设置距离和预计到达时间
+        CompletableFuture<String> drivingFuture = sendAgencyFuture.thenCombine(receiveAgencyFuture, Pair::of)
+                .thenCompose(pair -> this.stage(executor, () -> this.driving(toCoordinate(pair.getKey().get("location").toString()),
+                        toCoordinate(pair.getValue().get("location").toString())), this.distanceTimeout))
+                .exceptionally(e -> {
+                    log.warn("查询行驶距离失败，不设置距离和预计到达时间, mailingSaveDTO = {}", mailingSaveDTO, e);
+                    return null;
+                });
+
+        AddressBookDTO sendAddress = join(sendAddressFuture);
+        AddressBookDTO receiptAddress = join(receiptAddressFuture);
         // 构建实体
         OrderEntity order = buildOrder(mailingSaveDTO, sendAddress, receiptAddress);
         log.info("订单信息入库:{}", order);
 
         // 订单位置
-        OrderLocationEntity orderLocation = buildOrderLocation(order);
+        OrderLocationEntity orderLocation = buildOrderLocation(order, join(sendAgencyFuture), join(receiveAgencyFuture));
         log.info("订单位置为：{}", orderLocation);
 
-        // 计算运费
-        CarriageDTO carriageDTO = computeCarriage(mailingSaveDTO, sendAddress.getCityId(), receiptAddress.getCityId());
+        // 运费
+        CarriageDTO carriageDTO = join(carriageFuture);
         order.setAmount(BigDecimal.valueOf(carriageDTO.getExpense()));
         log.info("订单运费为：{}", carriageDTO);
 
@@ -115,14 +200,11 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
         OrderCargoEntity orderCargo = buildOrderCargo(mailingSaveDTO);
 
         // 距离 设置当前机构ID
-        appendOtherInfo(order, orderLocation);
+        appendOtherInfo(order, orderLocation, join(drivingFuture));
 
-        // 执行保存
+        // 执行保存，同时生成订单mq 调度服务用来调度 之后快递员服务处理
         crudOrderService.saveOrder(order, orderCargo, orderLocation);
 
-        // 生成订单mq 调度服务用来调度 之后快递员服务处理
-        noticeOrderStatusChange(order, orderLocation);
-
         // 返回下单成功页
         OrderDTO orderDTO = BeanUtil.toBean(order, OrderDTO.class);
 
@@ -133,6 +215,107 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
         return orderDTO;
     }
 
+    /**
+     * 异步查询地址簿
+     *
+     * @param executor  执行的线程池
+     * @param addressId 地址ID
+     * @return 地址详细信息，不存在时异常结束
+     */
+    private CompletableFuture<AddressBookDTO> loadAddress(Executor executor, Long addressId) {
+        return this.stage(executor, () -> {
+            AddressBookDTO address = addressBookFeign.detail(addressId);
+            if (ObjectUtil.isEmpty(address)) {
+                log.error("获取地址薄详细信息 失败 addressId :{}", addressId);
+                throw new SLException("获取地址详细信息失败");
+            }
+            return address;
+        }, this.addressTimeout);
+    }
+
+    /**
+     * 异步查询地址所在的网点，详细地址需要拼接省市区名称后定位，否则可能定位到其他城市
+     *
+     * @param executor 执行的线程池
+     * @param address  地址
+     * @param type     发件或收件，用于日志
+     * @return 网点ID和坐标
+     */
+    private CompletableFuture<Result> loadAgency(Executor executor, AddressBookDTO address, String type) {
+        return this.stage(executor, () -> fullAddress(address.getProvinceId(), address.getCityId(), address.getCountyId(), address.getAddress()), this.areaTimeout)
+                .whenComplete((fullAddress, e) -> {
+                    if (null != e) {
+                        log.warn("{}地址查询行政区域失败, addressId = {}", type, address.getId(), e);
+                    }
+                })
+                .thenCompose(fullAddress -> this.stage(executor, () -> getAgencyId(fullAddress), this.agencyTimeout));
+    }
+
+    /**
+     * 当前请求使用的线程池，用户信息需要通过Feign向下游传递，在线程池中执行时设置为当前请求的用户
+     */
+    private Executor userExecutor() {
+        AuthUserInfo authUserInfo = UserThreadLocal.get();
+        return command -> this.executor.execute(() -> {
+            //执行完成后恢复线程原来的用户
+            AuthUserInfo previous = UserThreadLocal.get();
+            UserThreadLocal.set(authUserInfo);
+            try {
+                command.run();
+            } finally {
+                if (null == previous) {
+                    UserThreadLocal.remove();
+                } else {
+                    UserThreadLocal.set(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在线程池中执行一个阶段，超时后异常结束，线程池已满时立即失败
+     * <p>
+     * 超时只结束等待，不会中断远程调用，Feign和地图服务的读取超时需要与各阶段的超时时间一致，见bootstrap.yml
+     *
+     * @param executor 执行的线程池
+     * @param supplier 执行的远程调用
+     * @param timeout  超时时间，单位：毫秒
+     * @return 执行结果
+     */
+    private <T> CompletableFuture<T> stage(Executor executor, Supplier<T> supplier, long timeout) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor).orTimeout(timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new SLException("系统繁忙，请稍后重试", e));
+        }
+    }
+
+    /**
+     * 获取阶段的执行结果，业务异常原样抛出
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && null != cause.getCause()) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof SLException) {
+                throw (SLException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new SLException("下单超时，请稍后重试", e);
+            }
+            throw new SLException("下单失败，请稍后重试", cause);
+        }
+    }
+
+    private static Coordinate toCoordinate(String location) {
+        String[] lngLat = location.split(",");
+        return new Coordinate(Double.parseDouble(lngLat[0]), Double.parseDouble(lngLat[1]));
+    }
+
     /**
      * 获取订单地址信息
      * @param sendAddressId 发送地址ID
@@ -201,24 +384,12 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
      * 补充数据
      * @param order 订单
      * @param orderLocation 订单位置
+     * @param driving 驾车路线规划结果，查询失败时为空
      */
-    private void appendOtherInfo(OrderEntity order, OrderLocationEntity orderLocation) {
+    private void appendOtherInfo(OrderEntity order, OrderLocationEntity orderLocation, String driving) {
         // 当前机构
         order.setCurrentAgencyId(orderLocation.getSendAgentId());
 
-        //查询地图服务商
-        String[] sendLocation = orderLocation.getSendLocation().split(",");
-        double sendLnt = Double.parseDouble(sendLocation[0]);
-        double sendLat = Double.parseDouble(sendLocation[1]);
-
-        String[] receiveLocation = orderLocation.getReceiveLocation().split(",");
-        double receiveLnt = Double.parseDouble(receiveLocation[0]);
-        double receiveLat = Double.parseDouble(receiveLocation[1]);
-        Coordinate origin = new Coordinate(sendLnt, sendLat);
-        Coordinate destination = new Coordinate(receiveLnt, receiveLat);
-        //设置高德地图参数，默认是不返回预计耗时的，需要额外设置参数
-        Map<String, Object> param = MapUtil.<String, Object>builder().put("show_fields", "cost").build();
-        String driving = this.eagleMapTemplate.opsForDirection().driving(ProviderEnum.AMAP, origin, destination, param);
         if (StrUtil.isEmpty(driving)) {
             return;
         }
@@ -233,6 +404,30 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
         order.setEstimatedArrivalTime(LocalDateTime.now().plus(duration, ChronoUnit.SECONDS));
     }
 
+    /**
+     * 查询地图服务商的驾车路线规划
+     *
+     * @param origin      起点
+     * @param destination 终点
+     * @return 路线规划结果
+     */
+    protected String driving(Coordinate origin, Coordinate destination) {
+        //设置高德地图参数，默认是不返回预计耗时的，需要额外设置参数
+        Map<String, Object> param = MapUtil.<String, Object>builder().put("show_fields", "cost").build();
+        return this.eagleMapTemplate.opsForDirection().driving(ProviderEnum.AMAP, origin, destination, param);
+    }
+
+    /**
+     * 根据详细地址查询坐标
+     *
+     * @param address 详细地址
+     * @return 坐标，无法定位时为空
+     */
+    protected Coordinate geoCode(String address) {
+        GeoResult geoResult = this.eagleMapTemplate.opsForBase().geoCode(ProviderEnum.AMAP, address, null);
+        return null == geoResult ? null : geoResult.getLocation();
+    }
+
     /**
      * 构建订单
      *
@@ -285,8 +480,7 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
             throw new SLException("下单时发货地址不能为空");
         }
         //根据详细地址查询坐标
-        GeoResult geoResult = this.eagleMapTemplate.opsForBase().geoCode(ProviderEnum.AMAP, address, null);
-        Coordinate coordinate = geoResult.getLocation();
+        Coordinate coordinate = geoCode(address);
 
         log.info("地址和坐标-->" + address + "--" + coordinate);
         if (ObjectUtil.isEmpty(coordinate)) {
@@ -313,53 +507,35 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
 
     /**
      * 合并地址
-     * @param entity 订单
      * @return 地址
      */
-    private String senderFullAddress(OrderEntity entity) {
-        Long province = entity.getSenderProvinceId();
-        Long city = entity.getSenderCityId();
-        Long county = entity.getSenderCountyId();
-
-        StringBuilder stringBuilder = areaAddress(province, city, county);
-        stringBuilder.append(entity.getSenderAddress());
-
-        return stringBuilder.toString();
-    }
-
-    /**
-     * 合并地址
-     * @param orderDTO 订单
-     * @return 地址
-     */
-    private String receiverFullAddress(OrderEntity orderDTO) {
-        Long province = orderDTO.getReceiverProvinceId();
-        Long city = orderDTO.getReceiverCityId();
-        Long county = orderDTO.getReceiverCountyId();
-
-        StringBuilder stringBuilder = areaAddress(province, city, county);
-        stringBuilder.append(orderDTO.getReceiverAddress());
-        return stringBuilder.toString();
-    }
-
-    /**
-     * 合并地址
-     * @return 地址
-     */
-    private StringBuilder areaAddress(Long province, Long city, Long county) {
+    private String fullAddress(Long province, Long city, Long county, String address) {
         StringBuilder stringBuffer = new StringBuilder();
         Set<Long> areaIdSet = new HashSet<Long>();
         areaIdSet.add(province);
         areaIdSet.add(city);
         areaIdSet.add(county);
 
-        List<AreaDto> result = areaFeign.findAll(null, new ArrayList<>(areaIdSet));
-        Map<Long, AreaDto> areaMap = result.stream().collect(Collectors.toMap(AreaDto::getId, vo -> vo));
+        //只查询本地没有缓存的行政区域
+        areaIdSet.removeIf(areaId -> null == areaId || this.areaNames.containsKey(areaId));
+        if (CollUtil.isNotEmpty(areaIdSet)) {
+            List<AreaDto> result = areaFeign.findAll(null, new ArrayList<>(areaIdSet));
+            result.forEach(areaDto -> this.areaNames.put(areaDto.getId(), areaDto.getName()));
+        }
+
+        stringBuffer.append(this.areaName(province));
+        stringBuffer.append(this.areaName(city));
+        stringBuffer.append(this.areaName(county));
+        stringBuffer.append(address);
+        return stringBuffer.toString();
+    }
 
-        stringBuffer.append(areaMap.get(province).getName());
-        stringBuffer.append(areaMap.get(city).getName());
-        stringBuffer.append(areaMap.get(county).getName());
-        return stringBuffer;
+    private String areaName(Long areaId) {
+        String name = null == areaId ? null : this.areaNames.get(areaId);
+        if (null == name) {
+            throw new SLException(StrUtil.format("行政区域不存在, areaId = {}", areaId));
+        }
+        return name;
     }
 
     /**
@@ -392,16 +568,14 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
      * 根据发收件人地址获取起止机构ID 调用机构范围微服务
      *
      * @param order 订单
+     * @param result 发件网点和坐标
+     * @param resultReceive 收件网点和坐标
      * @return 位置信息
      */
-    private OrderLocationEntity buildOrderLocation(OrderEntity order) {
-        String address = senderFullAddress(order);
-        Result result = getAgencyId(address);
+    private OrderLocationEntity buildOrderLocation(OrderEntity order, Result result, Result resultReceive) {
         String sendAgentId = result.get("agencyId").toString();
         String sendLocation = result.get("location").toString();
 
-        String receiverAddress = receiverFullAddress(order);
-        Result resultReceive = getAgencyId(receiverAddress);
         String receiveAgentId = resultReceive.get("agencyId").toString();
         String receiveAgentLocation = resultReceive.get("location").toString();
 
@@ -422,29 +596,4 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, OrderEntity> impl
         orderLocationEntity.setReceiveAgentId(Long.parseLong(receiveAgentId));
         return orderLocationEntity;
     }
-
-    /**
-     * 取件
-     *
-     * @param orderEntity 订单
-     * @param orderLocation 位置
-     */
-    private void noticeOrderStatusChange(OrderEntity orderEntity, OrderLocationEntity orderLocation) {
-        //{"order":{"orderId":123, "agencyId": 8001, "taskType":1, "mark":"带包装", "longitude":116.111, "latitude":39.00, "created":1654224658728, "estimatedStartTime": 1654224658728}, "created":123456}
-        String[] split = orderLocation.getSendLocation().split(",");
-        double lnt = Double.parseDouble(split[0]);
-        double lat = Double.parseDouble(split[1]);
-        OrderMsg orderMsg = OrderMsg.builder()
-                .created(LocalDateTimeUtil.toEpochMilli(orderEntity.getCreateTime()))
-                .estimatedEndTime(orderEntity.getEstimatedStartTime())
-                .mark(orderEntity.getMark())
-                .taskType(PickupDispatchTaskType.PICKUP.getCode())
-                .latitude(lat)
-                .longitude(lnt)
-                .agencyId(orderEntity.getCurrentAgencyId())
-                .orderId(orderEntity.getId())
-                .build();
-        //发送消息
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.ORDER_DELAYED, Constants.MQ.RoutingKeys.ORDER_CREATE, orderMsg.toJson(), Constants.MQ.LOW_DELAY);
-    }
 }
@@ -0,0 +1,309 @@
+package com.sl.ms.oms.service.impl;
+
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.json.JSONUtil;
+import com.itheima.em.sdk.vo.Coordinate;
+import com.sl.ms.base.api.common.AreaFeign;
+import com.sl.ms.base.domain.base.AreaDto;
+import com.sl.ms.carriage.appi.CarriageFeign;
+import com.sl.ms.carriage.domain.dto.CarriageDTO;
+import com.sl.ms.oms.dto.MailingSaveDTO;
+import com.sl.ms.oms.dto.OrderDTO;
+import com.sl.ms.oms.entity.OrderEntity;
+import com.sl.ms.oms.entity.OrderLocationEntity;
+import com.sl.ms.oms.service.CrudOrderService;
+import com.sl.ms.scope.api.ServiceScopeFeign;
+import com.sl.ms.scope.dto.ServiceScopeDTO;
+import com.sl.ms.user.api.AddressBookFeign;
+import com.sl.ms.user.domain.dto.AddressBookDTO;
+import com.sl.transport.common.exception.SLException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用模拟的Feign客户端和地图服务（每次调用耗时固定）验证下单的并行执行、超时、降级和拒绝
+ */
+class MailingSavePipelineTest {
+
+    private static final long LATENCY = 50;
+    /**
+     * 地址ID为0时地址不存在
+     */
+    private static final long MISSING_ADDRESS = 0L;
+
+    private OrderServiceImpl orderService;
+    /**
+     * 每个远程调用的耗时，单位：毫秒
+     */
+    private final Map<String, Long> latencyMap = new ConcurrentHashMap<>();
+    /**
+     * 远程调用开始时执行的动作，用于控制调用的先后顺序
+     */
+    private final Map<String, Runnable> hookMap = new ConcurrentHashMap<>();
+    /**
+     * 远程调用的开始顺序
+     */
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+    /**
+     * 定位时使用的地址
+     */
+    private final List<String> geoCodeAddresses = new CopyOnWriteArrayList<>();
+    private final AtomicReference<OrderLocationEntity> savedLocation = new AtomicReference<>();
+    private final AtomicReference<OrderEntity> savedOrder = new AtomicReference<>();
+
+    @BeforeEach
+    void setUp() {
+        this.orderService = new OrderServiceImpl() {
+            @Override
+            protected Coordinate geoCode(String address) {
+                geoCodeAddresses.add(address);
+                sleep("geoCode");
+                return address.startsWith("北京") ? new Coordinate(116.40, 39.90) : new Coordinate(121.47, 31.23);
+            }
+
+            @Override
+            protected String driving(Coordinate origin, Coordinate destination) {
+                sleep("driving");
+                return "{\"route\":{\"paths\":[{\"distance\":1200000,\"cost\":{\"duration\":43200}}]}}";
+            }
+        };
+        ReflectUtil.setFieldValue(this.orderService, "addressBookFeign", this.stub(AddressBookFeign.class));
+        ReflectUtil.setFieldValue(this.orderService, "areaFeign", this.stub(AreaFeign.class));
+        ReflectUtil.setFieldValue(this.orderService, "agencyScopeFeign", this.stub(ServiceScopeFeign.class));
+        ReflectUtil.setFieldValue(this.orderService, "carriageFeign", this.stub(CarriageFeign.class));
+        ReflectUtil.setFieldValue(this.orderService, "crudOrderService", this.stub(CrudOrderService.class));
+        ReflectUtil.setFieldValue(this.orderService, "threads", 16);
+        ReflectUtil.setFieldValue(this.orderService, "addressTimeout", 1000L);
+        ReflectUtil.setFieldValue(this.orderService, "areaTimeout", 1000L);
+        ReflectUtil.setFieldValue(this.orderService, "agencyTimeout", 1000L);
+        ReflectUtil.setFieldValue(this.orderService, "carriageTimeout", 1000L);
+        ReflectUtil.setFieldValue(this.orderService, "distanceTimeout", 1000L);
+        this.orderService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.orderService.destroy();
+    }
+
+    @Test
+    void mailingSave() throws Exception {
+        OrderDTO orderDTO = this.orderService.mailingSave(mailingSaveDTO(1L, 2L));
+        assertEquals(0, new BigDecimal("18.0").compareTo(orderDTO.getAmount()));
+        assertEquals(1200000D, orderDTO.getDistance());
+        assertNotNull(orderDTO.getEstimatedArrivalTime());
+
+        OrderLocationEntity orderLocation = this.savedLocation.get();
+        assertEquals(1L, orderLocation.getSendAgentId());
+        assertEquals(2L, orderLocation.getReceiveAgentId());
+        assertEquals("116.4,39.9", orderLocation.getSendLocation());
+        assertEquals(1L, this.savedOrder.get().getCurrentAgencyId());
+    }
+
+    @Test
+    void concurrentStages() throws Exception {
+        //寄件人和收件人的地址同时查询，否则等待超时
+        CyclicBarrier addressBarrier = new CyclicBarrier(2);
+        this.hookMap.put("detail", () -> await(() -> addressBarrier.await(500, TimeUnit.MILLISECONDS)));
+        //运费在地址查询完成后立即计算，与定位并行，否则等待超时
+        CountDownLatch geoCodeStarted = new CountDownLatch(2);
+        this.hookMap.put("geoCode", geoCodeStarted::countDown);
+        this.hookMap.put("compute", () -> await(() -> geoCodeStarted.await(500, TimeUnit.MILLISECONDS)));
+
+        this.orderService.mailingSave(mailingSaveDTO(1L, 2L));
+        assertNotNull(this.savedOrder.get());
+        //行驶距离在两个网点都确定后查询
+        assertTrue(this.calls.indexOf("driving") > this.calls.lastIndexOf("queryListByLocation"), "calls = " + this.calls);
+    }
+
+    @Test
+    void areaTimeout() {
+        //行政区域是定位必须的，只使用详细地址可能定位到其他城市，超时后下单失败
+        this.latencyMap.put("findAll", 500L);
+        ReflectUtil.setFieldValue(this.orderService, "areaTimeout", 100L);
+        SLException exception = assertThrows(SLException.class, () -> this.orderService.mailingSave(mailingSaveDTO(1L, 2L)));
+        assertEquals("下单超时，请稍后重试", exception.getMsg());
+        assertNull(this.savedOrder.get());
+    }
+
+    @Test
+    void areaCached() throws Exception {
+        this.orderService.mailingSave(mailingSaveDTO(1L, 2L));
+        //行政区域已经缓存，不再查询
+        this.calls.clear();
+        this.geoCodeAddresses.clear();
+        this.latencyMap.put("findAll", 500L);
+        ReflectUtil.setFieldValue(this.orderService, "areaTimeout", 100L);
+        this.orderService.mailingSave(mailingSaveDTO(1L, 2L));
+        assertFalse(this.calls.contains("findAll"));
+        assertTrue(this.geoCodeAddresses.contains("北京北京北京北京东路1号"), "addresses = " + this.geoCodeAddresses);
+        assertTrue(this.geoCodeAddresses.contains("上海上海上海上海南路1号"), "addresses = " + this.geoCodeAddresses);
+    }
+
+    @Test
+    void rejected() throws Exception {
+        //线程池已满时立即失败，不在调用线程中执行远程调用
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectUtil.getFieldValue(this.orderService, "executor");
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            while (true) {
+                executor.execute(() -> await(() -> {
+                    release.await();
+                    return true;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            //线程池和队列已满
+        }
+        try {
+            SLException exception = assertThrows(SLException.class, () -> this.orderService.mailingSave(mailingSaveDTO(1L, 2L)));
+            assertEquals("系统繁忙，请稍后重试", exception.getMsg());
+            assertTrue(this.calls.isEmpty());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void distanceTimeoutFallback() throws Exception {
+        //行驶距离超时，不设置距离
+        this.latencyMap.put("driving", 500L);
+        ReflectUtil.setFieldValue(this.orderService, "distanceTimeout", 100L);
+        OrderDTO orderDTO = this.orderService.mailingSave(mailingSaveDTO(1L, 2L));
+        assertNull(orderDTO.getDistance());
+        assertNotNull(this.savedOrder.get());
+    }
+
+    @Test
+    void carriageTimeout() {
+        //运费是必须的，超时后下单失败
+        this.latencyMap.put("compute", 500L);
+        ReflectUtil.setFieldValue(this.orderService, "carriageTimeout", 100L);
+        SLException exception = assertThrows(SLException.class, () -> this.orderService.mailingSave(mailingSaveDTO(1L, 2L)));
+        assertEquals("下单超时，请稍后重试", exception.getMsg());
+        assertNull(this.savedOrder.get());
+    }
+
+    @Test
+    void addressNotFound() {
+        SLException exception = assertThrows(SLException.class, () -> this.orderService.mailingSave(mailingSaveDTO(1L, MISSING_ADDRESS)));
+        assertEquals("获取地址详细信息失败", exception.getMsg());
+    }
+
+    private void sleep(String method) {
+        this.calls.add(method);
+        this.hookMap.getOrDefault(method, () -> {
+        }).run();
+        ThreadUtil.sleep(this.latencyMap.getOrDefault(method, LATENCY));
+    }
+
+    private static void await(Awaiting awaiting) {
+        try {
+            if (Boolean.FALSE.equals(awaiting.await())) {
+                throw new IllegalStateException("等待超时");
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Awaiting {
+        Object await() throws Exception;
+    }
+
+    /**
+     * 模拟的远程调用，每次调用耗时LATENCY毫秒；地址ID为1时在北京，其他在上海
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> clazz) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "detail":
+                    this.sleep("detail");
+                    return address((Long) args[0]);
+                case "findAll":
+                    this.sleep("findAll");
+                    return ((List<Long>) args[1]).stream().map(MailingSavePipelineTest::area).collect(Collectors.toList());
+                case "queryListByLocation":
+                    this.sleep("queryListByLocation");
+                    ServiceScopeDTO serviceScopeDTO = new ServiceScopeDTO();
+                    serviceScopeDTO.setBid((Double) args[1] < 120 ? 1L : 2L);
+                    return List.of(serviceScopeDTO);
+                case "compute":
+                    this.sleep("compute");
+                    CarriageDTO carriageDTO = new CarriageDTO();
+                    carriageDTO.setExpense(18D);
+                    carriageDTO.setFirstWeight(18D);
+                    carriageDTO.setContinuousWeight(5D);
+                    return carriageDTO;
+                case "saveOrder":
+                    this.savedOrder.set((OrderEntity) args[0]);
+                    this.savedLocation.set((OrderLocationEntity) args[2]);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static AddressBookDTO address(Long id) {
+        if (id == MISSING_ADDRESS) {
+            return null;
+        }
+        AddressBookDTO addressBookDTO = new AddressBookDTO();
+        addressBookDTO.setId(id);
+        addressBookDTO.setName("张三");
+        addressBookDTO.setPhoneNumber("13800000000");
+        if (id == 1L) {
+            addressBookDTO.setProvinceId(1L);
+            addressBookDTO.setCityId(2L);
+            addressBookDTO.setCountyId(3L);
+            addressBookDTO.setAddress("北京东路1号");
+        } else {
+            addressBookDTO.setProvinceId(11L);
+            addressBookDTO.setCityId(12L);
+            addressBookDTO.setCountyId(13L);
+            addressBookDTO.setAddress("上海南路1号");
+        }
+        return addressBookDTO;
+    }
+
+    private static AreaDto area(Long id) {
+        AreaDto areaDto = new AreaDto();
+        areaDto.setId(id);
+        areaDto.setName(id < 10 ? "北京" : "上海");
+        return areaDto;
+    }
+
+    private static MailingSaveDTO mailingSaveDTO(Long sendAddress, Long receiptAddress) {
+        return JSONUtil.toBean(JSONUtil.createObj()
+                .set("goodsName", "食品")
+                .set("goodsType", "1")
+                .set("totalWeight", "1")
+                .set("totalVolume", "1")
+                .set("memberId", 12323432453466712L)
+                .set("payMethod", 1)
+                .set("pickupType", 2)
+                .set("sendAddress", sendAddress)
+                .set("receiptAddress", receiptAddress), MailingSaveDTO.class);
+    }
+}
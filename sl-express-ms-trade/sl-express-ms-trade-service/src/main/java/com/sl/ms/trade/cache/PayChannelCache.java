@@ -0,0 +1,132 @@
+package com.sl.ms.trade.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.util.StrUtil;
+import com.sl.ms.trade.constant.TradingCacheConstant;
+import com.sl.ms.trade.entity.PayChannelEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 支付渠道的本地缓存，key为商户id+渠道标识
+ * <p>
+ * 支付、查询、退款都需要读取渠道配置，配置很少变化，缓存在本地，未命中时查询数据库。
+ * 渠道新增、修改、删除后通过redis发布消息，所有交易服务实例删除本地缓存；有效期作为消息丢失时的兜底
+ */
+@Slf4j
+@Component
+public class PayChannelCache {
+
+    private static final String SEPARATOR = ":";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 缓存有效期，单位：毫秒
+     */
+    @Value("${sl.trade.pay-channel-cache.ttl:600000}")
+    private Long ttl;
+
+    private TimedCache<String, PayChannelEntity> cache;
+    private RTopic topic;
+    private int listenerId;
+    /**
+     * 渠道变化的监听器，参数为商户id和渠道标识
+     */
+    private final List<BiConsumer<Long, String>> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        this.cache = CacheUtil.newTimedCache(this.ttl);
+        //定时清理过期的数据
+        this.cache.schedulePrune(this.ttl);
+
+        this.topic = this.redissonClient.getTopic(TradingCacheConstant.PAY_CHANNEL_TOPIC);
+        this.listenerId = this.topic.addListener(String.class, (channel, key) -> this.evict(key));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.topic.removeListener(this.listenerId);
+        this.cache.cancelPruneSchedule();
+    }
+
+    /**
+     * 查询支付渠道，未命中时通过loader查询并缓存，不存在的渠道不缓存
+     *
+     * @param enterpriseId 商户id
+     * @param channelLabel 渠道标识
+     * @param loader       查询数据库
+     * @return 支付渠道
+     */
+    public PayChannelEntity get(Long enterpriseId, String channelLabel, Supplier<PayChannelEntity> loader) {
+        String key = key(enterpriseId, channelLabel);
+        //不更新最后访问时间，到期后重新查询
+        PayChannelEntity payChannel = this.cache.get(key, false);
+        if (null != payChannel) {
+            return payChannel;
+        }
+        payChannel = loader.get();
+        if (null != payChannel) {
+            this.cache.put(key, payChannel);
+        }
+        return payChannel;
+    }
+
+    /**
+     * 通知所有实例删除支付渠道的缓存
+     *
+     * @param enterpriseId 商户id
+     * @param channelLabel 渠道标识
+     */
+    public void publish(Long enterpriseId, String channelLabel) {
+        String key = key(enterpriseId, channelLabel);
+        //先删除当前实例的缓存，发布失败时其他实例等待缓存过期
+        this.evict(key);
+        try {
+            this.topic.publish(key);
+        } catch (Exception e) {
+            log.error("发布支付渠道变化消息失败，key = {}", key, e);
+        }
+    }
+
+    /**
+     * 添加渠道变化的监听器，用于删除依赖渠道配置的对象
+     *
+     * @param listener 参数为商户id和渠道标识
+     */
+    public void addListener(BiConsumer<Long, String> listener) {
+        this.listeners.add(listener);
+    }
+
+    private void evict(String key) {
+        this.cache.remove(key);
+        Long enterpriseId = Long.valueOf(StrUtil.subBefore(key, SEPARATOR, false));
+        String channelLabel = StrUtil.subAfter(key, SEPARATOR, false);
+        log.info("支付渠道变化，删除本地缓存，enterpriseId = {}, channelLabel = {}", enterpriseId, channelLabel);
+        for (BiConsumer<Long, String> listener : this.listeners) {
+            try {
+                listener.accept(enterpriseId, channelLabel);
+            } catch (Exception e) {
+                log.error("处理支付渠道变化出错，key = {}", key, e);
+            }
+        }
+    }
+
+    private static String key(Long enterpriseId, String channelLabel) {
+        return enterpriseId + SEPARATOR + channelLabel;
+    }
+}
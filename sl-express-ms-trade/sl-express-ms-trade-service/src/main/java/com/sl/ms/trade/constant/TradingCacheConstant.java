@@ -36,6 +36,12 @@ public class TradingCacheConstant {
     //创建退款加锁
     public static final String PAY_CHANNEL_LIST = PREFIX + "pay_channel_list&ttl=-1";
 
+    //支付通知的幂等记录前缀
+    public static final String NOTIFY_PREFIX = PREFIX + "notify:";
+
+    //支付渠道变化的通知
+    public static final String PAY_CHANNEL_TOPIC = PREFIX + "pay_channel_topic";
+
     //page分页
     public static final String PAGE = PREFIX + "page";
 }
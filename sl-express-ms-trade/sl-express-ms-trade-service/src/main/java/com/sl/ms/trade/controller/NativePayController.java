@@ -8,6 +8,9 @@ import com.sl.ms.trade.service.NativePayService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiOperation;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -51,4 +54,22 @@ public class NativePayController {
         return this.nativePayService.queryQrCodeUrl(tradingOrderNo);
     }
 
+    /**
+     * 查看二维码图片，直接输出PNG数据，不需要base64编码和解码
+     *
+     * @param tradingOrderNo 交易单号
+     * @return 二维码图片
+     */
+    @GetMapping(value = "qrcode/{tradingOrderNo}/png", produces = MediaType.IMAGE_PNG_VALUE)
+    @ApiOperation(value = "查看二维码图片", notes = "查看二维码图片")
+    @ApiImplicitParam(name = "tradingOrderNo", value = "交易单号")
+    public ResponseEntity<byte[]> queryQrCodePng(@PathVariable("tradingOrderNo") Long tradingOrderNo) {
+        byte[] png = this.nativePayService.queryQrCodePng(tradingOrderNo);
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .contentLength(png.length)
+                .cacheControl(CacheControl.noStore())
+                .body(png);
+    }
+
 }
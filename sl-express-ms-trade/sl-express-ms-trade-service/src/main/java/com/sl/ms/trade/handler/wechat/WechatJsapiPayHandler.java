@@ -2,7 +2,6 @@ package com.sl.ms.trade.handler.wechat;
 
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.map.MapUtil;
-import cn.hutool.core.util.CharsetUtil;
 import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.StrUtil;
@@ -15,11 +14,8 @@ import com.sl.ms.trade.handler.JsapiPayHandler;
 import com.sl.ms.trade.handler.wechat.bean.JsapiPayParam;
 import com.sl.ms.trade.handler.wechat.response.WeChatResponse;
 import com.sl.transport.common.exception.SLException;
-import com.wechat.pay.contrib.apache.httpclient.util.PemUtil;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayInputStream;
-import java.security.PrivateKey;
 import java.security.Signature;
 import java.util.Base64;
 import java.util.Map;
@@ -99,10 +95,8 @@ public class WechatJsapiPayHandler implements JsapiPayHandler {
      */
     private String createPaySign(WechatPayHttpClient client, Long timeStamp, String nonceStr, String packages) throws Exception {
         Signature sign = Signature.getInstance("SHA256withRSA");
-        // 加载商户私钥
-        PrivateKey privateKey = PemUtil
-                .loadPrivateKey(new ByteArrayInputStream(client.getPrivateKey().getBytes(CharsetUtil.CHARSET_UTF_8)));
-        sign.initSign(privateKey);
+        // 商户私钥，client创建时已经解析
+        sign.initSign(client.getMerchantPrivateKey());
         String message = StrUtil.format("{}\n{}\n{}\n{}\n",
                 client.getAppId(),
                 timeStamp,
@@ -0,0 +1,213 @@
+package com.sl.ms.trade.handler.wechat;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.sl.ms.trade.cache.PayChannelCache;
+import com.sl.ms.trade.constant.TradingConstant;
+import com.sl.ms.trade.entity.PayChannelEntity;
+import com.sl.ms.trade.enums.TradingEnum;
+import com.sl.ms.trade.service.PayChannelService;
+import com.sl.transport.common.exception.SLException;
+import com.wechat.pay.contrib.apache.httpclient.WechatPayHttpClientBuilder;
+import com.wechat.pay.contrib.apache.httpclient.auth.PrivateKeySigner;
+import com.wechat.pay.contrib.apache.httpclient.auth.Verifier;
+import com.wechat.pay.contrib.apache.httpclient.auth.WechatPay2Credentials;
+import com.wechat.pay.contrib.apache.httpclient.auth.WechatPay2Validator;
+import com.wechat.pay.contrib.apache.httpclient.cert.CertificatesManager;
+import com.wechat.pay.contrib.apache.httpclient.util.PemUtil;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 微信支付client对象的注册表，按商户缓存
+ * <p>
+ * 私钥解析、平台证书验证器、带连接池的HttpClient在同一个商户的请求之间复用，避免每次请求重新握手。
+ * 渠道修改的通知到达后删除商户的client对象，另外超过检查间隔后重新读取渠道配置作为兜底，
+ * 配置没有变化继续使用，有变化时重新创建，旧的HttpClient延迟关闭，保证正在进行的请求可以完成
+ */
+@Slf4j
+@Component
+public class WechatPayClientRegistry {
+
+    @Resource
+    private PayChannelService payChannelService;
+    @Resource
+    private PayChannelCache payChannelCache;
+
+    /**
+     * 检查渠道配置是否变化的间隔，单位：毫秒
+     */
+    @Value("${sl.trade.wechat.refresh-interval:60000}")
+    private Long refreshInterval;
+    /**
+     * 每个商户连接池的最大连接数
+     */
+    @Value("${sl.trade.wechat.max-connections:50}")
+    private Integer maxConnections;
+    /**
+     * 空闲连接的保持时间，超过后关闭，单位：毫秒
+     */
+    @Value("${sl.trade.wechat.keep-alive:60000}")
+    private Long keepAlive;
+
+    private final Map<Long, Entry> clientMap = new ConcurrentHashMap<>();
+    private final Map<Long, Object> lockMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        //渠道修改后立即重新创建，不需要等到下次检查
+        this.payChannelCache.addListener((enterpriseId, channelLabel) -> {
+            if (StrUtil.equals(channelLabel, TradingConstant.TRADING_CHANNEL_WECHAT_PAY)) {
+                this.invalidate(enterpriseId);
+            }
+        });
+    }
+
+    /**
+     * 获取商户的client对象
+     *
+     * @param enterpriseId 商户号
+     * @return client对象，已经初始化远程请求对象
+     */
+    public WechatPayHttpClient get(Long enterpriseId) {
+        Entry entry = this.clientMap.get(enterpriseId);
+        if (null != entry && entry.nextCheckTime > System.currentTimeMillis()) {
+            return entry.client;
+        }
+        synchronized (this.lockMap.computeIfAbsent(enterpriseId, id -> new Object())) {
+            entry = this.clientMap.get(enterpriseId);
+            if (null != entry && entry.nextCheckTime > System.currentTimeMillis()) {
+                return entry.client;
+            }
+            return this.refresh(enterpriseId, entry);
+        }
+    }
+
+    /**
+     * 移除商户的client对象，下次获取时重新创建
+     *
+     * @param enterpriseId 商户号
+     */
+    public void invalidate(Long enterpriseId) {
+        Entry entry = this.clientMap.remove(enterpriseId);
+        if (null != entry) {
+            this.closeLater(entry.client);
+        }
+    }
+
+    private WechatPayHttpClient refresh(Long enterpriseId, Entry entry) {
+        // 查询配置
+        PayChannelEntity payChannel = this.payChannelService.findByEnterpriseId(enterpriseId, TradingConstant.TRADING_CHANNEL_WECHAT_PAY);
+        if (ObjectUtil.isEmpty(payChannel)) {
+            this.invalidate(enterpriseId);
+            throw new SLException(TradingEnum.CONFIG_EMPTY);
+        }
+
+        long nextCheckTime = System.currentTimeMillis() + this.refreshInterval;
+        String fingerprint = fingerprint(payChannel);
+        if (null != entry && StrUtil.equals(entry.fingerprint, fingerprint)) {
+            //配置没有变化
+            this.clientMap.put(enterpriseId, new Entry(entry.client, fingerprint, nextCheckTime));
+            return entry.client;
+        }
+
+        WechatPayHttpClient client;
+        try {
+            client = this.build(WechatPayHttpClient.of(payChannel));
+        } catch (Exception e) {
+            //创建失败时保留原来的client，下次获取时重试
+            log.error("创建微信支付client失败，enterpriseId = {}", enterpriseId, e);
+            throw new SLException(TradingEnum.CONFIG_ERROR, e);
+        }
+        this.clientMap.put(enterpriseId, new Entry(client, fingerprint, nextCheckTime));
+        if (null != entry) {
+            log.info("微信支付渠道配置变化，重新创建client，enterpriseId = {}", enterpriseId);
+            this.closeLater(entry.client);
+        }
+        return client;
+    }
+
+    private WechatPayHttpClient build(WechatPayHttpClient client) throws Exception {
+        // 加载商户私钥（privateKey：私钥字符串），只解析一次
+        PrivateKey merchantPrivateKey = PemUtil.loadPrivateKey(new ByteArrayInputStream(client.getPrivateKey().getBytes(StandardCharsets.UTF_8)));
+        client.setMerchantPrivateKey(merchantPrivateKey);
+        client.setVerifier(this.createVerifier(client));
+
+        //连接池，连接在请求之间复用
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(this.keepAlive, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(this.maxConnections);
+        connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        CloseableHttpClient httpClient = WechatPayHttpClientBuilder.create()
+                .withMerchant(client.getMchId(), client.getMchSerialNo(), merchantPrivateKey)
+                .withValidator(new WechatPay2Validator(client.getVerifier()))
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> this.keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(this.keepAlive, TimeUnit.MILLISECONDS)
+                .build();
+        client.setHttpClient(httpClient);
+        return client;
+    }
+
+    /**
+     * 创建平台证书验证器，证书由证书管理器自动更新
+     *
+     * @param client client对象，私钥已经解析
+     * @return 验证器
+     */
+    protected Verifier createVerifier(WechatPayHttpClient client) throws Exception {
+        // 加载平台证书（mchId：商户号,mchSerialNo：商户证书序列号,apiV3Key：V3密钥）
+        PrivateKeySigner privateKeySigner = new PrivateKeySigner(client.getMchSerialNo(), client.getMerchantPrivateKey());
+        WechatPay2Credentials wechatPay2Credentials = new WechatPay2Credentials(client.getMchId(), privateKeySigner);
+
+        // 向证书管理器增加需要自动更新平台证书的商户信息
+        CertificatesManager certificatesManager = CertificatesManager.getInstance();
+        certificatesManager.putMerchant(client.getMchId(), wechatPay2Credentials, client.getApiV3Key().getBytes(StandardCharsets.UTF_8));
+        return certificatesManager.getVerifier(client.getMchId());
+    }
+
+    /**
+     * 延迟关闭，等待正在使用旧client的请求完成
+     */
+    private void closeLater(WechatPayHttpClient client) {
+        CompletableFuture.delayedExecutor(this.keepAlive, TimeUnit.MILLISECONDS)
+                .execute(() -> IoUtil.close(client.getHttpClient()));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.clientMap.values().forEach(entry -> IoUtil.close(entry.client.getHttpClient()));
+        this.clientMap.clear();
+    }
+
+    private static String fingerprint(PayChannelEntity payChannel) {
+        return SecureUtil.md5(StrUtil.join("|", payChannel.getAppId(), payChannel.getDomain(),
+                payChannel.getMerchantPrivateKey(), payChannel.getOtherConfig(), payChannel.getNotifyUrl()));
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final WechatPayHttpClient client;
+        private final String fingerprint;
+        private final long nextCheckTime;
+    }
+}
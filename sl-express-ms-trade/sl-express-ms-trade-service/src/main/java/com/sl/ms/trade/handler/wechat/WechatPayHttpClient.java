@@ -4,18 +4,14 @@ import cn.hutool.core.net.url.UrlBuilder;
 import cn.hutool.core.net.url.UrlPath;
 import cn.hutool.core.net.url.UrlQuery;
 import cn.hutool.core.util.CharsetUtil;
-import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.extra.spring.SpringUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.sl.ms.trade.constant.TradingConstant;
 import com.sl.ms.trade.entity.PayChannelEntity;
-import com.sl.ms.trade.enums.TradingEnum;
 import com.sl.ms.trade.handler.wechat.response.WeChatResponse;
-import com.sl.ms.trade.service.PayChannelService;
-import com.sl.transport.common.exception.SLException;
 import com.wechat.pay.contrib.apache.httpclient.auth.PrivateKeySigner;
+import com.wechat.pay.contrib.apache.httpclient.auth.Verifier;
 import com.wechat.pay.contrib.apache.httpclient.auth.WechatPay2Credentials;
 import com.wechat.pay.contrib.apache.httpclient.auth.WechatPay2Validator;
 import com.wechat.pay.contrib.apache.httpclient.cert.CertificatesManager;
@@ -24,6 +20,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -31,7 +28,6 @@ import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.ByteArrayInputStream;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.security.PrivateKey;
 import java.util.Map;
@@ -47,22 +43,38 @@ public class WechatPayHttpClient {
 
     private String mchId; //商户号
     private String appId; //应用号
+    @ToString.Exclude
     private String privateKey; //私钥字符串
     private String mchSerialNo; //商户证书序列号
+    @ToString.Exclude
     private String apiV3Key; //V3密钥
-    private String domain; //请求域名
+    private String domain; //请求域名，可以指定协议，默认https
     private String notifyUrl; //请求地址
 
-    public static WechatPayHttpClient get(Long enterpriseId) {
-        // 查询配置
-        PayChannelService payChannelService = SpringUtil.getBean(PayChannelService.class);
-        PayChannelEntity payChannel = payChannelService.findByEnterpriseId(enterpriseId, TradingConstant.TRADING_CHANNEL_WECHAT_PAY);
+    @ToString.Exclude
+    private PrivateKey merchantPrivateKey; //解析后的商户私钥
+    @ToString.Exclude
+    private Verifier verifier; //平台证书验证器
+    @ToString.Exclude
+    private CloseableHttpClient httpClient; //带连接池的远程请求对象
 
-        if (ObjectUtil.isEmpty(payChannel)) {
-            throw new SLException(TradingEnum.CONFIG_EMPTY);
-        }
+    /**
+     * 获取商户的client对象，解析后的私钥、证书验证器以及连接池在请求之间复用
+     *
+     * @param enterpriseId 商户号
+     * @return client对象
+     */
+    public static WechatPayHttpClient get(Long enterpriseId) {
+        return SpringUtil.getBean(WechatPayClientRegistry.class).get(enterpriseId);
+    }
 
-        //通过渠道对象转化成微信支付的client对象
+    /**
+     * 通过渠道对象转化成微信支付的client对象
+     *
+     * @param payChannel 支付渠道
+     * @return client对象，还没有初始化远程请求对象
+     */
+    public static WechatPayHttpClient of(PayChannelEntity payChannel) {
         JSONObject otherConfig = JSONUtil.parseObj(payChannel.getOtherConfig());
         return WechatPayHttpClient.builder()
                 .appId(payChannel.getAppId())
@@ -76,10 +88,13 @@ public class WechatPayHttpClient {
     }
 
     /***
-     * 构建CloseableHttpClient远程请求对象
+     * 构建CloseableHttpClient远程请求对象，已经初始化时直接返回
      * @return org.apache.http.impl.client.CloseableHttpClient
      */
     public CloseableHttpClient createHttpClient() throws Exception {
+        if (null != this.httpClient) {
+            return this.httpClient;
+        }
         // 加载商户私钥（privateKey：私钥字符串）
         PrivateKey merchantPrivateKey = PemUtil.loadPrivateKey(new ByteArrayInputStream(privateKey.getBytes(StandardCharsets.UTF_8)));
 
@@ -106,16 +121,17 @@ public class WechatPayHttpClient {
      * @return 返回字符串
      */
     public WeChatResponse doPost(String apiPath, Map<String, Object> params) throws Exception {
-        String url = StrUtil.format("https://{}{}", this.domain, apiPath);
-        HttpPost httpPost = new HttpPost(url);
+        HttpPost httpPost = new HttpPost(this.urlBuilder(apiPath).build());
         httpPost.addHeader("Accept", "application/json");
         httpPost.addHeader("Content-type", "application/json; charset=utf-8");
 
         String body = JSONUtil.toJsonStr(params);
         httpPost.setEntity(new StringEntity(body, CharsetUtil.UTF_8));
 
-        CloseableHttpResponse response = this.createHttpClient().execute(httpPost);
-        return new WeChatResponse(response);
+        //读取完响应体后关闭响应，连接归还到连接池
+        try (CloseableHttpResponse response = this.createHttpClient().execute(httpPost)) {
+            return new WeChatResponse(response);
+        }
     }
 
     /***
@@ -125,14 +141,7 @@ public class WechatPayHttpClient {
      * @return 返回字符串
      */
     public WeChatResponse doGet(String apiPath, Map<String, Object> params) throws Exception {
-        URI uri = UrlBuilder.create()
-                .setHost(this.domain)
-                .setScheme("https")
-                .setPath(UrlPath.of(apiPath, CharsetUtil.CHARSET_UTF_8))
-                .setQuery(UrlQuery.of(params))
-                .setCharset(CharsetUtil.CHARSET_UTF_8)
-                .toURI();
-        return this.doGet(uri);
+        return this.doGet(this.urlBuilder(apiPath).setQuery(UrlQuery.of(params)));
     }
 
     /***
@@ -141,20 +150,24 @@ public class WechatPayHttpClient {
      * @return 返回字符串
      */
     public WeChatResponse doGet(String apiPath) throws Exception {
-        URI uri = UrlBuilder.create()
-                .setHost(this.domain)
-                .setScheme("https")
-                .setPath(UrlPath.of(apiPath, CharsetUtil.CHARSET_UTF_8))
-                .setCharset(CharsetUtil.CHARSET_UTF_8)
-                .toURI();
-        return this.doGet(uri);
+        return this.doGet(this.urlBuilder(apiPath));
     }
 
-    private WeChatResponse doGet(URI uri) throws Exception {
-        HttpGet httpGet = new HttpGet(uri);
+    private WeChatResponse doGet(UrlBuilder urlBuilder) throws Exception {
+        HttpGet httpGet = new HttpGet(urlBuilder.toURI());
         httpGet.addHeader("Accept", "application/json");
-        CloseableHttpResponse response = this.createHttpClient().execute(httpGet);
-        return new WeChatResponse(response);
+        try (CloseableHttpResponse response = this.createHttpClient().execute(httpGet)) {
+            return new WeChatResponse(response);
+        }
+    }
+
+    private UrlBuilder urlBuilder(String apiPath) {
+        UrlBuilder urlBuilder = StrUtil.startWithAny(this.domain, "http://", "https://")
+                ? UrlBuilder.of(this.domain, CharsetUtil.CHARSET_UTF_8)
+                : UrlBuilder.create().setScheme("https").setHost(this.domain);
+        return urlBuilder
+                .setPath(UrlPath.of(apiPath, CharsetUtil.CHARSET_UTF_8))
+                .setCharset(CharsetUtil.CHARSET_UTF_8);
     }
 
 }
@@ -1,6 +1,8 @@
 package com.sl.ms.trade.job;
 
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.util.NumberUtil;
 import cn.hutool.json.JSONUtil;
 import com.sl.ms.base.api.common.MQFeign;
@@ -14,6 +16,7 @@ import com.sl.ms.trade.service.BasicPayService;
 import com.sl.ms.trade.service.RefundRecordService;
 import com.sl.ms.trade.service.TradingService;
 import com.sl.transport.common.constant.Constants;
+import com.sl.transport.common.entity.BaseEntity;
 import com.sl.transport.common.vo.TradeStatusMsg;
 import com.xxl.job.core.context.XxlJobHelper;
 import com.xxl.job.core.handler.annotation.XxlJob;
@@ -21,12 +24,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 交易任务，主要是查询订单的支付状态 和 退款的成功状态
+ * <p>
+ * 分片广播执行，分片条件（id对分片总数取模）在sql中过滤，每个分片按id分页扫描自己的数据，
+ * 执行器增加时每个分片的数据量随之减少；同一页的数据使用有界线程池并行查询支付平台
  *
  * @author zzj
  * @version 1.0
@@ -39,6 +56,16 @@ public class TradeJob {
     private Integer tradingCount;
     @Value("${sl.job.refund.count:100}")
     private Integer refundCount;
+    /**
+     * 每次执行最多查询的页数，剩余的数据下次执行时处理
+     */
+    @Value("${sl.job.max-pages:50}")
+    private Integer maxPages;
+    /**
+     * 并行查询支付平台的线程数
+     */
+    @Value("${sl.job.threads:8}")
+    private Integer threads;
     @Resource
     private TradingService tradingService;
     @Resource
@@ -48,52 +75,43 @@ public class TradeJob {
     @Resource
     private MQFeign mqFeign;
 
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        //队列满时由调用线程执行，查询的并发量不会超过线程数+1
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(this.tradingCount, this.refundCount)),
+                ThreadFactoryBuilder.create().setNamePrefix("trade-job-").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
     /**
      * 分片广播方式查询支付状态
-     * 逻辑：每次最多查询{tradingCount}个未完成的交易单，交易单id与shardTotal取模，值等于shardIndex进行处理
+     * 逻辑：每页查询{tradingCount}个当前分片未完成的交易单，状态不是【付款中】的通知其他系统
      */
     @XxlJob("tradingJob")
     public void tradingJob() {
-        // 分片参数
-        int shardIndex = NumberUtil.max(XxlJobHelper.getShardIndex(), 0);
-        int shardTotal = NumberUtil.max(XxlJobHelper.getShardTotal(), 1);
-
-        List<TradingEntity> list = this.tradingService.findListByTradingState(TradingStateEnum.FKZ, tradingCount);
-        if (CollUtil.isEmpty(list)) {
-            XxlJobHelper.log("查询到交易单列表为空！shardIndex = {}, shardTotal = {}", shardIndex, shardTotal);
-            return;
-        }
-
-        //定义消息通知列表，只要是状态不为【付款中】就需要通知其他系统
-        List<TradeStatusMsg> tradeMsgList = new ArrayList<>();
-        for (TradingEntity trading : list) {
-            if (trading.getTradingOrderNo() % shardTotal != shardIndex) {
-                continue;
-            }
-            try {
-                //查询交易单
-                TradingDTO tradingDTO = this.basicPayService.queryTrading(trading.getTradingOrderNo());
-                if (TradingStateEnum.FKZ != tradingDTO.getTradingState()) {
-                    TradeStatusMsg tradeStatusMsg = TradeStatusMsg.builder()
+        this.sweep("交易单", TradingStateEnum.FKZ.name(),
+                lastId -> this.tradingService.findListByTradingState(TradingStateEnum.FKZ, lastId, shardIndex(), shardTotal(), this.tradingCount),
+                trading -> {
+                    //查询交易单
+                    TradingDTO tradingDTO = this.basicPayService.queryTrading(trading.getTradingOrderNo());
+                    if (TradingStateEnum.FKZ == tradingDTO.getTradingState()) {
+                        return null;
+                    }
+                    return TradeStatusMsg.builder()
                             .tradingOrderNo(trading.getTradingOrderNo())
                             .productOrderNo(trading.getProductOrderNo())
                             .statusCode(tradingDTO.getTradingState().getCode())
                             .statusName(tradingDTO.getTradingState().name())
                             .build();
-                    tradeMsgList.add(tradeStatusMsg);
-                }
-            } catch (Exception e) {
-                XxlJobHelper.log("查询交易单出错！shardIndex = {}, shardTotal = {}, trading = {}", shardIndex, shardTotal, trading, e);
-            }
-        }
-
-        if (CollUtil.isEmpty(tradeMsgList)) {
-            return;
-        }
-
-        //发送消息通知其他系统
-        String msg = JSONUtil.toJsonStr(tradeMsgList);
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRADE, Constants.MQ.RoutingKeys.TRADE_UPDATE_STATUS, msg);
+                }, Constants.MQ.RoutingKeys.TRADE_UPDATE_STATUS);
     }
 
     /**
@@ -101,47 +119,94 @@ public class TradeJob {
      */
     @XxlJob("refundJob")
     public void refundJob() {
-        // 分片参数
-        int shardIndex = NumberUtil.max(XxlJobHelper.getShardIndex(), 0);
-        int shardTotal = NumberUtil.max(XxlJobHelper.getShardTotal(), 1);
-
-        List<RefundRecordEntity> list = this.refundRecordService.findListByRefundStatus(RefundStatusEnum.SENDING, refundCount);
-        if (CollUtil.isEmpty(list)) {
-            XxlJobHelper.log("查询到退款单列表为空！shardIndex = {}, shardTotal = {}", shardIndex, shardTotal);
-            return;
-        }
-
-        //定义消息通知列表，只要是状态不为【退款中】就需要通知其他系统
-        List<TradeStatusMsg> tradeMsgList = new ArrayList<>();
-
-        for (RefundRecordEntity refundRecord : list) {
-            if (refundRecord.getRefundNo() % shardTotal != shardIndex) {
-                continue;
-            }
-            try {
-                //查询退款单
-                RefundRecordDTO refundRecordDTO = this.basicPayService.queryRefundTrading(refundRecord.getRefundNo());
-                if (RefundStatusEnum.SENDING != refundRecordDTO.getRefundStatus()) {
-                    TradeStatusMsg tradeStatusMsg = TradeStatusMsg.builder()
+        this.sweep("退款单", RefundStatusEnum.SENDING.name(),
+                lastId -> this.refundRecordService.findListByRefundStatus(RefundStatusEnum.SENDING, lastId, shardIndex(), shardTotal(), this.refundCount),
+                refundRecord -> {
+                    //查询退款单
+                    RefundRecordDTO refundRecordDTO = this.basicPayService.queryRefundTrading(refundRecord.getRefundNo());
+                    if (RefundStatusEnum.SENDING == refundRecordDTO.getRefundStatus()) {
+                        return null;
+                    }
+                    return TradeStatusMsg.builder()
                             .tradingOrderNo(refundRecord.getTradingOrderNo())
                             .productOrderNo(refundRecord.getProductOrderNo())
                             .refundNo(refundRecord.getRefundNo())
-                            .statusCode(refundRecord.getRefundStatus().getCode())
-                            .statusName(refundRecord.getRefundStatus().name())
+                            .statusCode(refundRecordDTO.getRefundStatus().getCode())
+                            .statusName(refundRecordDTO.getRefundStatus().name())
                             .build();
-                    tradeMsgList.add(tradeStatusMsg);
+                }, Constants.MQ.RoutingKeys.REFUND_UPDATE_STATUS);
+    }
+
+    /**
+     * 按页扫描当前分片的数据，查询支付平台的状态，状态变化的发送消息通知其他系统
+     *
+     * @param name       数据名称，用于日志
+     * @param state      扫描的状态，用于日志
+     * @param pageLoader 根据上一页最后的id查询下一页
+     * @param query      查询支付平台，状态没有变化返回null
+     * @param routingKey 消息的路由key
+     */
+    private <T extends BaseEntity> void sweep(String name, String state, Function<Long, List<T>> pageLoader,
+                                              Function<T, TradeStatusMsg> query, String routingKey) {
+        int shardIndex = shardIndex();
+        int shardTotal = shardTotal();
+        long start = System.currentTimeMillis();
+        long lastId = 0;
+        int total = 0;
+        int changed = 0;
+        AtomicInteger failed = new AtomicInteger();
+        //分片内最早的未完成数据的创建时间，用于计算积压延迟
+        LocalDateTime oldest = null;
+        boolean drained = false;
+        for (int page = 0; page < this.maxPages; page++) {
+            List<T> list = pageLoader.apply(lastId);
+            if (CollUtil.isEmpty(list)) {
+                drained = true;
+                break;
+            }
+            lastId = CollUtil.getLast(list).getId();
+            total += list.size();
+            for (T entity : list) {
+                if (null != entity.getCreated() && (null == oldest || entity.getCreated().isBefore(oldest))) {
+                    oldest = entity.getCreated();
                 }
-            } catch (Exception e) {
-                XxlJobHelper.log("查询退款单出错！shardIndex = {}, shardTotal = {}, refundRecord = {}", shardIndex, shardTotal, refundRecord, e);
             }
-        }
 
-        if (CollUtil.isEmpty(tradeMsgList)) {
-            return;
+            //并行查询，单个查询失败不影响其他数据
+            List<CompletableFuture<TradeStatusMsg>> futures = list.stream()
+                    .map(entity -> CompletableFuture.supplyAsync(() -> query.apply(entity), this.executor)
+                            .exceptionally(e -> {
+                                //在线程池中执行，不能使用XxlJobHelper记录日志
+                                log.error("查询{}出错！shardIndex = {}, shardTotal = {}, entity = {}", name, shardIndex, shardTotal, entity, e);
+                                failed.incrementAndGet();
+                                return null;
+                            }))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            List<TradeStatusMsg> tradeMsgList = futures.stream().map(CompletableFuture::join)
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            changed += tradeMsgList.size();
+
+            if (CollUtil.isNotEmpty(tradeMsgList)) {
+                //发送消息通知其他系统，每页发送一次
+                String msg = JSONUtil.toJsonStr(tradeMsgList);
+                this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRADE, routingKey, msg);
+            }
         }
 
-        //发送消息通知其他系统
-        String msg = JSONUtil.toJsonStr(tradeMsgList);
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRADE, Constants.MQ.RoutingKeys.REFUND_UPDATE_STATUS, msg);
+        long lag = null == oldest ? 0 : Duration.between(oldest, LocalDateTime.now()).getSeconds();
+        XxlJobHelper.log("{}[{}]扫描完成，shardIndex = {}, shardTotal = {}, 数量：{}，状态变化：{}，失败：{}，积压延迟：{}s（最早：{}），已扫描完：{}，耗时：{}ms",
+                name, state, shardIndex, shardTotal, total, changed, failed.get(), lag,
+                null == oldest ? "-" : LocalDateTimeUtil.formatNormal(oldest), drained, System.currentTimeMillis() - start);
+        log.info("{}[{}]分片积压，shardIndex = {}, shardTotal = {}, count = {}, lag = {}s, drained = {}",
+                name, state, shardIndex, shardTotal, total, lag, drained);
+    }
+
+    private static int shardIndex() {
+        return NumberUtil.max(XxlJobHelper.getShardIndex(), 0);
+    }
+
+    private static int shardTotal() {
+        return NumberUtil.max(XxlJobHelper.getShardTotal(), 1);
     }
 }
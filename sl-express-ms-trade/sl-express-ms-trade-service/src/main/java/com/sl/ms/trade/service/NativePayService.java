@@ -17,6 +17,14 @@ public interface NativePayService {
      */
     String queryQrCodeUrl(Long tradingOrderNo);
 
+    /***
+     * 查看二维码图片，与查看二维码信息的内容相同，直接返回PNG图片数据
+     *
+     * @param tradingOrderNo 交易单号
+     * @return PNG图片数据
+     */
+    byte[] queryQrCodePng(Long tradingOrderNo);
+
     /***
      * 扫码支付，收银员通过收银台或商户后台调用此接口，生成二维码后，展示给用户，由用户扫描二维码完成订单支付。
      *
@@ -22,7 +22,7 @@ public interface PayChannelService extends IService<PayChannelEntity> {
     Page<PayChannelEntity> findPayChannelPage(PayChannelDTO payChannelDTO, int pageNum, int pageSize);
 
     /**
-     * 根据商户id查询渠道配置，该配置会被缓存10分钟
+     * 根据商户id查询渠道配置，该配置会缓存在本地，渠道修改后所有实例的缓存都会被删除
      *
      * @param enterpriseId 商户id
      * @param channelLabel 通道唯一标记
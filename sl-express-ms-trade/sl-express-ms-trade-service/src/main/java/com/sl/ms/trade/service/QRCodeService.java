@@ -25,4 +25,13 @@ public interface QRCodeService {
      */
     String generate(String content, PayChannelEnum payChannel);
 
+    /**
+     * 生成二维码PNG图片，相同内容和样式的二维码会被缓存，返回的数组不能修改
+     *
+     * @param content    二维码中的内容
+     * @param payChannel 付款渠道，为空时不带logo
+     * @return PNG图片数据
+     */
+    byte[] generatePng(String content, PayChannelEnum payChannel);
+
 }
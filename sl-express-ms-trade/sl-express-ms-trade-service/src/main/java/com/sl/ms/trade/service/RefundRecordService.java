@@ -36,11 +36,14 @@ public interface RefundRecordService extends IService<RefundRecordEntity> {
     List<RefundRecordEntity> findListByProductOrderNo(Long productOrderNo);
 
     /***
-     * 按状态查询退款单，按照时间正序排序
+     * 按状态分片查询退款单，按照id正序排序，每个分片只查询id对分片总数取模等于分片序号的数据
      *
      * @param refundStatus 状态
+     * @param lastId 上一页最后一条数据的id，从这条数据之后开始查询，第一页传0
+     * @param shardIndex 分片序号
+     * @param shardTotal 分片总数
      * @param count 查询数量，默认查询10条
      * @return 退款单数据列表
      */
-    List<RefundRecordEntity> findListByRefundStatus(RefundStatusEnum refundStatus, Integer count);
+    List<RefundRecordEntity> findListByRefundStatus(RefundStatusEnum refundStatus, Long lastId, int shardIndex, int shardTotal, Integer count);
 }
@@ -27,10 +27,22 @@ public interface TradingService extends IService<TradingEntity> {
     TradingEntity findTradByProductOrderNo(Long productOrderNo);
 
     /***
-     * 按交易状态查询交易单，按照时间正序排序
+     * 条件更新交易单状态，只有当前状态等于期望的状态时才会更新，不需要加锁
+     * @param tradingOrderNo 交易单号
+     * @param expectState 期望的当前状态
+     * @param trading 需要更新的字段
+     * @return 是否更新，状态不符合时返回false
+     */
+    Boolean updateTradingState(Long tradingOrderNo, TradingStateEnum expectState, TradingEntity trading);
+
+    /***
+     * 按交易状态分片查询交易单，按照id正序排序，每个分片只查询id对分片总数取模等于分片序号的数据
      * @param tradingState 状态
+     * @param lastId 上一页最后一条数据的id，从这条数据之后开始查询，第一页传0
+     * @param shardIndex 分片序号
+     * @param shardTotal 分片总数
      * @param count 查询数量，默认查询10条
      * @return 交易单数据列表
      */
-    List<TradingEntity> findListByTradingState(TradingStateEnum tradingState, Integer count);
+    List<TradingEntity> findListByTradingState(TradingStateEnum tradingState, Long lastId, int shardIndex, int shardTotal, Integer count);
 }
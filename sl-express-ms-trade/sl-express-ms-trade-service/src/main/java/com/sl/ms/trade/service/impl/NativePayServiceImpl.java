@@ -1,6 +1,7 @@
 package com.sl.ms.trade.service.impl;
 
 import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.StrUtil;
 import com.sl.ms.trade.constant.Constants;
 import com.sl.ms.trade.constant.TradingCacheConstant;
 import com.sl.ms.trade.constant.TradingConstant;
@@ -53,6 +54,22 @@ public class NativePayServiceImpl implements NativePayService {
         return trading.getQrCode();
     }
 
+    @Override
+    public byte[] queryQrCodePng(Long tradingOrderNo) {
+        TradingEntity trading = this.tradingService.findTradByTradingOrderNo(tradingOrderNo);
+        if (ObjectUtil.equals(trading.getTradingState(), TradingStateEnum.YJS)) {
+            //订单已完成，不返回二维码
+            throw new SLException(TradingEnum.TRADING_STATE_SUCCEED);
+        }
+        if (StrUtil.isEmpty(trading.getQrCode()) || StrUtil.isEmpty(trading.getPlaceOrderMsg())) {
+            //交易单已关闭或者没有生成过二维码
+            throw new SLException(TradingEnum.NATIVE_QRCODE_FAIL);
+        }
+        //与创建交易单时的参数相同，命中缓存时不需要重新生成
+        PayChannelEnum payChannel = PayChannelEnum.valueOf(trading.getTradingChannel());
+        return this.qrCodeService.generatePng(trading.getPlaceOrderMsg(), payChannel);
+    }
+
     @Override
     public TradingEntity createDownLineTrading(TradingEntity tradingEntity) {
         //交易前置处理：检测交易单参数
@@ -18,14 +18,14 @@ import com.sl.ms.trade.service.TradingService;
 import com.sl.transport.common.constant.Constants;
 import com.sl.transport.common.exception.SLException;
 import com.sl.transport.common.vo.TradeStatusMsg;
-import com.wechat.pay.contrib.apache.httpclient.auth.Verifier;
-import com.wechat.pay.contrib.apache.httpclient.cert.CertificatesManager;
 import com.wechat.pay.contrib.apache.httpclient.notification.Notification;
 import com.wechat.pay.contrib.apache.httpclient.notification.NotificationHandler;
 import com.wechat.pay.contrib.apache.httpclient.notification.NotificationRequest;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
+import org.redisson.api.RBucket;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
@@ -53,23 +53,24 @@ public class NotifyServiceImpl implements NotifyService {
     @Resource
     private MQFeign mqFeign;
 
+    /**
+     * 支付通知幂等记录的有效期，覆盖支付平台的重试周期（微信约24小时，支付宝约25小时），单位：秒
+     */
+    @Value("${sl.trade.notify.ttl:172800}")
+    private Long notifyTtl;
+
     @Override
     public void wxPayNotify(NotificationRequest request, Long enterpriseId) throws SLException {
         // 查询配置
         WechatPayHttpClient client = WechatPayHttpClient.get(enterpriseId);
 
         JSONObject jsonData;
+        String notifyId;
 
         //验证签名，确保请求来自微信
         try {
-            //确保在管理器中存在自动更新的商户证书
-            client.createHttpClient();
-
-            CertificatesManager certificatesManager = CertificatesManager.getInstance();
-            Verifier verifier = certificatesManager.getVerifier(client.getMchId());
-
-            //验签和解析请求数据
-            NotificationHandler notificationHandler = new NotificationHandler(verifier, client.getApiV3Key().getBytes(StandardCharsets.UTF_8));
+            //验签和解析请求数据，验证器在client创建时已经初始化
+            NotificationHandler notificationHandler = new NotificationHandler(client.getVerifier(), client.getApiV3Key().getBytes(StandardCharsets.UTF_8));
             Notification notification = notificationHandler.parse(request);
 
             if (!StrUtil.equals("TRANSACTION.SUCCESS", notification.getEventType())) {
@@ -79,6 +80,7 @@ public class NotifyServiceImpl implements NotifyService {
 
             //获取解密后的数据
             jsonData = JSONUtil.parseObj(notification.getDecryptData());
+            notifyId = notification.getId();
         } catch (Exception e) {
             throw new SLException("验签失败");
         }
@@ -91,48 +93,64 @@ public class NotifyServiceImpl implements NotifyService {
         Long tradingOrderNo = jsonData.getLong("out_trade_no");
         log.info("微信支付通知：tradingOrderNo = {}, data = {}", tradingOrderNo, jsonData);
 
-        //更新交易单
-        this.updateTrading(tradingOrderNo, jsonData.getStr("trade_state_desc"), jsonData.toString());
+        //更新交易单，重复发送的通知id相同
+        String notifyKey = TradingConstant.TRADING_CHANNEL_WECHAT_PAY + ":" + StrUtil.blankToDefault(notifyId, jsonData.getStr("transaction_id"));
+        this.updateTrading(notifyKey, tradingOrderNo, jsonData.getStr("trade_state_desc"), jsonData.toString());
     }
 
-    private void updateTrading(Long tradingOrderNo, String resultMsg, String resultJson) {
-        String key = TradingCacheConstant.CREATE_PAY + tradingOrderNo;
-        RLock lock = redissonClient.getFairLock(key);
+    /**
+     * 更新交易单为已付款
+     * <p>
+     * 支付平台会多次重复发送同一个通知，使用通知id作为幂等记录（redis SETNX + 有效期），重复的通知直接返回；
+     * 状态通过条件更新（trading_state = 付款中）修改，与主动查询支付状态并发时也只有一个能更新成功，不需要分布式锁。
+     * 交易单已经是已付款时也发送消息：上次处理时状态已经提交但是消息发送失败，支付平台重新通知时补发，消费方按状态幂等处理
+     *
+     * @param notifyKey      通知的唯一标识
+     * @param tradingOrderNo 交易单号
+     * @param resultMsg      支付结果
+     * @param resultJson     支付平台的通知数据
+     */
+    private void updateTrading(String notifyKey, Long tradingOrderNo, String resultMsg, String resultJson) {
+        RBucket<String> bucket = this.redissonClient.getBucket(TradingCacheConstant.NOTIFY_PREFIX + notifyKey, StringCodec.INSTANCE);
+        if (!bucket.trySet(String.valueOf(tradingOrderNo), this.notifyTtl, TimeUnit.SECONDS)) {
+            //重复的通知
+            log.info("重复的支付通知，notifyKey = {}, tradingOrderNo = {}", notifyKey, tradingOrderNo);
+            return;
+        }
+
         try {
-            //获取锁
-            if (lock.tryLock(TradingCacheConstant.REDIS_WAIT_TIME, TimeUnit.SECONDS)) {
-                TradingEntity trading = this.tradingService.findTradByTradingOrderNo(tradingOrderNo);
-                if (trading.getTradingState() == TradingStateEnum.YJS) {
-                    // 已付款
-                    return;
-                }
-
-                //设置成付款成功
-                trading.setTradingState(TradingStateEnum.YJS);
-                //清空二维码数据
-                trading.setQrCode("");
-                trading.setResultMsg(resultMsg);
-                trading.setResultJson(resultJson);
-                this.tradingService.saveOrUpdate(trading);
-
-                // 发消息通知其他系统支付成功
-                TradeStatusMsg tradeStatusMsg = TradeStatusMsg.builder()
-                        .tradingOrderNo(trading.getTradingOrderNo())
-                        .productOrderNo(trading.getProductOrderNo())
-                        .statusCode(TradingStateEnum.YJS.getCode())
-                        .statusName(TradingStateEnum.YJS.name())
-                        .build();
-
-                String msg = JSONUtil.toJsonStr(Collections.singletonList(tradeStatusMsg));
-                this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRADE, Constants.MQ.RoutingKeys.TRADE_UPDATE_STATUS, msg);
+            TradingEntity trading = new TradingEntity();
+            //设置成付款成功
+            trading.setTradingState(TradingStateEnum.YJS);
+            //清空二维码数据
+            trading.setQrCode("");
+            trading.setResultMsg(resultMsg);
+            trading.setResultJson(resultJson);
+            boolean updated = this.tradingService.updateTradingState(tradingOrderNo, TradingStateEnum.FKZ, trading);
+
+            TradingEntity tradingEntity = this.tradingService.findTradByTradingOrderNo(tradingOrderNo);
+            if (!updated && (null == tradingEntity || TradingStateEnum.YJS != tradingEntity.getTradingState())) {
+                //不是付款中也不是已付款的交易单，例如已关闭，不处理
+                log.warn("支付通知对应的交易单状态不是付款中，notifyKey = {}, trading = {}", notifyKey, tradingEntity);
                 return;
             }
+
+            // 发消息通知其他系统支付成功
+            TradeStatusMsg tradeStatusMsg = TradeStatusMsg.builder()
+                    .tradingOrderNo(tradingOrderNo)
+                    .productOrderNo(tradingEntity.getProductOrderNo())
+                    .statusCode(TradingStateEnum.YJS.getCode())
+                    .statusName(TradingStateEnum.YJS.name())
+                    .build();
+
+            String msg = JSONUtil.toJsonStr(Collections.singletonList(tradeStatusMsg));
+            this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRADE, Constants.MQ.RoutingKeys.TRADE_UPDATE_STATUS, msg);
         } catch (Exception e) {
+            //删除幂等记录，支付平台重新通知时再次处理，交易单已经是已付款时会补发消息
+            bucket.delete();
+            log.error("处理支付通知失败，notifyKey = {}, tradingOrderNo = {}", notifyKey, tradingOrderNo, e);
             throw new SLException("处理业务失败");
-        } finally {
-            lock.unlock();
         }
-        throw new SLException("处理业务失败");
     }
 
     @Override
@@ -165,7 +183,8 @@ public class NotifyServiceImpl implements NotifyService {
 
         //获取交易单号
         Long tradingOrderNo = Convert.toLong(param.get("out_trade_no"));
-        //更新交易单
-        this.updateTrading(tradingOrderNo, "支付成功", JSONUtil.toJsonStr(param));
+        //更新交易单，重复发送的通知id相同
+        String notifyKey = TradingConstant.TRADING_CHANNEL_ALI_PAY + ":" + StrUtil.blankToDefault(param.get("notify_id"), param.get("trade_no"));
+        this.updateTrading(notifyKey, tradingOrderNo, "支付成功", JSONUtil.toJsonStr(param));
     }
 }
@@ -1,10 +1,12 @@
 package com.sl.ms.trade.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.sl.ms.trade.cache.PayChannelCache;
 import com.sl.ms.trade.constant.Constants;
 import com.sl.ms.trade.domain.PayChannelDTO;
 import com.sl.ms.trade.entity.PayChannelEntity;
@@ -12,6 +14,7 @@ import com.sl.ms.trade.mapper.PayChannelMapper;
 import com.sl.ms.trade.service.PayChannelService;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
 import java.util.Arrays;
 import java.util.List;
 
@@ -21,6 +24,9 @@ import java.util.List;
 @Service
 public class PayChannelServiceImpl extends ServiceImpl<PayChannelMapper, PayChannelEntity> implements PayChannelService {
 
+    @Resource
+    private PayChannelCache payChannelCache;
+
     @Override
     public Page<PayChannelEntity> findPayChannelPage(PayChannelDTO payChannelDTO, int pageNum, int pageSize) {
         Page<PayChannelEntity> page = new Page<>(pageNum, pageSize);
@@ -38,12 +44,14 @@ public class PayChannelServiceImpl extends ServiceImpl<PayChannelMapper, PayChan
 
     @Override
     public PayChannelEntity findByEnterpriseId(Long enterpriseId, String channelLabel) {
-        LambdaQueryWrapper<PayChannelEntity> queryWrapper = new LambdaQueryWrapper<>();
-        queryWrapper.eq(PayChannelEntity::getEnterpriseId, enterpriseId)
-                .eq(PayChannelEntity::getChannelLabel, channelLabel)
-                .eq(PayChannelEntity::getEnableFlag, Constants.YES);
-        //TODO day03 练习 将支付渠道数据缓存到Redis
-        return super.getOne(queryWrapper);
+        //优先从本地缓存中查询，渠道变化时所有实例的缓存都会被删除
+        return this.payChannelCache.get(enterpriseId, channelLabel, () -> {
+            LambdaQueryWrapper<PayChannelEntity> queryWrapper = new LambdaQueryWrapper<>();
+            queryWrapper.eq(PayChannelEntity::getEnterpriseId, enterpriseId)
+                    .eq(PayChannelEntity::getChannelLabel, channelLabel)
+                    .eq(PayChannelEntity::getEnableFlag, Constants.YES);
+            return super.getOne(queryWrapper);
+        });
     }
 
     @Override
@@ -51,6 +59,7 @@ public class PayChannelServiceImpl extends ServiceImpl<PayChannelMapper, PayChan
         PayChannelEntity payChannel = BeanUtil.toBean(payChannelDTO, PayChannelEntity.class);
         boolean flag = super.save(payChannel);
         if (flag) {
+            this.payChannelCache.publish(payChannel.getEnterpriseId(), payChannel.getChannelLabel());
             return payChannel;
         }
         return null;
@@ -59,13 +68,29 @@ public class PayChannelServiceImpl extends ServiceImpl<PayChannelMapper, PayChan
     @Override
     public Boolean updatePayChannel(PayChannelDTO payChannelDTO) {
         PayChannelEntity payChannel = BeanUtil.toBean(payChannelDTO, PayChannelEntity.class);
-        return super.updateById(payChannel);
+        //修改前的商户id和渠道标识，修改后这两个字段可能会变化
+        PayChannelEntity oldPayChannel = super.getById(payChannel.getId());
+        boolean flag = super.updateById(payChannel);
+        if (flag && null != oldPayChannel) {
+            this.payChannelCache.publish(oldPayChannel.getEnterpriseId(), oldPayChannel.getChannelLabel());
+            Long enterpriseId = ObjectUtil.defaultIfNull(payChannel.getEnterpriseId(), oldPayChannel.getEnterpriseId());
+            String channelLabel = ObjectUtil.defaultIfNull(payChannel.getChannelLabel(), oldPayChannel.getChannelLabel());
+            if (ObjectUtil.notEqual(enterpriseId, oldPayChannel.getEnterpriseId()) || ObjectUtil.notEqual(channelLabel, oldPayChannel.getChannelLabel())) {
+                this.payChannelCache.publish(enterpriseId, channelLabel);
+            }
+        }
+        return flag;
     }
 
     @Override
     public Boolean deletePayChannel(String[] checkedIds) {
         List<String> ids = Arrays.asList(checkedIds);
-        return super.removeByIds(ids);
+        List<PayChannelEntity> payChannelList = super.listByIds(ids);
+        boolean flag = super.removeByIds(ids);
+        if (flag) {
+            payChannelList.forEach(payChannel -> this.payChannelCache.publish(payChannel.getEnterpriseId(), payChannel.getChannelLabel()));
+        }
+        return flag;
     }
 
     @Override
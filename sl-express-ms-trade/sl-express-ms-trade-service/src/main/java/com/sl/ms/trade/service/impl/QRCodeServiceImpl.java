@@ -1,26 +1,72 @@
 package com.sl.ms.trade.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.codec.Base64;
 import cn.hutool.core.img.ImgUtil;
 import cn.hutool.core.util.HexUtil;
 import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.URLUtil;
+import cn.hutool.crypto.SecureUtil;
 import cn.hutool.extra.qrcode.QrCodeUtil;
 import cn.hutool.extra.qrcode.QrConfig;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import com.sl.ms.trade.config.QRCodeConfig;
 import com.sl.ms.trade.enums.PayChannelEnum;
 import com.sl.ms.trade.service.QRCodeService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+/**
+ * 二维码生成，生成的PNG图片按内容和样式缓存，同一个交易单重复查看二维码时不会重新绘制
+ */
 @Service
 public class QRCodeServiceImpl implements QRCodeService {
 
     @Resource
     private QRCodeConfig qrCodeConfig;
 
+    /**
+     * 缓存的二维码数量上限，超过后淘汰最久未使用的
+     */
+    @Value("${sl.qrcode.cache-capacity:1000}")
+    private Integer cacheCapacity;
+    /**
+     * 二维码的缓存时间，单位：毫秒，与付款二维码的有效期一致即可
+     */
+    @Value("${sl.qrcode.cache-timeout:7200000}")
+    private Long cacheTimeout;
+
+    private LRUCache<String, byte[]> cache;
+
+    @PostConstruct
+    public void init() {
+        this.cache = CacheUtil.newLRUCache(this.cacheCapacity, this.cacheTimeout);
+    }
+
     @Override
     public String generate(String content, PayChannelEnum payChannel) {
+        byte[] png = this.generatePng(content, payChannel);
+        return URLUtil.getDataUriBase64("image/" + ImgUtil.IMAGE_TYPE_PNG, Base64.encode(png));
+    }
+
+    @Override
+    public String generate(String content) {
+        return generate(content, null);
+    }
+
+    @Override
+    public byte[] generatePng(String content, PayChannelEnum payChannel) {
+        String key = this.cacheKey(content, payChannel);
+        //相同的key并发生成时只绘制一次
+        return this.cache.get(key, () -> this.render(content, payChannel));
+    }
+
+    private byte[] render(String content, PayChannelEnum payChannel) {
         QrConfig qrConfig = new QrConfig();
         //设置边距
         qrConfig.setMargin(this.qrCodeConfig.getMargin());
@@ -38,12 +84,17 @@ public class QRCodeServiceImpl implements QRCodeService {
             //设置logo
             qrConfig.setImg(this.qrCodeConfig.getLogo(payChannel));
         }
-        return QrCodeUtil.generateAsBase64(content, qrConfig, ImgUtil.IMAGE_TYPE_PNG);
+        return QrCodeUtil.generatePng(content, qrConfig);
     }
 
-    @Override
-    public String generate(String content) {
-        return generate(content, null);
+    /**
+     * 缓存的key，包含内容和所有样式参数，样式配置修改后生成新的二维码
+     */
+    private String cacheKey(String content, PayChannelEnum payChannel) {
+        String style = StrUtil.join("|", this.qrCodeConfig.getMargin(), this.qrCodeConfig.getForeColor(),
+                this.qrCodeConfig.getBackColor(), this.qrCodeConfig.getErrorCorrectionLevel(),
+                this.qrCodeConfig.getWidth(), this.qrCodeConfig.getHeight(), payChannel);
+        return SecureUtil.md5(style + "|" + content);
     }
 
 }
@@ -41,11 +41,14 @@ public class RefundRecordServiceImpl extends ServiceImpl<RefundRecordMapper, Ref
     }
 
     @Override
-    public List<RefundRecordEntity> findListByRefundStatus(RefundStatusEnum refundStatus, Integer count) {
+    public List<RefundRecordEntity> findListByRefundStatus(RefundStatusEnum refundStatus, Long lastId, int shardIndex, int shardTotal, Integer count) {
         count = NumberUtil.max(count, 10);
         LambdaQueryWrapper<RefundRecordEntity> queryWrapper = new LambdaQueryWrapper<>();
+        //分片条件在sql中过滤，按id分页，不使用offset
         queryWrapper.eq(RefundRecordEntity::getRefundStatus, refundStatus)
-                .orderByAsc(RefundRecordEntity::getCreated)
+                .gt(RefundRecordEntity::getId, lastId)
+                .apply(shardTotal > 1, "id % {0} = {1}", shardTotal, shardIndex)
+                .orderByAsc(RefundRecordEntity::getId)
                 .last("LIMIT " + count);
         return list(queryWrapper);
     }
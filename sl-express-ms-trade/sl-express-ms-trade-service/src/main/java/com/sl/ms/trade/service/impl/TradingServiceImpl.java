@@ -2,6 +2,7 @@ package com.sl.ms.trade.service.impl;
 
 import cn.hutool.core.util.NumberUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.sl.ms.trade.constant.Constants;
 import com.sl.ms.trade.entity.TradingEntity;
@@ -33,12 +34,24 @@ public class TradingServiceImpl extends ServiceImpl<TradingMapper, TradingEntity
     }
 
     @Override
-    public List<TradingEntity> findListByTradingState(TradingStateEnum tradingState, Integer count) {
+    public Boolean updateTradingState(Long tradingOrderNo, TradingStateEnum expectState, TradingEntity trading) {
+        //update ... where trading_order_no = ? and trading_state = ?，并发更新时只有一个能成功
+        LambdaUpdateWrapper<TradingEntity> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.eq(TradingEntity::getTradingOrderNo, tradingOrderNo)
+                .eq(TradingEntity::getTradingState, expectState);
+        return super.update(trading, updateWrapper);
+    }
+
+    @Override
+    public List<TradingEntity> findListByTradingState(TradingStateEnum tradingState, Long lastId, int shardIndex, int shardTotal, Integer count) {
         count = NumberUtil.max(count, 10);
         LambdaQueryWrapper<TradingEntity> queryWrapper = new LambdaQueryWrapper<>();
+        //分片条件在sql中过滤，按id分页，不使用offset
         queryWrapper.eq(TradingEntity::getTradingState, tradingState)
                 .eq(TradingEntity::getEnableFlag, Constants.YES)
-                .orderByAsc(TradingEntity::getCreated)
+                .gt(TradingEntity::getId, lastId)
+                .apply(shardTotal > 1, "id % {0} = {1}", shardTotal, shardIndex)
+                .orderByAsc(TradingEntity::getId)
                 .last("LIMIT " + count);
         return list(queryWrapper);
     }
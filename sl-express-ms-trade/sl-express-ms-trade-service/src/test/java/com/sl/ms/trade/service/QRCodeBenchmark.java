@@ -0,0 +1,79 @@
+package com.sl.ms.trade.service;
+
+import cn.hutool.core.img.ImgUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.extra.qrcode.QrCodeUtil;
+import cn.hutool.extra.qrcode.QrConfig;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.sl.ms.trade.config.QRCodeConfig;
+import com.sl.ms.trade.enums.PayChannelEnum;
+import com.sl.ms.trade.service.impl.QRCodeServiceImpl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查看付款二维码：每次重新绘制并base64编码 与 命中缓存（base64/PNG）的对比
+ * <p>
+ * 执行：运行main方法，gc分析器输出每次请求的内存分配（gc.alloc.rate.norm，单位：字节）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QRCodeBenchmark {
+
+    private static final String CONTENT = "weixin://wxpay/bizpayurl?pr=Nb7Ro3Xzz";
+
+    private QRCodeConfig qrCodeConfig;
+    private QRCodeServiceImpl qrCodeService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.qrCodeConfig = new QRCodeConfig();
+        this.qrCodeService = new QRCodeServiceImpl();
+        ReflectUtil.setFieldValue(this.qrCodeService, "qrCodeConfig", this.qrCodeConfig);
+        ReflectUtil.setFieldValue(this.qrCodeService, "cacheCapacity", 1000);
+        ReflectUtil.setFieldValue(this.qrCodeService, "cacheTimeout", 7200000L);
+        this.qrCodeService.init();
+    }
+
+    @Benchmark
+    public String legacy() {
+        //原有方式：每次请求重新绘制二维码并编码为base64
+        QrConfig qrConfig = new QrConfig();
+        qrConfig.setMargin(this.qrCodeConfig.getMargin());
+        qrConfig.setForeColor(HexUtil.decodeColor(this.qrCodeConfig.getForeColor()));
+        qrConfig.setBackColor(HexUtil.decodeColor(this.qrCodeConfig.getBackColor()));
+        qrConfig.setErrorCorrection(ErrorCorrectionLevel.valueOf(this.qrCodeConfig.getErrorCorrectionLevel()));
+        qrConfig.setWidth(this.qrCodeConfig.getWidth());
+        qrConfig.setHeight(this.qrCodeConfig.getHeight());
+        qrConfig.setImg(this.qrCodeConfig.getLogo(PayChannelEnum.WECHAT_PAY));
+        return QrCodeUtil.generateAsBase64(CONTENT, qrConfig, ImgUtil.IMAGE_TYPE_PNG);
+    }
+
+    @Benchmark
+    public String cachedBase64() {
+        return this.qrCodeService.generate(CONTENT, PayChannelEnum.WECHAT_PAY);
+    }
+
+    @Benchmark
+    public byte[] cachedPng() {
+        //图片接口直接输出PNG数据
+        return this.qrCodeService.generatePng(CONTENT, PayChannelEnum.WECHAT_PAY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QRCodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.sl.ms.trade.service.impl;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.ReflectUtil;
+import com.sl.ms.base.api.common.MQFeign;
+import com.sl.ms.trade.entity.TradingEntity;
+import com.sl.ms.trade.enums.TradingStateEnum;
+import com.sl.ms.trade.service.TradingService;
+import com.sl.transport.common.exception.SLException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 支付通知的幂等处理，状态已经提交但是消息发送失败时，重新通知需要补发消息
+ */
+class NotifyServiceImplTest {
+
+    private static final Long TRADING_ORDER_NO = 1001L;
+    private static final String NOTIFY_KEY = "WECHAT_PAY:notify-1";
+
+    private NotifyServiceImpl notifyService;
+    private TradingEntity trading;
+    /**
+     * 模拟redis中的幂等记录
+     */
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final List<String> sentMsgList = new CopyOnWriteArrayList<>();
+    private boolean sendFail;
+
+    @BeforeEach
+    void setUp() {
+        this.trading = new TradingEntity();
+        this.trading.setTradingOrderNo(TRADING_ORDER_NO);
+        this.trading.setProductOrderNo(2001L);
+        this.trading.setTradingState(TradingStateEnum.FKZ);
+
+        this.notifyService = new NotifyServiceImpl();
+        ReflectUtil.setFieldValue(this.notifyService, "tradingService", this.stub(TradingService.class, (method, args) -> {
+            switch (method) {
+                case "updateTradingState":
+                    //条件更新
+                    if (this.trading.getTradingState() != args[1]) {
+                        return false;
+                    }
+                    this.trading.setTradingState(((TradingEntity) args[2]).getTradingState());
+                    return true;
+                case "findTradByTradingOrderNo":
+                    return this.trading;
+                default:
+                    return null;
+            }
+        }));
+        ReflectUtil.setFieldValue(this.notifyService, "redissonClient", this.stub(RedissonClient.class, (method, args) -> {
+            String key = (String) args[0];
+            return this.stub(RBucket.class, (bucketMethod, bucketArgs) -> {
+                if ("trySet".equals(bucketMethod)) {
+                    return null == this.redis.putIfAbsent(key, (String) bucketArgs[0]);
+                }
+                return "delete".equals(bucketMethod) && null != this.redis.remove(key);
+            });
+        }));
+        ReflectUtil.setFieldValue(this.notifyService, "mqFeign", this.stub(MQFeign.class, (method, args) -> {
+            if (this.sendFail) {
+                throw new IllegalStateException("base服务不可用");
+            }
+            this.sentMsgList.add((String) args[2]);
+            return true;
+        }));
+        ReflectUtil.setFieldValue(this.notifyService, "notifyTtl", 60L);
+    }
+
+    @Test
+    void updateTrading() {
+        this.updateTrading();
+        assertEquals(TradingStateEnum.YJS, this.trading.getTradingState());
+        assertEquals(1, this.sentMsgList.size());
+        //重复的通知不再发送
+        this.updateTrading();
+        assertEquals(1, this.sentMsgList.size());
+    }
+
+    @Test
+    void republishAfterSendFailed() {
+        this.sendFail = true;
+        Exception exception = assertThrows(Exception.class, this::updateTrading);
+        assertTrue(ExceptionUtil.getRootCause(exception) instanceof SLException);
+        //状态已经提交，幂等记录已经删除
+        assertEquals(TradingStateEnum.YJS, this.trading.getTradingState());
+        assertTrue(this.redis.isEmpty());
+        assertTrue(this.sentMsgList.isEmpty());
+
+        //支付平台重新通知，条件更新失败，但是交易单已付款，补发消息
+        this.sendFail = false;
+        this.updateTrading();
+        assertEquals(1, this.sentMsgList.size());
+        assertTrue(this.sentMsgList.get(0).contains("\"productOrderNo\":2001"));
+    }
+
+    @Test
+    void ignoreClosedTrading() {
+        this.trading.setTradingState(TradingStateEnum.QXDD);
+        this.updateTrading();
+        assertTrue(this.sentMsgList.isEmpty());
+        assertEquals(TradingStateEnum.QXDD, this.trading.getTradingState());
+    }
+
+    private void updateTrading() {
+        ReflectUtil.invoke(this.notifyService, "updateTrading", NOTIFY_KEY, TRADING_ORDER_NO, "支付成功", "{}");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> clazz, StubHandler handler) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz},
+                (proxy, method, args) -> handler.invoke(method.getName(), args));
+    }
+
+    @FunctionalInterface
+    private interface StubHandler {
+        Object invoke(String method, Object[] args);
+    }
+}
@@ -9,12 +9,12 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class BloomFilterConfig {
     /**
-     * 名称，默认：sl-bloom-filter
+     * 名称，默认：sl-bloom-filter，按月分区的名称为：名称:yyyyMM
      */
     @Value("${bloom.name:sl-bloom-filter}")
     private String name;
     /**
-     * 布隆过滤器长度，最大支持Integer.MAX_VALUE*2，即：4294967294，默认：1千万
+     * 每个分区的预计插入数量，没有上个月的分区时使用，最大支持Integer.MAX_VALUE*2，即：4294967294，默认：1千万
      */
     @Value("${bloom.expectedInsertions:10000000}")
     private long expectedInsertions;
@@ -23,4 +23,19 @@ public class BloomFilterConfig {
      */
     @Value("${bloom.falseProbability:0.05d}")
     private double falseProbability;
-}
\ No newline at end of file
+    /**
+     * 分区保留的月数，超过后分区过期删除，默认：12
+     */
+    @Value("${bloom.retentionMonths:12}")
+    private int retentionMonths;
+    /**
+     * 新分区的预计插入数量 = 上个月分区的插入数量 * growth，默认：1.5
+     */
+    @Value("${bloom.growth:1.5d}")
+    private double growth;
+    /**
+     * 新分区的最小预计插入数量，默认：10万
+     */
+    @Value("${bloom.minExpectedInsertions:100000}")
+    private long minExpectedInsertions;
+}
@@ -9,6 +9,7 @@ import com.sl.transport.info.entity.TransportInfoEntity;
 import com.sl.transport.info.enums.ExceptionEnum;
 import com.sl.transport.info.service.BloomFilterService;
 import com.sl.transport.info.service.TransportInfoService;
+import com.sl.transport.info.vo.BloomFilterStatsVO;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiImplicitParam;
 import io.swagger.annotations.ApiImplicitParams;
@@ -56,7 +57,16 @@ public class TransportInfoController {
 
         // TODO day10 基于caffeine实现一级缓存优化
         return this.transportInfoCache.get(transportOrderId, oid -> {
-            TransportInfoEntity transportInfoEntity = this.transportInfoService.queryByTransportOrderId(transportOrderId);
+            TransportInfoEntity transportInfoEntity;
+            try {
+                transportInfoEntity = this.transportInfoService.queryByTransportOrderId(transportOrderId);
+            } catch (SLException e) {
+                if (e.getCode() == ExceptionEnum.NOT_FOUND.getCode()) {
+                    //布隆过滤器判断存在，但实际不存在
+                    this.bloomFilterService.recordFalsePositive();
+                }
+                throw e;
+            }
             //转化成DTO
             TransportInfoDTO transportInfoDTO = BeanUtil.toBean(transportInfoEntity, TransportInfoDTO.class);
             if (ObjectUtil.isNotEmpty(transportInfoDTO)) {
@@ -65,4 +75,15 @@ public class TransportInfoController {
             throw new SLException(ExceptionEnum.NOT_FOUND);
         });
     }
+
+    /**
+     * 布隆过滤器各个分区的填充率以及误判率
+     *
+     * @return 统计信息
+     */
+    @ApiOperation(value = "布隆过滤器统计", notes = "布隆过滤器各个分区的填充率以及误判率")
+    @GetMapping("bloom-filter/stats")
+    public BloomFilterStatsVO bloomFilterStats() {
+        return this.bloomFilterService.stats();
+    }
 }
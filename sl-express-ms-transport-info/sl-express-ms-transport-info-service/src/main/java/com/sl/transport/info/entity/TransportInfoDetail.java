@@ -14,6 +14,7 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class TransportInfoDetail{
 
+    private String id; //事件id，同一个事件重复投递时id相同，用于去重
     private Long created; //创建时间，时间戳
     private String info; //详细信息，例如：您的快件已到达【北京通州分拣中心】
     private String status; //状态，例如：运输中
@@ -19,10 +19,12 @@ public class TransportInfoEntity {
     @Id
     @JsonIgnore
     private ObjectId id;
-    @Indexed
-    private String transportOrderId; //运单id
+    @Indexed(unique = true)
+    private String transportOrderId; //运单id，唯一
     private List<TransportInfoDetail> infoList; //info信息列表
     private Long created; //创建时间
     private Long updated; //更新时间
+    @JsonIgnore
+    private ObjectId insertId; //插入时写入的标记，用于判断文档是否由本次写入插入
 
 }
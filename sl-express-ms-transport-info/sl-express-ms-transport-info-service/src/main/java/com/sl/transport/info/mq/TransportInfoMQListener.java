@@ -1,11 +1,13 @@
 package com.sl.transport.info.mq;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
 import cn.hutool.json.JSONUtil;
 import com.sl.ms.transport.api.OrganFeign;
 import com.sl.transport.common.constant.Constants;
 import com.sl.transport.common.vo.TransportInfoMsg;
 import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.info.config.RedisConfig;
 import com.sl.transport.info.entity.TransportInfoDetail;
 import com.sl.transport.info.service.TransportInfoService;
 import org.springframework.amqp.core.ExchangeTypes;
@@ -13,6 +15,7 @@ import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 import javax.annotation.Resource;
 /**
@@ -24,6 +27,8 @@ public class TransportInfoMQListener {
     private OrganFeign organFeign;
     @Resource
     private TransportInfoService transportInfoService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = Constants.MQ.Queues.TRANSPORT_INFO_APPEND),
             exchange = @Exchange(name = Constants.MQ.Exchanges.TRANSPORT_INFO, type = ExchangeTypes.TOPIC),
@@ -50,11 +55,15 @@ public class TransportInfoMQListener {
             info = StrUtil.replace(info, "$organId", organDTO.getName());
         }
         // 3. 封装 TransportInfoDetail信息对象
+        //    重复投递的消息内容相同，消息的摘要作为事件id，用于去重
         TransportInfoDetail infoDetail = TransportInfoDetail.builder()
+                .id(SecureUtil.md5(msg))
                 .info(info)
                 .status(transportInfoMsg.getStatus())
                 .created(transportInfoMsg.getCreated()).build();
         // 4. 保存到MongoDB中 transportInfoService
         this.transportInfoService.saveOrUpdate(transportOrderId, infoDetail);
+        // 5. Redis缓存更新之后通知各个节点删除一级缓存
+        this.stringRedisTemplate.convertAndSend(RedisConfig.CHANNEL_TOPIC, transportOrderId);
     }
 }
\ No newline at end of file
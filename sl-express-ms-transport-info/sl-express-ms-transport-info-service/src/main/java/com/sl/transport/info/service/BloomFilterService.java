@@ -1,4 +1,7 @@
 package com.sl.transport.info.service;
+
+import com.sl.transport.info.vo.BloomFilterStatsVO;
+
 /**
  * 布隆过滤器服务
  */
@@ -21,4 +24,14 @@ public interface BloomFilterService {
      * @return 是否存在
      */
     boolean contains(Object obj);
-}
\ No newline at end of file
+    /**
+     * 记录一次误判：判断存在，但是实际查询不到数据
+     */
+    void recordFalsePositive();
+    /**
+     * 统计各个分区的填充率和误判率
+     *
+     * @return 统计信息
+     */
+    BloomFilterStatsVO stats();
+}
@@ -1,32 +1,264 @@
 package com.sl.transport.info.service.impl;
+import cn.hutool.core.util.NumberUtil;
 import com.sl.transport.info.config.BloomFilterConfig;
 import com.sl.transport.info.service.BloomFilterService;
+import com.sl.transport.info.vo.BloomFilterStatsVO;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.RedissonBloomFilter;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBitSetAsync;
 import org.redisson.api.RBloomFilter;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.redisson.misc.Hash;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.io.IOException;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 按月分区的布隆过滤器
+ * <p>
+ * 新的运单写入当月的分区，查询时从最近的分区向前查找；每个分区的大小根据上个月的插入数量确定，
+ * 单个过滤器不会随着时间推移被填满，超过保留月数的分区到期后由Redis删除。
+ * 分区之前的单个布隆过滤器作为最早的分区参与查询，同样在保留月数后过期。
+ * <p>
+ * 查询时只计算一次哈希，所有分区的位在一次批量请求中读取，计算方式与{@link RedissonBloomFilter}一致
+ */
+@Slf4j
 @Service
 public class BloomFilterServiceImpl implements BloomFilterService {
+    private static final DateTimeFormatter PARTITION_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
     @Resource
     private RedissonClient redissonClient;
     @Resource
     private BloomFilterConfig bloomFilterConfig;
-    private RBloomFilter<Object> getBloomFilter() {
+
+    /**
+     * 当前的分区，按时间倒序，跨月时重新加载
+     */
+    private volatile Partitions partitions;
+    private final LongAdder positives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private RBloomFilter<Object> getBloomFilter(YearMonth month) {
+        return this.redissonClient.getBloomFilter(this.bloomFilterConfig.getName() + ":" + month.format(PARTITION_FORMATTER));
+    }
+
+    private RBloomFilter<Object> getLegacyBloomFilter() {
         return this.redissonClient.getBloomFilter(this.bloomFilterConfig.getName());
     }
+
     @Override
     @PostConstruct // spring启动后进行初始化
     public void init() {
-        RBloomFilter<Object> bloomFilter = this.getBloomFilter();
-        bloomFilter.tryInit(this.bloomFilterConfig.getExpectedInsertions(), this.bloomFilterConfig.getFalseProbability());
+        this.partitions = this.load(YearMonth.now());
+        RBloomFilter<Object> legacy = this.getLegacyBloomFilter();
+        if (legacy.isExists() && legacy.remainTimeToLive() == -1) {
+            //分区之前的布隆过滤器不再写入，保留月数之后过期
+            legacy.expireAt(this.expireAt(YearMonth.now()));
+        }
+    }
+
+    /**
+     * 加载某个月的分区，当月的分区不存在时初始化
+     */
+    private Partitions load(YearMonth month) {
+        RBloomFilter<Object> current = this.getBloomFilter(month);
+        long expectedInsertions = this.expectedInsertions(month);
+        if (current.tryInit(expectedInsertions, this.bloomFilterConfig.getFalseProbability())) {
+            log.info("初始化布隆过滤器分区，name = {}, expectedInsertions = {}", current.getName(), expectedInsertions);
+        }
+        if (current.remainTimeToLive() == -1) {
+            current.expireAt(this.expireAt(month));
+        }
+
+        List<RBloomFilter<Object>> filters = new ArrayList<>();
+        filters.add(current);
+        for (int i = 1; i < this.bloomFilterConfig.getRetentionMonths(); i++) {
+            RBloomFilter<Object> bloomFilter = this.getBloomFilter(month.minusMonths(i));
+            if (this.outlives(bloomFilter, month)) {
+                filters.add(bloomFilter);
+            }
+        }
+        RBloomFilter<Object> legacy = this.getLegacyBloomFilter();
+        if (this.outlives(legacy, month)) {
+            filters.add(legacy);
+        }
+        //分区初始化后大小和哈希次数不再变化，加载时读取一次
+        long[] sizes = new long[filters.size()];
+        int[] hashIterations = new int[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            sizes[i] = filters.get(i).getSize();
+            hashIterations[i] = filters.get(i).getHashIterations();
+        }
+        return new Partitions(month, filters, sizes, hashIterations);
+    }
+
+    /**
+     * 分区在本月内不会过期，查询过程中分区过期会抛出未初始化的异常
+     */
+    private boolean outlives(RBloomFilter<Object> bloomFilter, YearMonth month) {
+        long ttl = bloomFilter.remainTimeToLive();
+        if (ttl == -1) {
+            return true;
+        }
+        long endOfMonth = month.plusMonths(1).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return ttl > endOfMonth - System.currentTimeMillis();
+    }
+
+    /**
+     * 根据上个月的插入数量确定分区的大小
+     */
+    private long expectedInsertions(YearMonth month) {
+        RBloomFilter<Object> previous = this.getBloomFilter(month.minusMonths(1));
+        if (!previous.isExists()) {
+            return this.bloomFilterConfig.getExpectedInsertions();
+        }
+        long expectedInsertions = (long) (previous.count() * this.bloomFilterConfig.getGrowth());
+        return Math.max(expectedInsertions, this.bloomFilterConfig.getMinExpectedInsertions());
     }
+
+    /**
+     * 分区在保留月数后的月末过期
+     */
+    private Date expireAt(YearMonth month) {
+        return Date.from(month.plusMonths(this.bloomFilterConfig.getRetentionMonths()).plusMonths(1)
+                .atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private Partitions getPartitions() {
+        YearMonth month = YearMonth.now();
+        if (!this.partitions.month.equals(month)) {
+            synchronized (this) {
+                if (!this.partitions.month.equals(month)) {
+                    this.partitions = this.load(month);
+                }
+            }
+        }
+        return this.partitions;
+    }
+
     @Override
     public boolean add(Object obj) {
-        return this.getBloomFilter().add(obj);
+        return this.getPartitions().filters.get(0).add(obj);
     }
+
     @Override
     public boolean contains(Object obj) {
-        return this.getBloomFilter().contains(obj);
+        Partitions partitions = this.getPartitions();
+        long[] hash = hash(this.redissonClient.getConfig().getCodec(), obj);
+        //所有分区的位在一次批量请求中读取，不再逐个分区查询
+        RBatch batch = this.redissonClient.createBatch();
+        for (int i = 0; i < partitions.filters.size(); i++) {
+            RBitSetAsync bitSet = batch.getBitSet(partitions.filters.get(i).getName());
+            for (long index : indexes(hash, partitions.hashIterations[i], partitions.sizes[i])) {
+                bitSet.getAsync(index);
+            }
+        }
+        List<?> responses = batch.execute().getResponses();
+        //从最近的分区开始判断，某个分区的位全部为1时存在
+        int offset = 0;
+        for (int i = 0; i < partitions.filters.size(); i++) {
+            boolean exists = true;
+            for (int j = 0; j < partitions.hashIterations[i]; j++) {
+                exists &= Boolean.TRUE.equals(responses.get(offset + j));
+            }
+            offset += partitions.hashIterations[i];
+            if (exists) {
+                this.positives.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 计算对象的128位哈希，与{@link RedissonBloomFilter}一致
+     */
+    static long[] hash(Codec codec, Object obj) {
+        ByteBuf state;
+        try {
+            state = codec.getValueEncoder().encode(obj);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        try {
+            return Hash.hash128(state);
+        } finally {
+            state.release();
+        }
+    }
+
+    /**
+     * 根据哈希计算分区中需要检查的位，与{@link RedissonBloomFilter}一致
+     */
+    static long[] indexes(long[] hash, int hashIterations, long size) {
+        long[] indexes = new long[hashIterations];
+        long value = hash[0];
+        for (int i = 0; i < hashIterations; i++) {
+            indexes[i] = (value & Long.MAX_VALUE) % size;
+            value += i % 2 == 0 ? hash[1] : hash[0];
+        }
+        return indexes;
+    }
+
+    @Override
+    public void recordFalsePositive() {
+        this.falsePositives.increment();
+    }
+
+    @Override
+    public BloomFilterStatsVO stats() {
+        BloomFilterStatsVO statsVO = new BloomFilterStatsVO();
+        statsVO.setPartitions(this.getPartitions().filters.stream().map(this::stats).collect(Collectors.toList()));
+        statsVO.setPositives(this.positives.sum());
+        statsVO.setFalsePositives(this.falsePositives.sum());
+        statsVO.setObservedFalsePositiveRate(statsVO.getPositives() == 0 ? 0d
+                : NumberUtil.div(statsVO.getFalsePositives().doubleValue(), statsVO.getPositives().doubleValue(), 6));
+        return statsVO;
+    }
+
+    private BloomFilterStatsVO.Partition stats(RBloomFilter<Object> bloomFilter) {
+        BloomFilterStatsVO.Partition partition = new BloomFilterStatsVO.Partition();
+        partition.setName(bloomFilter.getName());
+        partition.setExpectedInsertions(bloomFilter.getExpectedInsertions());
+        partition.setCount(bloomFilter.count());
+        partition.setFillRatio(NumberUtil.div(partition.getCount().doubleValue(), partition.getExpectedInsertions().doubleValue(), 6));
+        //误判率 = (1 - e^(-k * n / m))^k
+        int k = bloomFilter.getHashIterations();
+        double m = bloomFilter.getSize();
+        partition.setEstimatedFalseProbability(Math.pow(1 - Math.exp(-k * partition.getCount() / m), k));
+        partition.setTtl(bloomFilter.remainTimeToLive());
+        return partition;
+    }
+
+    private static class Partitions {
+        private final YearMonth month;
+        private final List<RBloomFilter<Object>> filters;
+        /**
+         * 每个分区的位数
+         */
+        private final long[] sizes;
+        /**
+         * 每个分区的哈希次数
+         */
+        private final int[] hashIterations;
+
+        private Partitions(YearMonth month, List<RBloomFilter<Object>> filters, long[] sizes, int[] hashIterations) {
+            this.month = month;
+            this.filters = filters;
+            this.sizes = sizes;
+            this.hashIterations = hashIterations;
+        }
     }
-}
\ No newline at end of file
+}
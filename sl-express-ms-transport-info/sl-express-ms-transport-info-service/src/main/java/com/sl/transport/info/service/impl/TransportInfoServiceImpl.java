@@ -1,23 +1,29 @@
 package com.sl.transport.info.service.impl;
 
-import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
 import com.sl.transport.common.exception.SLException;
-import com.sl.transport.info.config.RedisConfig;
 import com.sl.transport.info.entity.TransportInfoDetail;
 import com.sl.transport.info.entity.TransportInfoEntity;
 import com.sl.transport.info.enums.ExceptionEnum;
 import com.sl.transport.info.service.BloomFilterService;
 import com.sl.transport.info.service.TransportInfoService;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 /**
@@ -30,41 +36,66 @@ public class TransportInfoServiceImpl implements TransportInfoService {
     @Resource
     private MongoTemplate mongoTemplate;
 
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
-
     @Resource
     private BloomFilterService bloomFilterService;
 
+    /**
+     * 运单id的唯一索引，并发写入同一个运单的第一条物流信息时，只有一个能插入成功
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            this.mongoTemplate.indexOps(TransportInfoEntity.class)
+                    .ensureIndex(new Index("transportOrderId", Sort.Direction.ASC).unique());
+        } catch (Exception e) {
+            //没有唯一索引时并发写入会产生重复的文档，不能启动
+            throw new IllegalStateException("创建运单id的唯一索引失败，请检查sl_transport_info中是否存在重复的运单或者同名的非唯一索引", e);
+        }
+    }
+
     // TODO day10 基于Spring Cache实现Redis二级缓存更新缓存
     @Override
     @CachePut(value = "transport-info", key = "#p0") //更新缓存数据
     public TransportInfoEntity saveOrUpdate(String transportOrderId, TransportInfoDetail infoDetail) {
         // TODO day10 保存或修改 物流信息
 
-        //1. 根据运单id查询物流信息
-        Query query = Query.query(Criteria.where("transportOrderId").is(transportOrderId));//构造查询条件
-        TransportInfoEntity transportInfoEntity = this.mongoTemplate.findOne(query, TransportInfoEntity.class);
-        //2. 如果物流信息为空 创建物流信息
+        //事件id，没有指定时根据内容生成，重复投递的事件内容相同
+        if (StrUtil.isBlank(infoDetail.getId())) {
+            infoDetail.setId(SecureUtil.md5(StrUtil.join("|", transportOrderId, infoDetail.getCreated(),
+                    infoDetail.getStatus(), infoDetail.getInfo())));
+        }
+        long now = System.currentTimeMillis();
+        //插入标记，只有插入文档时写入，返回的文档中标记一致说明是本次插入的
+        ObjectId insertId = new ObjectId();
+        //1. 原子追加，不需要先查询再写回整个文档，写入的数据量与已有的物流信息数量无关
+        //   条件中排除已经包含该事件的文档，重复投递的事件不会重复追加
+        Query query = Query.query(Criteria.where("transportOrderId").is(transportOrderId)
+                .and("infoList.id").ne(infoDetail.getId()));
+        Update update = new Update()
+                .push("infoList", infoDetail)
+                .set("updated", now)
+                .setOnInsert("created", now)
+                .setOnInsert("insertId", insertId);
+        TransportInfoEntity transportInfoEntity;
+        try {
+            //2. 物流信息不存在时插入
+            transportInfoEntity = this.mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), TransportInfoEntity.class);
+        } catch (DuplicateKeyException e) {
+            //3. 违反唯一索引: 并发插入时其他线程先插入成功，或者文档中已经包含该事件，不插入重试一次
+            transportInfoEntity = this.mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true), TransportInfoEntity.class);
+        }
         if (ObjectUtil.isEmpty(transportInfoEntity)) {
-            //运单信息不存在，新增数据
-            transportInfoEntity = new TransportInfoEntity();
-            transportInfoEntity.setTransportOrderId(transportOrderId);
-            transportInfoEntity.setInfoList(ListUtil.toList(infoDetail));
-            transportInfoEntity.setCreated(System.currentTimeMillis());
-
-            // 写入到布隆过滤器中
+            //重复的事件，返回当前的数据
+            log.info("重复的物流信息，transportOrderId = {}, infoId = {}", transportOrderId, infoDetail.getId());
+            return this.mongoTemplate.findOne(Query.query(Criteria.where("transportOrderId").is(transportOrderId)), TransportInfoEntity.class);
+        }
+        if (ObjectUtil.equals(transportInfoEntity.getInsertId(), insertId)) {
+            //新插入的物流信息，写入到布隆过滤器中
             this.bloomFilterService.add(transportOrderId);
-        } else {
-            //3. 如果物流信息存在 将信息加入到集合中
-            transportInfoEntity.getInfoList().add(infoDetail);
         }
-        //4. 无论新增还是修改 都设置updated时间
-        transportInfoEntity.setUpdated(System.currentTimeMillis());
-        // TODO day10 后续完善一级缓存 基于Redis发布订阅更新功能
-        this.stringRedisTemplate.convertAndSend(RedisConfig.CHANNEL_TOPIC, transportOrderId);
-        //5. 保存/更新到MongoDB
-        return this.mongoTemplate.save(transportInfoEntity);
+        return transportInfoEntity;
     }
 
     // TODO day10 基于Spring Cache实现Redis二级缓存
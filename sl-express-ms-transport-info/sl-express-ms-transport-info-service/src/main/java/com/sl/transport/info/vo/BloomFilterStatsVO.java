@@ -0,0 +1,27 @@
+package com.sl.transport.info.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 布隆过滤器的统计信息
+ */
+@Data
+public class BloomFilterStatsVO {
+
+    private List<Partition> partitions; //分区，按时间倒序
+    private Long positives; //判断存在的查询次数，当前节点启动后的累计
+    private Long falsePositives; //判断存在但实际不存在的查询次数
+    private Double observedFalsePositiveRate; //误判的比例 = falsePositives / positives
+
+    @Data
+    public static class Partition {
+        private String name; //分区名称
+        private Long expectedInsertions; //预计插入数量
+        private Long count; //估算的插入数量
+        private Double fillRatio; //填充率 = count / expectedInsertions
+        private Double estimatedFalseProbability; //根据当前插入数量估算的误判率
+        private Long ttl; //剩余有效期，单位：毫秒，-1表示没有设置有效期
+    }
+}
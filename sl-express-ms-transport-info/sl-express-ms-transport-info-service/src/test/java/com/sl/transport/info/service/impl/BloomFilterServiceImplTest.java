@@ -0,0 +1,41 @@
+package com.sl.transport.info.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.redisson.RedissonBloomFilter;
+import org.redisson.api.NameMapper;
+import org.redisson.client.codec.Codec;
+import org.redisson.codec.MarshallingCodec;
+import org.redisson.command.CommandAsyncExecutor;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 批量查询分区时自行计算布隆过滤器的位，计算结果需要与Redisson一致，升级Redisson后如果不一致会查询不到已存在的运单
+ */
+class BloomFilterServiceImplTest {
+
+    @Test
+    void sameIndexesAsRedisson() throws Exception {
+        Codec codec = new MarshallingCodec();
+        CommandAsyncExecutor commandExecutor = mock(CommandAsyncExecutor.class, RETURNS_DEEP_STUBS);
+        when(commandExecutor.getConnectionManager().getConfig().getNameMapper()).thenReturn(NameMapper.direct());
+        RedissonBloomFilter<Object> bloomFilter = new RedissonBloomFilter<>(codec, commandExecutor, "sl-bloom-filter:202201");
+        Method hashMethod = RedissonBloomFilter.class.getDeclaredMethod("hash", Object.class);
+        Method indexesMethod = RedissonBloomFilter.class.getDeclaredMethod("hash", long.class, long.class, int.class, long.class);
+        hashMethod.setAccessible(true);
+        indexesMethod.setAccessible(true);
+
+        for (Object obj : new Object[]{"SL1000000000001", "SL1000000000002", 1024L}) {
+            long[] expectedHash = (long[]) hashMethod.invoke(bloomFilter, obj);
+            long[] hash = BloomFilterServiceImpl.hash(codec, obj);
+            assertArrayEquals(expectedHash, hash);
+            for (long size : new long[]{62352471L, 958505838L}) {
+                long[] expected = (long[]) indexesMethod.invoke(bloomFilter, hash[0], hash[1], 5, size);
+                assertArrayEquals(expected, BloomFilterServiceImpl.indexes(hash, 5, size));
+            }
+        }
+    }
+}
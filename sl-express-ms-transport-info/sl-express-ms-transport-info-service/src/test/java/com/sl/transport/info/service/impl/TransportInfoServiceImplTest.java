@@ -0,0 +1,175 @@
+package com.sl.transport.info.service.impl;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sl.transport.info.entity.TransportInfoDetail;
+import com.sl.transport.info.entity.TransportInfoEntity;
+import com.sl.transport.info.service.BloomFilterService;
+import com.sl.transport.info.vo.BloomFilterStatsVO;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用内嵌的MongoDB，多个线程并发写入物流信息，验证原子追加不会丢失也不会重复
+ * <p>
+ * 内嵌的MongoDB首次运行时需要下载mongod，默认不执行。
+ * 执行：mvn test -Dtest=TransportInfoServiceImplTest -Dbenchmark=true
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class TransportInfoServiceImplTest {
+
+    private static final int ORDERS = 10;
+    private static final int EVENTS = 100;
+    private static final int WRITERS = 32;
+
+    private static MongodExecutable mongodExecutable;
+    private static MongoClient mongoClient;
+    private static MongoTemplate mongoTemplate;
+
+    private TransportInfoServiceImpl transportInfoService;
+    private final Set<Object> bloomFilter = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger bloomFilterAdds = new AtomicInteger();
+
+    @BeforeAll
+    static void startMongo() throws Exception {
+        int port = Network.getFreeServerPort();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(MongodConfig.builder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build());
+        mongodExecutable.start();
+        mongoClient = MongoClients.create("mongodb://localhost:" + port);
+        mongoTemplate = new MongoTemplate(mongoClient, "sl_transport_info_test");
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        mongoClient.close();
+        mongodExecutable.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(TransportInfoEntity.class);
+        this.bloomFilter.clear();
+        this.bloomFilterAdds.set(0);
+        this.transportInfoService = new TransportInfoServiceImpl();
+        ReflectUtil.setFieldValue(this.transportInfoService, "mongoTemplate", mongoTemplate);
+        ReflectUtil.setFieldValue(this.transportInfoService, "bloomFilterService", new BloomFilterService() {
+            @Override
+            public void init() {
+            }
+
+            @Override
+            public boolean add(Object obj) {
+                bloomFilterAdds.incrementAndGet();
+                return bloomFilter.add(obj);
+            }
+
+            @Override
+            public boolean contains(Object obj) {
+                return bloomFilter.contains(obj);
+            }
+
+            @Override
+            public void recordFalsePositive() {
+            }
+
+            @Override
+            public BloomFilterStatsVO stats() {
+                return null;
+            }
+        });
+        this.transportInfoService.init();
+    }
+
+    @Test
+    void duplicateEvent() {
+        TransportInfoDetail infoDetail = detail(1);
+        this.transportInfoService.saveOrUpdate("SL1", infoDetail);
+        this.transportInfoService.saveOrUpdate("SL1", detail(2));
+        //重复投递
+        TransportInfoEntity transportInfoEntity = this.transportInfoService.saveOrUpdate("SL1", detail(1));
+        assertEquals(2, transportInfoEntity.getInfoList().size());
+        assertEquals(infoDetail.getId(), transportInfoEntity.getInfoList().get(0).getId());
+        assertTrue(this.bloomFilter.contains("SL1"));
+        assertEquals(1, this.bloomFilterAdds.get());
+    }
+
+    @Test
+    void concurrentAppend() throws Exception {
+        //每个事件投递两次
+        this.run(this.transportInfoService::saveOrUpdate, 2);
+        List<TransportInfoEntity> list = mongoTemplate.findAll(TransportInfoEntity.class);
+        assertEquals(ORDERS, list.size());
+        for (TransportInfoEntity transportInfoEntity : list) {
+            assertEquals(EVENTS, transportInfoEntity.getInfoList().size(), transportInfoEntity.getTransportOrderId());
+            assertEquals(EVENTS, transportInfoEntity.getInfoList().stream().map(TransportInfoDetail::getId).distinct().count());
+        }
+        assertEquals(ORDERS, this.bloomFilter.size());
+        //只有插入文档的那一次写入布隆过滤器
+        assertEquals(ORDERS, this.bloomFilterAdds.get());
+    }
+
+    /**
+     * 多个线程并发写入，每个运单EVENTS条物流信息，打乱顺序
+     *
+     * @param writer 写入方法
+     * @param repeat 每个事件投递的次数
+     */
+    private void run(BiConsumer<String, TransportInfoDetail> writer, int repeat) throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int order = 0; order < ORDERS; order++) {
+            String transportOrderId = "SL" + order;
+            for (int event = 0; event < EVENTS; event++) {
+                for (int i = 0; i < repeat; i++) {
+                    int seq = event;
+                    tasks.add(() -> writer.accept(transportOrderId, detail(seq)));
+                }
+            }
+        }
+        Collections.shuffle(tasks);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<?>> futures = tasks.stream().map(executor::submit).collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static TransportInfoDetail detail(int seq) {
+        return TransportInfoDetail.builder()
+                .id("event-" + seq)
+                .created(1653133234913L + seq)
+                .info("快件到达【" + seq + "号网点】")
+                .status("运送中").build();
+    }
+}
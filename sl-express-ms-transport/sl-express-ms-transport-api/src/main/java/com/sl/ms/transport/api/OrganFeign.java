@@ -20,6 +20,15 @@ public interface OrganFeign {
     @GetMapping("{id}")
     OrganDTO queryById(@PathVariable("id") Long id);
 
+    /**
+     * 根据id批量查询机构，不存在的机构不返回
+     *
+     * @param ids 机构id列表
+     * @return 机构列表
+     */
+    @GetMapping("list")
+    List<OrganDTO> queryByIds(@RequestParam("ids") List<Long> ids);
+
     /**
      * 更新机构数据，id、type参数是必填的
      *
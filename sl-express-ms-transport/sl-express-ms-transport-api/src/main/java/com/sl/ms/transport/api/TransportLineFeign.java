@@ -3,6 +3,7 @@ package com.sl.ms.transport.api;
 import com.sl.transport.common.util.PageResponse;
 import com.sl.transport.domain.TransportLineDTO;
 import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
 import com.sl.transport.domain.TransportLineSearchDTO;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.*;
@@ -44,6 +45,15 @@ public interface TransportLineFeign {
     @GetMapping("/dispatchMethod/{startId}/{endId}")
     TransportLineNodeDTO queryPathByDispatchMethod(@PathVariable("startId") Long startId, @PathVariable("endId") Long endId);
 
+    /**
+     * 根据调度策略批量查询路线，相同的起止网点只计算一次
+     *
+     * @param pairs 起止网点列表
+     * @return 路线列表，与请求的顺序一致，未查询到路线的位置为null
+     */
+    @PostMapping("/dispatchMethod/batch")
+    List<TransportLineNodeDTO> queryPathByDispatchMethod(@RequestBody List<TransportLinePairDTO> pairs);
+
     /**
      * 新增路线，干线：起点终点无顺序，支线：起点必须是二级转运中心，接驳路线：起点必须是网点
      *
@@ -52,6 +62,15 @@ public interface TransportLineFeign {
     @PostMapping
     void createLine(@RequestBody TransportLineDTO transportLineDTO);
 
+    /**
+     * 批量新增路线，路线立即创建，距离、时间、成本由地图服务异步补全，已经存在的路线跳过
+     *
+     * @param transportLineDTOList 路线数据
+     * @return 新增的数量
+     */
+    @PostMapping("batch")
+    Integer createLines(@RequestBody List<TransportLineDTO> transportLineDTOList);
+
     /**
      * 更新路线，可更新字段：cost、name、distance、time、extra，更新数据时id不能为空
      *
@@ -0,0 +1,29 @@
+package com.sl.transport.domain;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * 路线查询的起止网点
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@ApiModel("路线查询的起止网点")
+public class TransportLinePairDTO {
+
+    @ApiModelProperty(value = "开始网点业务id", required = true)
+    @NotNull(message = "startId不能为空")
+    private Long startId;
+
+    @ApiModelProperty(value = "结束网点业务id", required = true)
+    @NotNull(message = "endId不能为空")
+    private Long endId;
+}
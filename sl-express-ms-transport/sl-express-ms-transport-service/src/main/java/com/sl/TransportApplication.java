@@ -3,12 +3,14 @@ package com.sl;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * @author zzj
  * @version 1.0
  */
 @EnableDiscoveryClient
+@EnableScheduling
 @SpringBootApplication
 public class TransportApplication {
 
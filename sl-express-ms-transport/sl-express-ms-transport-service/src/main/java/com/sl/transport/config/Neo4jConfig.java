@@ -0,0 +1,39 @@
+package com.sl.transport.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.sl.transport.enums.OrganTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.neo4j.core.Neo4jClient;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+/**
+ * Neo4j相关的配置
+ */
+@Slf4j
+@Configuration
+public class Neo4jConfig {
+
+    @Resource
+    private Neo4jClient neo4jClient;
+
+    /**
+     * 启动时为所有机构标签创建bid索引，按业务id查询机构以及路线时无需扫描全部节点
+     */
+    @PostConstruct
+    public void createIndexes() {
+        for (OrganTypeEnum organType : OrganTypeEnum.values()) {
+            String label = organType.name();
+            String cypherQuery = StrUtil.format("CREATE INDEX {}_bid IF NOT EXISTS FOR (n:{}) ON (n.bid)",
+                    label.toLowerCase(), label);
+            try {
+                this.neo4jClient.query(cypherQuery).run();
+            } catch (Exception e) {
+                //索引创建失败不影响启动，只是查询会退化为扫描
+                log.error("创建Neo4j索引失败，label = {}", label, e);
+            }
+        }
+    }
+}
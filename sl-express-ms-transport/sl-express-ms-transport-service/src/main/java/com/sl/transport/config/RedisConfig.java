@@ -0,0 +1,52 @@
+package com.sl.transport.config;
+
+import com.sl.transport.common.cache.DispatchConfigurationCache;
+import com.sl.transport.mq.RouteGraphMessageListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Redis相关的配置
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 内存路线图变更通知的频道
+     */
+    public static final String ROUTE_GRAPH_TOPIC = "sl-express-ms-transport-route-graph";
+
+    /**
+     * 调度配置的本地缓存
+     *
+     * @param stringRedisTemplate redis模板
+     * @return 调度配置缓存
+     */
+    @Bean
+    public DispatchConfigurationCache dispatchConfigurationCache(StringRedisTemplate stringRedisTemplate) {
+        return new DispatchConfigurationCache(stringRedisTemplate);
+    }
+
+    /**
+     * 配置订阅，用于多个实例之间同步内存路线图以及调度配置的本地缓存
+     *
+     * @param connectionFactory          链接工厂
+     * @param routeGraphMessageListener  路线图变更消息监听器
+     * @param dispatchConfigurationCache 调度配置缓存
+     * @return 消息监听容器
+     */
+    @Bean
+    public RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory,
+                                                   RouteGraphMessageListener routeGraphMessageListener,
+                                                   DispatchConfigurationCache dispatchConfigurationCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(routeGraphMessageListener, new ChannelTopic(ROUTE_GRAPH_TOPIC));
+        container.addMessageListener(dispatchConfigurationCache, new ChannelTopic(DispatchConfigurationCache.CHANNEL_TOPIC));
+        return container;
+    }
+}
@@ -51,6 +51,15 @@ public class OrganController {
         return this.organService.findByBid(id);
     }
 
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "ids", value = "机构id列表", dataTypeClass = Long.class, allowMultiple = true)
+    })
+    @ApiOperation(value = "批量查询", notes = "根据业务id批量查询机构数据，不存在的机构不返回")
+    @GetMapping("list")
+    public List<OrganDTO> queryByIds(@RequestParam("ids") List<Long> ids) {
+        return this.organService.findByBids(ids);
+    }
+
     @ApiOperation(value = "更新", notes = "更新机构")
     @PutMapping
     public void update(@RequestBody OrganDTO organDTO) {
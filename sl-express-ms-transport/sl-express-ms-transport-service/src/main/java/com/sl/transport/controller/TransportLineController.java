@@ -5,6 +5,7 @@ import com.sl.transport.common.exception.SLException;
 import com.sl.transport.common.util.PageResponse;
 import com.sl.transport.domain.TransportLineDTO;
 import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
 import com.sl.transport.domain.TransportLineSearchDTO;
 import com.sl.transport.entity.line.TransportLine;
 import com.sl.transport.service.TransportLineService;
@@ -21,6 +22,7 @@ import javax.annotation.Resource;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 物流路线相关业务对外提供接口服务
@@ -70,6 +72,12 @@ public class TransportLineController {
         return this.transportLineService.queryPathByDispatchMethod(startId, endId);
     }
 
+    @ApiOperation(value = "根据调度策略批量查询路线", notes = "相同的起止网点只计算一次，返回结果与请求的顺序一致，未查询到路线的位置为null")
+    @PostMapping("/dispatchMethod/batch")
+    public List<TransportLineNodeDTO> queryPathByDispatchMethod(@Size(min = 1, message = "至少要传入1组起止网点") @RequestBody List<TransportLinePairDTO> pairs) {
+        return this.transportLineService.queryPathByDispatchMethod(pairs);
+    }
+
     @ApiOperation(value = "新增路线", notes = "新增路线，干线：起点终点无顺序，支线：起点必须是二级转运中心，接驳路线：起点必须是网点")
     @PostMapping
     public void createLine(@RequestBody TransportLineDTO transportLineDTO) {
@@ -80,6 +88,15 @@ public class TransportLineController {
         }
     }
 
+    @ApiOperation(value = "批量新增路线", notes = "用于批量导入路线，路线立即创建，距离、时间、成本由地图服务异步补全，已经存在的路线跳过")
+    @PostMapping("batch")
+    public Integer createLines(@Size(min = 1, message = "至少要传入1条路线") @RequestBody List<TransportLineDTO> transportLineDTOList) {
+        List<TransportLine> transportLines = transportLineDTOList.stream()
+                .map(TransportLineUtils::toEntity)
+                .collect(Collectors.toList());
+        return this.transportLineService.createLines(transportLines);
+    }
+
     @ApiOperation(value = "更新路线", notes = "更新路线，可更新字段：cost、name、distance、time、extra，更新数据时id不能为空")
     @PutMapping
     public void updateLine(@RequestBody TransportLineDTO transportLineDTO) {
@@ -0,0 +1,447 @@
+package com.sl.transport.graph;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.ObjectUtil;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.enums.OrganTypeEnum;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 内存中的路线图，是Neo4j中机构节点与IN_LINE/OUT_LINE关系的紧凑副本
+ * <p>
+ * 对象不可变，所有的修改操作都会返回新的路线图（只复制受影响的邻接表），读操作无需加锁
+ */
+public class RouteGraph {
+
+    /**
+     * 机构数据，key：机构业务id
+     */
+    private final Map<Long, OrganDTO> organs;
+    /**
+     * 出边邻接表，key：起点机构业务id
+     */
+    private final Map<Long, Edge[]> adjacency;
+    /**
+     * 全部的边，key：路线id
+     */
+    private final Map<Long, Edge> lines;
+
+    private RouteGraph(Map<Long, OrganDTO> organs, Map<Long, Edge[]> adjacency, Map<Long, Edge> lines) {
+        this.organs = organs;
+        this.adjacency = adjacency;
+        this.lines = lines;
+    }
+
+    /**
+     * 根据机构和路线数据构建路线图
+     *
+     * @param organs 机构列表
+     * @param lines  路线列表
+     * @return 路线图
+     */
+    public static RouteGraph build(Collection<OrganDTO> organs, Collection<TransportLine> lines) {
+        Map<Long, OrganDTO> organMap = new HashMap<>(Math.max(16, organs.size() * 2));
+        for (OrganDTO organ : organs) {
+            organMap.put(organ.getId(), organ);
+        }
+        Map<Long, Edge> lineMap = new HashMap<>(Math.max(16, lines.size() * 2));
+        Map<Long, List<Edge>> adjacencyList = new HashMap<>(organMap.size() * 2);
+        for (TransportLine line : lines) {
+            Edge edge = Edge.of(line);
+            if (null == edge) {
+                continue;
+            }
+            lineMap.put(edge.getLineId(), edge);
+            adjacencyList.computeIfAbsent(edge.getFrom(), k -> new ArrayList<>()).add(edge);
+        }
+        Map<Long, Edge[]> adjacency = new HashMap<>(adjacencyList.size() * 2);
+        adjacencyList.forEach((from, edges) -> adjacency.put(from, edges.toArray(new Edge[0])));
+        return new RouteGraph(organMap, adjacency, lineMap);
+    }
+
+    /**
+     * 空路线图
+     *
+     * @return 路线图
+     */
+    public static RouteGraph empty() {
+        return new RouteGraph(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * 新增或更新机构
+     *
+     * @param organ 机构数据
+     * @return 新的路线图
+     */
+    public RouteGraph withOrgan(OrganDTO organ) {
+        Map<Long, OrganDTO> organMap = new HashMap<>(this.organs);
+        organMap.put(organ.getId(), organ);
+        return new RouteGraph(organMap, this.adjacency, this.lines);
+    }
+
+    /**
+     * 删除机构以及与之相连的路线，与Neo4j中DETACH DELETE的效果一致
+     *
+     * @param bid 机构业务id
+     * @return 新的路线图
+     */
+    public RouteGraph withoutOrgan(Long bid) {
+        Map<Long, OrganDTO> organMap = new HashMap<>(this.organs);
+        organMap.remove(bid);
+        Set<Long> lineIds = new HashSet<>();
+        for (Edge edge : this.lines.values()) {
+            if (ObjectUtil.equal(edge.getFrom(), bid) || ObjectUtil.equal(edge.getTo(), bid)) {
+                lineIds.add(edge.getLineId());
+            }
+        }
+        RouteGraph graph = new RouteGraph(organMap, this.adjacency, this.lines);
+        return lineIds.isEmpty() ? graph : graph.withoutLines(lineIds);
+    }
+
+    /**
+     * 新增或更新路线，以路线id作为唯一标识
+     *
+     * @param transportLines 路线列表
+     * @return 新的路线图
+     */
+    public RouteGraph withLines(Collection<TransportLine> transportLines) {
+        Map<Long, Edge[]> adjacencyMap = new HashMap<>(this.adjacency);
+        Map<Long, Edge> lineMap = new HashMap<>(this.lines);
+        for (TransportLine line : transportLines) {
+            Edge edge = Edge.of(line);
+            if (null == edge) {
+                continue;
+            }
+            Edge old = lineMap.put(edge.getLineId(), edge);
+            if (null != old) {
+                removeEdge(adjacencyMap, old);
+            }
+            Edge[] edges = adjacencyMap.getOrDefault(edge.getFrom(), new Edge[0]);
+            Edge[] newEdges = Arrays.copyOf(edges, edges.length + 1);
+            newEdges[edges.length] = edge;
+            adjacencyMap.put(edge.getFrom(), newEdges);
+        }
+        return new RouteGraph(this.organs, adjacencyMap, lineMap);
+    }
+
+    /**
+     * 删除路线
+     *
+     * @param lineIds 路线id列表
+     * @return 新的路线图
+     */
+    public RouteGraph withoutLines(Collection<Long> lineIds) {
+        Map<Long, Edge[]> adjacencyMap = new HashMap<>(this.adjacency);
+        Map<Long, Edge> lineMap = new HashMap<>(this.lines);
+        for (Long lineId : lineIds) {
+            Edge old = lineMap.remove(lineId);
+            if (null != old) {
+                removeEdge(adjacencyMap, old);
+            }
+        }
+        return new RouteGraph(this.organs, adjacencyMap, lineMap);
+    }
+
+    private static void removeEdge(Map<Long, Edge[]> adjacencyMap, Edge edge) {
+        Edge[] edges = adjacencyMap.get(edge.getFrom());
+        if (null == edges) {
+            return;
+        }
+        Edge[] newEdges = Arrays.stream(edges)
+                .filter(e -> !ObjectUtil.equal(e.getLineId(), edge.getLineId()))
+                .toArray(Edge[]::new);
+        if (newEdges.length == 0) {
+            adjacencyMap.remove(edge.getFrom());
+        } else {
+            adjacencyMap.put(edge.getFrom(), newEdges);
+        }
+    }
+
+    /**
+     * 查询两个网点之间转运次数最少的路线，转运次数相同时选择成本最低的路线
+     * <p>
+     * 与Cypher中的shortestPath语义一致：起止节点必须是可用的网点，中间节点不做校验
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    public TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth) {
+        if (!this.isAvailableAgency(startId) || !this.isAvailableAgency(endId)) {
+            return null;
+        }
+        Map<Long, Integer> hops = new HashMap<>();
+        Map<Long, Double> costs = new HashMap<>();
+        Map<Long, Edge> previous = new HashMap<>();
+        hops.put(startId, 0);
+        costs.put(startId, 0d);
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(startId);
+        //按层广度优先遍历，同一层的节点保留成本最低的前驱
+        while (!queue.isEmpty()) {
+            Long current = queue.poll();
+            int hop = hops.get(current);
+            if (ObjectUtil.equal(current, endId) || hop >= depth) {
+                continue;
+            }
+            double cost = costs.get(current);
+            for (Edge edge : this.adjacency.getOrDefault(current, new Edge[0])) {
+                Long next = edge.getTo();
+                Integer nextHop = hops.get(next);
+                double nextCost = cost + edge.getCost();
+                if (null == nextHop) {
+                    hops.put(next, hop + 1);
+                    costs.put(next, nextCost);
+                    previous.put(next, edge);
+                    queue.add(next);
+                } else if (nextHop == hop + 1 && nextCost < costs.get(next)) {
+                    costs.put(next, nextCost);
+                    previous.put(next, edge);
+                }
+            }
+        }
+        if (!hops.containsKey(endId) || ObjectUtil.equal(startId, endId)) {
+            return null;
+        }
+        return this.toNodeDTO(startId, endId, previous);
+    }
+
+    /**
+     * 查询两个网点之间成本最低的路线，成本相同时选择转运次数最少的路线
+     * <p>
+     * 在（节点，转运次数）状态空间上执行Dijkstra，保证在最大深度内结果与Cypher按cost、LENGTH(path)排序后的第一条一致
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        if (!this.isAvailableAgency(startId) || !this.isAvailableAgency(endId) || ObjectUtil.equal(startId, endId)) {
+            return null;
+        }
+        //已确定的节点与对应的最少转运次数，后出队且转运次数不更少的状态一定被支配，无需再扩展
+        Map<Long, Integer> settled = new HashMap<>();
+        PriorityQueue<State> queue = new PriorityQueue<>();
+        queue.add(new State(startId, 0d, 0, null));
+        while (!queue.isEmpty()) {
+            State state = queue.poll();
+            Integer settledHop = settled.get(state.node);
+            if (null != settledHop && settledHop <= state.hop) {
+                continue;
+            }
+            settled.put(state.node, state.hop);
+            if (ObjectUtil.equal(state.node, endId)) {
+                return this.toNodeDTO(state);
+            }
+            if (state.hop >= depth) {
+                continue;
+            }
+            for (Edge edge : this.adjacency.getOrDefault(state.node, new Edge[0])) {
+                Integer nextSettledHop = settled.get(edge.getTo());
+                if (null != nextSettledHop && nextSettledHop <= state.hop + 1) {
+                    continue;
+                }
+                queue.add(new State(edge.getTo(), state.cost + edge.getCost(), state.hop + 1, new StateLink(edge, state)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否包含该机构
+     *
+     * @param bid 机构业务id
+     * @return 是否包含
+     */
+    public boolean containsOrgan(Long bid) {
+        return this.organs.containsKey(bid);
+    }
+
+    /**
+     * @return 机构数量
+     */
+    public int organSize() {
+        return this.organs.size();
+    }
+
+    /**
+     * @return 路线数量
+     */
+    public int lineSize() {
+        return this.lines.size();
+    }
+
+    /**
+     * 计算路线图的指纹，机构的类型、状态以及路线的方向、成本不变时指纹不变
+     *
+     * @return 指纹
+     */
+    public long fingerprint() {
+        long hash = 1125899906842597L;
+        for (Long bid : new TreeSet<>(this.organs.keySet())) {
+            OrganDTO organ = this.organs.get(bid);
+            hash = 31 * hash + bid;
+            hash = 31 * hash + ObjectUtil.defaultIfNull(organ.getType(), 0);
+            hash = 31 * hash + (Boolean.TRUE.equals(organ.getStatus()) ? 1 : 0);
+        }
+        for (Long lineId : new TreeSet<>(this.lines.keySet())) {
+            Edge edge = this.lines.get(lineId);
+            hash = 31 * hash + lineId;
+            hash = 31 * hash + edge.getFrom();
+            hash = 31 * hash + edge.getTo();
+            hash = 31 * hash + Double.doubleToLongBits(edge.getCost());
+        }
+        return hash;
+    }
+
+    Map<Long, OrganDTO> getOrgans() {
+        return this.organs;
+    }
+
+    Collection<Edge> getEdges() {
+        return this.lines.values();
+    }
+
+    boolean isAvailableAgency(Long bid) {
+        OrganDTO organ = this.organs.get(bid);
+        return null != organ
+                && ObjectUtil.equal(OrganTypeEnum.AGENCY.getCode(), organ.getType())
+                && Boolean.TRUE.equals(organ.getStatus());
+    }
+
+    private TransportLineNodeDTO toNodeDTO(Long startId, Long endId, Map<Long, Edge> previous) {
+        List<Edge> edges = new ArrayList<>();
+        Long current = endId;
+        while (!ObjectUtil.equal(current, startId)) {
+            Edge edge = previous.get(current);
+            edges.add(edge);
+            current = edge.getFrom();
+        }
+        Collections.reverse(edges);
+        return this.toNodeDTO(startId, edges);
+    }
+
+    private TransportLineNodeDTO toNodeDTO(State state) {
+        List<Edge> edges = new ArrayList<>();
+        for (StateLink link = state.link; null != link; link = link.previous.link) {
+            edges.add(link.edge);
+        }
+        Collections.reverse(edges);
+        return this.toNodeDTO(edges.get(0).getFrom(), edges);
+    }
+
+    TransportLineNodeDTO toNodeDTO(Long startId, List<Edge> edges) {
+        TransportLineNodeDTO transportLineNodeDTO = new TransportLineNodeDTO();
+        transportLineNodeDTO.getNodeList().add(this.copyOrgan(startId));
+        double cost = 0d;
+        for (Edge edge : edges) {
+            transportLineNodeDTO.getNodeList().add(this.copyOrgan(edge.getTo()));
+            if (edge.isUnknownCost()) {
+                //成本未知的路线不计入路线成本，等待地图服务补全
+                continue;
+            }
+            cost = NumberUtil.add(cost, edge.getCost());
+        }
+        //取2位小数
+        transportLineNodeDTO.setCost(NumberUtil.round(cost, 2).doubleValue());
+        return transportLineNodeDTO;
+    }
+
+    private OrganDTO copyOrgan(Long bid) {
+        OrganDTO organ = this.organs.get(bid);
+        if (null == organ) {
+            //路线中间节点在图中不存在时，只返回业务id
+            organ = new OrganDTO();
+            organ.setId(bid);
+            return organ;
+        }
+        return BeanUtil.copyProperties(organ, OrganDTO.class);
+    }
+
+    /**
+     * 有向边，对应Neo4j中的一条关系
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Edge {
+
+        /**
+         * 成本未知（地图查询失败，成本为-1的占位值）的路线在计算时使用的成本，
+         * 保证只有在没有其他路线时才会经过这条路线
+         */
+        public static final double UNKNOWN_COST = 1_000_000d;
+
+        private final Long lineId;
+        private final Long from;
+        private final Long to;
+        private final double cost;
+        /**
+         * 成本是否未知
+         */
+        private final boolean unknownCost;
+
+        static Edge of(TransportLine line) {
+            if (ObjectUtil.hasEmpty(line.getId(), line.getStartOrganId(), line.getEndOrganId())
+                    || ObjectUtil.equal(line.getStartOrganId(), line.getEndOrganId())) {
+                return null;
+            }
+            if (null != line.getCost() && line.getCost() < 0) {
+                return new Edge(line.getId(), line.getStartOrganId(), line.getEndOrganId(), UNKNOWN_COST, true);
+            }
+            //没有成本的路线按0计算
+            double cost = null == line.getCost() ? 0d : line.getCost();
+            return new Edge(line.getId(), line.getStartOrganId(), line.getEndOrganId(), cost, false);
+        }
+    }
+
+    private static class State implements Comparable<State> {
+        private final Long node;
+        private final double cost;
+        private final int hop;
+        private final StateLink link;
+
+        State(Long node, double cost, int hop, StateLink link) {
+            this.node = node;
+            this.cost = cost;
+            this.hop = hop;
+            this.link = link;
+        }
+
+        @Override
+        public int compareTo(State o) {
+            int result = Double.compare(this.cost, o.cost);
+            return result != 0 ? result : Integer.compare(this.hop, o.hop);
+        }
+    }
+
+    private static class StateLink {
+        private final Edge edge;
+        private final State previous;
+
+        StateLink(Edge edge, State previous) {
+            this.edge = edge;
+            this.previous = previous;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sl.transport.graph;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 路线图变更事件，通过Redis发布订阅通知所有的路线服务实例增量更新内存路线图
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RouteGraphEvent {
+
+    /**
+     * 新增路线，firstId、secondId为两个机构的业务id
+     */
+    public static final String LINE_CREATED = "LINE_CREATED";
+    /**
+     * 更新路线，firstId为路线id
+     */
+    public static final String LINE_UPDATED = "LINE_UPDATED";
+    /**
+     * 删除路线，firstId为路线id
+     */
+    public static final String LINE_REMOVED = "LINE_REMOVED";
+    /**
+     * 机构新增、更新或删除，firstId为机构业务id
+     */
+    public static final String ORGAN_CHANGED = "ORGAN_CHANGED";
+
+    /**
+     * 事件类型
+     */
+    private String type;
+    private Long firstId;
+    private Long secondId;
+    /**
+     * 发布事件的实例标识，用于忽略自身发布的事件
+     */
+    private String source;
+
+}
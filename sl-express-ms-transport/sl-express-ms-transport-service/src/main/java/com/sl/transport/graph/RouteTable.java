@@ -0,0 +1,408 @@
+package com.sl.transport.graph;
+
+import com.sl.transport.domain.TransportLineNodeDTO;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 网点之间的全量路线表，是基于某个版本路线图预先计算的快照
+ * <p>
+ * 以每个可用网点为起点，分别保存转运次数最少、成本最低两种调度方式的最短路径树（前驱节点数组），
+ * 查询时沿前驱节点回溯即可得到路线，无需再执行图搜索
+ */
+public class RouteTable {
+
+    private static final int MAGIC = 0x534C5254;
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * 不可达的节点
+     */
+    private static final int UNREACHABLE = -1;
+    /**
+     * 并行计算时每个任务负责的起点网点数量
+     */
+    private static final int BATCH_SIZE = 16;
+
+    /**
+     * 快照版本号
+     */
+    private final long version;
+    /**
+     * 构建快照时路线图的指纹
+     */
+    private final long fingerprint;
+    private final RouteGraph routeGraph;
+
+    /**
+     * 节点下标 -> 机构业务id，按业务id升序
+     */
+    private final long[] bids;
+    private final Map<Long, Integer> nodeIndex;
+    /**
+     * 以CSR格式保存的出边，节点i的出边为 edges[offsets[i]] ~ edges[offsets[i + 1] - 1]
+     */
+    private final int[] offsets;
+    private final int[] targets;
+    private final RouteGraph.Edge[] edges;
+
+    /**
+     * 起点网点的节点下标
+     */
+    private final int[] sources;
+    private final Map<Long, Integer> sourceIndex;
+    /**
+     * 转运次数最少的最短路径树，[起点序号][节点下标] -> 前驱节点下标
+     */
+    private final int[][] shortestParents;
+    /**
+     * 成本最低的最短路径树，[起点序号][节点下标] -> 前驱节点下标
+     */
+    private final int[][] lowestParents;
+
+    private RouteTable(long version, long fingerprint, RouteGraph routeGraph, long[] bids, int[] sources,
+                       int[][] shortestParents, int[][] lowestParents) {
+        this.version = version;
+        this.fingerprint = fingerprint;
+        this.routeGraph = routeGraph;
+        this.bids = bids;
+        this.nodeIndex = new HashMap<>(bids.length * 2);
+        for (int i = 0; i < bids.length; i++) {
+            this.nodeIndex.put(bids[i], i);
+        }
+
+        //构建CSR格式的邻接表，边的成本与路线图一致，成本未知的路线使用较高的成本，不会优先选择
+        List<RouteGraph.Edge> edgeList = new ArrayList<>(routeGraph.getEdges());
+        edgeList.removeIf(edge -> !this.nodeIndex.containsKey(edge.getFrom()) || !this.nodeIndex.containsKey(edge.getTo()));
+        edgeList.sort((a, b) -> Integer.compare(this.nodeIndex.get(a.getFrom()), this.nodeIndex.get(b.getFrom())));
+        this.offsets = new int[bids.length + 1];
+        this.targets = new int[edgeList.size()];
+        this.edges = edgeList.toArray(new RouteGraph.Edge[0]);
+        for (int i = 0; i < this.edges.length; i++) {
+            this.offsets[this.nodeIndex.get(this.edges[i].getFrom()) + 1]++;
+            this.targets[i] = this.nodeIndex.get(this.edges[i].getTo());
+        }
+        for (int i = 0; i < bids.length; i++) {
+            this.offsets[i + 1] += this.offsets[i];
+        }
+
+        this.sources = sources;
+        this.sourceIndex = new HashMap<>(sources.length * 2);
+        for (int i = 0; i < sources.length; i++) {
+            this.sourceIndex.put(bids[sources[i]], i);
+        }
+        this.shortestParents = null == shortestParents ? new int[sources.length][] : shortestParents;
+        this.lowestParents = null == lowestParents ? new int[sources.length][] : lowestParents;
+    }
+
+    /**
+     * 基于路线图并行构建路线表，每个起点网点的计算互不依赖，按起点拆分为fork-join任务
+     *
+     * @param routeGraph 路线图
+     * @param version    快照版本号
+     * @param pool       计算使用的线程池
+     * @return 路线表
+     */
+    public static RouteTable build(RouteGraph routeGraph, long version, ForkJoinPool pool) {
+        long[] bids = nodeBids(routeGraph);
+        int[] sources = sourceNodes(routeGraph, bids);
+        RouteTable routeTable = new RouteTable(version, routeGraph.fingerprint(), routeGraph, bids, sources, null, null);
+        pool.invoke(routeTable.new BuildTask(0, sources.length));
+        return routeTable;
+    }
+
+    /**
+     * 使用新的路线图对象，路线图指纹必须一致（如只修改了机构名称），无需重新计算
+     *
+     * @param routeGraph 路线图
+     * @return 路线表
+     */
+    public RouteTable rebind(RouteGraph routeGraph) {
+        return new RouteTable(this.version, this.fingerprint, routeGraph, this.bids, this.sources,
+                this.shortestParents, this.lowestParents);
+    }
+
+    /**
+     * 查询两个网点之间转运次数最少的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    public TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth) {
+        List<RouteGraph.Edge> path = this.path(this.shortestParents, startId, endId);
+        if (null == path || path.size() > depth) {
+            //转运次数最少的路线超过了最大深度，说明最大深度内不存在路线
+            return null;
+        }
+        return this.routeGraph.toNodeDTO(startId, path);
+    }
+
+    /**
+     * 查询两个网点之间成本最低的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        List<RouteGraph.Edge> path = this.path(this.lowestParents, startId, endId);
+        if (null == path) {
+            return null;
+        }
+        if (path.size() > depth) {
+            //成本最低的路线超过了最大深度，在路线图中按深度限制重新计算
+            return this.routeGraph.findLowestPath(startId, endId, depth);
+        }
+        return this.routeGraph.toNodeDTO(startId, path);
+    }
+
+    private List<RouteGraph.Edge> path(int[][] parentTable, Long startId, Long endId) {
+        Integer row = this.sourceIndex.get(startId);
+        Integer target = this.nodeIndex.get(endId);
+        if (null == row || null == target || startId.equals(endId) || !this.routeGraph.isAvailableAgency(endId)) {
+            return null;
+        }
+        int[] parents = parentTable[row];
+        if (parents[target] == UNREACHABLE) {
+            return null;
+        }
+        int source = this.sources[row];
+        List<RouteGraph.Edge> path = new ArrayList<>();
+        for (int node = target; node != source; node = parents[node]) {
+            path.add(this.cheapestEdge(parents[node], node));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private RouteGraph.Edge cheapestEdge(int from, int to) {
+        RouteGraph.Edge result = null;
+        for (int i = this.offsets[from]; i < this.offsets[from + 1]; i++) {
+            if (this.targets[i] == to && (null == result || this.edges[i].getCost() < result.getCost())) {
+                result = this.edges[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按层广度优先遍历，转运次数相同时保留成本最低的前驱，与{@link RouteGraph#findShortestPath}一致
+     */
+    private int[] shortestTree(int source) {
+        int n = this.bids.length;
+        int[] parents = new int[n];
+        int[] hops = new int[n];
+        double[] costs = new double[n];
+        Arrays.fill(parents, UNREACHABLE);
+        Arrays.fill(hops, -1);
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        parents[source] = source;
+        hops[source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int current = queue[head++];
+            for (int i = this.offsets[current]; i < this.offsets[current + 1]; i++) {
+                int next = this.targets[i];
+                double nextCost = costs[current] + this.edges[i].getCost();
+                if (hops[next] == -1) {
+                    hops[next] = hops[current] + 1;
+                    costs[next] = nextCost;
+                    parents[next] = current;
+                    queue[tail++] = next;
+                } else if (hops[next] == hops[current] + 1 && nextCost < costs[next]) {
+                    costs[next] = nextCost;
+                    parents[next] = current;
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * 按（成本，转运次数）排序的Dijkstra，与{@link RouteGraph#findLowestPath}的排序规则一致
+     */
+    private int[] lowestTree(int source) {
+        int n = this.bids.length;
+        int[] parents = new int[n];
+        int[] hops = new int[n];
+        double[] costs = new double[n];
+        boolean[] settled = new boolean[n];
+        Arrays.fill(parents, UNREACHABLE);
+        Arrays.fill(costs, Double.MAX_VALUE);
+        parents[source] = source;
+        costs[source] = 0d;
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> {
+            int result = Double.compare(a[1], b[1]);
+            return result != 0 ? result : Double.compare(a[2], b[2]);
+        });
+        queue.add(new double[]{source, 0d, 0d});
+        while (!queue.isEmpty()) {
+            int current = (int) queue.poll()[0];
+            if (settled[current]) {
+                continue;
+            }
+            settled[current] = true;
+            for (int i = this.offsets[current]; i < this.offsets[current + 1]; i++) {
+                int next = this.targets[i];
+                double nextCost = costs[current] + this.edges[i].getCost();
+                int nextHop = hops[current] + 1;
+                if (!settled[next] && (nextCost < costs[next] || (nextCost == costs[next] && nextHop < hops[next]))) {
+                    costs[next] = nextCost;
+                    hops[next] = nextHop;
+                    parents[next] = current;
+                    queue.add(new double[]{next, nextCost, nextHop});
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * 写入二进制快照
+     *
+     * @param out 输出流
+     * @throws IOException 写入异常
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(this.version);
+        out.writeLong(this.fingerprint);
+        out.writeInt(this.bids.length);
+        for (long bid : this.bids) {
+            out.writeLong(bid);
+        }
+        out.writeInt(this.sources.length);
+        for (int i = 0; i < this.sources.length; i++) {
+            out.writeInt(this.sources[i]);
+            writeInts(out, this.shortestParents[i]);
+            writeInts(out, this.lowestParents[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * 读取二进制快照，快照与路线图不匹配时返回null
+     *
+     * @param in         输入流
+     * @param routeGraph 当前的路线图
+     * @return 路线表
+     * @throws IOException 读取异常
+     */
+    public static RouteTable readFrom(DataInputStream in, RouteGraph routeGraph) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        long version = in.readLong();
+        long fingerprint = in.readLong();
+        long[] bids = new long[in.readInt()];
+        for (int i = 0; i < bids.length; i++) {
+            bids[i] = in.readLong();
+        }
+        if (fingerprint != routeGraph.fingerprint() || !Arrays.equals(bids, nodeBids(routeGraph))) {
+            return null;
+        }
+        int[] sources = new int[in.readInt()];
+        int[][] shortestParents = new int[sources.length][];
+        int[][] lowestParents = new int[sources.length][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = in.readInt();
+            shortestParents[i] = readInts(in, bids.length);
+            lowestParents[i] = readInts(in, bids.length);
+        }
+        return new RouteTable(version, fingerprint, routeGraph, bids, sources, shortestParents, lowestParents);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int length) throws IOException {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static long[] nodeBids(RouteGraph routeGraph) {
+        TreeSet<Long> bidSet = new TreeSet<>(routeGraph.getOrgans().keySet());
+        for (RouteGraph.Edge edge : routeGraph.getEdges()) {
+            bidSet.add(edge.getFrom());
+            bidSet.add(edge.getTo());
+        }
+        return bidSet.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static int[] sourceNodes(RouteGraph routeGraph, long[] bids) {
+        List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < bids.length; i++) {
+            if (routeGraph.isAvailableAgency(bids[i])) {
+                sources.add(i);
+            }
+        }
+        return sources.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    public RouteGraph getRouteGraph() {
+        return this.routeGraph;
+    }
+
+    /**
+     * @return 起点网点数量
+     */
+    public int sourceSize() {
+        return this.sources.length;
+    }
+
+    /**
+     * 按起点网点拆分的并行计算任务
+     */
+    private class BuildTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        BuildTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= BATCH_SIZE) {
+                for (int i = this.from; i < this.to; i++) {
+                    shortestParents[i] = shortestTree(sources[i]);
+                    lowestParents[i] = lowestTree(sources[i]);
+                }
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new BuildTask(this.from, middle), new BuildTask(middle, this.to));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.sl.transport.mq;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.json.JSONUtil;
+import com.sl.transport.graph.RouteGraphEvent;
+import com.sl.transport.service.RouteGraphService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * redis消息监听，同步其他实例中路线、机构的变更到内存路线图
+ */
+@Slf4j
+@Component
+public class RouteGraphMessageListener extends MessageListenerAdapter {
+
+    @Resource
+    private RouteGraphService routeGraphService;
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String msg = Convert.toStr(message);
+        log.info("接收到路线图变更消息 -> {}", msg);
+        RouteGraphEvent event = JSONUtil.toBean(msg, RouteGraphEvent.class);
+        this.routeGraphService.apply(event);
+    }
+}
@@ -0,0 +1,65 @@
+package com.sl.transport.repository;
+
+import com.sl.transport.domain.TransportLineNodeDTO;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路线分段聚合数据的维护与查询
+ * <p>
+ * 网点之间的路线由三段组成：网点 -> 二级转运中心 -> 一级转运中心（UP_SEGMENT），
+ * 一级转运中心之间的干线（TRUNK_SEGMENT），一级转运中心 -> 二级转运中心 -> 网点（DOWN_SEGMENT），
+ * 每一段预先计算成本最低的路线，保存成本、转运次数以及路线id
+ */
+public interface RouteSegmentRepository {
+
+    /**
+     * 重新计算网点的上行、下行分段
+     *
+     * @param organBids 机构业务id，网点会重新计算自身的分段，二级转运中心会重新计算与其相连的所有网点的分段
+     * @return 重新计算的网点数量
+     */
+    Long refreshAgencySegments(Collection<Long> organBids);
+
+    /**
+     * 重新计算所有网点的上行、下行分段
+     *
+     * @return 重新计算的网点数量
+     */
+    Long refreshAllAgencySegments();
+
+    /**
+     * 查询一级转运中心之间的所有干线
+     *
+     * @return 干线列表，每个元素包含：startOrganId、endOrganId、lineId、cost
+     */
+    List<Map<String, Object>> findTrunkLines();
+
+    /**
+     * 使用新的干线分段替换原有的干线分段
+     *
+     * @param segments 干线分段，每个元素包含：startOrganId、endOrganId、cost、hops、lines
+     * @return 保存的分段数量
+     */
+    Long replaceTrunkSegments(List<Map<String, Object>> segments);
+
+    /**
+     * 分段数据是否存在
+     *
+     * @return 是否存在
+     */
+    boolean exists();
+
+    /**
+     * 通过 上行分段 -> 干线分段 -> 下行分段 的连接查询两个网点之间成本最低的路线，
+     * 同一个二级转运中心下的网点直接连接
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大转运次数
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth);
+}
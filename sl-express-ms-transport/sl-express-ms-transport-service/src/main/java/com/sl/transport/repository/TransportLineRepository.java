@@ -106,4 +106,46 @@ public interface TransportLineRepository {
      * @return 路线数据
      */
     TransportLine queryById(Long id);
+
+    /**
+     * 查询全部路线，用于构建内存路线图
+     *
+     * @return 路线列表，起点、终点与关系的实际方向一致
+     */
+    List<TransportLine> findAll();
+
+    /**
+     * 查询两个机构之间的路线，包含两个方向
+     *
+     * @param firstBid  第一个机构业务id
+     * @param secondBid 第二个机构业务id
+     * @return 路线列表，起点、终点与关系的实际方向一致
+     */
+    List<TransportLine> queryByOrganIds(Long firstBid, Long secondBid);
+
+    /**
+     * 更新两个机构之间路线（包含两个方向）通过地图查询的距离、时间、成本
+     *
+     * @param transportLine 路线数据，需要包含起点机构id、终点机构id、距离、时间、成本
+     * @return 更新的数量
+     */
+    Long updateMapInfo(TransportLine transportLine);
+
+    /**
+     * 查询成本尚未通过地图补全的路线，只返回IN_LINE方向，最久没有尝试补全的排在前面
+     *
+     * @param maxAttempts 最大补全次数，达到该次数的路线无法补全，不再返回
+     * @param limit       最大数量
+     * @return 路线列表
+     */
+    List<TransportLine> findPlaceholderLines(int maxAttempts, int limit);
+
+    /**
+     * 记录路线（包含两个方向）的一次补全尝试，补全次数加1并更新尝试时间
+     *
+     * @param ids         IN_LINE方向的路线id
+     * @param attemptTime 尝试时间
+     * @return 更新的数量
+     */
+    Long recordMapAttempt(List<Long> ids, long attemptTime);
 }
@@ -2,6 +2,7 @@ package com.sl.transport.repository.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import com.sl.transport.domain.OrganDTO;
@@ -11,29 +12,57 @@ import org.neo4j.driver.internal.InternalPoint2D;
 import org.springframework.data.neo4j.core.Neo4jClient;
 import org.springframework.stereotype.Component;
 import javax.annotation.Resource;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 @Component
 public class OrganRepositoryImpl implements OrganRepository {
+    /**
+     * 按业务id查询机构，每个标签单独查询后合并，都可以命中标签上的bid索引
+     */
+    private static final String FIND_BY_BID_CYPHER = unionAllLabels("MATCH (n:{} {bid: $bid}) RETURN n");
+    /**
+     * 按业务id批量查询机构
+     */
+    private static final String FIND_BY_BIDS_CYPHER = unionAllLabels("MATCH (n:{}) WHERE n.bid IN $bids RETURN n");
+    /**
+     * 查询所有机构，名称为空字符串时不过滤
+     */
+    private static final String FIND_ALL_CYPHER = unionAllLabels("MATCH (n:{}) WHERE $name = '' OR n.name CONTAINS $name RETURN n");
     @Resource
     private Neo4jClient neo4jClient;
     @Override
     public OrganDTO findByBid(Long bid) {
-        String cypherQuery = StrUtil.format("MATCH (n)\n" +
-                "WHERE n.bid = {}\n" +
-                "RETURN n", bid);
-        return CollUtil.getFirst(executeQuery(cypherQuery));
+        return CollUtil.getFirst(executeQuery(FIND_BY_BID_CYPHER, MapUtil.of("bid", bid)));
     }
+    @Override
+    public List<OrganDTO> findByBids(List<Long> bids) {
+        if (CollUtil.isEmpty(bids)) {
+            return ListUtil.empty();
+        }
+        return executeQuery(FIND_BY_BIDS_CYPHER, MapUtil.of("bids", bids));
+    }
+
     @Override
     public List<OrganDTO> findAll(String name) {
-        name = StrUtil.removeAll(name, '\'', '"');
-        String cypherQuery = StrUtil.isEmpty(name) ?
-                "MATCH (n) RETURN n" :
-                StrUtil.format("MATCH (n) WHERE n.name CONTAINS '{}' RETURN n", name);
-        return executeQuery(cypherQuery);
+        //名称作为参数传递，查询语句固定，Neo4j可以复用执行计划
+        return executeQuery(FIND_ALL_CYPHER, MapUtil.of("name", StrUtil.nullToEmpty(StrUtil.trim(name))));
+    }
+    /**
+     * 对所有机构标签生成相同的查询，通过UNION ALL合并
+     *
+     * @param template 查询模板，{}为标签的占位符
+     * @return 查询语句
+     */
+    static String unionAllLabels(String template) {
+        return Arrays.stream(OrganTypeEnum.values())
+                .map(organType -> StrUtil.format(template, organType.name()))
+                .collect(Collectors.joining("\nUNION ALL\n"));
     }
-    private List<OrganDTO> executeQuery(String cypherQuery) {
+    private List<OrganDTO> executeQuery(String cypherQuery, Map<String, Object> params) {
         return ListUtil.toList(this.neo4jClient.query(cypherQuery)
+                .bindAll(params) //设置参数
                 .fetchAs(OrganDTO.class) //设置响应的类型
                 .mappedBy((typeSystem, record) -> { //对结果进行封装处理
                     Map<String, Object> map = record.get("n").asMap();
@@ -49,4 +78,4 @@ public class OrganRepositoryImpl implements OrganRepository {
                     return organDTO;
                 }).all());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package com.sl.transport.repository.impl;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.MapUtil;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.graph.RouteGraph;
+import com.sl.transport.repository.RouteSegmentRepository;
+import com.sl.transport.utils.TransportLineUtils;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.stereotype.Component;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+/**
+ * 路线分段聚合数据，分段以关系的形式保存在Neo4j中，与路线（IN_LINE、OUT_LINE）使用不同的关系类型
+ */
+@Component
+public class RouteSegmentRepositoryImpl implements RouteSegmentRepository {
+    /**
+     * 重新计算网点的上行、下行分段：先删除原有分段，再按一级转运中心分组，取成本最低的两段路线
+     */
+    private static final String REFRESH_AGENCY_SEGMENTS_CYPHER = "CALL {\n" +
+            "  WITH a\n" +
+            "  OPTIONAL MATCH (a) -[s:UP_SEGMENT|DOWN_SEGMENT]- ()\n" +
+            "  DELETE s\n" +
+            "  RETURN count(s) AS removed\n" +
+            "}\n" +
+            "CALL {\n" +
+            "  WITH a\n" +
+            "  MATCH (a) -[r1:IN_LINE|OUT_LINE]-> (:TLT) -[r2:IN_LINE|OUT_LINE]-> (o:OLT)\n" +
+            "  WITH a, o, " + lineCost("r1") + " + " + lineCost("r2") + " AS cost, [id(r1), id(r2)] AS lines ORDER BY cost ASC\n" +
+            "  WITH a, o, collect({cost: cost, lines: lines})[0] AS best\n" +
+            "  CREATE (a) -[:UP_SEGMENT {cost: best.cost, hops: 2, lines: best.lines}]-> (o)\n" +
+            "  RETURN count(o) AS up\n" +
+            "}\n" +
+            "CALL {\n" +
+            "  WITH a\n" +
+            "  MATCH (o:OLT) -[r1:IN_LINE|OUT_LINE]-> (:TLT) -[r2:IN_LINE|OUT_LINE]-> (a)\n" +
+            "  WITH a, o, " + lineCost("r1") + " + " + lineCost("r2") + " AS cost, [id(r1), id(r2)] AS lines ORDER BY cost ASC\n" +
+            "  WITH a, o, collect({cost: cost, lines: lines})[0] AS best\n" +
+            "  CREATE (o) -[:DOWN_SEGMENT {cost: best.cost, hops: 2, lines: best.lines}]-> (a)\n" +
+            "  RETURN count(o) AS down\n" +
+            "}\n" +
+            "RETURN count(a) AS c";
+    /**
+     * 网点本身，以及与二级转运中心相连的网点
+     */
+    private static final String AFFECTED_AGENCIES_CYPHER = "UNWIND $bids AS bid\n" +
+            "CALL {\n" +
+            "  WITH bid\n" +
+            "  MATCH (a:AGENCY {bid: bid}) RETURN a\n" +
+            "  UNION\n" +
+            "  WITH bid\n" +
+            "  MATCH (:TLT {bid: bid}) -[:IN_LINE|OUT_LINE]- (a:AGENCY) RETURN a\n" +
+            "}\n" +
+            "WITH DISTINCT a\n";
+    /**
+     * 上行分段 -> 干线分段（同一个一级转运中心时不经过干线） -> 下行分段，以及同一个二级转运中心下网点之间的直连路线，
+     * 取成本最低的一条，再按路线id依次查询每一段路线
+     */
+    private static final String FIND_LOWEST_PATH_CYPHER = "MATCH (start:AGENCY {bid: $startId}), (end:AGENCY {bid: $endId})\n" +
+            "WHERE start.status = true AND end.status = true\n" +
+            "CALL {\n" +
+            "  WITH start, end\n" +
+            "  MATCH (start) -[u:UP_SEGMENT]-> (o1:OLT), (o2:OLT) -[d:DOWN_SEGMENT]-> (end)\n" +
+            "  OPTIONAL MATCH (o1) -[t:TRUNK_SEGMENT]-> (o2)\n" +
+            "  WITH u, t, d, o1, o2 WHERE o1 = o2 OR t IS NOT NULL\n" +
+            "  RETURN u.lines + coalesce(t.lines, []) + d.lines AS lines, u.cost + coalesce(t.cost, 0) + d.cost AS cost\n" +
+            "  UNION ALL\n" +
+            "  WITH start, end\n" +
+            "  MATCH (start) -[r1:IN_LINE|OUT_LINE]-> (:TLT) -[r2:IN_LINE|OUT_LINE]-> (end)\n" +
+            "  RETURN [id(r1), id(r2)] AS lines, " + lineCost("r1") + " + " + lineCost("r2") + " AS cost\n" +
+            "}\n" +
+            "WITH lines, cost WHERE size(lines) <= $depth\n" +
+            "ORDER BY cost ASC, size(lines) ASC LIMIT 1\n" +
+            "UNWIND range(0, size(lines) - 1) AS i\n" +
+            "MATCH (m) -[r]-> (n) WHERE id(r) = lines[i]\n" +
+            "RETURN i, m, r, n ORDER BY i ASC";
+    @Resource
+    private Neo4jClient neo4jClient;
+    @Override
+    public Long refreshAgencySegments(Collection<Long> organBids) {
+        return this.neo4jClient.query(AFFECTED_AGENCIES_CYPHER + REFRESH_AGENCY_SEGMENTS_CYPHER)
+                .bind(organBids).to("bids")
+                .fetchAs(Long.class)
+                .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
+                .one().orElse(0L);
+    }
+    @Override
+    public Long refreshAllAgencySegments() {
+        return this.neo4jClient.query("MATCH (a:AGENCY)\n" + REFRESH_AGENCY_SEGMENTS_CYPHER)
+                .fetchAs(Long.class)
+                .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
+                .one().orElse(0L);
+    }
+    @Override
+    public List<Map<String, Object>> findTrunkLines() {
+        String cypherQuery = "MATCH (m:OLT) -[r:IN_LINE|OUT_LINE]-> (n:OLT)\n" +
+                "RETURN m.bid AS startOrganId, n.bid AS endOrganId, id(r) AS lineId, r.cost AS cost";
+        return new ArrayList<>(this.neo4jClient.query(cypherQuery).fetch().all());
+    }
+    @Override
+    public Long replaceTrunkSegments(List<Map<String, Object>> segments) {
+        this.neo4jClient.query("MATCH () -[s:TRUNK_SEGMENT]-> () DELETE s").run();
+        String cypherQuery = "UNWIND $segments AS s\n" +
+                "MATCH (m:OLT {bid: s.startOrganId}), (n:OLT {bid: s.endOrganId})\n" +
+                "CREATE (m) -[r:TRUNK_SEGMENT {cost: s.cost, hops: s.hops, lines: s.lines}]-> (n)\n" +
+                "RETURN count(r) AS c";
+        return this.neo4jClient.query(cypherQuery)
+                .bind(segments).to("segments")
+                .fetchAs(Long.class)
+                .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
+                .one().orElse(0L);
+    }
+    @Override
+    public boolean exists() {
+        String cypherQuery = "MATCH () -[s:UP_SEGMENT]-> () RETURN s LIMIT 1";
+        return this.neo4jClient.query(cypherQuery).fetch().first().isPresent();
+    }
+    @Override
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        List<Object[]> segments = new ArrayList<>(this.neo4jClient.query(FIND_LOWEST_PATH_CYPHER)
+                .bindAll(MapUtil.<String, Object>builder()
+                        .put("startId", startId)
+                        .put("endId", endId)
+                        .put("depth", depth)
+                        .build())
+                .fetchAs(Object[].class)
+                .mappedBy((typeSystem, record) -> new Object[]{
+                        record.get("m").asNode(), record.get("r").asRelationship(), record.get("n").asNode()})
+                .all());
+        return TransportLineUtils.convert(segments);
+    }
+    /**
+     * 路线参与排序的成本，成本为-1（地图查询失败）时按未知成本处理，与路线图一致
+     */
+    private static String lineCost(String r) {
+        return "(CASE WHEN " + r + ".cost < 0 THEN " + RouteGraph.Edge.UNKNOWN_COST + " ELSE " + r + ".cost END)";
+    }
+}
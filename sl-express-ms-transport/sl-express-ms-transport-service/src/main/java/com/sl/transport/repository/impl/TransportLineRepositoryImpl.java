@@ -3,7 +3,6 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.collection.ListUtil;
 import cn.hutool.core.convert.Convert;
-import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.PageUtil;
 import cn.hutool.core.util.StrUtil;
@@ -23,6 +22,7 @@ import org.springframework.data.neo4j.core.schema.Node;
 import org.springframework.stereotype.Component;
 import javax.annotation.Resource;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -31,6 +31,40 @@ import java.util.Optional;
  */
 @Component
 public class TransportLineRepositoryImpl implements TransportLineRepository {
+    /**
+     * 路线的关系类型
+     */
+    private static final String LINE_TYPES = "IN_LINE|OUT_LINE";
+    /**
+     * 分页查询条件，条件为null时不过滤，查询语句固定，Neo4j可以复用执行计划
+     */
+    private static final String PAGE_QUERY_CYPHER_PREFIX = "MATCH (m) -[r:" + LINE_TYPES + "]-> (n)\n" +
+            "WHERE ($name IS NULL OR r.name CONTAINS $name)\n" +
+            "AND ($number IS NULL OR r.number CONTAINS $number)\n" +
+            "AND ($startOrganId IS NULL OR r.startOrganId = $startOrganId)\n" +
+            "AND ($endOrganId IS NULL OR r.endOrganId = $endOrganId)\n";
+    private static final String PAGE_QUERY_CYPHER = PAGE_QUERY_CYPHER_PREFIX + "RETURN m,r,n ORDER BY id(r) DESC SKIP $skip LIMIT $limit";
+    private static final String PAGE_COUNT_CYPHER = PAGE_QUERY_CYPHER_PREFIX + "RETURN count(r) AS c";
+    /**
+     * 先通过bid索引定位第一个机构，再查询与第二个机构之间的关系，通过startNode/endNode还原关系的实际方向
+     */
+    private static final String QUERY_BY_ORGAN_IDS_CYPHER = "CALL {\n" +
+            OrganRepositoryImpl.unionAllLabels("MATCH (a:{} {bid: $firstBid}) RETURN a") + "\n" +
+            "}\n" +
+            "MATCH (a) -[r:" + LINE_TYPES + "]- (b)\n" +
+            "WHERE b.bid = $secondBid\n" +
+            "RETURN startNode(r) AS m, r, endNode(r) AS n";
+    /**
+     * 更新两个机构之间两个方向的路线
+     */
+    private static final String UPDATE_MAP_INFO_CYPHER = "CALL {\n" +
+            OrganRepositoryImpl.unionAllLabels("MATCH (m:{} {bid: $startOrganId}) RETURN m") + "\n" +
+            "}\n" +
+            "MATCH (m) -[r:" + LINE_TYPES + "]- (n)\n" +
+            "WHERE n.bid = $endOrganId\n" +
+            "SET r.cost = $cost, r.distance = $distance, r.time = $time, r.updated = $updated\n" +
+            "REMOVE r.mapAttempts, r.mapAttemptTime\n" +
+            "RETURN count(r) AS c";
     @Resource
     private Neo4jClient neo4jClient;
     @Override
@@ -44,7 +78,7 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
 
         // TODO day05 中文添加该语句作用描述
         String cypherQuery = StrUtil.format(
-                "MATCH path = shortestPath((start:{}) -[*..{}]-> (end:{}))\n" +
+                "MATCH path = shortestPath((start:{}) -[:" + LINE_TYPES + "*..{}]-> (end:{}))\n" +
                         "WHERE start.bid = $startId AND end.bid = $endId AND start.status = true AND end.status = true\n" +
                         "RETURN path", type, depth, type);
         Collection<TransportLineNodeDTO> transportLineNodeDTOS = this.executeQueryPath(cypherQuery, start, end);
@@ -72,12 +106,19 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
         String type = AgencyEntity.class.getAnnotation(Node.class).value()[0];
         // TODO day05 中文添加该语句作用描述
         String cypherQuery = StrUtil.format(
-                "MATCH path = (start:{}) -[*..{}]-> (end:{})\n" +
+                "MATCH path = (start:{}) -[:" + LINE_TYPES + "*..{}]-> (end:{})\n" +
                         "WHERE start.bid = $startId AND end.bid = $endId AND start.status = true AND end.status = true\n" +
                         "UNWIND relationships(path) AS r\n" +
                         "WITH sum(r.cost) AS cost, path\n" +
-                        "RETURN path ORDER BY cost ASC, LENGTH(path) ASC LIMIT {}", type, depth, type, limit);
-        return this.executeQueryPath(cypherQuery, start, end);
+                        "RETURN path ORDER BY cost ASC, LENGTH(path) ASC LIMIT $limit", type, depth, type);
+        //深度无法参数化，但取值固定；条数作为参数传递，不影响执行计划的复用
+        return ListUtil.toList(this.neo4jClient.query(cypherQuery)
+                .bind(start.getBid()).to("startId")
+                .bind(end.getBid()).to("endId")
+                .bind(limit).to("limit")
+                .fetchAs(TransportLineNodeDTO.class)
+                .mappedBy((typeSystem, record) -> TransportLineUtils.convert((PathValue) record.get(0)))
+                .all());
     }
     @Override
     public Long queryCount(BaseEntity firstNode, BaseEntity secondNode) {
@@ -85,7 +126,7 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
         String secondNodeType = secondNode.getClass().getAnnotation(Node.class).value()[0];
         // TODO day05 中文添加该语句作用描述
         String cypherQuery = StrUtil.format(
-                "MATCH (m:{}) -[r]- (n:{})\n" +
+                "MATCH (m:{}) -[r:" + LINE_TYPES + "]- (n:{})\n" +
                         "WHERE m.bid = $firstBid AND n.bid = $secondBid\n" +
                         "RETURN count(r) AS c", firstNodeType, secondNodeType);
         Optional<Long> optional = this.neo4jClient.query(cypherQuery)
@@ -152,13 +193,14 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
         int page = Math.max(transportLineSearchDTO.getPage(), 1);
         int pageSize = transportLineSearchDTO.getPageSize();
         int skip = (page - 1) * pageSize;
-        Map<String, Object> searchParam = BeanUtil.beanToMap(transportLineSearchDTO, false, true);
-        MapUtil.removeAny(searchParam, "page", "pageSize");
-        //构建查询语句，第一个是查询数据，第二个是查询数量
-        String[] cyphers = this.buildPageQueryCypher(searchParam);
-        String cypherQuery = cyphers[0];
+        //查询条件，空白字符串视为不过滤
+        Map<String, Object> searchParam = new HashMap<>();
+        searchParam.put("name", StrUtil.emptyToNull(StrUtil.trim(transportLineSearchDTO.getName())));
+        searchParam.put("number", StrUtil.emptyToNull(StrUtil.trim(transportLineSearchDTO.getNumber())));
+        searchParam.put("startOrganId", transportLineSearchDTO.getStartOrganId());
+        searchParam.put("endOrganId", transportLineSearchDTO.getEndOrganId());
         //数据
-        List<TransportLine> list = ListUtil.toList(this.neo4jClient.query(cypherQuery)
+        List<TransportLine> list = ListUtil.toList(this.neo4jClient.query(PAGE_QUERY_CYPHER)
                 .bind(skip).to("skip")
                 .bind(pageSize).to("limit")
                 .bindAll(searchParam)
@@ -168,8 +210,7 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
                     return this.toTransportLine(record);
                 }).all());
         // 数据总数
-        String countCypher = cyphers[1];
-        Long total = this.neo4jClient.query(countCypher)
+        Long total = this.neo4jClient.query(PAGE_COUNT_CYPHER)
                 .bindAll(searchParam)
                 .fetchAs(Long.class)
                 .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
@@ -183,38 +224,10 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
         pageResponse.setPages(pages);
         return pageResponse;
     }
-    private String[] buildPageQueryCypher(Map<String, Object> searchParam) {
-        String queryCypher;
-        String countCypher;
-        if (CollUtil.isEmpty(searchParam)) {
-            //无参数 // TODO day05 中文添加该语句作用描述
-            queryCypher = "MATCH (m) -[r]-> (n) RETURN m,r,n ORDER BY id(r) DESC SKIP $skip LIMIT $limit";
-            countCypher = "MATCH () -[r]-> () RETURN count(r) AS c";
-        } else {
-            //有参数 // TODO day05 中文添加该语句作用描述
-            String cypherPrefix = "MATCH (m) -[r]-> (n)";
-            StringBuilder sb = new StringBuilder();
-            sb.append(cypherPrefix + " WHERE 1=1 ");
-            for (String key : searchParam.keySet()) {
-                Object value = searchParam.get(key);
-                if (value instanceof String) {
-                    if (StrUtil.isNotBlank(Convert.toStr(value))) {
-                        sb.append(StrUtil.format("AND r.{} CONTAINS ${} \n", key, key));
-                    }
-                } else {
-                    sb.append(StrUtil.format("AND r.{} = ${} \n", key, key));
-                }
-            }
-            String cypher = sb.toString();
-            queryCypher = cypher + "RETURN m,r,n ORDER BY id(r) DESC SKIP $skip LIMIT $limit";
-            countCypher = cypher + "RETURN count(r) AS c";
-        }
-        return new String[]{queryCypher, countCypher};
-    }
     @Override
     public List<TransportLine> queryByIds(Long... ids) {
         String cypherQuery = "MATCH (m) -[r]-> (n)\n" +
-                "WHERE id(r) in $ids\n" +
+                "WHERE id(r) IN $ids\n" +
                 "RETURN m,r,n";
         return ListUtil.toList(this.neo4jClient.query(cypherQuery)
                 .bind(ids).to("ids")
@@ -224,6 +237,62 @@ public class TransportLineRepositoryImpl implements TransportLineRepository {
                     return this.toTransportLine(record);
                 }).all());
     }
+    @Override
+    public List<TransportLine> findAll() {
+        String cypherQuery = "MATCH (m) -[r:" + LINE_TYPES + "]-> (n) RETURN m,r,n";
+        return ListUtil.toList(this.neo4jClient.query(cypherQuery)
+                .fetchAs(TransportLine.class)
+                .mappedBy((typeSystem, record) -> this.toTransportLine(record))
+                .all());
+    }
+    @Override
+    public List<TransportLine> queryByOrganIds(Long firstBid, Long secondBid) {
+        return ListUtil.toList(this.neo4jClient.query(QUERY_BY_ORGAN_IDS_CYPHER)
+                .bind(firstBid).to("firstBid")
+                .bind(secondBid).to("secondBid")
+                .fetchAs(TransportLine.class)
+                .mappedBy((typeSystem, record) -> this.toTransportLine(record))
+                .all());
+    }
+    @Override
+    public Long updateMapInfo(TransportLine transportLine) {
+        return this.neo4jClient.query(UPDATE_MAP_INFO_CYPHER)
+                .bind(transportLine.getStartOrganId()).to("startOrganId")
+                .bind(transportLine.getEndOrganId()).to("endOrganId")
+                .bind(transportLine.getCost()).to("cost")
+                .bind(transportLine.getDistance()).to("distance")
+                .bind(transportLine.getTime()).to("time")
+                .bind(transportLine.getUpdated()).to("updated")
+                .fetchAs(Long.class)
+                .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
+                .one().orElse(0L);
+    }
+    @Override
+    public List<TransportLine> findPlaceholderLines(int maxAttempts, int limit) {
+        String cypherQuery = "MATCH (m) -[r:IN_LINE]-> (n)\n" +
+                "WHERE r.cost < 0 AND coalesce(r.mapAttempts, 0) < $maxAttempts\n" +
+                "RETURN m,r,n ORDER BY coalesce(r.mapAttemptTime, 0) LIMIT $limit";
+        return ListUtil.toList(this.neo4jClient.query(cypherQuery)
+                .bind(maxAttempts).to("maxAttempts")
+                .bind(limit).to("limit")
+                .fetchAs(TransportLine.class)
+                .mappedBy((typeSystem, record) -> this.toTransportLine(record))
+                .all());
+    }
+    @Override
+    public Long recordMapAttempt(List<Long> ids, long attemptTime) {
+        String cypherQuery = "MATCH (m) -[r:IN_LINE]-> (n)\n" +
+                "WHERE id(r) IN $ids\n" +
+                "MATCH (m) -[l:" + LINE_TYPES + "]- (n)\n" +
+                "SET l.mapAttempts = coalesce(l.mapAttempts, 0) + 1, l.mapAttemptTime = $attemptTime\n" +
+                "RETURN count(l) AS c";
+        return this.neo4jClient.query(cypherQuery)
+                .bind(ids).to("ids")
+                .bind(attemptTime).to("attemptTime")
+                .fetchAs(Long.class)
+                .mappedBy((typeSystem, record) -> Convert.toLong(record.get("c")))
+                .one().orElse(0L);
+    }
     private TransportLine toTransportLine(Record record) {
         org.neo4j.driver.types.Node startNode = record.get("m").asNode();
         org.neo4j.driver.types.Node endNode = record.get("n").asNode();
@@ -18,6 +18,14 @@ public interface OrganService {
      */
     OrganDTO findByBid(Long bid);
 
+    /**
+     * 无需指定type，根据id批量查询
+     *
+     * @param bids 业务id列表
+     * @return 机构列表，不存在的机构不返回
+     */
+    List<OrganDTO> findByBids(List<Long> bids);
+
     /**
      * 查询所有的机构，如果name不为空的按照name模糊查询
      *
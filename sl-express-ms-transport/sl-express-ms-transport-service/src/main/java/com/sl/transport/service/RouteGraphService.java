@@ -0,0 +1,86 @@
+package com.sl.transport.service;
+
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.graph.RouteGraph;
+import com.sl.transport.graph.RouteGraphEvent;
+
+/**
+ * 内存路线图相关业务，路线查询无需访问Neo4j
+ */
+public interface RouteGraphService {
+
+    /**
+     * 内存路线图是否已经加载完成
+     *
+     * @return 是否可用
+     */
+    boolean isReady();
+
+    /**
+     * 获取当前版本的路线图，路线图不可变，变更后会替换为新的对象
+     *
+     * @return 路线图
+     */
+    RouteGraph getRouteGraph();
+
+    /**
+     * 从Neo4j中全量重建内存路线图
+     */
+    void rebuild();
+
+    /**
+     * 查询两个网点之间转运次数最少的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth);
+
+    /**
+     * 查询两个网点之间成本最低的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth);
+
+    /**
+     * 新增路线后调用，增量更新路线图并通知其他实例
+     *
+     * @param firstBid  第一个机构业务id
+     * @param secondBid 第二个机构业务id
+     */
+    void lineCreated(Long firstBid, Long secondBid);
+
+    /**
+     * 更新路线后调用，增量更新路线图并通知其他实例
+     *
+     * @param lineId 路线id
+     */
+    void lineUpdated(Long lineId);
+
+    /**
+     * 删除路线后调用，增量更新路线图并通知其他实例
+     *
+     * @param lineId 路线id
+     */
+    void lineRemoved(Long lineId);
+
+    /**
+     * 机构新增、更新或删除后调用，增量更新路线图并通知其他实例
+     *
+     * @param bid 机构业务id
+     */
+    void organChanged(Long bid);
+
+    /**
+     * 处理其他实例发布的路线图变更事件
+     *
+     * @param event 变更事件
+     */
+    void apply(RouteGraphEvent event);
+}
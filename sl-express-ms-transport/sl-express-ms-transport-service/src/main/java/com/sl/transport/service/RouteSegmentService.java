@@ -0,0 +1,32 @@
+package com.sl.transport.service;
+
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+
+/**
+ * 路线分段聚合数据相关业务，Neo4j中查询成本最低路线时无需展开所有可能的路线
+ */
+public interface RouteSegmentService {
+
+    /**
+     * 全量重新计算所有的分段
+     */
+    void rebuild();
+
+    /**
+     * 路线新增、修改、删除后调用，增量重新计算受影响的分段
+     *
+     * @param transportLine 发生变化的路线，需要包含类型、起点机构id、终点机构id
+     */
+    void lineChanged(TransportLine transportLine);
+
+    /**
+     * 查询两个网点之间成本最低的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大转运次数
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth);
+}
@@ -0,0 +1,48 @@
+package com.sl.transport.service;
+
+import com.sl.transport.domain.TransportLineNodeDTO;
+
+/**
+ * 网点之间全量路线表相关业务，按（起点网点，终点网点，调度方式）直接查表返回路线
+ */
+public interface RouteTableService {
+
+    /**
+     * 路线表是否可用
+     *
+     * @return 是否可用
+     */
+    boolean isReady();
+
+    /**
+     * 当前使用的路线表快照版本号
+     *
+     * @return 版本号，没有可用的路线表时返回null
+     */
+    Long getVersion();
+
+    /**
+     * 检查路线图是否发生变化，变化后在后台构建新版本的路线表，构建完成前继续使用旧版本
+     */
+    void refresh();
+
+    /**
+     * 查询两个网点之间转运次数最少的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth);
+
+    /**
+     * 查询两个网点之间成本最低的路线
+     *
+     * @param startId 开始网点业务id
+     * @param endId   结束网点业务id
+     * @param depth   最大查询深度
+     * @return 路线，不存在返回null
+     */
+    TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth);
+}
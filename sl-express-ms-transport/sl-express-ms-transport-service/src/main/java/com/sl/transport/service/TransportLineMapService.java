@@ -0,0 +1,41 @@
+package com.sl.transport.service;
+
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.entity.line.TransportLine;
+
+/**
+ * 通过地图服务补全路线的距离、时间、成本
+ * <p>
+ * 相同起止坐标的查询结果会缓存到Redis中，调用地图服务时限流并在失败后重试
+ */
+public interface TransportLineMapService {
+
+    /**
+     * 未通过地图补全时，距离、时间、成本的占位值
+     */
+    int PLACEHOLDER = -1;
+
+    /**
+     * 同步查询地图服务，将距离、时间、成本填充到路线中，查询失败时填充占位值
+     *
+     * @param transportLine 路线
+     * @param startOrgan    起点机构
+     * @param endOrgan      终点机构
+     * @return 是否查询成功
+     */
+    boolean fill(TransportLine transportLine, OrganDTO startOrgan, OrganDTO endOrgan);
+
+    /**
+     * 异步查询地图服务，查询成功后更新路线
+     *
+     * @param transportLine 已经创建的路线
+     * @param startOrgan    起点机构
+     * @param endOrgan      终点机构
+     */
+    void enrichAsync(TransportLine transportLine, OrganDTO startOrgan, OrganDTO endOrgan);
+
+    /**
+     * 补偿处理：查询仍为占位值的路线，重新提交异步查询
+     */
+    void enrichPending();
+}
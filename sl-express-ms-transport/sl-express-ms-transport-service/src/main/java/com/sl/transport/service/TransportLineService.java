@@ -2,6 +2,7 @@ package com.sl.transport.service;
 
 import com.sl.transport.common.util.PageResponse;
 import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
 import com.sl.transport.domain.TransportLineSearchDTO;
 import com.sl.transport.entity.line.TransportLine;
 
@@ -23,6 +24,14 @@ public interface TransportLineService {
      */
     Boolean createLine(TransportLine transportLine);
 
+    /**
+     * 批量新增路线，路线立即创建，距离、时间、成本由地图服务异步补全，已经存在的路线跳过
+     *
+     * @param transportLines 路线数据
+     * @return 新增的数量
+     */
+    Integer createLines(List<TransportLine> transportLines);
+
     /**
      * 更新路线
      *
@@ -74,6 +83,14 @@ public interface TransportLineService {
      */
     TransportLineNodeDTO queryPathByDispatchMethod(Long startId, Long endId);
 
+    /**
+     * 根据调度策略批量查询路线，相同的起止网点只计算一次
+     *
+     * @param pairs 起止网点列表
+     * @return 路线列表，与请求的顺序一致，未查询到路线的位置为null
+     */
+    List<TransportLineNodeDTO> queryPathByDispatchMethod(List<TransportLinePairDTO> pairs);
+
     /**
      * 根据ids批量查询路线
      *
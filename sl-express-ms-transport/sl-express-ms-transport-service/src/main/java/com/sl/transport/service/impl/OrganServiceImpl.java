@@ -20,6 +20,11 @@ public class OrganServiceImpl implements OrganService {
         }
         throw new SLException(ExceptionEnum.ORGAN_NOT_FOUND);
     }
+    @Override
+    public List<OrganDTO> findByBids(List<Long> bids) {
+        return this.organRepository.findByBids(bids);
+    }
+
     @Override
     public List<OrganDTO> findAll(String name) {
         return this.organRepository.findAll(name);
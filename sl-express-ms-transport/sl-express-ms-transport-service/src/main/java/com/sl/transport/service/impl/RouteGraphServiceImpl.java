@@ -0,0 +1,168 @@
+package com.sl.transport.service.impl;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.json.JSONUtil;
+import com.sl.transport.config.RedisConfig;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.graph.RouteGraph;
+import com.sl.transport.graph.RouteGraphEvent;
+import com.sl.transport.repository.OrganRepository;
+import com.sl.transport.repository.TransportLineRepository;
+import com.sl.transport.service.RouteGraphService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 内存路线图相关业务
+ * <p>
+ * 启动时从Neo4j全量加载，路线、机构变更时增量更新，并定时全量重建兜底（Redis发布订阅的消息可能丢失）
+ */
+@Slf4j
+@Service
+public class RouteGraphServiceImpl implements RouteGraphService {
+
+    /**
+     * 当前实例的标识
+     */
+    private static final String SOURCE = IdUtil.fastSimpleUUID();
+
+    @Resource
+    private TransportLineRepository transportLineRepository;
+    @Resource
+    private OrganRepository organRepository;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private volatile RouteGraph routeGraph = RouteGraph.empty();
+    private volatile boolean ready = false;
+
+    /**
+     * 写操作锁，全量重建与增量更新串行执行，避免增量更新被全量重建的结果覆盖
+     */
+    private final Object writeLock = new Object();
+
+    @PostConstruct
+    public void init() {
+        try {
+            this.rebuild();
+        } catch (Exception e) {
+            //加载失败不影响启动，查询路线时会降级到Neo4j
+            log.error("内存路线图加载失败，查询路线将使用Neo4j", e);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    @Override
+    public RouteGraph getRouteGraph() {
+        return this.routeGraph;
+    }
+
+    @Override
+    @Scheduled(initialDelayString = "${sl.route-graph.rebuild-interval:600000}", fixedDelayString = "${sl.route-graph.rebuild-interval:600000}")
+    public void rebuild() {
+        synchronized (this.writeLock) {
+            long start = System.currentTimeMillis();
+            List<OrganDTO> organs = this.organRepository.findAll(null);
+            List<TransportLine> lines = this.transportLineRepository.findAll();
+            this.routeGraph = RouteGraph.build(organs, lines);
+            this.ready = true;
+            log.info("内存路线图构建完成，机构数：{}，路线数：{}，耗时：{}ms",
+                    this.routeGraph.organSize(), this.routeGraph.lineSize(), System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth) {
+        return this.routeGraph.findShortestPath(startId, endId, depth);
+    }
+
+    @Override
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        return this.routeGraph.findLowestPath(startId, endId, depth);
+    }
+
+    @Override
+    public void lineCreated(Long firstBid, Long secondBid) {
+        this.applyAndPublish(new RouteGraphEvent(RouteGraphEvent.LINE_CREATED, firstBid, secondBid, SOURCE));
+    }
+
+    @Override
+    public void lineUpdated(Long lineId) {
+        this.applyAndPublish(new RouteGraphEvent(RouteGraphEvent.LINE_UPDATED, lineId, null, SOURCE));
+    }
+
+    @Override
+    public void lineRemoved(Long lineId) {
+        this.applyAndPublish(new RouteGraphEvent(RouteGraphEvent.LINE_REMOVED, lineId, null, SOURCE));
+    }
+
+    @Override
+    public void organChanged(Long bid) {
+        this.applyAndPublish(new RouteGraphEvent(RouteGraphEvent.ORGAN_CHANGED, bid, null, SOURCE));
+    }
+
+    private void applyAndPublish(RouteGraphEvent event) {
+        try {
+            this.doApply(event);
+        } catch (Exception e) {
+            //增量更新失败，以Neo4j中的数据为准全量重建
+            log.error("内存路线图增量更新失败，event = {}", event, e);
+            this.init();
+        }
+        this.stringRedisTemplate.convertAndSend(RedisConfig.ROUTE_GRAPH_TOPIC, JSONUtil.toJsonStr(event));
+    }
+
+    @Override
+    public void apply(RouteGraphEvent event) {
+        if (ObjectUtil.equal(SOURCE, event.getSource())) {
+            //自身发布的事件已经处理过
+            return;
+        }
+        this.doApply(event);
+    }
+
+    private void doApply(RouteGraphEvent event) {
+        if (!this.ready) {
+            return;
+        }
+        synchronized (this.writeLock) {
+            switch (event.getType()) {
+                case RouteGraphEvent.LINE_CREATED:
+                    List<TransportLine> lines = this.transportLineRepository.queryByOrganIds(event.getFirstId(), event.getSecondId());
+                    this.routeGraph = this.routeGraph.withLines(lines);
+                    break;
+                case RouteGraphEvent.LINE_UPDATED:
+                    TransportLine line = this.transportLineRepository.queryById(event.getFirstId());
+                    this.routeGraph = null == line
+                            ? this.routeGraph.withoutLines(ListUtil.toList(event.getFirstId()))
+                            : this.routeGraph.withLines(ListUtil.toList(line));
+                    break;
+                case RouteGraphEvent.LINE_REMOVED:
+                    this.routeGraph = this.routeGraph.withoutLines(ListUtil.toList(event.getFirstId()));
+                    break;
+                case RouteGraphEvent.ORGAN_CHANGED:
+                    OrganDTO organ = this.organRepository.findByBid(event.getFirstId());
+                    this.routeGraph = null == organ
+                            ? this.routeGraph.withoutOrgan(event.getFirstId())
+                            : this.routeGraph.withOrgan(organ);
+                    break;
+                default:
+                    log.warn("未知的路线图变更事件，event = {}", event);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.sl.transport.service.impl;
+
+import cn.hutool.core.collection.ListUtil;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.util.ObjectUtil;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.enums.TransportLineEnum;
+import com.sl.transport.graph.RouteGraph;
+import com.sl.transport.repository.RouteSegmentRepository;
+import com.sl.transport.service.RouteSegmentService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路线分段聚合数据相关业务
+ * <p>
+ * 网点的上行、下行分段在Neo4j中计算；一级转运中心之间的干线分段需要计算任意两个一级转运中心之间成本最低的路线，
+ * 一级转运中心数量很少，读取所有干线后在内存中计算再写回
+ */
+@Slf4j
+@Service
+public class RouteSegmentServiceImpl implements RouteSegmentService {
+
+    @Resource
+    private RouteSegmentRepository routeSegmentRepository;
+
+    @PostConstruct
+    public void init() {
+        try {
+            //分段数据保存在Neo4j中，多个实例共享，只有不存在时才需要全量计算
+            if (!this.routeSegmentRepository.exists()) {
+                this.rebuild();
+            }
+        } catch (Exception e) {
+            log.error("路线分段初始化失败", e);
+        }
+    }
+
+    @Override
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        Long trunk = this.refreshTrunkSegments();
+        Long agency = this.routeSegmentRepository.refreshAllAgencySegments();
+        log.info("路线分段计算完成，干线分段数：{}，网点数：{}，耗时：{}ms", trunk, agency, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void lineChanged(TransportLine transportLine) {
+        try {
+            TransportLineEnum transportLineEnum = TransportLineEnum.codeOf(transportLine.getType());
+            if (ObjectUtil.notEqual(TransportLineEnum.CONNECT_LINE, transportLineEnum)
+                    && ObjectUtil.notEqual(TransportLineEnum.BRANCH_LINE, transportLineEnum)) {
+                //干线，以及无法确定类型的路线
+                this.refreshTrunkSegments();
+            }
+            if (ObjectUtil.notEqual(TransportLineEnum.TRUNK_LINE, transportLineEnum)) {
+                //接驳路线影响网点自身，支线影响二级转运中心下的所有网点
+                this.routeSegmentRepository.refreshAgencySegments(
+                        ListUtil.toList(transportLine.getStartOrganId(), transportLine.getEndOrganId()));
+            }
+        } catch (Exception e) {
+            //分段计算失败不影响路线的维护，查询时以实时计算的路线为准
+            log.error("路线分段增量计算失败，transportLine = {}", transportLine, e);
+        }
+    }
+
+    @Override
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        return this.routeSegmentRepository.findLowestPath(startId, endId, depth);
+    }
+
+    /**
+     * 通过Floyd算法计算任意两个一级转运中心之间成本最低的干线路线
+     *
+     * @return 干线分段的数量
+     */
+    private Long refreshTrunkSegments() {
+        List<Map<String, Object>> lines = this.routeSegmentRepository.findTrunkLines();
+        Map<Long, Integer> indexMap = new HashMap<>();
+        for (Map<String, Object> line : lines) {
+            indexMap.putIfAbsent(Convert.toLong(line.get("startOrganId")), indexMap.size());
+            indexMap.putIfAbsent(Convert.toLong(line.get("endOrganId")), indexMap.size());
+        }
+        int size = indexMap.size();
+        double[][] cost = new double[size][size];
+        long[][] lineIds = new long[size][size];
+        int[][] next = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            Arrays.fill(cost[i], Double.POSITIVE_INFINITY);
+            Arrays.fill(next[i], -1);
+        }
+        for (Map<String, Object> line : lines) {
+            int from = indexMap.get(Convert.toLong(line.get("startOrganId")));
+            int to = indexMap.get(Convert.toLong(line.get("endOrganId")));
+            //地图查询失败时成本为-1，与路线图一致按未知成本处理，只有在没有其他路线时才会经过
+            double lineCost = Convert.toDouble(line.get("cost"), 0D);
+            if (lineCost < 0) {
+                lineCost = RouteGraph.Edge.UNKNOWN_COST;
+            }
+            if (from != to && lineCost < cost[from][to]) {
+                cost[from][to] = lineCost;
+                lineIds[from][to] = Convert.toLong(line.get("lineId"));
+                next[from][to] = to;
+            }
+        }
+        for (int k = 0; k < size; k++) {
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    if (cost[i][k] + cost[k][j] < cost[i][j]) {
+                        cost[i][j] = cost[i][k] + cost[k][j];
+                        next[i][j] = next[i][k];
+                    }
+                }
+            }
+        }
+
+        Long[] bids = new Long[size];
+        indexMap.forEach((bid, index) -> bids[index] = bid);
+        List<Map<String, Object>> segments = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (i == j || next[i][j] < 0) {
+                    continue;
+                }
+                //沿next还原路线
+                List<Long> path = new LinkedList<>();
+                for (int current = i; current != j; current = next[current][j]) {
+                    path.add(lineIds[current][next[current][j]]);
+                }
+                segments.add(MapUtil.<String, Object>builder()
+                        .put("startOrganId", bids[i])
+                        .put("endOrganId", bids[j])
+                        .put("cost", cost[i][j])
+                        .put("hops", path.size())
+                        .put("lines", path)
+                        .build());
+            }
+        }
+        return this.routeSegmentRepository.replaceTrunkSegments(segments);
+    }
+}
@@ -0,0 +1,179 @@
+package com.sl.transport.service.impl;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.graph.RouteGraph;
+import com.sl.transport.graph.RouteTable;
+import com.sl.transport.service.RouteGraphService;
+import com.sl.transport.service.RouteTableService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 网点之间全量路线表相关业务
+ * <p>
+ * 定时检查内存路线图是否发生变化，变化后基于新的路线图并行计算新版本的路线表并持久化为二进制快照，
+ * 计算完成后再整体替换，替换前继续使用旧版本。重启时如果快照与路线图一致，直接加载快照无需重新计算
+ */
+@Slf4j
+@Service
+public class RouteTableServiceImpl implements RouteTableService {
+
+    private static final String SNAPSHOT_FILE_NAME = "route-table.bin";
+
+    @Resource
+    private RouteGraphService routeGraphService;
+
+    /**
+     * 是否启用全量路线表
+     */
+    @Value("${sl.route-table.enabled:true}")
+    private Boolean enabled;
+    /**
+     * 快照文件存储目录
+     */
+    @Value("${sl.route-table.snapshot-dir:${java.io.tmpdir}/sl-express-transport}")
+    private String snapshotDir;
+    /**
+     * 并行计算的线程数
+     */
+    @Value("${sl.route-table.parallelism:4}")
+    private Integer parallelism;
+
+    private volatile RouteTable routeTable;
+
+    /**
+     * 路线表构建在单独的线程中执行，不占用定时任务线程，构建中再次触发的检查直接丢弃
+     */
+    private ThreadPoolExecutor executor;
+    /**
+     * 并行计算使用的线程池，各版本的构建共用
+     */
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    public void init() {
+        this.pool = new ForkJoinPool(this.parallelism);
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                ThreadFactoryBuilder.create().setNamePrefix("route-table-").build(),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdownNow();
+        this.pool.shutdownNow();
+    }
+
+    @Override
+    public boolean isReady() {
+        return null != this.routeTable;
+    }
+
+    @Override
+    public Long getVersion() {
+        RouteTable table = this.routeTable;
+        return null == table ? null : table.getVersion();
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${sl.route-table.check-interval:5000}")
+    public void refresh() {
+        if (!this.enabled || !this.routeGraphService.isReady()) {
+            return;
+        }
+        this.executor.execute(() -> {
+            try {
+                this.rebuild();
+            } catch (Exception e) {
+                log.error("路线表构建失败", e);
+            }
+        });
+    }
+
+    private void rebuild() {
+        RouteGraph routeGraph = this.routeGraphService.getRouteGraph();
+        RouteTable current = this.routeTable;
+        if (null != current && current.getRouteGraph() == routeGraph) {
+            return;
+        }
+        if (null != current && current.getFingerprint() == routeGraph.fingerprint()) {
+            //路线与机构状态都没有变化，不需要重新计算
+            this.routeTable = current.rebind(routeGraph);
+            return;
+        }
+        File snapshot = FileUtil.file(this.snapshotDir, SNAPSHOT_FILE_NAME);
+        RouteTable table = null == current ? this.load(snapshot, routeGraph) : null;
+        if (null == table) {
+            long start = System.currentTimeMillis();
+            table = RouteTable.build(routeGraph, System.currentTimeMillis(), this.pool);
+            log.info("路线表构建完成，版本：{}，起点网点数：{}，耗时：{}ms",
+                    table.getVersion(), table.sourceSize(), System.currentTimeMillis() - start);
+            this.save(snapshot, table);
+        }
+        this.routeTable = table;
+        log.info("路线表切换到版本：{}", table.getVersion());
+    }
+
+    private RouteTable load(File snapshot, RouteGraph routeGraph) {
+        if (!snapshot.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot.toPath()))))) {
+            RouteTable table = RouteTable.readFrom(in, routeGraph);
+            if (null == table) {
+                log.info("路线表快照与当前路线图不一致，重新计算");
+            }
+            return table;
+        } catch (Exception e) {
+            log.warn("读取路线表快照失败，file = {}", snapshot, e);
+            return null;
+        }
+    }
+
+    private void save(File snapshot, RouteTable table) {
+        //先写临时文件再替换，避免读取到不完整的快照
+        File tmp = FileUtil.file(this.snapshotDir, SNAPSHOT_FILE_NAME + "." + table.getVersion());
+        try {
+            FileUtil.mkParentDirs(tmp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp.toPath()))))) {
+                table.writeTo(out);
+            }
+            Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("保存路线表快照失败，file = {}", snapshot, e);
+            FileUtil.del(tmp);
+        }
+    }
+
+    @Override
+    public TransportLineNodeDTO findShortestPath(Long startId, Long endId, int depth) {
+        return this.routeTable.findShortestPath(startId, endId, depth);
+    }
+
+    @Override
+    public TransportLineNodeDTO findLowestPath(Long startId, Long endId, int depth) {
+        return this.routeTable.findLowestPath(startId, endId, depth);
+    }
+}
@@ -5,6 +5,7 @@ import com.sl.transport.common.util.ObjectUtil;
 import com.sl.transport.entity.node.BaseEntity;
 import com.sl.transport.repository.BaseRepository;
 import com.sl.transport.service.IService;
+import com.sl.transport.service.RouteGraphService;
 import org.springframework.beans.factory.annotation.Autowired;
 /**
  * 基础服务的实现
@@ -12,6 +13,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class ServiceImpl<R extends BaseRepository, T extends BaseEntity> implements IService<T> {
     @Autowired
     private R repository;
+    @Autowired
+    private RouteGraphService routeGraphService;
     @Override
     public T queryByBid(Long bid) {
         return (T) this.repository.findByBid(bid).orElse(null);
@@ -19,7 +22,9 @@ public class ServiceImpl<R extends BaseRepository, T extends BaseEntity> impleme
     @Override
     public T create(T t) {
         t.setId(null);//id由neo4j自动生成
-        return (T) this.repository.save(t);
+        T result = (T) this.repository.save(t);
+        this.routeGraphService.organChanged(t.getBid());
+        return result;
     }
     @Override
     public T update(T t) {
@@ -29,10 +34,16 @@ public class ServiceImpl<R extends BaseRepository, T extends BaseEntity> impleme
             return null;
         }
         BeanUtil.copyProperties(t, tData, CopyOptions.create().ignoreNullValue().setIgnoreProperties("id", "bid"));
-        return (T) this.repository.save(tData);
+        T result = (T) this.repository.save(tData);
+        this.routeGraphService.organChanged(t.getBid());
+        return result;
     }
     @Override
     public Boolean deleteByBid(Long bid) {
-        return this.repository.deleteByBid(bid) > 0;
+        boolean result = this.repository.deleteByBid(bid) > 0;
+        if (result) {
+            this.routeGraphService.organChanged(bid);
+        }
+        return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+package com.sl.transport.service.impl;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.MapUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.itheima.em.sdk.EagleMapTemplate;
+import com.itheima.em.sdk.enums.ProviderEnum;
+import com.itheima.em.sdk.vo.Coordinate;
+import com.sl.transport.common.exception.SLException;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.repository.TransportLineRepository;
+import com.sl.transport.service.OrganService;
+import com.sl.transport.service.RouteGraphService;
+import com.sl.transport.service.RouteSegmentService;
+import com.sl.transport.service.TransportLineMapService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 通过地图服务补全路线的距离、时间、成本
+ */
+@Slf4j
+@Service
+public class TransportLineMapServiceImpl implements TransportLineMapService {
+
+    /**
+     * 地图查询结果缓存的key前缀，后面拼接起止坐标
+     */
+    private static final String MAP_CACHE_REDIS_KEY_PREFIX = "TRANSPORT_LINE:MAP:";
+    /**
+     * 地图查询结果缓存时间，道路变化后需要重新查询
+     */
+    private static final long MAP_CACHE_TTL_DAYS = 30;
+
+    @Resource
+    private EagleMapTemplate eagleMapTemplate;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private TransportLineRepository transportLineRepository;
+    @Resource
+    private OrganService organService;
+    @Resource
+    private RouteGraphService routeGraphService;
+    @Resource
+    private RouteSegmentService routeSegmentService;
+
+    @Value("${sl.transport-line.map.threads:4}")
+    private int threads;
+    @Value("${sl.transport-line.map.queue-capacity:10000}")
+    private int queueCapacity;
+    @Value("${sl.transport-line.map.permits-per-second:10}")
+    private int permitsPerSecond;
+    @Value("${sl.transport-line.map.max-attempts:3}")
+    private int maxAttempts;
+    @Value("${sl.transport-line.map.repair-batch-size:500}")
+    private int repairBatchSize;
+    /**
+     * 补偿任务对同一条路线的最大补全次数，达到后视为无法补全（例如机构坐标错误），不再查询，成本按未知处理
+     */
+    @Value("${sl.transport-line.map.repair-max-attempts:10}")
+    private int repairMaxAttempts;
+
+    private ThreadPoolExecutor executor;
+    private RetryTemplate retryTemplate;
+
+    /**
+     * 正在处理中的路线，避免补偿任务重复提交
+     */
+    private final Set<String> processing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 限流：相邻两次调用地图服务的最小间隔，以及下一次允许调用的时间
+     */
+    private long intervalNanos;
+    private final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+
+    @PostConstruct
+    public void init() {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(this.permitsPerSecond, 1);
+        this.retryTemplate = RetryTemplate.builder()
+                .maxAttempts(this.maxAttempts)
+                .exponentialBackoff(500, 2, 5000)
+                .retryOn(Exception.class)
+                .build();
+        //队列满了之后直接拒绝，路线保留占位值，由补偿任务处理
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity),
+                ThreadFactoryBuilder.create().setNamePrefix("transport-line-map-").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public boolean fill(TransportLine transportLine, OrganDTO startOrgan, OrganDTO endOrgan) {
+        String cacheKey = MAP_CACHE_REDIS_KEY_PREFIX + StrUtil.format("{},{}_{},{}",
+                startOrgan.getLongitude(), startOrgan.getLatitude(), endOrgan.getLongitude(), endOrgan.getLatitude());
+        String value = this.stringRedisTemplate.opsForValue().get(cacheKey);
+        if (StrUtil.isEmpty(value)) {
+            try {
+                value = this.retryTemplate.execute(context -> this.driving(startOrgan, endOrgan));
+            } catch (Exception e) {
+                log.error("地图服务查询失败，startOrgan = {}, endOrgan = {}", startOrgan.getId(), endOrgan.getId(), e);
+                transportLine.setTime((long) PLACEHOLDER);
+                transportLine.setDistance((double) PLACEHOLDER);
+                transportLine.setCost((double) PLACEHOLDER);
+                return false;
+            }
+            this.stringRedisTemplate.opsForValue().set(cacheKey, value, MAP_CACHE_TTL_DAYS, TimeUnit.DAYS);
+        }
+        JSONObject jsonObject = JSONUtil.parseObj(value);
+        transportLine.setTime(jsonObject.getLong("time"));
+        transportLine.setDistance(jsonObject.getDouble("distance"));
+        transportLine.setCost(jsonObject.getDouble("cost"));
+        return true;
+    }
+
+    /**
+     * 调用地图服务查询驾车路线，返回距离、时间、成本，查询不到结果时抛出异常以便重试
+     */
+    private String driving(OrganDTO startOrgan, OrganDTO endOrgan) throws InterruptedException {
+        this.acquire();
+        Coordinate origin = new Coordinate(startOrgan.getLongitude(), startOrgan.getLatitude());
+        Coordinate destination = new Coordinate(endOrgan.getLongitude(), endOrgan.getLatitude());
+        //设置高德地图参数，默认是不返回预计耗时的，需要额外设置参数
+        Map<String, Object> param = MapUtil.<String, Object>builder().put("show_fields", "cost").build();
+        String driving = this.eagleMapTemplate.opsForDirection().driving(ProviderEnum.AMAP, origin, destination, param);
+        if (StrUtil.isEmpty(driving)) {
+            throw new SLException("地图服务未返回驾车路线");
+        }
+        JSONObject jsonObject = JSONUtil.parseObj(driving);
+        // 预计消耗时间，单位：秒；路线距离，单位：米
+        Long duration = Convert.toLong(jsonObject.getByPath("route.paths[0].cost.duration"));
+        Double distance = Convert.toDouble(jsonObject.getByPath("route.paths[0].distance"));
+        // 这里按照高德地图的预计打车费用作为成本计算，同一标准在计算路线时是可行的，但是不能作为真实的成本进行利润计算
+        Double cost = Convert.toDouble(jsonObject.getByPath("route.taxi_cost"));
+        if (ObjectUtil.hasNull(duration, distance, cost)) {
+            throw new SLException("地图服务返回的驾车路线不完整");
+        }
+        return JSONUtil.createObj()
+                .set("time", duration)
+                .set("distance", distance)
+                .set("cost", cost)
+                .toString();
+    }
+
+    /**
+     * 按固定间隔发放调用许可，先通过CAS预占许可的时间点再等待，等待期间不影响其他线程预占
+     */
+    private void acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long permitNanos = this.nextPermitNanos.getAndAccumulate(now,
+                (next, current) -> Math.max(next, current) + this.intervalNanos);
+        long waitNanos = permitNanos - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    @Override
+    public void enrichAsync(TransportLine transportLine, OrganDTO startOrgan, OrganDTO endOrgan) {
+        String key = transportLine.getStartOrganId() + "_" + transportLine.getEndOrganId();
+        if (!this.processing.add(key)) {
+            return;
+        }
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.enrich(transportLine, startOrgan, endOrgan);
+                } catch (Exception e) {
+                    log.error("路线补全失败，transportLine = {}", transportLine, e);
+                } finally {
+                    this.processing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.processing.remove(key);
+            log.warn("路线补全队列已满，等待补偿任务处理，transportLine = {}", key);
+        }
+    }
+
+    private void enrich(TransportLine transportLine, OrganDTO startOrgan, OrganDTO endOrgan) {
+        if (!this.fill(transportLine, startOrgan, endOrgan)) {
+            return;
+        }
+        transportLine.setUpdated(System.currentTimeMillis());
+        Long count = this.transportLineRepository.updateMapInfo(transportLine);
+        if (count > 0) {
+            this.routeGraphService.lineCreated(transportLine.getStartOrganId(), transportLine.getEndOrganId());
+            this.routeSegmentService.lineChanged(transportLine);
+        }
+    }
+
+    @Override
+    @Scheduled(initialDelayString = "${sl.transport-line.map.repair-interval:600000}", fixedDelayString = "${sl.transport-line.map.repair-interval:600000}")
+    public void enrichPending() {
+        //最久没有尝试的路线排在前面，无法补全的路线不会一直占用每一批
+        List<TransportLine> lines = this.transportLineRepository.findPlaceholderLines(this.repairMaxAttempts, this.repairBatchSize);
+        if (lines.isEmpty()) {
+            return;
+        }
+        //先记录本次尝试，缺少坐标而跳过的路线同样计数，达到最大次数后离开补偿队列
+        this.transportLineRepository.recordMapAttempt(lines.stream().map(TransportLine::getId).collect(Collectors.toList()),
+                System.currentTimeMillis());
+        Map<Long, OrganDTO> organMap = this.organService.findAll(null).stream()
+                .collect(Collectors.toMap(OrganDTO::getId, Function.identity(), (a, b) -> a));
+        for (TransportLine line : lines) {
+            OrganDTO startOrgan = organMap.get(line.getStartOrganId());
+            OrganDTO endOrgan = organMap.get(line.getEndOrganId());
+            if (ObjectUtil.hasEmpty(startOrgan, endOrgan)
+                    || ObjectUtil.hasNull(startOrgan.getLongitude(), startOrgan.getLatitude(), endOrgan.getLongitude(), endOrgan.getLatitude())) {
+                log.warn("路线的起止机构缺少坐标，无法补全，transportLine = {}", line.getId());
+                continue;
+            }
+            this.enrichAsync(line, startOrgan, endOrgan);
+        }
+        log.info("路线补全补偿任务提交完成，数量：{}", lines.size());
+    }
+}
@@ -2,22 +2,14 @@ package com.sl.transport.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.convert.Convert;
-import cn.hutool.core.map.MapUtil;
 import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.google.gson.JsonObject;
-import com.itheima.em.sdk.EagleMapTemplate;
-import com.itheima.em.sdk.enums.ProviderEnum;
-import com.itheima.em.sdk.vo.Coordinate;
 import com.sl.transport.common.enums.DispatchMethodEnum;
 import com.sl.transport.common.exception.SLException;
 import com.sl.transport.common.util.PageResponse;
 import com.sl.transport.domain.DispatchConfigurationDTO;
 import com.sl.transport.domain.OrganDTO;
 import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
 import com.sl.transport.domain.TransportLineSearchDTO;
 import com.sl.transport.entity.line.TransportLine;
 import com.sl.transport.entity.node.AgencyEntity;
@@ -29,12 +21,19 @@ import com.sl.transport.enums.TransportLineEnum;
 import com.sl.transport.repository.TransportLineRepository;
 import com.sl.transport.service.DispatchConfigurationService;
 import com.sl.transport.service.OrganService;
+import com.sl.transport.service.RouteGraphService;
+import com.sl.transport.service.RouteSegmentService;
+import com.sl.transport.service.RouteTableService;
+import com.sl.transport.service.TransportLineMapService;
 import com.sl.transport.service.TransportLineService;
-import org.springframework.retry.backoff.Sleeper;
 import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 /**
  * 路线相关业务
  */
@@ -44,11 +43,22 @@ public class TransportLineServiceImpl implements TransportLineService {
     @Resource
     private TransportLineRepository transportLineRepository;
     @Resource
-    private EagleMapTemplate eagleMapTemplate;
-    @Resource
     private OrganService organService;
     @Resource
     private DispatchConfigurationService dispatchConfigurationService;
+    @Resource
+    private RouteGraphService routeGraphService;
+    @Resource
+    private RouteTableService routeTableService;
+    @Resource
+    private RouteSegmentService routeSegmentService;
+    @Resource
+    private TransportLineMapService transportLineMapService;
+
+    /**
+     * 路线查询的最大深度
+     */
+    private static final int MAX_DEPTH = 10;
 
 
 
@@ -61,6 +71,81 @@ public class TransportLineServiceImpl implements TransportLineService {
     @Override
     public Boolean createLine(TransportLine transportLine) {
         // TODO day05 新增路线
+        // 根据路线类型确定出发、到达节点
+        BaseEntity[] nodes = this.toNodes(transportLine);
+        BaseEntity firstNode = nodes[0];
+        BaseEntity secondNode = nodes[1];
+        // 判断路线是否已经存在,存在抛以存在异常  tips: transportLineRepository根据两个节点查询count路线数量即可
+        Long count = transportLineRepository.queryCount(firstNode, secondNode);
+        if (count > 0) {
+            throw new SLException(ExceptionEnum.TRANSPORT_LINE_ALREADY_EXISTS);
+        }
+        // 补全路线属性: id=null created updated当前时间
+        transportLine.setId(null);
+        transportLine.setCreated(System.currentTimeMillis());
+        transportLine.setUpdated(transportLine.getCreated());
+        // 校验起止机构的位置信息
+        OrganDTO startOrgan = this.organService.findByBid(firstNode.getBid());
+        this.checkLocation(startOrgan);
+        OrganDTO endOrgan = this.organService.findByBid(secondNode.getBid());
+        this.checkLocation(endOrgan);
+        // 路线以占位值创建，不在请求线程中等待地图服务，距离、时间、成本由地图服务异步补全
+        this.placeholder(transportLine);
+        // 调用创建路线方法 tips: transportLineRepository创建方法
+        count = this.transportLineRepository.create(firstNode, secondNode, transportLine);
+        if (count > 0) {
+            this.routeGraphService.lineCreated(firstNode.getBid(), secondNode.getBid());
+            // 补全成功后刷新路线图和路线分段
+            this.transportLineMapService.enrichAsync(transportLine, startOrgan, endOrgan);
+        }
+        return count > 0;
+    }
+
+    @Override
+    public Integer createLines(List<TransportLine> transportLines) {
+        // 先校验全部路线，机构只查询一次
+        Map<Long, OrganDTO> organMap = this.organService.findAll(null).stream()
+                .collect(Collectors.toMap(OrganDTO::getId, Function.identity(), (a, b) -> a));
+        List<BaseEntity[]> nodesList = new ArrayList<>(transportLines.size());
+        for (TransportLine transportLine : transportLines) {
+            BaseEntity[] nodes = this.toNodes(transportLine);
+            this.checkLocation(organMap.get(nodes[0].getBid()));
+            this.checkLocation(organMap.get(nodes[1].getBid()));
+            nodesList.add(nodes);
+        }
+        // 路线直接以占位值创建，距离、时间、成本由地图服务异步补全
+        int created = 0;
+        for (int i = 0; i < transportLines.size(); i++) {
+            TransportLine transportLine = transportLines.get(i);
+            BaseEntity firstNode = nodesList.get(i)[0];
+            BaseEntity secondNode = nodesList.get(i)[1];
+            // 已经存在的路线跳过，重复导入不会报错
+            if (this.transportLineRepository.queryCount(firstNode, secondNode) > 0) {
+                continue;
+            }
+            transportLine.setId(null);
+            transportLine.setCreated(System.currentTimeMillis());
+            transportLine.setUpdated(transportLine.getCreated());
+            this.placeholder(transportLine);
+            if (this.transportLineRepository.create(firstNode, secondNode, transportLine) > 0) {
+                created++;
+                this.routeGraphService.lineCreated(firstNode.getBid(), secondNode.getBid());
+                this.transportLineMapService.enrichAsync(transportLine,
+                        organMap.get(firstNode.getBid()), organMap.get(secondNode.getBid()));
+            }
+        }
+        return created;
+    }
+
+    /**
+     * 根据路线类型确定出发、到达节点
+     * 新增路线业务规则：干线：起点终点无顺序，支线：起点必须是二级转运中心，接驳路线：起点必须是网点
+     * 路线类型枚举: {@link TransportLineEnum}
+     *
+     * @param transportLine 路线数据
+     * @return 出发节点、到达节点
+     */
+    private BaseEntity[] toNodes(TransportLine transportLine) {
         // 校验路线类型不能为空 tips: 根据type获取路线枚举在判断哦
         TransportLineEnum transportLineEnum = TransportLineEnum.codeOf(transportLine.getType());
         if (null == transportLineEnum) {
@@ -90,66 +175,29 @@ public class TransportLineServiceImpl implements TransportLineService {
                 //      如果都不是 抛出路线类型错误异常
                 throw new SLException(ExceptionEnum.TRANSPORT_LINE_TYPE_ERROR);
         }
-        if (ObjectUtil.hasEmpty(firstNode, secondNode)) {
+        if (ObjectUtil.hasEmpty(firstNode.getBid(), secondNode.getBid())) {
             throw new SLException(ExceptionEnum.START_END_ORGAN_NOT_FOUND);
         }
-        // 判断路线是否已经存在,存在抛以存在异常  tips: transportLineRepository根据两个节点查询count路线数量即可
-        Long count = transportLineRepository.queryCount(firstNode, secondNode);
-        if (count > 0) {
-            throw new SLException(ExceptionEnum.TRANSPORT_LINE_ALREADY_EXISTS);
-        }
-        // 补全路线属性: id=null created updated当前时间
-        transportLine.setId(null);
-        transportLine.setCreated(System.currentTimeMillis());
-        transportLine.setUpdated(transportLine.getCreated());
-        // 补充其它信息  tips: 调用infoFromMap补全
-        this.infoFromMap(firstNode, secondNode, transportLine);
-        // 调用创建路线方法 tips: transportLineRepository创建方法
-        count = this.transportLineRepository.create(firstNode, secondNode, transportLine);
-        return count > 0;
+        return new BaseEntity[]{firstNode, secondNode};
     }
+
     /**
-     * 通过地图查询距离、时间，计算成本
-     * @param firstNode     开始节点
-     * @param secondNode    结束节点
-     * @param transportLine 路线对象
+     * 机构以及经纬度不能为空，如果为空  抛异常提示请先完善机构信息
      */
-    private void infoFromMap(BaseEntity firstNode, BaseEntity secondNode, TransportLine transportLine) {
-        // 根据Bid查询 发起机构节点数据
-        OrganDTO startOrgan = this.organService.findByBid(firstNode.getBid());
-        // 校验： 不能为空， 经纬度不能为空  如果为空  抛异常提示请先完善机构信息
-        if (ObjectUtil.hasEmpty(startOrgan, startOrgan.getLatitude(), startOrgan.getLongitude())) {
+    private void checkLocation(OrganDTO organ) {
+        if (ObjectUtil.hasEmpty(organ, organ.getLatitude(), organ.getLongitude())) {
             throw new SLException("请先完善机构信息");
         }
-        // 根据Bid查询 到达机构节点数据
-        OrganDTO endOrgan = this.organService.findByBid(secondNode.getBid());
-        // 校验： 不能为空， 经纬度不能为空  如果为空  抛异常提示请先完善机构信息
-        if (ObjectUtil.hasEmpty(endOrgan, endOrgan.getLatitude(), endOrgan.getLongitude())) {
-            throw new SLException("请先完善机构信息");
-        }
-        // 查询高德地图行驶路线方法 tips: eagleMapTemplate.opsForDirection().driving() 行驶路线
-                             //   tips: Coordinate坐标点参数
-                            //    tips: 设置高德地图参数，默认是不返回预计耗时的，需要额外设置参数
-                                    //Map<String, Object> param = MapUtil.<String, Object>builder().put("show_fields", "cost").build();
-        // 得到驾驶路线信息，如果为空return, 不为空转JSON对象  tips: 使用JSONUtil工具类
-        Coordinate origin = new Coordinate(startOrgan.getLongitude(), startOrgan.getLatitude());
-        Coordinate destination = new Coordinate(startOrgan.getLongitude(), startOrgan.getLatitude());
-        Map<String, Object> param = MapUtil.<String, Object>builder().put("show_fields", "cost").build();
-        String driving = this.eagleMapTemplate.opsForDirection().driving(ProviderEnum.AMAP, origin, destination, param);
-        if (StrUtil.isEmpty(driving)) {
-            return;
-        }
-        JSONObject jsonObject = JSONUtil.parseObj(driving);
-        // 获取预计消耗时间，单位：秒 ，设置到路线中   tips: route.paths[0].cost.duration
-        Long duration = Convert.toLong(jsonObject.getByPath("route.paths[0].cost.duration"), -1L);
-        transportLine.setTime(duration);
-        // 获取路线距离，单位：米, 设置到路线中  tips: route.paths[0].distance
-        Double distance = Convert.toDouble(jsonObject.getByPath("route.paths[0].distance"),-1D);
-        transportLine.setDistance(distance);
-        // 获取路线成本，单位: 元  tips: route.taxi_cost
-        // 说明: 这里按照高德地图的预计打车费用作为成本计算，同一标准在计算路线时是可行的，但是不能作为真实的成本进行利润计算
-        Double cost = Convert.toDouble(jsonObject.getByPath("route.taxi_cost"), -1D);
-        transportLine.setCost(cost);
+    }
+
+    /**
+     * 距离、时间、成本设置为占位值，等待地图服务补全
+     * @param transportLine 路线对象
+     */
+    private void placeholder(TransportLine transportLine) {
+        transportLine.setTime((long) TransportLineMapService.PLACEHOLDER);
+        transportLine.setDistance((double) TransportLineMapService.PLACEHOLDER);
+        transportLine.setCost((double) TransportLineMapService.PLACEHOLDER);
     }
     @Override
     public Boolean updateLine(TransportLine transportLine) {
@@ -167,12 +215,25 @@ public class TransportLineServiceImpl implements TransportLineService {
         transportLineData.setUpdated(System.currentTimeMillis());
         // 修改路线
         Long count = this.transportLineRepository.update(transportLineData);
+        if (count > 0) {
+            this.routeGraphService.lineUpdated(transportLineData.getId());
+            this.routeSegmentService.lineChanged(transportLineData);
+        }
         return count > 0;
     }
     @Override
     public Boolean deleteLine(Long id) {
         // TODO day05 删除路线
-        return this.transportLineRepository.remove(id) > 0;
+        // 删除前查询路线，用于重新计算受影响的分段
+        TransportLine transportLine = this.queryById(id);
+        Long count = this.transportLineRepository.remove(id);
+        if (count > 0) {
+            this.routeGraphService.lineRemoved(id);
+            if (null != transportLine) {
+                this.routeSegmentService.lineChanged(transportLine);
+            }
+        }
+        return count > 0;
     }
     @Override
     public PageResponse<TransportLine> queryPageList(TransportLineSearchDTO transportLineSearchDTO) {
@@ -189,9 +250,16 @@ public class TransportLineServiceImpl implements TransportLineService {
         if (ObjectUtil.hasEmpty(start, end)) {
             throw new SLException(ExceptionEnum.START_END_ORGAN_NOT_FOUND);
         }
+        // 优先查询路线表，其次使用内存路线图计算，都未加载完成时查询Neo4j
+        if (this.routeTableService.isReady()) {
+            return this.routeTableService.findShortestPath(startId, endId, MAX_DEPTH);
+        }
+        if (this.routeGraphService.isReady()) {
+            return this.routeGraphService.findShortestPath(startId, endId, MAX_DEPTH);
+        }
         // 查询最短路线
         // 注意： 一定要阅读Dao层实现代码  理解逻辑
-        return this.transportLineRepository.findShortestPath(start, end);
+        return this.transportLineRepository.findShortestPath(start, end, MAX_DEPTH);
     }
     @Override
     public TransportLineNodeDTO findLowestPath(Long startId, Long endId) {
@@ -204,10 +272,23 @@ public class TransportLineServiceImpl implements TransportLineService {
         if (ObjectUtil.hasEmpty(start, end)) {
             throw new SLException(ExceptionEnum.START_END_ORGAN_NOT_FOUND);
         }
+        // 查询顺序：路线表 -> 内存路线图 -> Neo4j分段 -> Neo4j展开所有路线
+        // 路线表、路线图可用时结果一致且不访问Neo4j；启动后路线图加载完成前（或加载失败时）只能查询Neo4j，
+        // 此时优先通过预先计算的分段查询，分段无法连通时再展开所有路线查询
+        if (this.routeTableService.isReady()) {
+            return this.routeTableService.findLowestPath(startId, endId, MAX_DEPTH);
+        }
+        if (this.routeGraphService.isReady()) {
+            return this.routeGraphService.findLowestPath(startId, endId, MAX_DEPTH);
+        }
+        TransportLineNodeDTO transportLineNodeDTO = this.routeSegmentService.findLowestPath(startId, endId, MAX_DEPTH);
+        if (null != transportLineNodeDTO) {
+            return transportLineNodeDTO;
+        }
         // 查询成本最低路线
         // 注意： 一定要阅读Dao层实现代码  理解逻辑
-        List<TransportLineNodeDTO> pathList = this.transportLineRepository.findPathList(start, end, 10, 1);
-        if (null != pathList) {
+        List<TransportLineNodeDTO> pathList = this.transportLineRepository.findPathList(start, end, MAX_DEPTH, 1);
+        if (CollUtil.isNotEmpty(pathList)) {
             return pathList.get(0);
         }
         return null;
@@ -223,7 +304,26 @@ public class TransportLineServiceImpl implements TransportLineService {
     public TransportLineNodeDTO queryPathByDispatchMethod(Long startId, Long endId) {
         //获取系统中 调度方式配置
         DispatchConfigurationDTO configuration = this.dispatchConfigurationService.findConfiguration();
-        int method = configuration.getDispatchMethod();
+        return this.queryPathByDispatchMethod(configuration.getDispatchMethod(), startId, endId);
+    }
+
+    @Override
+    public List<TransportLineNodeDTO> queryPathByDispatchMethod(List<TransportLinePairDTO> pairs) {
+        //调度方式只查询一次，相同的起止网点只计算一次
+        int method = this.dispatchConfigurationService.findConfiguration().getDispatchMethod();
+        Map<String, TransportLineNodeDTO> pathMap = new HashMap<>();
+        for (TransportLinePairDTO pair : pairs) {
+            String key = pair.getStartId() + "_" + pair.getEndId();
+            if (!pathMap.containsKey(key)) {
+                pathMap.put(key, this.queryPathByDispatchMethod(method, pair.getStartId(), pair.getEndId()));
+            }
+        }
+        return pairs.stream()
+                .map(pair -> pathMap.get(pair.getStartId() + "_" + pair.getEndId()))
+                .collect(Collectors.toList());
+    }
+
+    private TransportLineNodeDTO queryPathByDispatchMethod(int method, Long startId, Long endId) {
         //调度方式，1转运次数最少，2成本最低
         if (ObjectUtil.equal(DispatchMethodEnum.SHORTEST_PATH.getCode(), method)) {
             return this.queryShortestPath(startId, endId);
@@ -10,7 +10,9 @@ import com.sl.transport.domain.TransportLineNodeDTO;
 import com.sl.transport.entity.line.TransportLine;
 import com.sl.transport.enums.OrganTypeEnum;
 import org.neo4j.driver.internal.value.PathValue;
+import org.neo4j.driver.types.Node;
 import org.neo4j.driver.types.Path;
+import org.neo4j.driver.types.Relationship;
 
 import java.util.List;
 import java.util.Map;
@@ -49,26 +51,51 @@ public class TransportLineUtils {
         Path path = pathValue.asPath();
 
         //提取node中的数据，封装成 NodeDTO 对象
-        path.nodes().forEach(node -> {
-            Map<String, Object> map = node.asMap();
-            OrganDTO organDTO = BeanUtil.toBeanIgnoreError(map, OrganDTO.class);
-            //取第一个标签作为类型
-            organDTO.setType(OrganTypeEnum.valueOf(CollUtil.getFirst(node.labels())).getCode());
-            //查询出来的数据，x：经度，y：纬度
-            organDTO.setLatitude(BeanUtil.getProperty(map.get("location"), "y"));
-            organDTO.setLongitude(BeanUtil.getProperty(map.get("location"), "x"));
-            transportLineNodeDTO.getNodeList().add(organDTO);
-        });
+        path.nodes().forEach(node -> transportLineNodeDTO.getNodeList().add(toOrganDTO(node)));
 
         //提取关系中的 cost 数据，进行求和计算，算出该路线的总成本
-        path.relationships().forEach(relationship -> {
-            Map<String, Object> objectMap = relationship.asMap();
-            double cost = Convert.toDouble(objectMap.get("cost"), 0d);
-            transportLineNodeDTO.setCost(NumberUtil.add(cost, transportLineNodeDTO.getCost().doubleValue()));
-        });
+        path.relationships().forEach(relationship -> addCost(transportLineNodeDTO, relationship));
 
         //取2位小数
         transportLineNodeDTO.setCost(NumberUtil.round(transportLineNodeDTO.getCost(), 2).doubleValue());
         return transportLineNodeDTO;
     }
+
+    /**
+     * 按顺序排列的路线转化成TransferLineDTO对象，每一段的终点即为下一段的起点
+     *
+     * @param segments 路线列表，每个元素依次为：起点、路线、终点
+     * @return TransferLineDTO对象，路线列表为空时返回null
+     */
+    public static TransportLineNodeDTO convert(List<Object[]> segments) {
+        if (CollUtil.isEmpty(segments)) {
+            return null;
+        }
+        TransportLineNodeDTO transportLineNodeDTO = new TransportLineNodeDTO();
+        transportLineNodeDTO.getNodeList().add(toOrganDTO((Node) segments.get(0)[0]));
+        for (Object[] segment : segments) {
+            addCost(transportLineNodeDTO, (Relationship) segment[1]);
+            transportLineNodeDTO.getNodeList().add(toOrganDTO((Node) segment[2]));
+        }
+
+        //取2位小数
+        transportLineNodeDTO.setCost(NumberUtil.round(transportLineNodeDTO.getCost(), 2).doubleValue());
+        return transportLineNodeDTO;
+    }
+
+    private static OrganDTO toOrganDTO(Node node) {
+        Map<String, Object> map = node.asMap();
+        OrganDTO organDTO = BeanUtil.toBeanIgnoreError(map, OrganDTO.class);
+        //取第一个标签作为类型
+        organDTO.setType(OrganTypeEnum.valueOf(CollUtil.getFirst(node.labels())).getCode());
+        //查询出来的数据，x：经度，y：纬度
+        organDTO.setLatitude(BeanUtil.getProperty(map.get("location"), "y"));
+        organDTO.setLongitude(BeanUtil.getProperty(map.get("location"), "x"));
+        return organDTO;
+    }
+
+    private static void addCost(TransportLineNodeDTO transportLineNodeDTO, Relationship relationship) {
+        double cost = Convert.toDouble(relationship.asMap().get("cost"), 0d);
+        transportLineNodeDTO.setCost(NumberUtil.add(cost, transportLineNodeDTO.getCost().doubleValue()));
+    }
 }
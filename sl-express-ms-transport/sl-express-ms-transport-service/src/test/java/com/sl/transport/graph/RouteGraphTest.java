@@ -0,0 +1,112 @@
+package com.sl.transport.graph;
+
+import cn.hutool.core.collection.ListUtil;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.enums.OrganTypeEnum;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteGraphTest {
+
+    /**
+     * 网点1 -> 二级转运2 -> 一级转运3 -> 一级转运4 -> 二级转运5 -> 网点6
+     * 网点1 -> 二级转运2 -> 一级转运7 -> 二级转运5 -> 网点6 （转运次数少，但成本高）
+     */
+    private RouteGraph graph() {
+        List<OrganDTO> organs = ListUtil.toList(
+                organ(1L, OrganTypeEnum.AGENCY), organ(2L, OrganTypeEnum.TLT), organ(3L, OrganTypeEnum.OLT),
+                organ(4L, OrganTypeEnum.OLT), organ(5L, OrganTypeEnum.TLT), organ(6L, OrganTypeEnum.AGENCY),
+                organ(7L, OrganTypeEnum.OLT));
+        List<TransportLine> lines = new ArrayList<>();
+        lines.add(line(101L, 1L, 2L, 10d));
+        lines.add(line(102L, 2L, 3L, 20d));
+        lines.add(line(103L, 3L, 4L, 30d));
+        lines.add(line(104L, 4L, 5L, 20d));
+        lines.add(line(105L, 5L, 6L, 10d));
+        lines.add(line(106L, 2L, 7L, 100d));
+        lines.add(line(107L, 7L, 5L, 100d));
+        return RouteGraph.build(organs, lines);
+    }
+
+    @Test
+    void findShortestPath() {
+        TransportLineNodeDTO path = this.graph().findShortestPath(1L, 6L, 10);
+        assertEquals(ListUtil.toList(1L, 2L, 7L, 5L, 6L), ids(path));
+        assertEquals(220d, path.getCost());
+        //超过最大深度
+        assertNull(this.graph().findShortestPath(1L, 6L, 3));
+    }
+
+    @Test
+    void findLowestPath() {
+        TransportLineNodeDTO path = this.graph().findLowestPath(1L, 6L, 10);
+        assertEquals(ListUtil.toList(1L, 2L, 3L, 4L, 5L, 6L), ids(path));
+        assertEquals(90d, path.getCost());
+        //最大深度内只有成本高的路线
+        path = this.graph().findLowestPath(1L, 6L, 4);
+        assertEquals(ListUtil.toList(1L, 2L, 7L, 5L, 6L), ids(path));
+    }
+
+    @Test
+    void incrementalUpdate() {
+        RouteGraph graph = this.graph()
+                .withLines(ListUtil.toList(line(103L, 3L, 4L, 500d)));
+        assertEquals(ListUtil.toList(1L, 2L, 7L, 5L, 6L), ids(graph.findLowestPath(1L, 6L, 10)));
+
+        graph = graph.withoutLines(ListUtil.toList(106L));
+        assertEquals(ListUtil.toList(1L, 2L, 3L, 4L, 5L, 6L), ids(graph.findLowestPath(1L, 6L, 10)));
+
+        graph = graph.withoutOrgan(4L);
+        assertNull(graph.findLowestPath(1L, 6L, 10));
+    }
+
+    @Test
+    void unknownCost() {
+        //地图查询失败的路线成本为-1，不能当作成本最低的路线
+        RouteGraph graph = this.graph()
+                .withLines(ListUtil.toList(line(106L, 2L, 7L, -1d), line(107L, 7L, 5L, -1d)));
+        assertEquals(ListUtil.toList(1L, 2L, 3L, 4L, 5L, 6L), ids(graph.findLowestPath(1L, 6L, 10)));
+        RouteTable table = RouteTable.build(graph, 1L, ForkJoinPool.commonPool());
+        assertEquals(ListUtil.toList(1L, 2L, 3L, 4L, 5L, 6L), ids(table.findLowestPath(1L, 6L, 10)));
+
+        //没有其他路线时仍然可达，成本未知的路线不计入成本
+        TransportLineNodeDTO path = graph.findLowestPath(1L, 6L, 4);
+        assertEquals(ListUtil.toList(1L, 2L, 7L, 5L, 6L), ids(path));
+        assertEquals(20d, path.getCost());
+        assertEquals(20d, table.findShortestPath(1L, 6L, 10).getCost());
+    }
+
+    @Test
+    void unavailableAgency() {
+        OrganDTO end = organ(6L, OrganTypeEnum.AGENCY);
+        end.setStatus(false);
+        RouteGraph graph = this.graph().withOrgan(end);
+        assertNull(graph.findShortestPath(1L, 6L, 10));
+        assertNull(graph.findLowestPath(1L, 6L, 10));
+    }
+
+    private static List<Long> ids(TransportLineNodeDTO path) {
+        return path.getNodeList().stream().map(OrganDTO::getId).collect(Collectors.toList());
+    }
+
+    private static OrganDTO organ(Long bid, OrganTypeEnum type) {
+        OrganDTO organDTO = new OrganDTO();
+        organDTO.setId(bid);
+        organDTO.setName("机构" + bid);
+        organDTO.setType(type.getCode());
+        organDTO.setStatus(true);
+        return organDTO;
+    }
+
+    private static TransportLine line(Long id, Long start, Long end, Double cost) {
+        return TransportLine.builder().id(id).startOrganId(start).endOrganId(end).cost(cost).build();
+    }
+}
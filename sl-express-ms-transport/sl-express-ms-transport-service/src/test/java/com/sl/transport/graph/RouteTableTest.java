@@ -0,0 +1,106 @@
+package com.sl.transport.graph;
+
+import cn.hutool.core.util.RandomUtil;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.enums.OrganTypeEnum;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTableTest {
+
+    private static final int OLT_SIZE = 5;
+    private static final int TLT_SIZE = 20;
+    private static final int AGENCY_SIZE = 100;
+
+    /**
+     * 随机生成 网点 -> 二级转运中心 -> 一级转运中心 之间的双向路线
+     */
+    private RouteGraph randomGraph() {
+        List<OrganDTO> organs = new ArrayList<>();
+        List<TransportLine> lines = new ArrayList<>();
+        long lineId = 1;
+        for (long i = 1; i <= OLT_SIZE; i++) {
+            organs.add(organ(i, OrganTypeEnum.OLT));
+            for (long j = 1; j < i; j++) {
+                lineId = twoWay(lines, lineId, i, j);
+            }
+        }
+        for (long i = 1; i <= TLT_SIZE; i++) {
+            long bid = 100 + i;
+            organs.add(organ(bid, OrganTypeEnum.TLT));
+            lineId = twoWay(lines, lineId, bid, RandomUtil.randomLong(1, OLT_SIZE + 1));
+            lineId = twoWay(lines, lineId, bid, RandomUtil.randomLong(1, OLT_SIZE + 1));
+        }
+        for (long i = 1; i <= AGENCY_SIZE; i++) {
+            long bid = 1000 + i;
+            organs.add(organ(bid, OrganTypeEnum.AGENCY));
+            lineId = twoWay(lines, lineId, bid, 100 + RandomUtil.randomLong(1, TLT_SIZE + 1));
+        }
+        return RouteGraph.build(organs, lines);
+    }
+
+    @Test
+    void sameAsRouteGraph() {
+        RouteGraph graph = this.randomGraph();
+        RouteTable table = RouteTable.build(graph, 1L, ForkJoinPool.commonPool());
+        for (long start = 1001; start <= 1000 + AGENCY_SIZE; start += 7) {
+            for (long end = 1001; end <= 1000 + AGENCY_SIZE; end++) {
+                assertCost(graph.findShortestPath(start, end, 10), table.findShortestPath(start, end, 10));
+                assertCost(graph.findLowestPath(start, end, 10), table.findLowestPath(start, end, 10));
+            }
+        }
+    }
+
+    @Test
+    void snapshot() throws Exception {
+        RouteGraph graph = this.randomGraph();
+        RouteTable table = RouteTable.build(graph, 1L, ForkJoinPool.commonPool());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.writeTo(new DataOutputStream(bytes));
+
+        RouteTable loaded = RouteTable.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), graph);
+        assertNotNull(loaded);
+        assertEquals(table.getVersion(), loaded.getVersion());
+        assertCost(table.findLowestPath(1001L, 1002L, 10), loaded.findLowestPath(1001L, 1002L, 10));
+
+        //路线图发生变化后，快照不可用
+        RouteGraph changed = graph.withoutOrgan(1L);
+        assertNull(RouteTable.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), changed));
+    }
+
+    private static void assertCost(TransportLineNodeDTO expected, TransportLineNodeDTO actual) {
+        if (null == expected) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getCost(), actual.getCost());
+        assertEquals(expected.getNodeList().size(), actual.getNodeList().size());
+    }
+
+    private static long twoWay(List<TransportLine> lines, long lineId, long first, long second) {
+        double cost = RandomUtil.randomInt(10, 200);
+        lines.add(TransportLine.builder().id(lineId++).startOrganId(first).endOrganId(second).cost(cost).build());
+        lines.add(TransportLine.builder().id(lineId++).startOrganId(second).endOrganId(first).cost(cost).build());
+        return lineId;
+    }
+
+    private static OrganDTO organ(Long bid, OrganTypeEnum type) {
+        OrganDTO organDTO = new OrganDTO();
+        organDTO.setId(bid);
+        organDTO.setType(type.getCode());
+        organDTO.setStatus(true);
+        return organDTO;
+    }
+}
@@ -0,0 +1,166 @@
+package com.sl.transport.repository;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.sl.transport.domain.TransportLineSearchDTO;
+import com.sl.transport.repository.impl.OrganRepositoryImpl;
+import com.sl.transport.repository.impl.TransportLineRepositoryImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import org.springframework.data.neo4j.core.Neo4jClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 机构、路线查询语句的基准测试，基于内嵌的Neo4j
+ * <p>
+ * Neo4j按查询语句的文本缓存执行计划，不同的语句数量即为需要编译执行计划的次数，
+ * 通过记录发送给Neo4j的语句计算执行计划缓存的命中率。
+ * 执行：mvn test -Dtest=RepositoryBenchmarkTest -Dbenchmark=true
+ */
+@Slf4j
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RepositoryBenchmarkTest {
+
+    private static final int ORGAN_SIZE = 2000;
+    private static final int ITERATIONS = 2000;
+
+    private Neo4j neo4j;
+    private Driver driver;
+    private Neo4jClient neo4jClient;
+    private final List<String> queries = new ArrayList<>();
+
+    private final OrganRepositoryImpl organRepository = new OrganRepositoryImpl();
+    private final TransportLineRepositoryImpl transportLineRepository = new TransportLineRepositoryImpl();
+
+    @BeforeAll
+    void init() {
+        this.neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+        this.driver = GraphDatabase.driver(this.neo4j.boltURI(), AuthTokens.none());
+        this.neo4jClient = this.recording(Neo4jClient.create(this.driver));
+        ReflectionTestUtils.setField(this.organRepository, "neo4jClient", this.neo4jClient);
+        ReflectionTestUtils.setField(this.transportLineRepository, "neo4jClient", this.neo4jClient);
+
+        //机构平均分布在三个标签上，相邻的机构之间创建双向路线
+        String[] labels = {"OLT", "TLT", "AGENCY"};
+        for (int i = 1; i <= ORGAN_SIZE; i++) {
+            this.neo4jClient.query(StrUtil.format("CREATE (:{} {bid: $bid, name: $name, status: true})", labels[i % 3]))
+                    .bind((long) i).to("bid")
+                    .bind("机构" + i).to("name")
+                    .run();
+        }
+        this.neo4jClient.query("CREATE INDEX olt_bid IF NOT EXISTS FOR (n:OLT) ON (n.bid)").run();
+        this.neo4jClient.query("CREATE INDEX tlt_bid IF NOT EXISTS FOR (n:TLT) ON (n.bid)").run();
+        this.neo4jClient.query("CREATE INDEX agency_bid IF NOT EXISTS FOR (n:AGENCY) ON (n.bid)").run();
+        this.neo4jClient.query("MATCH (m) WITH m MATCH (n) WHERE n.bid = m.bid + 1\n" +
+                "CREATE (m) -[:IN_LINE {number: 'XL' + m.bid, name: m.name + '-' + n.name, cost: 10.0, startOrganId: m.bid, endOrganId: n.bid}]-> (n),\n" +
+                " (m) <-[:OUT_LINE {number: 'XL' + m.bid, name: n.name + '-' + m.name, cost: 10.0, startOrganId: n.bid, endOrganId: m.bid}]- (n)")
+                .run();
+        this.queries.clear();
+    }
+
+    @AfterAll
+    void destroy() {
+        this.driver.close();
+        this.neo4j.close();
+    }
+
+    @Test
+    void findByBid() {
+        //原实现：未指定标签，业务id直接拼接在语句中
+        this.benchmark("findByBid legacy", i -> this.neo4jClient.query(StrUtil.format("MATCH (n)\nWHERE n.bid = {}\nRETURN n", bid()))
+                .fetch().all());
+        this.benchmark("findByBid", i -> assertNotNull(this.organRepository.findByBid(bid())));
+    }
+
+    @Test
+    void findAll() {
+        this.benchmark("findAll legacy", i -> this.neo4jClient.query(StrUtil.format("MATCH (n) WHERE n.name CONTAINS '{}' RETURN n", bid()))
+                .fetch().all());
+        this.benchmark("findAll", i -> assertFalse(this.organRepository.findAll(String.valueOf(bid())).isEmpty()));
+    }
+
+    @Test
+    void queryPageList() {
+        //原实现：每种查询条件的组合都是不同的语句
+        this.benchmark("queryPageList legacy", i -> {
+            StringBuilder sb = new StringBuilder("MATCH (m) -[r]-> (n) WHERE 1=1 ");
+            if (i % 2 == 0) {
+                sb.append("AND r.name CONTAINS $name \n");
+            }
+            if (i % 3 == 0) {
+                sb.append("AND r.startOrganId = $startOrganId \n");
+            }
+            this.neo4jClient.query(sb + "RETURN m,r,n ORDER BY id(r) DESC SKIP $skip LIMIT $limit")
+                    .bind("机构" + bid()).to("name")
+                    .bind(bid()).to("startOrganId")
+                    .bind(0).to("skip")
+                    .bind(10).to("limit")
+                    .fetch().all();
+        });
+        this.benchmark("queryPageList", i -> {
+            TransportLineSearchDTO dto = new TransportLineSearchDTO();
+            dto.setName(i % 2 == 0 ? "机构" + bid() : null);
+            dto.setStartOrganId(i % 3 == 0 ? bid() : null);
+            assertNotNull(this.transportLineRepository.queryPageList(dto));
+        });
+    }
+
+    private void benchmark(String name, IntConsumer action) {
+        //预热
+        for (int i = 0; i < 100; i++) {
+            action.accept(i);
+        }
+        this.queries.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            action.accept(i);
+        }
+        long avg = (System.nanoTime() - start) / ITERATIONS / 1000;
+        Set<String> distinct = new HashSet<>(this.queries);
+        double hitRate = 1 - (double) distinct.size() / this.queries.size();
+        log.info("{} 平均耗时：{}us，语句数：{}，不同语句数：{}，执行计划缓存命中率：{}%",
+                name, avg, this.queries.size(), distinct.size(), NumberUtil.roundStr(hitRate * 100, 2));
+    }
+
+    private static long bid() {
+        return RandomUtil.randomLong(1, ORGAN_SIZE + 1);
+    }
+
+    /**
+     * 记录发送给Neo4j的所有语句
+     */
+    private Neo4jClient recording(Neo4jClient target) {
+        return (Neo4jClient) Proxy.newProxyInstance(Neo4jClient.class.getClassLoader(), new Class[]{Neo4jClient.class},
+                (proxy, method, args) -> {
+                    if ("query".equals(method.getName()) && null != args && args.length == 1 && args[0] instanceof String) {
+                        this.queries.add((String) args[0]);
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
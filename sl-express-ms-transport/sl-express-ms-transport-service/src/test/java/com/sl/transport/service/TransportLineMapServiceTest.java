@@ -0,0 +1,113 @@
+package com.sl.transport.service;
+
+import cn.hutool.core.collection.ListUtil;
+import com.itheima.em.sdk.EagleMapTemplate;
+import com.itheima.em.sdk.enums.ProviderEnum;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.entity.line.TransportLine;
+import com.sl.transport.repository.TransportLineRepository;
+import com.sl.transport.service.impl.TransportLineMapServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 使用本地桩代替地图服务
+ */
+class TransportLineMapServiceTest {
+
+    private static final String DRIVING = "{\"route\":{\"taxi_cost\":\"56.5\",\"paths\":[{\"distance\":\"12000\",\"cost\":{\"duration\":\"1800\"}}]}}";
+
+    private EagleMapTemplate eagleMapTemplate;
+    private StringRedisTemplate stringRedisTemplate;
+    private TransportLineRepository transportLineRepository;
+    private OrganService organService;
+    private TransportLineMapServiceImpl transportLineMapService;
+
+    @BeforeEach
+    void init() {
+        this.eagleMapTemplate = mock(EagleMapTemplate.class, RETURNS_DEEP_STUBS);
+        this.stringRedisTemplate = mock(StringRedisTemplate.class, RETURNS_DEEP_STUBS);
+        this.transportLineRepository = mock(TransportLineRepository.class);
+        this.organService = mock(OrganService.class);
+        this.transportLineMapService = new TransportLineMapServiceImpl();
+        ReflectionTestUtils.setField(this.transportLineMapService, "transportLineRepository", this.transportLineRepository);
+        ReflectionTestUtils.setField(this.transportLineMapService, "organService", this.organService);
+        ReflectionTestUtils.setField(this.transportLineMapService, "eagleMapTemplate", this.eagleMapTemplate);
+        ReflectionTestUtils.setField(this.transportLineMapService, "stringRedisTemplate", this.stringRedisTemplate);
+        ReflectionTestUtils.setField(this.transportLineMapService, "threads", 1);
+        ReflectionTestUtils.setField(this.transportLineMapService, "queueCapacity", 10);
+        ReflectionTestUtils.setField(this.transportLineMapService, "permitsPerSecond", 100);
+        ReflectionTestUtils.setField(this.transportLineMapService, "maxAttempts", 2);
+        ReflectionTestUtils.setField(this.transportLineMapService, "repairBatchSize", 500);
+        ReflectionTestUtils.setField(this.transportLineMapService, "repairMaxAttempts", 10);
+        this.transportLineMapService.init();
+    }
+
+    @Test
+    void fillWithRetry() {
+        when(this.eagleMapTemplate.opsForDirection().driving(eq(ProviderEnum.AMAP), any(), any(), anyMap()))
+                .thenThrow(new RuntimeException("timeout"))
+                .thenReturn(DRIVING);
+
+        TransportLine transportLine = new TransportLine();
+        assertTrue(this.transportLineMapService.fill(transportLine, organ(1L, 116.1, 39.1), organ(2L, 117.2, 40.2)));
+        assertEquals(1800L, transportLine.getTime());
+        assertEquals(12000D, transportLine.getDistance());
+        assertEquals(56.5D, transportLine.getCost());
+        //查询结果按起止坐标缓存
+        verify(this.stringRedisTemplate.opsForValue())
+                .set(eq("TRANSPORT_LINE:MAP:116.1,39.1_117.2,40.2"), anyString(), anyLong(), eq(TimeUnit.DAYS));
+    }
+
+    @Test
+    void fillFromCache() {
+        when(this.stringRedisTemplate.opsForValue().get(anyString())).thenReturn("{\"time\":60,\"distance\":1000,\"cost\":5}");
+
+        TransportLine transportLine = new TransportLine();
+        assertTrue(this.transportLineMapService.fill(transportLine, organ(1L, 116.1, 39.1), organ(2L, 117.2, 40.2)));
+        assertEquals(5D, transportLine.getCost());
+        verify(this.eagleMapTemplate.opsForDirection(), never()).driving(any(), any(), any(), anyMap());
+    }
+
+    @Test
+    void fillWithPlaceholder() {
+        when(this.eagleMapTemplate.opsForDirection().driving(eq(ProviderEnum.AMAP), any(), any(), anyMap())).thenReturn("");
+
+        TransportLine transportLine = new TransportLine();
+        assertFalse(this.transportLineMapService.fill(transportLine, organ(1L, 116.1, 39.1), organ(2L, 117.2, 40.2)));
+        assertEquals(TransportLineMapService.PLACEHOLDER, transportLine.getCost().intValue());
+        assertEquals(TransportLineMapService.PLACEHOLDER, transportLine.getTime().intValue());
+    }
+
+    @Test
+    void enrichPendingRecordsAttempts() {
+        when(this.stringRedisTemplate.opsForValue().get(anyString())).thenReturn("{\"time\":60,\"distance\":1000,\"cost\":5}");
+        when(this.transportLineRepository.findPlaceholderLines(10, 500)).thenReturn(ListUtil.toList(
+                TransportLine.builder().id(11L).startOrganId(1L).endOrganId(2L).build(),
+                //终点机构不存在，无法补全
+                TransportLine.builder().id(12L).startOrganId(1L).endOrganId(3L).build()));
+        when(this.organService.findAll(null)).thenReturn(ListUtil.toList(organ(1L, 116.1, 39.1), organ(2L, 117.2, 40.2)));
+
+        this.transportLineMapService.enrichPending();
+        //跳过的路线同样记录一次尝试，达到最大次数后不再查询
+        verify(this.transportLineRepository).recordMapAttempt(eq(ListUtil.toList(11L, 12L)), anyLong());
+        verify(this.transportLineRepository, timeout(1000)).updateMapInfo(argThat(line -> line.getId() == 11L));
+        verify(this.transportLineRepository, never()).updateMapInfo(argThat(line -> line.getId() == 12L));
+    }
+
+    private static OrganDTO organ(Long bid, double longitude, double latitude) {
+        OrganDTO organDTO = new OrganDTO();
+        organDTO.setId(bid);
+        organDTO.setLongitude(longitude);
+        organDTO.setLatitude(latitude);
+        return organDTO;
+    }
+}
@@ -0,0 +1,74 @@
+package com.sl.transport.service;
+
+import cn.hutool.core.collection.ListUtil;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.repository.TransportLineRepository;
+import com.sl.transport.service.impl.TransportLineServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 成本最低路线的查询顺序：路线表 -> 内存路线图 -> Neo4j分段 -> Neo4j展开所有路线
+ */
+class TransportLineServiceTest {
+
+    private RouteTableService routeTableService;
+    private RouteGraphService routeGraphService;
+    private RouteSegmentService routeSegmentService;
+    private TransportLineRepository transportLineRepository;
+    private TransportLineServiceImpl transportLineService;
+
+    private final TransportLineNodeDTO tablePath = new TransportLineNodeDTO();
+    private final TransportLineNodeDTO graphPath = new TransportLineNodeDTO();
+    private final TransportLineNodeDTO segmentPath = new TransportLineNodeDTO();
+    private final TransportLineNodeDTO neo4jPath = new TransportLineNodeDTO();
+
+    @BeforeEach
+    void init() {
+        this.routeTableService = mock(RouteTableService.class);
+        this.routeGraphService = mock(RouteGraphService.class);
+        this.routeSegmentService = mock(RouteSegmentService.class);
+        this.transportLineRepository = mock(TransportLineRepository.class);
+        when(this.routeTableService.findLowestPath(anyLong(), anyLong(), anyInt())).thenReturn(this.tablePath);
+        when(this.routeGraphService.findLowestPath(anyLong(), anyLong(), anyInt())).thenReturn(this.graphPath);
+        when(this.routeSegmentService.findLowestPath(anyLong(), anyLong(), anyInt())).thenReturn(this.segmentPath);
+        when(this.transportLineRepository.findPathList(any(), any(), anyInt(), anyInt())).thenReturn(ListUtil.toList(this.neo4jPath));
+
+        this.transportLineService = new TransportLineServiceImpl();
+        ReflectionTestUtils.setField(this.transportLineService, "routeTableService", this.routeTableService);
+        ReflectionTestUtils.setField(this.transportLineService, "routeGraphService", this.routeGraphService);
+        ReflectionTestUtils.setField(this.transportLineService, "routeSegmentService", this.routeSegmentService);
+        ReflectionTestUtils.setField(this.transportLineService, "transportLineRepository", this.transportLineRepository);
+    }
+
+    @Test
+    void routeTableFirst() {
+        when(this.routeTableService.isReady()).thenReturn(true);
+        when(this.routeGraphService.isReady()).thenReturn(true);
+        assertSame(this.tablePath, this.transportLineService.findLowestPath(1L, 2L));
+        verifyNoInteractions(this.routeSegmentService, this.transportLineRepository);
+    }
+
+    @Test
+    void routeGraph() {
+        when(this.routeGraphService.isReady()).thenReturn(true);
+        assertSame(this.graphPath, this.transportLineService.findLowestPath(1L, 2L));
+        verifyNoInteractions(this.routeSegmentService, this.transportLineRepository);
+    }
+
+    @Test
+    void segmentBeforeGraphLoaded() {
+        //路线图加载完成前查询Neo4j，优先使用分段
+        assertSame(this.segmentPath, this.transportLineService.findLowestPath(1L, 2L));
+        verifyNoInteractions(this.transportLineRepository);
+
+        //分段无法连通时展开所有路线查询
+        when(this.routeSegmentService.findLowestPath(anyLong(), anyLong(), anyInt())).thenReturn(null);
+        assertSame(this.neo4jPath, this.transportLineService.findLowestPath(1L, 2L));
+    }
+}
@@ -47,6 +47,7 @@ import com.sl.ms.work.domain.dto.response.TransportOrderStatusCountDTO;
 import com.sl.ms.work.domain.dto.response.TransportTaskStatusCountDTO;
 import com.sl.ms.work.domain.enums.transporttask.TransportTaskLoadingStatus;
 import com.sl.ms.work.domain.enums.transporttask.TransportTaskStatus;
+import com.sl.transport.common.cache.DispatchConfigurationCache;
 import com.sl.transport.common.exception.SLWebException;
 import com.sl.transport.common.util.AuthTemplateThreadLocal;
 import com.sl.transport.common.util.PageResponse;
@@ -641,12 +642,15 @@ public class WorkServiceImpl implements WorkService {
     @Override
     public void saveConfiguration(DispatchConfigurationVO vo) {
         //调度时间配置
-        String dispatchTimeRedisKey = "DISPATCH_CONFIGURATION:TIME";
+        String dispatchTimeRedisKey = DispatchConfigurationCache.DISPATCH_TIME_REDIS_KEY;
         stringRedisTemplate.opsForValue().set(dispatchTimeRedisKey, String.valueOf(vo.getDispatchTime()));
 
         //调度方式配置
-        String dispatchMethodRedisKey = "DISPATCH_CONFIGURATION:METHOD";
+        String dispatchMethodRedisKey = DispatchConfigurationCache.DISPATCH_METHOD_REDIS_KEY;
         stringRedisTemplate.opsForValue().set(dispatchMethodRedisKey, String.valueOf(vo.getDispatchMethod()));
+
+        //通知各微服务刷新调度配置的本地缓存
+        DispatchConfigurationCache.publish(stringRedisTemplate);
     }
 
     /**
@@ -657,11 +661,11 @@ public class WorkServiceImpl implements WorkService {
     @Override
     public DispatchConfigurationVO findConfiguration() {
         //调度时间配置
-        String dispatchTimeRedisKey = "DISPATCH_CONFIGURATION:TIME";
+        String dispatchTimeRedisKey = DispatchConfigurationCache.DISPATCH_TIME_REDIS_KEY;
         String dispatchTime = stringRedisTemplate.opsForValue().get(dispatchTimeRedisKey);
 
         //调度方式配置
-        String dispatchMethodRedisKey = "DISPATCH_CONFIGURATION:METHOD";
+        String dispatchMethodRedisKey = DispatchConfigurationCache.DISPATCH_METHOD_REDIS_KEY;
         String dispatchMethod = stringRedisTemplate.opsForValue().get(dispatchMethodRedisKey);
 
         //组装响应结果
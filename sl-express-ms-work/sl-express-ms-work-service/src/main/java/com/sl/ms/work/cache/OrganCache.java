@@ -0,0 +1,91 @@
+package com.sl.ms.work.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.collection.CollUtil;
+import com.sl.ms.transport.api.OrganFeign;
+import com.sl.transport.domain.OrganDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 机构数据的本地缓存，用于运单物流信息中的机构名称
+ * <p>
+ * 机构数据很少变化，缓存有效期内不会重新查询；未命中的机构通过批量接口一次查询
+ */
+@Slf4j
+@Component
+public class OrganCache {
+
+    @Resource
+    private OrganFeign organFeign;
+
+    /**
+     * 缓存有效期，单位：毫秒
+     */
+    @Value("${sl.work.organ-cache.ttl:600000}")
+    private Long ttl;
+
+    private TimedCache<Long, OrganDTO> cache;
+
+    @PostConstruct
+    public void init() {
+        this.cache = CacheUtil.newTimedCache(this.ttl);
+        //定时清理过期的数据
+        this.cache.schedulePrune(this.ttl);
+    }
+
+    /**
+     * 批量查询机构
+     *
+     * @param ids 机构id列表
+     * @return 机构数据，key为机构id，不存在的机构不返回
+     */
+    public Map<Long, OrganDTO> findByIds(Collection<Long> ids) {
+        Map<Long, OrganDTO> organMap = new HashMap<>();
+        List<Long> missIds = new ArrayList<>();
+        List<Long> idList = CollUtil.distinct(CollUtil.removeNull(CollUtil.newArrayList(ids)));
+        for (Long id : idList) {
+            //不更新最后访问时间，到期后重新查询
+            OrganDTO organDTO = this.cache.get(id, false);
+            if (null == organDTO) {
+                missIds.add(id);
+            } else {
+                organMap.put(id, organDTO);
+            }
+        }
+        if (CollUtil.isNotEmpty(missIds)) {
+            List<OrganDTO> organList = this.organFeign.queryByIds(missIds);
+            if (CollUtil.isNotEmpty(organList)) {
+                organList.forEach(organDTO -> this.cache.put(organDTO.getId(), organDTO));
+                organMap.putAll(organList.stream().collect(Collectors.toMap(OrganDTO::getId, organDTO -> organDTO, (a, b) -> a)));
+            }
+            if (organMap.size() < idList.size()) {
+                log.warn("部分机构不存在，ids = {}", missIds.stream().filter(id -> !organMap.containsKey(id)).collect(Collectors.toList()));
+            }
+        }
+        return organMap;
+    }
+
+    /**
+     * 查询机构名称，机构不存在时返回机构id
+     *
+     * @param organMap 批量查询的机构数据
+     * @param id       机构id
+     * @return 机构名称
+     */
+    public static String getName(Map<Long, OrganDTO> organMap, Long id) {
+        OrganDTO organDTO = organMap.get(id);
+        return null == organDTO ? String.valueOf(id) : organDTO.getName();
+    }
+}
@@ -0,0 +1,56 @@
+package com.sl.ms.work.config;
+
+import cn.hutool.core.util.ObjectUtil;
+import com.sl.ms.base.api.common.MQFeign;
+import com.sl.mq.publisher.FailMsgHandler;
+import com.sl.transport.common.constant.Constants;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 消息发送、消费相关的配置
+ */
+@Configuration
+public class MQConfig {
+
+    /**
+     * 直接发送失败的消息交给base服务重新发送（保留原来的延时），base服务发送失败时会存入sl_fail_msg表
+     *
+     * @param mqFeign base服务的消息发送接口
+     * @return 失败消息处理器
+     */
+    @Bean
+    public FailMsgHandler failMsgHandler(MQFeign mqFeign) {
+        return failMsgEntity -> mqFeign.sendMsg(failMsgEntity.getExchange(), failMsgEntity.getRoutingKey(), failMsgEntity.getMsg(),
+                ObjectUtil.defaultIfNull(failMsgEntity.getDelay(), Constants.MQ.DEFAULT_DELAY));
+    }
+
+    /**
+     * 批量消费的监听容器，攒够一批或者等待超时后交给监听方法，用于订单批量转运单
+     *
+     * @param configurer        spring boot的默认配置（prefetch、重试等）
+     * @param connectionFactory 连接工厂
+     * @param batchSize         每批的消息数量
+     * @param receiveTimeout    等待攒批的超时时间，单位：毫秒
+     * @return 监听容器工厂
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                                    ConnectionFactory connectionFactory,
+                                                                                    @Value("${sl.work.convert.batch-size:50}") Integer batchSize,
+                                                                                    @Value("${sl.work.convert.receive-timeout:200}") Long receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout);
+        //预取数量不能小于每批的消息数量，否则攒不够一批
+        factory.setPrefetchCount(Math.max(batchSize, 250));
+        return factory;
+    }
+}
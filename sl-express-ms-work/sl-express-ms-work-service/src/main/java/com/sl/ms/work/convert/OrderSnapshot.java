@@ -0,0 +1,44 @@
+package com.sl.ms.work.convert;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.ObjectUtil;
+import com.sl.ms.oms.dto.OrderCargoDTO;
+import com.sl.ms.oms.dto.OrderDTO;
+import com.sl.ms.oms.dto.OrderLocationDTO;
+import com.sl.ms.work.domain.enums.WorkExceptionEnum;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import lombok.Data;
+
+/**
+ * 订单转运单需要的数据
+ */
+@Data
+public class OrderSnapshot {
+
+    private Long orderId; //订单id
+    private OrderDTO order; //订单
+    private OrderCargoDTO cargo; //货物
+    private OrderLocationDTO location; //位置
+    private TransportLineNodeDTO transportLine; //运输路线，起止网点相同时为null
+    private String transportOrderId; //生成的运单id
+    private WorkExceptionEnum error; //查询失败的原因，成功为null
+
+    public OrderSnapshot(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getSendAgentId() {
+        return null == this.location ? null : Convert.toLong(this.location.getSendAgentId());
+    }
+
+    public Long getReceiveAgentId() {
+        return null == this.location ? null : Convert.toLong(this.location.getReceiveAgentId());
+    }
+
+    /**
+     * 起止网点是否相同，相同时不需要规划路线和调度
+     */
+    public boolean isSameAgency() {
+        return ObjectUtil.equals(this.getSendAgentId(), this.getReceiveAgentId());
+    }
+}
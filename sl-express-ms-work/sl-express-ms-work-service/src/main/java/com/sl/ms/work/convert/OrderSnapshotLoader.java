@@ -0,0 +1,227 @@
+package com.sl.ms.work.convert;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.sl.ms.oms.api.CargoFeign;
+import com.sl.ms.oms.api.OrderFeign;
+import com.sl.ms.oms.dto.OrderCargoDTO;
+import com.sl.ms.oms.dto.OrderDTO;
+import com.sl.ms.oms.dto.OrderLocationDTO;
+import com.sl.ms.transport.api.TransportLineFeign;
+import com.sl.ms.work.domain.enums.WorkExceptionEnum;
+import com.sl.transport.common.enums.IdEnum;
+import com.sl.transport.common.exception.SLException;
+import com.sl.transport.common.service.IdService;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 查询订单转运单需要的数据
+ * <p>
+ * 订单、货物、位置、运单id之间没有依赖，并行查询；路线依赖位置中的起止网点，位置查询完成后再查询。
+ * 所有查询共用一个截止时间，超时后不再等待
+ */
+@Slf4j
+@Component
+public class OrderSnapshotLoader {
+
+    @Resource
+    private OrderFeign orderFeign;
+    @Resource
+    private CargoFeign cargoFeign;
+    @Resource
+    private TransportLineFeign transportLineFeign;
+    @Resource
+    private IdService idService;
+
+    /**
+     * 并行查询的线程数
+     */
+    @Value("${sl.work.convert.threads:16}")
+    private Integer threads;
+    /**
+     * 等待执行的查询数量上限，超过后由调用线程执行
+     */
+    @Value("${sl.work.convert.queue-capacity:1000}")
+    private Integer queueCapacity;
+    /**
+     * 查询的超时时间，单位：毫秒
+     */
+    @Value("${sl.work.convert.timeout:10000}")
+    private Long timeout;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity),
+                ThreadFactoryBuilder.create().setNamePrefix("order-convert-").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * 查询一个订单的数据，数据不完整时抛出异常
+     *
+     * @param orderId 订单id
+     * @return 订单数据
+     */
+    public OrderSnapshot load(Long orderId) {
+        long deadline = System.currentTimeMillis() + this.timeout;
+        CompletableFuture<OrderDTO> orderFuture = this.supply(() -> this.orderFeign.findById(orderId));
+        CompletableFuture<OrderCargoDTO> cargoFuture = this.supply(() -> this.cargoFeign.findByOrderId(orderId));
+        CompletableFuture<OrderLocationDTO> locationFuture = this.supply(() -> this.orderFeign.findOrderLocationByOrderId(orderId));
+        //运单id与订单数据无关，提前生成，订单数据不完整时会浪费一个id，不影响使用
+        CompletableFuture<String> idFuture = this.supply(() -> this.idService.getId(IdEnum.TRANSPORT_ORDER));
+
+        OrderSnapshot snapshot = new OrderSnapshot(orderId);
+        snapshot.setOrder(this.get(orderFuture, deadline));
+        if (ObjectUtil.isEmpty(snapshot.getOrder())) {
+            throw new SLException(WorkExceptionEnum.ORDER_NOT_FOUND);
+        }
+        snapshot.setCargo(this.get(cargoFuture, deadline));
+        if (ObjectUtil.isEmpty(snapshot.getCargo())) {
+            throw new SLException(WorkExceptionEnum.ORDER_CARGO_NOT_FOUND);
+        }
+        snapshot.setLocation(this.get(locationFuture, deadline));
+        if (ObjectUtil.isEmpty(snapshot.getLocation())) {
+            throw new SLException(WorkExceptionEnum.ORDER_LOCATION_NOT_FOUND);
+        }
+        if (!snapshot.isSameAgency()) {
+            //根据调度配置查询运输路线，此时运单id的生成还在进行中
+            TransportLineNodeDTO transportLineNodeDTO = this.get(this.supply(() ->
+                    this.transportLineFeign.queryPathByDispatchMethod(snapshot.getSendAgentId(), snapshot.getReceiveAgentId())), deadline);
+            if (ObjectUtil.isEmpty(transportLineNodeDTO) || CollUtil.isEmpty(transportLineNodeDTO.getNodeList())) {
+                throw new SLException(WorkExceptionEnum.TRANSPORT_LINE_NOT_FOUND);
+            }
+            snapshot.setTransportLine(transportLineNodeDTO);
+        }
+        snapshot.setTransportOrderId(this.get(idFuture, deadline));
+        return snapshot;
+    }
+
+    /**
+     * 批量查询订单的数据，订单、货物、位置、路线使用批量接口，每个订单一次远程调用变为每批一次
+     *
+     * @param orderIds 订单id列表
+     * @return 订单数据，与订单id的顺序一致，数据不完整的订单设置了失败原因，不会生成运单id
+     */
+    public List<OrderSnapshot> load(List<Long> orderIds) {
+        if (CollUtil.isEmpty(orderIds)) {
+            return new ArrayList<>();
+        }
+        long deadline = System.currentTimeMillis() + this.timeout;
+        List<String> orderIdStrList = orderIds.stream().map(String::valueOf).collect(Collectors.toList());
+        CompletableFuture<List<OrderDTO>> orderFuture = this.supply(() -> this.orderFeign.findByIds(orderIdStrList));
+        CompletableFuture<List<OrderCargoDTO>> cargoFuture = this.supply(() -> this.cargoFeign.list(orderIds));
+        CompletableFuture<List<OrderLocationDTO>> locationFuture = this.supply(() -> this.orderFeign.findOrderLocationByOrderIds(orderIdStrList));
+        //leaf服务没有批量接口，每个订单一次调用，并行执行
+        Map<Long, CompletableFuture<String>> idFutureMap = new LinkedHashMap<>();
+        orderIds.forEach(orderId -> idFutureMap.put(orderId, this.supply(() -> this.idService.getId(IdEnum.TRANSPORT_ORDER))));
+
+        Map<Long, OrderSnapshot> snapshotMap = new LinkedHashMap<>();
+        orderIds.forEach(orderId -> snapshotMap.put(orderId, new OrderSnapshot(orderId)));
+
+        Map<Long, OrderDTO> orderMap = this.toMap(this.get(orderFuture, deadline), OrderDTO::getId);
+        Map<Long, OrderCargoDTO> cargoMap = this.toMap(this.get(cargoFuture, deadline), OrderCargoDTO::getOrderId);
+        Map<Long, OrderLocationDTO> locationMap = this.toMap(this.get(locationFuture, deadline), OrderLocationDTO::getOrderId);
+        List<OrderSnapshot> routeList = new ArrayList<>();
+        for (OrderSnapshot snapshot : snapshotMap.values()) {
+            snapshot.setOrder(orderMap.get(snapshot.getOrderId()));
+            snapshot.setCargo(cargoMap.get(snapshot.getOrderId()));
+            snapshot.setLocation(locationMap.get(snapshot.getOrderId()));
+            if (ObjectUtil.isEmpty(snapshot.getOrder())) {
+                snapshot.setError(WorkExceptionEnum.ORDER_NOT_FOUND);
+            } else if (ObjectUtil.isEmpty(snapshot.getCargo())) {
+                snapshot.setError(WorkExceptionEnum.ORDER_CARGO_NOT_FOUND);
+            } else if (ObjectUtil.isEmpty(snapshot.getLocation())) {
+                snapshot.setError(WorkExceptionEnum.ORDER_LOCATION_NOT_FOUND);
+            } else if (!snapshot.isSameAgency()) {
+                routeList.add(snapshot);
+            }
+        }
+
+        if (CollUtil.isNotEmpty(routeList)) {
+            //批量查询路线，相同的起止网点只计算一次
+            List<TransportLinePairDTO> pairs = routeList.stream()
+                    .map(snapshot -> new TransportLinePairDTO(snapshot.getSendAgentId(), snapshot.getReceiveAgentId()))
+                    .collect(Collectors.toList());
+            List<TransportLineNodeDTO> transportLineNodeList = this.get(this.supply(() ->
+                    this.transportLineFeign.queryPathByDispatchMethod(pairs)), deadline);
+            for (int i = 0; i < routeList.size(); i++) {
+                TransportLineNodeDTO transportLineNodeDTO = CollUtil.get(transportLineNodeList, i);
+                if (ObjectUtil.isEmpty(transportLineNodeDTO) || CollUtil.isEmpty(transportLineNodeDTO.getNodeList())) {
+                    routeList.get(i).setError(WorkExceptionEnum.TRANSPORT_LINE_NOT_FOUND);
+                } else {
+                    routeList.get(i).setTransportLine(transportLineNodeDTO);
+                }
+            }
+        }
+
+        for (OrderSnapshot snapshot : snapshotMap.values()) {
+            if (null == snapshot.getError()) {
+                snapshot.setTransportOrderId(this.get(idFutureMap.get(snapshot.getOrderId()), deadline));
+            }
+        }
+        return new ArrayList<>(snapshotMap.values());
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, this.executor);
+    }
+
+    private <T> Map<Long, T> toMap(List<T> list, Function<T, Long> keyMapper) {
+        if (CollUtil.isEmpty(list)) {
+            return new LinkedHashMap<>();
+        }
+        return list.stream().filter(item -> null != keyMapper.apply(item))
+                .collect(Collectors.toMap(keyMapper, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * 在截止时间之前获取查询结果，远程调用的异常原样抛出
+     */
+    private <T> T get(CompletableFuture<T> future, long deadline) {
+        try {
+            return future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SLException("查询订单数据被中断", e);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new SLException(StrUtil.format("查询订单数据超时，timeout = {}ms", this.timeout), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SLException("查询订单数据出错", e.getCause());
+        }
+    }
+}
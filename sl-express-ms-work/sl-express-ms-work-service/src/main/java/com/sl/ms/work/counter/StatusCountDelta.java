@@ -0,0 +1,97 @@
+package com.sl.ms.work.counter;
+
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderSchedulingStatus;
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderStatus;
+import com.sl.ms.work.entity.TransportOrderEntity;
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 运单状态数量的变化量
+ * <p>
+ * 在修改运单的事务中累计，最后一次性写入状态数量表。按照状态类型、状态编码排序写入，
+ * 多个事务总是以相同的顺序锁定数量行，不会互相死锁
+ */
+public class StatusCountDelta {
+
+    /**
+     * 状态类型 -> 状态编码 -> 变化量
+     */
+    private final Map<Integer, Map<Integer, Long>> deltaMap = new TreeMap<>();
+
+    /**
+     * 新增运单，或者修改后的运单
+     */
+    public StatusCountDelta add(TransportOrderEntity transportOrder) {
+        return this.change(transportOrder, 1);
+    }
+
+    /**
+     * 修改前的运单
+     */
+    public StatusCountDelta remove(TransportOrderEntity transportOrder) {
+        return this.change(transportOrder, -1);
+    }
+
+    /**
+     * 运单状态由from改为to
+     */
+    public StatusCountDelta status(TransportOrderStatus from, TransportOrderStatus to) {
+        if (from != to) {
+            this.add(TransportOrderStatusCountEntity.TYPE_STATUS, null == from ? null : from.getCode(), -1);
+            this.add(TransportOrderStatusCountEntity.TYPE_STATUS, null == to ? null : to.getCode(), 1);
+        }
+        return this;
+    }
+
+    /**
+     * 运单调度状态由from改为to
+     */
+    public StatusCountDelta schedulingStatus(TransportOrderSchedulingStatus from, TransportOrderSchedulingStatus to) {
+        if (from != to) {
+            this.add(TransportOrderStatusCountEntity.TYPE_SCHEDULING_STATUS, null == from ? null : from.getCode(), -1);
+            this.add(TransportOrderStatusCountEntity.TYPE_SCHEDULING_STATUS, null == to ? null : to.getCode(), 1);
+        }
+        return this;
+    }
+
+    /**
+     * 累计变化量，状态编码为空时忽略
+     *
+     * @param statusType 状态类型
+     * @param statusCode 状态编码
+     * @param delta      变化量
+     */
+    public StatusCountDelta add(int statusType, Integer statusCode, long delta) {
+        if (null != statusCode && delta != 0) {
+            this.deltaMap.computeIfAbsent(statusType, key -> new TreeMap<>()).merge(statusCode, delta, Long::sum);
+        }
+        return this;
+    }
+
+    /**
+     * @param slot 写入的槽位
+     * @return 不为0的变化量
+     */
+    public List<TransportOrderStatusCountEntity> toList(int slot) {
+        List<TransportOrderStatusCountEntity> list = new ArrayList<>();
+        this.deltaMap.forEach((statusType, codeMap) -> codeMap.forEach((statusCode, delta) -> {
+            if (delta != 0) {
+                list.add(new TransportOrderStatusCountEntity(statusType, statusCode, slot, delta));
+            }
+        }));
+        return list;
+    }
+
+    private StatusCountDelta change(TransportOrderEntity transportOrder, int delta) {
+        TransportOrderStatus status = transportOrder.getStatus();
+        TransportOrderSchedulingStatus schedulingStatus = transportOrder.getSchedulingStatus();
+        this.add(TransportOrderStatusCountEntity.TYPE_STATUS, null == status ? null : status.getCode(), delta);
+        this.add(TransportOrderStatusCountEntity.TYPE_SCHEDULING_STATUS, null == schedulingStatus ? null : schedulingStatus.getCode(), delta);
+        return this;
+    }
+}
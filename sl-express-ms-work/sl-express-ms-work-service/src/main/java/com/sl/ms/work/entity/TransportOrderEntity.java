@@ -69,6 +69,17 @@ public class TransportOrderEntity implements Serializable {
      */
     private String transportLine;
 
+    /**
+     * 运输路线中按顺序经过的机构id，逗号分隔
+     * {@link com.sl.ms.work.route.CompactRoute}
+     */
+    private String routeNodes;
+
+    /**
+     * 当前所在机构在route_nodes中的下标
+     */
+    private Integer routeIndex;
+
     /**
      * 货品总体积，单位：立方米
      */
@@ -0,0 +1,45 @@
+package com.sl.ms.work.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 运单状态数量表 sl_transport_order_status_count，每个状态分为多个槽，读取时求和
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransportOrderStatusCountEntity implements Serializable {
+
+    /**
+     * 运单状态
+     */
+    public static final int TYPE_STATUS = 1;
+    /**
+     * 运单调度状态
+     */
+    public static final int TYPE_SCHEDULING_STATUS = 2;
+
+    /**
+     * 状态类型，1：运单状态，2：运单调度状态
+     */
+    private Integer statusType;
+
+    /**
+     * 状态编码
+     */
+    private Integer statusCode;
+
+    /**
+     * 槽位，并发修改同一个状态时分散到不同的行，避免行锁竞争
+     */
+    private Integer slot;
+
+    /**
+     * 数量，修改时为变化量
+     */
+    private Long count;
+}
@@ -0,0 +1,37 @@
+package com.sl.ms.work.job;
+
+import cn.hutool.core.collection.CollUtil;
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+import com.sl.ms.work.service.TransportOrderStatusCountService;
+import com.xxl.job.core.context.XxlJobHelper;
+import com.xxl.job.core.handler.annotation.XxlJob;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 运单状态数量的校对任务
+ * <p>
+ * 根据运单表重新统计各个状态的数量，与增量维护的数量对比，存在偏差时修正并记录；
+ * 上线时执行一次即可完成数量的初始化
+ */
+@Component
+public class TransportOrderStatusCountJob {
+
+    @Resource
+    private TransportOrderStatusCountService transportOrderStatusCountService;
+
+    @XxlJob("transportOrderStatusCountJob")
+    public void reconcile() {
+        List<TransportOrderStatusCountEntity> driftList = this.transportOrderStatusCountService.reconcile();
+        if (CollUtil.isEmpty(driftList)) {
+            XxlJobHelper.log("运单状态数量与运单表一致");
+            return;
+        }
+        for (TransportOrderStatusCountEntity drift : driftList) {
+            XxlJobHelper.log("运单状态数量存在偏差，已修正，状态类型：{}，状态编码：{}，偏差：{}",
+                    drift.getStatusType(), drift.getStatusCode(), drift.getCount());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.sl.ms.work.mapper;
+
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * 运单状态数量表 Mapper 接口
+ */
+@Mapper
+public interface TransportOrderStatusCountMapper {
+
+    /**
+     * 累加数量，数量行不存在时插入
+     *
+     * @param list 变化量
+     * @return 影响的行数
+     */
+    int increment(@Param("list") List<TransportOrderStatusCountEntity> list);
+
+    /**
+     * 统计某一类状态的数量，各个槽位求和
+     *
+     * @param statusType 状态类型
+     * @return 状态编码 -> 数量
+     */
+    List<TransportOrderStatusCountEntity> sumByType(@Param("statusType") Integer statusType);
+
+    /**
+     * 统计所有状态的数量，各个槽位求和
+     *
+     * @return 状态类型、状态编码 -> 数量
+     */
+    List<TransportOrderStatusCountEntity> sumAll();
+
+    /**
+     * 从运单表中统计所有状态的实际数量，用于校对
+     *
+     * @return 状态类型、状态编码 -> 数量
+     */
+    List<TransportOrderStatusCountEntity> countFromTransportOrder();
+}
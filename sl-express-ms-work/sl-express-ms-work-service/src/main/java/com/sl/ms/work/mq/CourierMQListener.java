@@ -13,6 +13,7 @@ import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskSignStat
 import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskStatus;
 import com.sl.ms.work.domain.enums.pickupDispatchtask.PickupDispatchTaskType;
 import com.sl.ms.work.entity.PickupDispatchTaskEntity;
+import com.sl.ms.work.entity.TransportOrderEntity;
 import com.sl.ms.work.service.PickupDispatchTaskService;
 import com.sl.ms.work.service.TransportOrderService;
 import com.sl.transport.common.constant.Constants;
@@ -32,6 +33,8 @@ import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 快递员的消息处理，该处理器处理两个消息：
@@ -107,20 +110,30 @@ public class CourierMQListener {
     }
 
     /**
-     * 快递员取件成功
-     * @param msg 消息
+     * 快递员取件成功，批量消费，订单批量转运单
+     * 有订单转换失败时抛出异常，整批消息重新投递，已经转换的订单会被幂等校验跳过
+     *
+     * @param msgs 消息列表
      */
     @RabbitListener(bindings = @QueueBinding(
             value = @Queue(name = Constants.MQ.Queues.WORK_COURIER_PICKUP_SUCCESS),
             exchange = @Exchange(name = Constants.MQ.Exchanges.COURIER, type = ExchangeTypes.TOPIC),
             key = Constants.MQ.RoutingKeys.COURIER_PICKUP
-    ))
-    public void listenCourierPickupMsg(String msg) {
-        log.info("接收到快递员取件成功的消息 >>> msg = {}", msg);
+    ), containerFactory = "batchRabbitListenerContainerFactory")
+    public void listenCourierPickupMsg(List<String> msgs) {
+        log.info("接收到快递员取件成功的消息 >>> msgs = {}", msgs);
         //解析消息
-        CourierMsg courierMsg = JSONUtil.toBean(msg, CourierMsg.class);
+        List<Long> orderIds = msgs.stream()
+                .map(msg -> JSONUtil.toBean(msg, CourierMsg.class).getOrderId())
+                .distinct()
+                .collect(Collectors.toList());
         // TODO day06 消费消息 调用transportOrderService的订单转运单方法
-        this.transportOrderService.orderToTransportOrder(courierMsg.getOrderId());
+        List<TransportOrderEntity> transportOrderList = this.transportOrderService.orderToTransportOrders(orderIds);
+        if (transportOrderList.size() < orderIds.size()) {
+            Set<Long> converted = transportOrderList.stream().map(TransportOrderEntity::getOrderId).collect(Collectors.toSet());
+            List<Long> failedOrderIds = orderIds.stream().filter(orderId -> !converted.contains(orderId)).collect(Collectors.toList());
+            throw new SLException(StrUtil.format("订单转运单失败 >>> orderIds = {}", failedOrderIds));
+        }
         //TODO day10 发送运单跟踪消息
 
     }
@@ -14,7 +14,6 @@ import com.sl.ms.work.domain.enums.transportorder.TransportOrderSchedulingStatus
 import com.sl.ms.work.domain.enums.transporttask.TransportTaskAssignedStatus;
 import com.sl.ms.work.domain.enums.transporttask.TransportTaskLoadingStatus;
 import com.sl.ms.work.domain.enums.transporttask.TransportTaskStatus;
-import com.sl.ms.work.entity.TransportOrderEntity;
 import com.sl.ms.work.entity.TransportOrderTaskEntity;
 import com.sl.ms.work.entity.TransportTaskEntity;
 import com.sl.ms.work.service.TransportOrderService;
@@ -153,16 +152,8 @@ public class TransportTaskMQListener {
 
         //3. 批量保存运输任务与运单的关联表
         this.transportOrderTaskService.batchSaveTransportOrder(resultList);
-        //4. 批量标记运单为已调度状态 tips: 遍历运单id列表， 封装TransportOrderEntity实体 只设置id和调度状态属性
-        List<TransportOrderEntity> list = transportOrderIdList.stream()
-                .map(o -> {
-                    TransportOrderEntity transportOrderEntity = new TransportOrderEntity();
-                    transportOrderEntity.setId(Convert.toStr(o));
-                    //状态设置为已调度
-                    transportOrderEntity.setSchedulingStatus(TransportOrderSchedulingStatus.SCHEDULED);
-                    return transportOrderEntity;
-                }).collect(Collectors.toList());
-        //5. 调用运单service批量修改方法
-        this.transportOrderService.updateBatchById(list);
+        //4. 批量标记运单为已调度状态，同一个事务中修改调度状态的数量
+        List<String> transportOrderIds = transportOrderIdList.stream().map(Convert::toStr).collect(Collectors.toList());
+        this.transportOrderService.updateSchedulingStatus(transportOrderIds, TransportOrderSchedulingStatus.SCHEDULED);
     }
 }
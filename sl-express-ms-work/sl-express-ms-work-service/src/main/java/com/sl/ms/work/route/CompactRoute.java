@@ -0,0 +1,157 @@
+package com.sl.ms.work.route;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 紧凑的运输路线，按顺序经过的机构id
+ * <p>
+ * 存储在运单的route_nodes字段中（逗号分隔），配合route_index（当前机构在路线中的下标），
+ * 查询下一站时直接按下标读取，不需要解析完整的路线JSON再反向查找。
+ * 拒收时逆向路线追加在原路线后面，路线中会出现相同的机构，下标依然是唯一的
+ */
+public class CompactRoute {
+
+    private static final char SEPARATOR = ',';
+
+    private final long[] nodes;
+
+    private CompactRoute(long[] nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * 根据规划的路线创建
+     *
+     * @param transportLineNodeDTO 运输路线
+     * @return 紧凑路线
+     */
+    public static CompactRoute of(TransportLineNodeDTO transportLineNodeDTO) {
+        return new CompactRoute(toArray(transportLineNodeDTO.getNodeList()));
+    }
+
+    /**
+     * 解析route_nodes字段
+     *
+     * @param routeNodes 逗号分隔的机构id
+     * @return 紧凑路线，字段为空时返回null
+     */
+    public static CompactRoute parse(String routeNodes) {
+        if (StrUtil.isBlank(routeNodes)) {
+            return null;
+        }
+        //逐个字符解析，不创建中间字符串
+        long[] nodes = new long[StrUtil.count(routeNodes, SEPARATOR) + 1];
+        int size = 0;
+        long value = 0;
+        for (int i = 0; i < routeNodes.length(); i++) {
+            char c = routeNodes.charAt(i);
+            if (c == SEPARATOR) {
+                nodes[size++] = value;
+                value = 0;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        nodes[size] = value;
+        return new CompactRoute(nodes);
+    }
+
+    /**
+     * 从完整的路线JSON中解析，用于没有route_nodes字段的历史运单
+     *
+     * @param transportLine 运输路线JSON字符串
+     * @return 紧凑路线，路线为空时返回null
+     */
+    public static CompactRoute parseTransportLine(String transportLine) {
+        if (StrUtil.isBlank(transportLine)) {
+            return null;
+        }
+        JSONArray nodeList = JSONUtil.parseObj(transportLine).getJSONArray("nodeList");
+        if (CollUtil.isEmpty(nodeList)) {
+            return null;
+        }
+        long[] nodes = new long[nodeList.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = ((JSONObject) nodeList.get(i)).getLong("bid");
+        }
+        return new CompactRoute(nodes);
+    }
+
+    /**
+     * 追加路线，用于拒收后的逆向路线
+     *
+     * @param nodeList 追加的机构
+     * @return 新的紧凑路线
+     */
+    public CompactRoute append(List<OrganDTO> nodeList) {
+        long[] appended = toArray(nodeList);
+        long[] result = Arrays.copyOf(this.nodes, this.nodes.length + appended.length);
+        System.arraycopy(appended, 0, result, this.nodes.length, appended.length);
+        return new CompactRoute(result);
+    }
+
+    /**
+     * @return route_nodes字段的值
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder(this.nodes.length * 8);
+        for (int i = 0; i < this.nodes.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(this.nodes[i]);
+        }
+        return sb.toString();
+    }
+
+    public int size() {
+        return this.nodes.length;
+    }
+
+    /**
+     * @param index 下标
+     * @return 下标对应的机构id，下标越界返回null
+     */
+    public Long get(int index) {
+        return index >= 0 && index < this.nodes.length ? this.nodes[index] : null;
+    }
+
+    /**
+     * @param index 当前机构的下标
+     * @return 是否是路线的终点
+     */
+    public boolean isLast(int index) {
+        return index == this.nodes.length - 1;
+    }
+
+    /**
+     * 从后向前查找机构的下标，用于没有route_index的历史运单
+     *
+     * @param agencyId 机构id
+     * @return 下标，不存在返回-1
+     */
+    public int lastIndexOf(Long agencyId) {
+        if (null == agencyId) {
+            return -1;
+        }
+        for (int i = this.nodes.length - 1; i >= 0; i--) {
+            if (this.nodes[i] == agencyId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long[] toArray(List<OrganDTO> nodeList) {
+        return CollUtil.emptyIfNull(nodeList).stream().mapToLong(OrganDTO::getId).toArray();
+    }
+}
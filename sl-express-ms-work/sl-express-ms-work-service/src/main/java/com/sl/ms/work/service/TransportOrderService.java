@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.sl.ms.work.domain.dto.TransportOrderDTO;
 import com.sl.ms.work.domain.dto.request.TransportOrderQueryDTO;
 import com.sl.ms.work.domain.dto.response.TransportOrderStatusCountDTO;
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderSchedulingStatus;
 import com.sl.ms.work.domain.enums.transportorder.TransportOrderStatus;
 import com.sl.ms.work.entity.TransportOrderEntity;
 import com.sl.transport.common.util.PageResponse;
@@ -24,6 +25,14 @@ public interface TransportOrderService extends IService<TransportOrderEntity> {
      */
     TransportOrderEntity orderToTransportOrder(Long orderId);
 
+    /**
+     * 批量订单转运单，批量查询订单数据并一次插入，数据不完整的订单不会转换
+     *
+     * @param orderIds 订单号列表
+     * @return 订单对应的运单，包括之前已经转换的运单
+     */
+    List<TransportOrderEntity> orderToTransportOrders(List<Long> orderIds);
+
     /**
      * 获取运单分页数据
      *
@@ -80,6 +89,15 @@ public interface TransportOrderService extends IService<TransportOrderEntity> {
      */
     boolean updateByTaskId(Long taskId);
 
+    /**
+     * 批量修改运单的调度状态
+     *
+     * @param ids              运单id列表
+     * @param schedulingStatus 修改的调度状态
+     * @return 是否成功
+     */
+    boolean updateSchedulingStatus(List<String> ids, TransportOrderSchedulingStatus schedulingStatus);
+
     /**
      * 统计各个状态的数量
      *
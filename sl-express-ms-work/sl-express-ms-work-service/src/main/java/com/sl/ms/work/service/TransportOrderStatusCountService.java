@@ -0,0 +1,34 @@
+package com.sl.ms.work.service;
+
+import com.sl.ms.work.counter.StatusCountDelta;
+import com.sl.ms.work.domain.dto.response.TransportOrderStatusCountDTO;
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+
+import java.util.List;
+
+/**
+ * 运单状态数量 服务类
+ */
+public interface TransportOrderStatusCountService {
+
+    /**
+     * 写入状态数量的变化量，必须在修改运单的事务中调用
+     *
+     * @param delta 变化量
+     */
+    void apply(StatusCountDelta delta);
+
+    /**
+     * 统计各个运单状态的数量
+     *
+     * @return 状态数量数据，包含所有的状态
+     */
+    List<TransportOrderStatusCountDTO> findStatusCount();
+
+    /**
+     * 根据运单表校对状态数量，修正偏差
+     *
+     * @return 偏差，数量为实际数量减去统计的数量
+     */
+    List<TransportOrderStatusCountEntity> reconcile();
+}
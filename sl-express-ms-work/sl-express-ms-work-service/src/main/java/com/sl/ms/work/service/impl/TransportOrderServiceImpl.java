@@ -13,20 +13,21 @@ import cn.hutool.core.text.CharSequenceUtil;
 import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONArray;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.sl.ms.base.api.common.MQFeign;
-import com.sl.ms.oms.api.CargoFeign;
+import com.sl.mq.service.OutboxService;
 import com.sl.ms.oms.api.OrderFeign;
 import com.sl.ms.oms.dto.OrderCargoDTO;
-import com.sl.ms.oms.dto.OrderDTO;
 import com.sl.ms.oms.dto.OrderLocationDTO;
-import com.sl.ms.transport.api.OrganFeign;
 import com.sl.ms.transport.api.TransportLineFeign;
+import com.sl.ms.work.cache.OrganCache;
+import com.sl.ms.work.convert.OrderSnapshot;
+import com.sl.ms.work.convert.OrderSnapshotLoader;
+import com.sl.ms.work.counter.StatusCountDelta;
+import com.sl.ms.work.route.CompactRoute;
 import com.sl.ms.work.domain.dto.TransportOrderDTO;
 import com.sl.ms.work.domain.dto.request.TransportOrderQueryDTO;
 import com.sl.ms.work.domain.dto.response.TransportOrderStatusCountDTO;
@@ -39,11 +40,10 @@ import com.sl.ms.work.entity.TransportOrderTaskEntity;
 import com.sl.ms.work.mapper.TransportOrderMapper;
 import com.sl.ms.work.mapper.TransportOrderTaskMapper;
 import com.sl.ms.work.service.TransportOrderService;
+import com.sl.ms.work.service.TransportOrderStatusCountService;
 import com.sl.ms.work.service.TransportTaskService;
 import com.sl.transport.common.constant.Constants;
-import com.sl.transport.common.enums.IdEnum;
 import com.sl.transport.common.exception.SLException;
-import com.sl.transport.common.service.IdService;
 import com.sl.transport.common.util.Constant;
 import com.sl.transport.common.util.PageResponse;
 import com.sl.transport.common.vo.OrderMsg;
@@ -52,6 +52,7 @@ import com.sl.transport.common.vo.TransportOrderMsg;
 import com.sl.transport.common.vo.TransportOrderStatusMsg;
 import com.sl.transport.domain.OrganDTO;
 import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Example;
 import org.springframework.stereotype.Service;
@@ -60,10 +61,13 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import javax.json.JsonObject;
 import java.time.LocalDateTime;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -77,19 +81,16 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
     private OrderFeign orderFeign;
 
     @Resource
-    private MQFeign mqFeign;
-
-    @Resource
-    private CargoFeign cargoFeign;
+    private OutboxService outboxService;
 
     @Resource
     private TransportLineFeign transportLineFeign;
 
     @Resource
-    private IdService idService;
-    
+    private OrderSnapshotLoader orderSnapshotLoader;
+
     @Resource
-    private OrganFeign organFeign;
+    private OrganCache organCache;
 
     @Resource
     private TransportOrderTaskMapper transportOrderTaskMapper;
@@ -97,6 +98,9 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
     @Resource
     private TransportTaskService transportTaskService;
 
+    @Resource
+    private TransportOrderStatusCountService transportOrderStatusCountService;
+
     /**
      * 订单 转 运单
      * 运单状态: {@link TransportOrderStatus}
@@ -115,47 +119,81 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
         if (ObjectUtil.isNotEmpty(transportOrderEntity)) {
             return transportOrderEntity;
         }
-        //根据订单id 远程调用订单服务查询订单数据 为空抛异常  tips: 使用orderFeign
-        OrderDTO orderDTO = this.orderFeign.findById(orderId);
-        if (ObjectUtil.isEmpty(orderDTO)) {
-            throw new SLException(WorkExceptionEnum.ORDER_NOT_FOUND);
+        //并行查询订单、货物、位置、路线数据以及生成运单id，数据不完整时抛出异常
+        OrderSnapshot snapshot = this.orderSnapshotLoader.load(orderId);
+        //创建新的运单对象
+        TransportOrderEntity transportOrder = this.buildTransportOrder(snapshot);
+        //保存运单对象
+        boolean result = super.save(transportOrder);
+        if (result) {
+            //累加状态数量
+            this.transportOrderStatusCountService.apply(new StatusCountDelta().add(transportOrder));
+            //保存成功后需要发送各类消息
+            this.sendCreatedMsgs(transportOrder);
+            return transportOrder;
         }
-        //根据订单id 远程调用订单服务查询订单货物数据 为空抛异常  tips: 使用cargoFeign
-        OrderCargoDTO cargoDTO = this.cargoFeign.findByOrderId(orderId);
-        if (ObjectUtil.isEmpty(cargoDTO)) {
-            throw new SLException(WorkExceptionEnum.ORDER_CARGO_NOT_FOUND);
+        // 保存失败
+        throw new SLException(WorkExceptionEnum.TRANSPORT_ORDER_SAVE_ERROR);
+    }
+
+    @Transactional(rollbackFor = Exception.class, timeout = 120000)
+    @Override
+    public List<TransportOrderEntity> orderToTransportOrders(List<Long> orderIds) {
+        List<Long> orderIdList = CollUtil.distinct(CollUtil.removeNull(ListUtil.toList(orderIds)));
+        if (CollUtil.isEmpty(orderIdList)) {
+            return ListUtil.empty();
         }
-        //根据订单id 远程调用订单服务查询订单位置信息 为空抛异常 tips: 使用orderFeign
-        OrderLocationDTO orderLocationDTO = this.orderFeign.findOrderLocationByOrderId(orderId);
-        if (ObjectUtil.isEmpty(orderLocationDTO)) {
-            throw new SLException(WorkExceptionEnum.ORDER_LOCATION_NOT_FOUND);
+        //幂等性校验: 已经存在运单的订单不再转换
+        List<TransportOrderEntity> transportOrderList = ListUtil.toList(this.findByOrderIds(orderIdList.toArray(new Long[0])));
+        Set<Long> existOrderIds = transportOrderList.stream().map(TransportOrderEntity::getOrderId).collect(Collectors.toSet());
+        orderIdList.removeIf(existOrderIds::contains);
+        if (CollUtil.isEmpty(orderIdList)) {
+            return transportOrderList;
         }
-        //根据位置信息 获取 起始网点id 终点网点id
-        Long sendAgentId = Convert.toLong(orderLocationDTO.getSendAgentId());
-        Long receiveAgentId = Convert.toLong(orderLocationDTO.getReceiveAgentId());
-        //声明变量: 是否需要参与调度 isDispatch (后面判断后，如果参与调度需要向调度中心发消息)
-        boolean isDispatch = true;
-        //声明变量: TransportLineNodeDTO运输路线 默认null
-        TransportLineNodeDTO transportLineNodeDTO = null;
-        // 判断: 起始网点id 终点网点id是否相等
-        if (ObjectUtil.equals(sendAgentId, receiveAgentId)) {
-            // 如果相等: isDispatch设置为false  (说明不需要规划路线，直接发送消息生成派件任务即可)
-            isDispatch = false;
-        } else {
-            // 如果不相等:
-            // 根据调度配置，查询运输路线,路线没查到抛出异常   tips: transportLineFeign查询
-            transportLineNodeDTO = this.transportLineFeign.queryPathByDispatchMethod(sendAgentId, receiveAgentId);
-            if (ObjectUtil.isEmpty(transportLineNodeDTO) || CollUtil.isEmpty(transportLineNodeDTO.getNodeList())) {
-                throw new SLException(WorkExceptionEnum.TRANSPORT_LINE_NOT_FOUND);
+
+        //批量查询订单、货物、位置、路线数据
+        List<TransportOrderEntity> newTransportOrderList = new ArrayList<>();
+        for (OrderSnapshot snapshot : this.orderSnapshotLoader.load(orderIdList)) {
+            if (null != snapshot.getError()) {
+                log.error("订单转运单失败，orderId = {}, error = {}", snapshot.getOrderId(), snapshot.getError().getValue());
+                continue;
             }
+            newTransportOrderList.add(this.buildTransportOrder(snapshot));
+        }
+        if (CollUtil.isEmpty(newTransportOrderList)) {
+            return transportOrderList;
+        }
+        //一次批量插入
+        if (!super.saveBatch(newTransportOrderList)) {
+            throw new SLException(WorkExceptionEnum.TRANSPORT_ORDER_SAVE_ERROR);
         }
+        StatusCountDelta delta = new StatusCountDelta();
+        newTransportOrderList.forEach(delta::add);
+        this.transportOrderStatusCountService.apply(delta);
+        newTransportOrderList.forEach(this::sendCreatedMsgs);
+        transportOrderList.addAll(newTransportOrderList);
+        return transportOrderList;
+    }
+
+    /**
+     * 根据订单数据创建运单对象
+     *
+     * @param snapshot 订单数据
+     * @return 运单
+     */
+    private TransportOrderEntity buildTransportOrder(OrderSnapshot snapshot) {
+        //根据位置信息 获取 起始网点id 终点网点id
+        Long sendAgentId = snapshot.getSendAgentId();
+        Long receiveAgentId = snapshot.getReceiveAgentId();
+        //TransportLineNodeDTO运输路线，起始网点id 终点网点id相等时为null (说明不需要规划路线，直接发送消息生成派件任务即可)
+        TransportLineNodeDTO transportLineNodeDTO = snapshot.getTransportLine();
+        OrderCargoDTO cargoDTO = snapshot.getCargo();
 
-        //创建新的运单对象
         TransportOrderEntity transportOrder = new TransportOrderEntity();
         // 根据美团leaf服务 生成运单ID
-        transportOrder.setId(this.idService.getId(IdEnum.TRANSPORT_ORDER));
+        transportOrder.setId(snapshot.getTransportOrderId());
         // 补全属性: orderId StartAgencyId EndAgencyId CurrentAgencyId
-        transportOrder.setOrderId(orderId);//订单ID
+        transportOrder.setOrderId(snapshot.getOrderId());//订单ID
         transportOrder.setStartAgencyId(sendAgentId);//起始网点id
         transportOrder.setEndAgencyId(receiveAgentId);//终点网点id
         transportOrder.setCurrentAgencyId(sendAgentId);//当前所在机构id
@@ -171,38 +209,42 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
             transportOrder.setSchedulingStatus(TransportOrderSchedulingStatus.TO_BE_SCHEDULED);
             transportOrder.setNextAgencyId(transportLineNodeDTO.getNodeList().get(1).getId());
             transportOrder.setTransportLine(JSONUtil.toJsonStr(transportLineNodeDTO));
+            // 紧凑路线，当前在起点
+            transportOrder.setRouteNodes(CompactRoute.of(transportLineNodeDTO).encode());
+            transportOrder.setRouteIndex(0);
         }
         // 补全属性: TotalWeight 货品总重量，单位kg  IsRejection 默认非拒收订单
         transportOrder.setTotalWeight(cargoDTO.getVolume());
         transportOrder.setTotalVolume(cargoDTO.getWeight());
         transportOrder.setIsRejection(false);
-        //保存运单对象
-        boolean result = super.save(transportOrder);
-        if (result) {
-            //保存成功后需要发送各类消息
-            if (isDispatch) {
-                // 如果需要调度
-                // 发送消息到调度中心 参与运单调度 sendTransportOrderMsgToDispatch
-                this.sendTransportOrderMsgToDispatch(transportOrder);
-            } else {
-                // 如果不需要调度
-                // 发送消息 更新订单状态 sendUpdateStatusMsg
-                this.sendUpdateStatusMsg(ListUtil.toList(transportOrder.getId()), TransportOrderStatus.ARRIVED_END);
-                // 不需要调度，发送消息生成派件任务 sendDispatchTaskMsgToDispatch
-                this.sendDispatchTaskMsgToDispatch(transportOrder);
-            }
-            // 发送运单创建完成消息 sendTransportOrderCreated
-            String msg = TransportOrderMsg.builder()
-                    .id(transportOrder.getId())
-                    .orderId(transportOrder.getOrderId())
-                    .created(DateUtil.current())
-                    .build().toJson();
-            this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED,
-                    Constants.MQ.RoutingKeys.TRANSPORT_ORDER_CREATE, msg, Constants.MQ.NORMAL_DELAY);
-            return transportOrder;
+        return transportOrder;
+    }
+
+    /**
+     * 运单保存成功后发送各类消息
+     *
+     * @param transportOrder 运单
+     */
+    private void sendCreatedMsgs(TransportOrderEntity transportOrder) {
+        if (ObjectUtil.equals(transportOrder.getStatus(), TransportOrderStatus.CREATED)) {
+            // 如果需要调度
+            // 发送消息到调度中心 参与运单调度 sendTransportOrderMsgToDispatch
+            this.sendTransportOrderMsgToDispatch(transportOrder);
+        } else {
+            // 如果不需要调度
+            // 发送消息 更新订单状态 sendUpdateStatusMsg
+            this.sendUpdateStatusMsg(ListUtil.toList(transportOrder.getId()), TransportOrderStatus.ARRIVED_END);
+            // 不需要调度，发送消息生成派件任务 sendDispatchTaskMsgToDispatch
+            this.sendDispatchTaskMsgToDispatch(transportOrder);
         }
-        // 保存失败
-        throw new SLException(WorkExceptionEnum.TRANSPORT_ORDER_SAVE_ERROR);
+        // 发送运单创建完成消息，后续search搜索服务关注此消息
+        String msg = TransportOrderMsg.builder()
+                .id(transportOrder.getId())
+                .orderId(transportOrder.getOrderId())
+                .created(DateUtil.current())
+                .build().toJson();
+        this.outboxService.send(transportOrder.getId(), Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED,
+                Constants.MQ.RoutingKeys.TRANSPORT_ORDER_CREATE, msg, Constants.MQ.NORMAL_DELAY);
     }
 
     @Override
@@ -278,6 +320,7 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
      * @param transportOrderStatus 修改的状态
      * @return
      */
+    @Transactional(rollbackFor = Exception.class)
     @Override
     public boolean updateStatus(List<String> ids, TransportOrderStatus transportOrderStatus) {
         // TODO day06 修改运单状态
@@ -290,14 +333,28 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
             throw new SLException(WorkExceptionEnum.TRANSPORT_ORDER_STATUS_NOT_CREATED);
         }
         // 2. 声明运单集合变量: List<TransportOrderEntity>
-        List<TransportOrderEntity> transportOrderList = null;
+        List<TransportOrderEntity> transportOrderList;
+        boolean result;
+        // 状态数量的变化量，以锁定后查询到的运单为准
+        StatusCountDelta delta = new StatusCountDelta();
         // 判断运单状态
         // 3 如果是拒收状态，如果是拒收需要重新查询路线，将包裹逆向回去
         if (TransportOrderStatus.REJECTED == transportOrderStatus) {
-            // 3.1 根据ids查询运单列表
-            transportOrderList = super.listByIds(ids);
+            // 3.1 根据ids查询并锁定运单列表
+            transportOrderList = this.lockByIds(ids);
+            // 批量查询需要逆向调度的运输路线，起点和终点互换，一次远程调用完成
+            List<TransportLinePairDTO> pairs = transportOrderList.stream()
+                    .filter(transportOrderEntity -> ObjectUtil.notEqual(transportOrderEntity.getStartAgencyId(), transportOrderEntity.getEndAgencyId()))
+                    .map(transportOrderEntity -> new TransportLinePairDTO(transportOrderEntity.getEndAgencyId(), transportOrderEntity.getStartAgencyId()))
+                    .collect(Collectors.toList());
+            List<TransportLineNodeDTO> transportLineNodeList = CollUtil.isEmpty(pairs) ? ListUtil.empty()
+                    : this.transportLineFeign.queryPathByDispatchMethod(pairs);
+            int pathIndex = 0;
+            List<TransportOrderEntity> dispatchList = new ArrayList<>();
+            List<TransportOrderEntity> arrivedEndList = new ArrayList<>();
             // 3.2 遍历运单列表
             for (TransportOrderEntity transportOrderEntity : transportOrderList) {
+                delta.remove(transportOrderEntity);
                 // 3.2.1  设置拒收状态
                 transportOrderEntity.setIsRejection(true);
                 // 3.2.2  获取起始网点id 终点网点id (根据起始机构规划运输路线，这里要将起点和终点互换)
@@ -311,10 +368,10 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
                     isDispatch = false;
                 } else {
                     // 3.2.5  如果不等:
-                    // 3.2.5.1  根据调度获取运输路线 transportLineNodeDTO   tips: transportLineFeign
-                    TransportLineNodeDTO transportLineNodeDTO = this.transportLineFeign.queryPathByDispatchMethod(startAgencyId, endAgencyId);
+                    // 3.2.5.1  根据调度获取运输路线 transportLineNodeDTO，批量查询结果与运单的顺序一致
+                    TransportLineNodeDTO transportLineNodeDTO = transportLineNodeList.get(pathIndex++);
                     // 3.2.5.2  未查询到运输路线抛异常
-                    if (ObjectUtil.hasEmpty(transportLineNodeDTO, transportLineNodeDTO.getNodeList())) {
+                    if (ObjectUtil.isEmpty(transportLineNodeDTO) || CollUtil.isEmpty(transportLineNodeDTO.getNodeList())) {
                         throw new SLException(WorkExceptionEnum.TRANSPORT_LINE_NOT_FOUND);
                     }
                     // 3.2.5.3  删除掉第一个机构，逆向回去的第一个节点就是当前所在节点
@@ -325,53 +382,65 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
                     transportOrderEntity.setCurrentAgencyId(startAgencyId);
                     // 3.2.5.6  设置下一站网点机构ID
                     transportOrderEntity.setNextAgencyId(transportLineNodeDTO.getNodeList().get(0).getId());
+                    // 原有的紧凑路线，历史运单没有route_nodes时从原有运输路线中解析
+                    CompactRoute route = CompactRoute.parse(transportOrderEntity.getRouteNodes());
+                    if (null == route) {
+                        route = CompactRoute.parseTransportLine(transportOrderEntity.getTransportLine());
+                    }
                     // 3.2.5.7  获取运单中原有运输任务信息 将当前线路 追加到原有线路
                     TransportLineNodeDTO transportLineNode = JSONUtil.toBean(transportOrderEntity.getTransportLine(), TransportLineNodeDTO.class);
                     transportLineNode.getNodeList().addAll(transportLineNodeDTO.getNodeList());
                     // 3.2.5.8  合并成本 并重新设置运单线路信息
                     transportLineNode.setCost(NumberUtil.add(transportLineNode.getCost(),transportLineNodeDTO.getCost()));
                     transportOrderEntity.setTransportLine(JSONUtil.toJsonStr(transportLineNode));
+                    // 3.2.5.9  紧凑路线同样追加逆向路线，当前所在机构是原路线的终点
+                    transportOrderEntity.setRouteNodes(route.append(transportLineNodeDTO.getNodeList()).encode());
+                    transportOrderEntity.setRouteIndex(route.size() - 1);
                 }
                 // 3.2.6 设置运单为拒收状态
                 transportOrderEntity.setStatus(TransportOrderStatus.REJECTED);
-                // 3.2.7 判断如果需要调度  发送消息参与调度 sendTransportOrderMsgToDispatch
+                // 3.2.7 判断如果需要调度  参与调度
                 if (isDispatch) {
-                    this.sendTransportOrderMsgToDispatch(transportOrderEntity);
+                    dispatchList.add(transportOrderEntity);
                 } else {
-                    // 3.2.8 判断如果不需要调度  运单状态改为到达网点:  发送消息生成派件任务 sendDispatchTaskMsgToDispatch
+                    // 3.2.8 判断如果不需要调度  运单状态改为到达网点:  生成派件任务
                     transportOrderEntity.setStatus(TransportOrderStatus.ARRIVED_END);
-                    this.sendDispatchTaskMsgToDispatch(transportOrderEntity);
+                    arrivedEndList.add(transportOrderEntity);
                 }
+                delta.add(transportOrderEntity);
             }
+            // 3.3 批量发送消息参与调度、生成派件任务
+            this.sendTransportOrderMsgToDispatch(dispatchList);
+            this.sendDispatchTaskMsgToDispatch(arrivedEndList);
+            // 5. 批量更新 运单状态数据
+            result = super.updateBatchById(transportOrderList);
         } else {
-            // 4 如果不是拒收状态，遍历根据ids列表封装成运单对象列表
-            transportOrderList = ids.stream().map(id -> {
-                Long nextAgencyId = this.getById(id).getNextAgencyId();
-                OrganDTO organDTO = this.organFeign.queryById(nextAgencyId);
+            // 4 如果不是拒收状态，一次查询并锁定所有运单，机构名称通过本地缓存批量获取
+            transportOrderList = this.lockByIds(ids);
+            Map<Long, OrganDTO> organMap = this.organCache.findByIds(CollUtil.getFieldValues(transportOrderList, "nextAgencyId", Long.class));
+            Map<String, String> transportInfoMsgMap = new LinkedHashMap<>();
+            for (TransportOrderEntity transportOrderEntity : transportOrderList) {
                 //  构建消息实体类
-                String info = CharSequenceUtil.format("快件发往【{}】", organDTO.getName());
-                String transportInfoMsg = TransportInfoMsg.builder()
-                        .transportOrderId(id) //运单id
-                        .status("运送中") //消息状态
-                        .info(info) //消息详情
-                        .created(DateUtil.current()) //创建时间
-                        .build().toJson();
-                // 4.1 发送物流信息消息 sendTransportOrderInfoMsg      info: 快件已发往【$organId】
-                this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_INFO, Constants.MQ.RoutingKeys.TRANSPORT_INFO_APPEND, transportInfoMsg);
-                // 4.2 封装运单对象 TransportOrderEntity 只设置 id  status用于修改即可
-                TransportOrderEntity transportOrderEntity = new TransportOrderEntity();
-                transportOrderEntity.setId(id);
-                transportOrderEntity.setStatus(transportOrderStatus);
-                return transportOrderEntity;
-            }).collect(Collectors.toList());
+                String info = CharSequenceUtil.format("快件发往【{}】", OrganCache.getName(organMap, transportOrderEntity.getNextAgencyId()));
+                transportInfoMsgMap.put(transportOrderEntity.getId(), this.buildTransportInfoMsg(transportOrderEntity.getId(), info));
+                delta.status(transportOrderEntity.getStatus(), transportOrderStatus);
+            }
+            // 4.1 批量发送物流信息消息      info: 快件已发往【$organId】
+            this.outboxService.sendBatch(Constants.MQ.Exchanges.TRANSPORT_INFO, Constants.MQ.RoutingKeys.TRANSPORT_INFO_APPEND,
+                    transportInfoMsgMap, Constants.MQ.DEFAULT_DELAY);
+            // 4.2 只修改状态，一条update语句完成
+            result = super.update(new LambdaUpdateWrapper<TransportOrderEntity>()
+                    .set(TransportOrderEntity::getStatus, transportOrderStatus)
+                    .in(TransportOrderEntity::getId, ids));
         }
-        // 5. 批量更新 运单状态数据
-        boolean result = super.updateBatchById(transportOrderList);
+        // 累加状态数量，与运单的修改在同一个事务中
+        this.transportOrderStatusCountService.apply(delta);
         // 6. 发消息通知其他系统运单状态的变化 sendUpdateStatusMsg
         this.sendUpdateStatusMsg(ids, transportOrderStatus);
         return result;
     }
 
+    @Transactional(rollbackFor = Exception.class)
     @Override
     public boolean updateByTaskId(Long taskId) {
         // TODO day07 根据任务ID修改
@@ -381,69 +450,113 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
         if (CollUtil.isEmpty(transportOrderIdList)) {
             return false;
         }
-        //2 根据运单ids 查询运单列表
-        List<TransportOrderEntity> transportOrderList = super.listByIds(transportOrderIdList);
+        //2 根据运单ids 查询并锁定运单列表，机构名称通过本地缓存批量获取
+        List<TransportOrderEntity> transportOrderList = this.lockByIds(transportOrderIdList);
+        Map<Long, OrganDTO> organMap = this.organCache.findByIds(CollUtil.getFieldValues(transportOrderList, "nextAgencyId", Long.class));
+        //同一个任务中的运单路线大多相同，相同的路线只解析一次
+        Map<String, CompactRoute> routeMap = new HashMap<>();
+        Map<String, String> transportInfoMsgMap = new LinkedHashMap<>();
+        List<TransportOrderEntity> updateList = new ArrayList<>(transportOrderList.size());
+        List<TransportOrderEntity> dispatchList = new ArrayList<>();
+        List<TransportOrderEntity> arrivedEndList = new ArrayList<>();
+        StatusCountDelta delta = new StatusCountDelta();
         //3 遍历运单列表
         for (TransportOrderEntity transportOrder : transportOrderList) {
-            //3.1 发送物流跟踪信息      sendTransportOrderInfoMsg      info:快件到达【$organId】
-            OrganDTO organDTO = organFeign.queryById(transportOrder.getNextAgencyId());
-            String info = CharSequenceUtil.format("快件到达【{}】", organDTO.getName());
-            String transportInfoMsg = TransportInfoMsg.builder()
-                    .transportOrderId(transportOrder.getId())//运单id
-                    .status("运送中")//消息状态
-                    .info(info)//消息详情
-                    .created(DateUtil.current())//创建时间
-                    .build().toJson();
-            // 发送运单跟踪消息
-            this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_INFO, Constants.MQ.RoutingKeys.TRANSPORT_INFO_APPEND, transportInfoMsg);
+            delta.remove(transportOrder);
+            //3.1 物流跟踪信息      info:快件到达【$organId】
+            String info = CharSequenceUtil.format("快件到达【{}】", OrganCache.getName(organMap, transportOrder.getNextAgencyId()));
+            transportInfoMsgMap.put(transportOrder.getId(), this.buildTransportInfoMsg(transportOrder.getId(), info));
             //3.2 将运单 CurrentAgencyId 设置为 下一站机构ID
             transportOrder.setCurrentAgencyId(transportOrder.getNextAgencyId());
-            //3.3 解析完整运输路线  设置新下一站机构ID   tips: 注意运输路线格式  getTransportLine ==> 下的 nodeList为具体路线
-            String transportLine = transportOrder.getTransportLine();
-            JSONObject jsonObject = JSONUtil.parseObj(transportLine);
+            //3.3 获取紧凑路线，历史运单没有route_nodes时解析完整运输路线
+            boolean legacy = StrUtil.isBlank(transportOrder.getRouteNodes());
+            CompactRoute route = legacy
+                    ? routeMap.computeIfAbsent(transportOrder.getTransportLine(), CompactRoute::parseTransportLine)
+                    : routeMap.computeIfAbsent(transportOrder.getRouteNodes(), CompactRoute::parse);
+            //3.4 当前机构的下标: 正常情况下就是上一个下标+1；历史运单或者下标不一致时反向查找
+            //    tips: 反向查找主要是考虑到拒收的情况，路线中会存在相同的节点，始终可以查找到后面的节点
+            //          正常：A B C D E ，拒收：A B C D E D C B A
+            int index = -1;
+            if (null != route) {
+                Integer routeIndex = transportOrder.getRouteIndex();
+                index = null != routeIndex && ObjectUtil.equals(route.get(routeIndex + 1), transportOrder.getCurrentAgencyId())
+                        ? routeIndex + 1 : route.lastIndexOf(transportOrder.getCurrentAgencyId());
+            }
             Long nextAgencyId = 0L;
-            JSONArray nodeList = jsonObject.getJSONArray("nodeList");
-            //3.4 反向循环运输路线    tips: 反向循环主要是考虑到拒收的情况，路线中会存在相同的节点，始终可以查找到后面的节点
-            //                             正常：A B C D E ，拒收：A B C D E D C B A
-            for (int i = nodeList.size() - 1; i >= 0; i--) {
-                //3.4.1   获取路线节点bid (网点机构id)
-                JSONObject node = (JSONObject) nodeList.get(i);
-                //3.4.2   判断当前路线节点bid 是否与当前网点id相等
-                Long agencyId = node.getLong("bid");
-                //3.4.3   如果相等
-                if (ObjectUtil.equals(agencyId, transportOrder.getCurrentAgencyId())) {
-                    //3.4.3.1    判断 下标i 是否等于 节点集合size - 1 等于说明是最后一个网点
-                    if (i == nodeList.size() - 1) {
-                        // nextAgencyId = 当前路线节点网点
-                        nextAgencyId = agencyId;
-                        // 状态为 到达终端网点状态
-                        transportOrder.setStatus(TransportOrderStatus.ARRIVED_END);
-                        // 发送消息更新订单状态 sendUpdateStatusMsg
-                        this.sendUpdateStatusMsg(ListUtil.toList(transportOrder.getId()), TransportOrderStatus.ARRIVED_END);
-                    } else {
-                        //3.4.3.2    判断 下标i 是否等于 节点集合size - 1 不等于说明 i+1 就是下一站网点
-                        // nextAgencyId = 下标(i + 1)网点.bid
-                        nextAgencyId = ((JSONObject) nodeList.get(i + 1)).getLong("bid");
-                        //设置运单状态为待调度
-                        transportOrder.setSchedulingStatus(TransportOrderSchedulingStatus.TO_BE_SCHEDULED);
-                    }
-                    // 设置运单状态为待调度状态 break
-                    break;
+            if (index >= 0) {
+                if (route.isLast(index)) {
+                    //3.4.1 等于最后一个网点: 状态为 到达终端网点状态
+                    nextAgencyId = route.get(index);
+                    transportOrder.setStatus(TransportOrderStatus.ARRIVED_END);
+                } else {
+                    //3.4.2 不是最后一个网点: index+1 就是下一站网点，设置运单状态为待调度
+                    nextAgencyId = route.get(index + 1);
+                    transportOrder.setSchedulingStatus(TransportOrderSchedulingStatus.TO_BE_SCHEDULED);
                 }
             }
             //3.5 设置运单下一站网点id nextAgencyId
             transportOrder.setNextAgencyId(nextAgencyId);
-            //3.6 如果运单没有到达终点，需要发送消息到运单调度中心等待调度 sendTransportOrderMsgToDispatch
             if (ObjectUtil.notEqual(transportOrder.getStatus(), TransportOrderStatus.ARRIVED_END)) {
-                this.sendTransportOrderMsgToDispatch(transportOrder);
+                dispatchList.add(transportOrder);
             } else {
-                //3.7 如果已经到达最终网点，需要发送消息，进行分配快递员作业 sendDispatchTaskMsgToDispatch
-                //发送消息生成派件任务
-                this.sendDispatchTaskMsgToDispatch(transportOrder);
+                arrivedEndList.add(transportOrder);
+            }
+            //只更新变化的字段，不需要重新写入运输路线
+            TransportOrderEntity update = new TransportOrderEntity();
+            update.setId(transportOrder.getId());
+            update.setCurrentAgencyId(transportOrder.getCurrentAgencyId());
+            update.setNextAgencyId(transportOrder.getNextAgencyId());
+            update.setStatus(transportOrder.getStatus());
+            update.setSchedulingStatus(transportOrder.getSchedulingStatus());
+            update.setRouteIndex(index >= 0 ? index : null);
+            if (legacy && null != route) {
+                //历史运单补全紧凑路线
+                update.setRouteNodes(route.encode());
             }
+            updateList.add(update);
+            delta.add(transportOrder);
+        }
+        // 发送运单跟踪消息
+        this.outboxService.sendBatch(Constants.MQ.Exchanges.TRANSPORT_INFO, Constants.MQ.RoutingKeys.TRANSPORT_INFO_APPEND,
+                transportInfoMsgMap, Constants.MQ.DEFAULT_DELAY);
+        //3.6 如果运单没有到达终点，需要发送消息到运单调度中心等待调度
+        this.sendTransportOrderMsgToDispatch(dispatchList);
+        if (CollUtil.isNotEmpty(arrivedEndList)) {
+            //3.7 如果已经到达最终网点，发送消息更新订单状态，并进行分配快递员作业
+            this.sendUpdateStatusMsg(CollUtil.getFieldValues(arrivedEndList, "id", String.class), TransportOrderStatus.ARRIVED_END);
+            this.sendDispatchTaskMsgToDispatch(arrivedEndList);
+        }
+        //4. 批量更新运单信息，同一个事务中累加状态数量
+        boolean result = super.updateBatchById(updateList);
+        this.transportOrderStatusCountService.apply(delta);
+        return result;
+    }
+
+    @Transactional(rollbackFor = Exception.class)
+    @Override
+    public boolean updateSchedulingStatus(List<String> ids, TransportOrderSchedulingStatus schedulingStatus) {
+        if (CollUtil.isEmpty(ids)) {
+            return false;
         }
-        //4. 批量更新运单信息
-        return super.updateBatchById(transportOrderList);
+        StatusCountDelta delta = new StatusCountDelta();
+        this.lockByIds(ids).forEach(transportOrder -> delta.schedulingStatus(transportOrder.getSchedulingStatus(), schedulingStatus));
+        boolean result = super.update(new LambdaUpdateWrapper<TransportOrderEntity>()
+                .set(TransportOrderEntity::getSchedulingStatus, schedulingStatus)
+                .in(TransportOrderEntity::getId, ids));
+        this.transportOrderStatusCountService.apply(delta);
+        return result;
+    }
+
+    /**
+     * 查询并锁定运单，状态数量的变化量以锁定后的数据为准，并发修改同一个运单时不会重复计算
+     *
+     * @param ids 运单id列表
+     * @return 运单列表
+     */
+    private List<TransportOrderEntity> lockByIds(List<String> ids) {
+        return super.list(new LambdaQueryWrapper<TransportOrderEntity>()
+                .in(TransportOrderEntity::getId, ids)
+                .last("FOR UPDATE"));
     }
 
     /**
@@ -452,32 +565,8 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
      */
     @Override
     public List<TransportOrderStatusCountDTO> findStatusCount() {
-        // TODO day06 查询运单
-
-        // 统计不同状态的 运单数量
-        // 获取所有枚举状态，封装List<TransportOrderStatusCountDTO>集合，每个状态count值都是0
-        List<TransportOrderStatusCountDTO> statusCountList = Arrays.stream(TransportOrderStatus.values())
-                .map(transportOrderStatus -> TransportOrderStatusCountDTO.builder()
-                    .status(transportOrderStatus)
-                    .statusCode(transportOrderStatus.getCode())
-                    .count(0L).build())
-                .collect(Collectors.toList());
-
-        // [新建: 0,已装车: 0,运输中: 0,到达终端网点: 0,拒收: 0]
-        // 执行sql: SELECT `status` AS statusCode,count(1) AS count FROM sl_transport_order GROUP BY `status`
-        List<TransportOrderStatusCountDTO> statusCount = super.baseMapper.findStatusCount();
-        // [新建: 5, 运输中: 10,到达终端网点: 3]
-        // 根据查询到的 状态数量结果，修改上面完整集合中的状态数量
-        // [新建: 5,已装车: 10,运输中: 0,到达终端网点: 3,拒收: 0]
-        for (TransportOrderStatusCountDTO transportOrderStatusCountDTO : statusCountList) {
-            for (TransportOrderStatusCountDTO countDTO : statusCount) {
-                if (ObjectUtil.equals(transportOrderStatusCountDTO.getStatusCode(), countDTO.getStatusCode())) {
-                    transportOrderStatusCountDTO.setCount(countDTO.getCount());
-                    break;
-                }
-            }
-        }
-        return statusCountList;
+        // 读取增量维护的状态数量，不再对运单表分组统计
+        return this.transportOrderStatusCountService.findStatusCount();
     }
 
     /**
@@ -528,17 +617,27 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
      * 发送运单消息到调度中，参与调度
      */
     private void sendTransportOrderMsgToDispatch(TransportOrderEntity transportOrder) {
-        Map<Object, Object> msg = MapUtil.builder()
-                .put("transportOrderId", transportOrder.getId())
-                .put("currentAgencyId", transportOrder.getCurrentAgencyId())
-                .put("nextAgencyId", transportOrder.getNextAgencyId())
-                .put("totalWeight", transportOrder.getTotalWeight())
-                .put("totalVolume", transportOrder.getTotalVolume())
-                .put("created", System.currentTimeMillis()).build();
-        String jsonMsg = JSONUtil.toJsonStr(msg);
+        this.sendTransportOrderMsgToDispatch(ListUtil.toList(transportOrder));
+    }
+
+    /**
+     * 批量发送运单消息到调度中，参与调度
+     */
+    private void sendTransportOrderMsgToDispatch(List<TransportOrderEntity> transportOrderList) {
+        Map<String, String> msgMap = new LinkedHashMap<>();
+        for (TransportOrderEntity transportOrder : transportOrderList) {
+            Map<Object, Object> msg = MapUtil.builder()
+                    .put("transportOrderId", transportOrder.getId())
+                    .put("currentAgencyId", transportOrder.getCurrentAgencyId())
+                    .put("nextAgencyId", transportOrder.getNextAgencyId())
+                    .put("totalWeight", transportOrder.getTotalWeight())
+                    .put("totalVolume", transportOrder.getTotalVolume())
+                    .put("created", System.currentTimeMillis()).build();
+            msgMap.put(transportOrder.getId(), JSONUtil.toJsonStr(msg));
+        }
         //发送消息，延迟5秒，确保本地事务已经提交，可以查询到数据
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED,
-                Constants.MQ.RoutingKeys.JOIN_DISPATCH, jsonMsg, Constants.MQ.LOW_DELAY);
+        this.outboxService.sendBatch(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED,
+                Constants.MQ.RoutingKeys.JOIN_DISPATCH, msgMap, Constants.MQ.LOW_DELAY);
     }
 
     /**
@@ -547,6 +646,18 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
      * @param transportOrder 运单对象
      */
     private void sendDispatchTaskMsgToDispatch(TransportOrderEntity transportOrder) {
+        this.sendDispatchTaskMsgToDispatch(ListUtil.toList(transportOrder));
+    }
+
+    /**
+     * 批量发送生成派件任务的消息，订单位置信息一次查询
+     *
+     * @param transportOrderList 运单列表
+     */
+    private void sendDispatchTaskMsgToDispatch(List<TransportOrderEntity> transportOrderList) {
+        if (CollUtil.isEmpty(transportOrderList)) {
+            return;
+        }
         //预计完成时间，如果是中午12点到的快递，当天22点前，否则，第二天22点前
         int offset = 0;
         if (LocalDateTime.now().getHour() >= 12) {
@@ -557,16 +668,26 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
                 .setField(DateField.MINUTE, 0)
                 .setField(DateField.SECOND, 0)
                 .setField(DateField.MILLISECOND, 0).toLocalDateTime();
-        //发送分配快递员派件任务的消息
-        OrderMsg orderMsg = OrderMsg.builder()
-                .agencyId(transportOrder.getCurrentAgencyId())
-                .orderId(transportOrder.getOrderId())
-                .created(DateUtil.current())
-                .taskType(PickupDispatchTaskType.DISPATCH.getCode()) //派件任务
-                .mark("系统提示：派件前请与收件人电话联系.")
-                .estimatedEndTime(estimatedEndTime).build();
-        //发送消息
-        this.sendPickupDispatchTaskMsgToDispatch(transportOrder, orderMsg);
+        //查询订单对应的位置信息
+        List<String> orderIds = transportOrderList.stream().map(transportOrder -> String.valueOf(transportOrder.getOrderId())).collect(Collectors.toList());
+        Map<Long, OrderLocationDTO> locationMap = CollUtil.emptyIfNull(this.orderFeign.findOrderLocationByOrderIds(orderIds)).stream()
+                .collect(Collectors.toMap(OrderLocationDTO::getOrderId, orderLocationDTO -> orderLocationDTO, (a, b) -> a));
+        Map<Long, String> msgMap = new LinkedHashMap<>();
+        for (TransportOrderEntity transportOrder : transportOrderList) {
+            //发送分配快递员派件任务的消息
+            OrderMsg orderMsg = OrderMsg.builder()
+                    .agencyId(transportOrder.getCurrentAgencyId())
+                    .orderId(transportOrder.getOrderId())
+                    .created(DateUtil.current())
+                    .taskType(PickupDispatchTaskType.DISPATCH.getCode()) //派件任务
+                    .mark("系统提示：派件前请与收件人电话联系.")
+                    .estimatedEndTime(estimatedEndTime).build();
+            this.fillLocation(transportOrder, orderMsg, locationMap.get(transportOrder.getOrderId()));
+            msgMap.put(orderMsg.getOrderId(), orderMsg.toJson());
+        }
+        //发送消息,用于生成取派件任务
+        this.outboxService.sendBatch(Constants.MQ.Exchanges.ORDER_DELAYED, Constants.MQ.RoutingKeys.ORDER_CREATE,
+                msgMap, Constants.MQ.NORMAL_DELAY);
     }
 
     /**
@@ -578,9 +699,22 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
     public void sendPickupDispatchTaskMsgToDispatch(TransportOrderEntity transportOrder, OrderMsg orderMsg) {
         //查询订单对应的位置信息
         OrderLocationDTO orderLocationDTO = this.orderFeign.findOrderLocationByOrderId(orderMsg.getOrderId());
-        //(1)运单为空：取件任务取消，取消原因为返回网点；重新调度位置取寄件人位置
-        //(2)运单不为空：生成的是派件任务，需要根据拒收状态判断位置是寄件人还是收件人
-        // 拒收：寄件人  其他：收件人
+        this.fillLocation(transportOrder, orderMsg, orderLocationDTO);
+        //发送消息,用于生成取派件任务
+        this.outboxService.send(orderMsg.getOrderId(), Constants.MQ.Exchanges.ORDER_DELAYED, Constants.MQ.RoutingKeys.ORDER_CREATE,
+                orderMsg.toJson(), Constants.MQ.NORMAL_DELAY);
+    }
+
+    /**
+     * 设置消息中的位置信息
+     * (1)运单为空：取件任务取消，取消原因为返回网点；重新调度位置取寄件人位置
+     * (2)运单不为空：生成的是派件任务，需要根据拒收状态判断位置是寄件人还是收件人
+     * 拒收：寄件人  其他：收件人
+     */
+    private void fillLocation(TransportOrderEntity transportOrder, OrderMsg orderMsg, OrderLocationDTO orderLocationDTO) {
+        if (ObjectUtil.isEmpty(orderLocationDTO)) {
+            throw new SLException(WorkExceptionEnum.ORDER_LOCATION_NOT_FOUND);
+        }
         String location;
         if (ObjectUtil.isEmpty(transportOrder)) {
             location = orderLocationDTO.getSendLocation();
@@ -593,54 +727,40 @@ public class TransportOrderServiceImpl extends ServiceImpl<TransportOrderMapper,
         //设置消息中的位置信息
         orderMsg.setLongitude(longitude);
         orderMsg.setLatitude(latitude);
-        //发送消息,用于生成取派件任务
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.ORDER_DELAYED, Constants.MQ.RoutingKeys.ORDER_CREATE,
-                orderMsg.toJson(), Constants.MQ.NORMAL_DELAY);
     }
 
     /**
      * 消息会发送到订单服务  根据运单状态修改订单状态
-     * @param ids
-     * @param transportOrderStatus
+     * <p>
+     * 每个运单一条消息，以运单id作为聚合id，与该运单的其他消息按顺序发送
+     *
+     * @param ids                  运单id列表
+     * @param transportOrderStatus 运单状态
      */
     private void sendUpdateStatusMsg(List<String> ids, TransportOrderStatus transportOrderStatus) {
         // 订单服务 监听此消息  用于修改order状态
-        String msg = TransportOrderStatusMsg.builder()
-                .idList(ids)
-                .statusName(transportOrderStatus.name())
-                .statusCode(transportOrderStatus.getCode())
-                .build().toJson();
+        Map<String, String> msgMap = new LinkedHashMap<>(ids.size());
+        for (String id : ids) {
+            msgMap.put(id, TransportOrderStatusMsg.builder()
+                    .idList(ListUtil.toList(id))
+                    .statusName(transportOrderStatus.name())
+                    .statusCode(transportOrderStatus.getCode())
+                    .build().toJson());
+        }
         //将状态名称写入到路由key中，方便消费方选择性的接收消息
         String routingKey = Constants.MQ.RoutingKeys.TRANSPORT_ORDER_UPDATE_STATUS_PREFIX + transportOrderStatus.name();
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED, routingKey, msg, Constants.MQ.LOW_DELAY);
-    }
-
-    private void sendTransportOrderCreated(TransportOrderEntity transportOrder) {
-        // 后续search搜索服务关注此消息
-        String msg = TransportOrderMsg.builder()
-                .id(transportOrder.getId())
-                .orderId(transportOrder.getOrderId())
-                .created(DateUtil.current())
-                .build().toJson();
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED,
-                Constants.MQ.RoutingKeys.TRANSPORT_ORDER_CREATE, msg, Constants.MQ.NORMAL_DELAY);
+        this.outboxService.sendBatch(Constants.MQ.Exchanges.TRANSPORT_ORDER_DELAYED, routingKey, msgMap, Constants.MQ.LOW_DELAY);
     }
 
-    private void sendTransportOrderInfoMsg(String id,String info){
-        this.sendTransportOrderInfoMsg(this.getById(id),info);
-    }
-    private void sendTransportOrderInfoMsg(TransportOrderEntity transportOrder,String info){
-        //获取将发往的目的地机构
-        Long nextAgencyId = transportOrder.getNextAgencyId();
-        //构建消息实体类
-        String transportInfoMsg = TransportInfoMsg.builder()
-                .transportOrderId(transportOrder.getId())//运单id
-                .status("运送中")//消息状态
-                .info(info)//消息详情
-                .organId(nextAgencyId)
-                .created(DateUtil.current())//创建时间
+    /**
+     * 构建运送中的物流信息消息
+     */
+    private String buildTransportInfoMsg(String transportOrderId, String info) {
+        return TransportInfoMsg.builder()
+                .transportOrderId(transportOrderId) //运单id
+                .status("运送中") //消息状态
+                .info(info) //消息详情
+                .created(DateUtil.current()) //创建时间
                 .build().toJson();
-        //发送运单跟踪消息
-        this.mqFeign.sendMsg(Constants.MQ.Exchanges.TRANSPORT_INFO, Constants.MQ.RoutingKeys.TRANSPORT_INFO_APPEND, transportInfoMsg);
     }
 }
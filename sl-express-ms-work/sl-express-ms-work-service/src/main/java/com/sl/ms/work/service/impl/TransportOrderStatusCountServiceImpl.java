@@ -0,0 +1,87 @@
+package com.sl.ms.work.service.impl;
+
+import cn.hutool.core.collection.CollUtil;
+import com.sl.ms.work.counter.StatusCountDelta;
+import com.sl.ms.work.domain.dto.response.TransportOrderStatusCountDTO;
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderStatus;
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+import com.sl.ms.work.mapper.TransportOrderStatusCountMapper;
+import com.sl.ms.work.service.TransportOrderStatusCountService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * 运单状态数量 服务实现类
+ * <p>
+ * 运单新增、修改状态时在同一个事务中累加数量，统计时只需要读取数量表，与运单表的数据量无关；
+ * 每次写入随机选择一个槽位，高并发修改同一个状态时不会集中在一行上
+ */
+@Slf4j
+@Service
+public class TransportOrderStatusCountServiceImpl implements TransportOrderStatusCountService {
+
+    @Resource
+    private TransportOrderStatusCountMapper transportOrderStatusCountMapper;
+
+    /**
+     * 每个状态的槽位数量
+     */
+    @Value("${sl.work.status-count.slots:8}")
+    private Integer slots;
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(StatusCountDelta delta) {
+        List<TransportOrderStatusCountEntity> list = delta.toList(ThreadLocalRandom.current().nextInt(this.slots));
+        if (CollUtil.isNotEmpty(list)) {
+            this.transportOrderStatusCountMapper.increment(list);
+        }
+    }
+
+    @Override
+    public List<TransportOrderStatusCountDTO> findStatusCount() {
+        Map<Integer, Long> countMap = this.transportOrderStatusCountMapper.sumByType(TransportOrderStatusCountEntity.TYPE_STATUS)
+                .stream().collect(Collectors.toMap(TransportOrderStatusCountEntity::getStatusCode, TransportOrderStatusCountEntity::getCount));
+        //包含所有的状态，没有数量的状态为0
+        return Arrays.stream(TransportOrderStatus.values())
+                .map(transportOrderStatus -> TransportOrderStatusCountDTO.builder()
+                        .status(transportOrderStatus)
+                        .statusCode(transportOrderStatus.getCode())
+                        .count(countMap.getOrDefault(transportOrderStatus.getCode(), 0L))
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 可重复读的事务中，两次查询读取的是同一个快照，运单表的统计结果与数量表之间不受并发修改的影响；
+     * 偏差以累加的方式写入，快照之后提交的修改同时体现在两张表中，不会被覆盖
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.REPEATABLE_READ)
+    public List<TransportOrderStatusCountEntity> reconcile() {
+        List<TransportOrderStatusCountEntity> actualList = this.transportOrderStatusCountMapper.countFromTransportOrder();
+        List<TransportOrderStatusCountEntity> countedList = this.transportOrderStatusCountMapper.sumAll();
+
+        //偏差 = 实际数量 - 统计的数量
+        StatusCountDelta delta = new StatusCountDelta();
+        actualList.forEach(actual -> delta.add(actual.getStatusType(), actual.getStatusCode(), actual.getCount()));
+        countedList.forEach(counted -> delta.add(counted.getStatusType(), counted.getStatusCode(), -counted.getCount()));
+        List<TransportOrderStatusCountEntity> driftList = delta.toList(0);
+        if (CollUtil.isNotEmpty(driftList)) {
+            log.warn("运单状态数量存在偏差，已修正，driftList = {}", driftList);
+            this.transportOrderStatusCountMapper.increment(driftList);
+        }
+        return driftList;
+    }
+}
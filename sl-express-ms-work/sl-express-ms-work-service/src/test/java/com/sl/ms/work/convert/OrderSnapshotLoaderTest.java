@@ -0,0 +1,206 @@
+package com.sl.ms.work.convert;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.sl.ms.oms.api.CargoFeign;
+import com.sl.ms.oms.api.OrderFeign;
+import com.sl.ms.oms.dto.OrderCargoDTO;
+import com.sl.ms.oms.dto.OrderDTO;
+import com.sl.ms.oms.dto.OrderLocationDTO;
+import com.sl.ms.transport.api.TransportLineFeign;
+import com.sl.ms.work.domain.enums.WorkExceptionEnum;
+import com.sl.transport.common.enums.IdEnum;
+import com.sl.transport.common.service.IdService;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import com.sl.transport.domain.TransportLinePairDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用模拟的Feign客户端验证单个订单的并行查询以及批量查询的调用次数
+ */
+class OrderSnapshotLoaderTest {
+
+    private static final int ORDERS = 50;
+
+    private OrderSnapshotLoader loader;
+    /**
+     * 远程调用开始时执行的动作，用于验证调用是否并行
+     */
+    private final Map<String, Runnable> hookMap = new ConcurrentHashMap<>();
+    /**
+     * 每个远程调用的调用次数
+     */
+    private final Map<String, AtomicInteger> callMap = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        this.loader = new OrderSnapshotLoader();
+        ReflectUtil.setFieldValue(this.loader, "orderFeign", this.stub(OrderFeign.class));
+        ReflectUtil.setFieldValue(this.loader, "cargoFeign", this.stub(CargoFeign.class));
+        ReflectUtil.setFieldValue(this.loader, "transportLineFeign", this.stub(TransportLineFeign.class));
+        ReflectUtil.setFieldValue(this.loader, "idService", new StubIdService());
+        ReflectUtil.setFieldValue(this.loader, "threads", 16);
+        ReflectUtil.setFieldValue(this.loader, "queueCapacity", 1000);
+        ReflectUtil.setFieldValue(this.loader, "timeout", 10000L);
+        this.loader.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.loader.destroy();
+    }
+
+    @Test
+    void load() {
+        OrderSnapshot snapshot = this.loader.load(1L);
+        assertEquals(1L, snapshot.getCargo().getOrderId());
+        assertEquals(2, snapshot.getTransportLine().getNodeList().size());
+        assertNotNull(snapshot.getTransportOrderId());
+        assertNull(snapshot.getError());
+    }
+
+    @Test
+    void loadBatchWithMissingData() {
+        //订单id为0的订单没有货物
+        List<OrderSnapshot> snapshots = this.loader.load(List.of(1L, 0L, 2L));
+        assertEquals(List.of(1L, 0L, 2L), snapshots.stream().map(OrderSnapshot::getOrderId).collect(Collectors.toList()));
+        assertEquals(WorkExceptionEnum.ORDER_CARGO_NOT_FOUND, snapshots.get(1).getError());
+        assertNull(snapshots.get(1).getTransportOrderId());
+        assertNotNull(snapshots.get(0).getTransportOrderId());
+        assertNotNull(snapshots.get(2).getTransportLine());
+    }
+
+    @Test
+    void parallel() {
+        //订单、货物、位置、运单id同时查询，否则等待超时
+        CyclicBarrier barrier = new CyclicBarrier(4);
+        Runnable await = () -> {
+            try {
+                barrier.await(500, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        List.of("findById", "findByOrderId", "findOrderLocationByOrderId", "getId").forEach(method -> this.hookMap.put(method, await));
+
+        OrderSnapshot snapshot = this.loader.load(1L);
+        assertNotNull(snapshot.getTransportOrderId());
+        assertNotNull(snapshot.getTransportLine());
+    }
+
+    @Test
+    void batch() {
+        List<Long> orderIds = LongStream.rangeClosed(1, ORDERS).boxed().collect(Collectors.toList());
+        List<OrderSnapshot> snapshots = this.loader.load(orderIds);
+        assertTrue(snapshots.stream().allMatch(snapshot -> null == snapshot.getError()));
+        //订单、货物、位置、路线每批只调用一次，运单id每个订单一次
+        assertEquals(1, this.calls("findByIds"));
+        assertEquals(1, this.calls("list"));
+        assertEquals(1, this.calls("findOrderLocationByOrderIds"));
+        assertEquals(1, this.calls("queryPathByDispatchMethod"));
+        assertEquals(ORDERS, this.calls("getId"));
+        assertEquals(0, this.calls("findById"));
+    }
+
+    private int calls(String method) {
+        return this.callMap.getOrDefault(method, new AtomicInteger()).get();
+    }
+
+    private void call(String method) {
+        this.callMap.computeIfAbsent(method, key -> new AtomicInteger()).incrementAndGet();
+        this.hookMap.getOrDefault(method, () -> {
+        }).run();
+    }
+
+    /**
+     * 模拟的Feign客户端，订单id为0时没有货物
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T stub(Class<T> feignClass) {
+        return (T) Proxy.newProxyInstance(feignClass.getClassLoader(), new Class[]{feignClass}, (proxy, method, args) -> {
+            this.call(method.getName());
+            switch (method.getName()) {
+                case "findById":
+                    return order((Long) args[0]);
+                case "findByIds":
+                    return ((List<String>) args[0]).stream().map(id -> order(Long.valueOf(id))).collect(Collectors.toList());
+                case "findByOrderId":
+                    return cargo((Long) args[0]);
+                case "list":
+                    return ((List<Long>) args[0]).stream().map(OrderSnapshotLoaderTest::cargo)
+                            .filter(cargo -> null != cargo).collect(Collectors.toList());
+                case "findOrderLocationByOrderId":
+                    return location((Long) args[0]);
+                case "findOrderLocationByOrderIds":
+                    return ((List<String>) args[0]).stream().map(id -> location(Long.valueOf(id))).collect(Collectors.toList());
+                case "queryPathByDispatchMethod":
+                    if (args.length == 2) {
+                        return line((Long) args[0], (Long) args[1]);
+                    }
+                    return ((List<TransportLinePairDTO>) args[0]).stream()
+                            .map(pair -> line(pair.getStartId(), pair.getEndId())).collect(Collectors.toList());
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static OrderDTO order(Long id) {
+        OrderDTO orderDTO = new OrderDTO();
+        orderDTO.setId(id);
+        return orderDTO;
+    }
+
+    private static OrderCargoDTO cargo(Long orderId) {
+        if (orderId == 0) {
+            return null;
+        }
+        OrderCargoDTO cargoDTO = new OrderCargoDTO();
+        cargoDTO.setOrderId(orderId);
+        return cargoDTO;
+    }
+
+    private static OrderLocationDTO location(Long orderId) {
+        OrderLocationDTO locationDTO = new OrderLocationDTO();
+        locationDTO.setOrderId(orderId);
+        locationDTO.setSendAgentId("1");
+        locationDTO.setReceiveAgentId("2");
+        return locationDTO;
+    }
+
+    private static TransportLineNodeDTO line(Long startId, Long endId) {
+        TransportLineNodeDTO transportLineNodeDTO = new TransportLineNodeDTO();
+        for (Long id : List.of(startId, endId)) {
+            OrganDTO organDTO = new OrganDTO();
+            organDTO.setId(id);
+            transportLineNodeDTO.getNodeList().add(organDTO);
+        }
+        return transportLineNodeDTO;
+    }
+
+    private class StubIdService extends IdService {
+
+        private final AtomicLong id = new AtomicLong();
+
+        @Override
+        public String getId(IdEnum idEnum) {
+            call("getId");
+            return idEnum.getPrefix() + this.id.incrementAndGet();
+        }
+    }
+}
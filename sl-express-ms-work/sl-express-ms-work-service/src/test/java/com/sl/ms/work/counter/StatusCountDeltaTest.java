@@ -0,0 +1,45 @@
+package com.sl.ms.work.counter;
+
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderSchedulingStatus;
+import com.sl.ms.work.domain.enums.transportorder.TransportOrderStatus;
+import com.sl.ms.work.entity.TransportOrderEntity;
+import com.sl.ms.work.entity.TransportOrderStatusCountEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatusCountDeltaTest {
+
+    @Test
+    void addAndChange() {
+        TransportOrderEntity transportOrder = new TransportOrderEntity()
+                .setStatus(TransportOrderStatus.CREATED)
+                .setSchedulingStatus(TransportOrderSchedulingStatus.TO_BE_SCHEDULED);
+        StatusCountDelta delta = new StatusCountDelta().add(transportOrder).add(transportOrder);
+        //其中一个运单装车
+        delta.status(TransportOrderStatus.CREATED, TransportOrderStatus.LOADED);
+
+        List<TransportOrderStatusCountEntity> list = delta.toList(3);
+        assertEquals(List.of(
+                new TransportOrderStatusCountEntity(TransportOrderStatusCountEntity.TYPE_STATUS, TransportOrderStatus.CREATED.getCode(), 3, 1L),
+                new TransportOrderStatusCountEntity(TransportOrderStatusCountEntity.TYPE_STATUS, TransportOrderStatus.LOADED.getCode(), 3, 1L),
+                new TransportOrderStatusCountEntity(TransportOrderStatusCountEntity.TYPE_SCHEDULING_STATUS, TransportOrderSchedulingStatus.TO_BE_SCHEDULED.getCode(), 3, 2L)
+        ), list);
+    }
+
+    @Test
+    void unchanged() {
+        TransportOrderEntity transportOrder = new TransportOrderEntity()
+                .setStatus(TransportOrderStatus.PROCESSING)
+                .setSchedulingStatus(TransportOrderSchedulingStatus.SCHEDULED);
+        StatusCountDelta delta = new StatusCountDelta().remove(transportOrder);
+        transportOrder.setCurrentAgencyId(1L);
+        delta.add(transportOrder)
+                .status(TransportOrderStatus.LOADED, TransportOrderStatus.LOADED)
+                .schedulingStatus(null, null);
+        //没有变化的状态不写入
+        assertTrue(delta.toList(0).isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package com.sl.ms.work.route;
+
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * 查询下一站：解析完整路线JSON后反向查找 与 紧凑路线按下标读取 的对比
+ * <p>
+ * 执行：运行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactRouteBenchmark {
+
+    /**
+     * 路线中的机构数量，拒收后路线长度接近翻倍
+     */
+    @Param({"5", "20"})
+    private int nodeSize;
+
+    private String transportLine;
+    private String routeNodes;
+    private Long currentAgencyId;
+    private int routeIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Long[] ids = LongStream.range(0, this.nodeSize).map(i -> 1024981239465110017L + i).boxed().toArray(Long[]::new);
+        this.transportLine = JSONUtil.toJsonStr(CompactRouteTest.line(ids));
+        this.routeNodes = CompactRoute.of(CompactRouteTest.line(ids)).encode();
+        //到达路线中间的机构
+        this.routeIndex = this.nodeSize / 2 - 1;
+        this.currentAgencyId = ids[this.routeIndex + 1];
+    }
+
+    @Benchmark
+    public Long legacy() {
+        //原有方式：解析完整的路线，反向查找当前机构
+        JSONArray nodeList = JSONUtil.parseObj(this.transportLine).getJSONArray("nodeList");
+        for (int i = nodeList.size() - 1; i >= 0; i--) {
+            Long agencyId = ((JSONObject) nodeList.get(i)).getLong("bid");
+            if (ObjectUtil.equals(agencyId, this.currentAgencyId)) {
+                return i == nodeList.size() - 1 ? agencyId : ((JSONObject) nodeList.get(i + 1)).getLong("bid");
+            }
+        }
+        return 0L;
+    }
+
+    @Benchmark
+    public Long compact() {
+        //紧凑路线：当前机构的下标是上一个下标+1，下一站直接读取
+        CompactRoute route = CompactRoute.parse(this.routeNodes);
+        int index = this.routeIndex + 1;
+        return route.isLast(index) ? route.get(index) : route.get(index + 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompactRouteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,59 @@
+package com.sl.ms.work.route;
+
+import cn.hutool.json.JSONUtil;
+import com.sl.transport.domain.OrganDTO;
+import com.sl.transport.domain.TransportLineNodeDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactRouteTest {
+
+    @Test
+    void encodeAndParse() {
+        CompactRoute route = CompactRoute.of(line(1024981239465110017L, 1012479939628238305L, 1012438698496623009L));
+        String routeNodes = route.encode();
+        assertEquals("1024981239465110017,1012479939628238305,1012438698496623009", routeNodes);
+
+        CompactRoute parsed = CompactRoute.parse(routeNodes);
+        assertEquals(3, parsed.size());
+        assertEquals(1012479939628238305L, parsed.get(1));
+        assertTrue(parsed.isLast(2));
+        assertNull(parsed.get(3));
+        assertNull(CompactRoute.parse(null));
+    }
+
+    @Test
+    void parseTransportLine() {
+        //与运单中保存的格式一致，机构id序列化为bid
+        String transportLine = JSONUtil.toJsonStr(line(1L, 2L, 3L));
+        assertEquals("1,2,3", CompactRoute.parseTransportLine(transportLine).encode());
+    }
+
+    @Test
+    void appendRejected() {
+        //拒收：A B C 逆向追加 B A，相同的机构按下标区分
+        CompactRoute route = CompactRoute.parse("1,2,3").append(line(2L, 1L).getNodeList());
+        assertEquals("1,2,3,2,1", route.encode());
+        assertEquals(3, route.lastIndexOf(2L));
+        assertEquals(1L, route.get(4));
+    }
+
+    static TransportLineNodeDTO line(Long... ids) {
+        TransportLineNodeDTO transportLineNodeDTO = new TransportLineNodeDTO();
+        transportLineNodeDTO.setNodeList(List.of(ids).stream().map(id -> {
+            OrganDTO organDTO = new OrganDTO();
+            organDTO.setId(id);
+            organDTO.setName("机构" + id);
+            organDTO.setType(3);
+            organDTO.setAddress("北京市昌平区建材城西路金燕龙办公楼");
+            organDTO.setLatitude(40.06);
+            organDTO.setLongitude(116.34);
+            return organDTO;
+        }).collect(Collectors.toList()));
+        return transportLineNodeDTO;
+    }
+}